@@ -1,9 +1,43 @@
 package com.example.demo;
 
-/** 
- * Represents a single allocation requirement for one customer in one specific hour.
+/**
+ * Represents a single allocation requirement for one customer over an interval of buckets.
+ *
+ * {@code span} tells which buckets the request is active in, as made by
+ * {@link TimeBuckets#span(int, int)}, counted from the first bucket of the hour the request is
+ * stored under; a request that covers only that hour's every bucket has
+ * {@link TimeBuckets#WHOLE_HOUR}.
+ *
+ * The customer is held as its {@link CustomerDictionary} id. {@code count} is the number of
+ * identical requests folded into this one by the combiner. The orchestrator treats it as that
+ * many separate requests, so combining never changes how capacity is shared out.
+ *
+ * {@code firstArrival} and {@code lastArrival} are the input byte offsets of the earliest and
+ * latest rows folded into the request. The orchestrator lists customers in the order they first
+ * arrived and takes each customer's latest priority from its latest arrival, so neither depends
+ * on the order requests are stored or read back in. Requests made without them arrive at zero,
+ * and such ties keep the order the requests are read in.
  */
-public record AllocationRequest (String customer, int agents, int priority) implements Comparable<AllocationRequest>{
+public record AllocationRequest (int customerId, int agents, int priority, int count, int span, long firstArrival, long lastArrival)
+        implements Comparable<AllocationRequest>{
+
+    public AllocationRequest(int customerId, int agents, int priority, int count, int span) {
+        this(customerId, agents, priority, count, span, 0, 0);
+    }
+
+    public AllocationRequest(int customerId, int agents, int priority, int count) {
+        this(customerId, agents, priority, count, TimeBuckets.WHOLE_HOUR);
+    }
+
+    public AllocationRequest(int customerId, int agents, int priority) {
+        this(customerId, agents, priority, 1);
+    }
+
+    /** Total agents demanded by all folded requests. */
+    public int totalAgents() {
+        return agents * count;
+    }
+
     @Override
     public int compareTo(AllocationRequest other) {
         return Integer.compare(this.priority, other.priority);
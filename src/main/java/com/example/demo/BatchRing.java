@@ -0,0 +1,195 @@
+package com.example.demo;
+
+import com.example.demo.Constants.WaitStrategy;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded single-producer, multi-consumer ring of reusable {@link RequestBatch} slots.
+ *
+ * The reader fills the slot returned by {@link #next()} and makes it visible with
+ * {@link #publish()}. Workers take published sequences with {@link #claim()}, process the slot
+ * and hand it back with {@link #release(long)}. A slot is only refilled once the batch that
+ * previously occupied it has been released, so the buffers are recycled and the reader can run
+ * at most one ring ahead of the slowest worker.
+ *
+ * Waiting is either {@link WaitStrategy#BLOCKING} (park on a condition) or
+ * {@link WaitStrategy#SPINNING} (busy-spin, lowest hand-off latency at the cost of a core per
+ * waiting thread). The ring records how long the reader waited for a free slot, how long workers
+ * waited for work and the deepest queue it saw.
+ */
+public class BatchRing {
+
+    private static final int SPINS_BEFORE_YIELD = 1000;
+
+    private final RequestBatch[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    // Highest sequence visible to workers; written by the producer only.
+    private final AtomicLong published = new AtomicLong(-1);
+    // Next sequence a worker will claim.
+    private final AtomicLong claimed = new AtomicLong(0);
+    // Per slot, the sequence of the last batch released from it.
+    private final AtomicLongArray released;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private volatile boolean closed;
+    // Producer-confined.
+    private long nextSequence;
+
+    private final LongAdder producerStallNanos = new LongAdder();
+    private final LongAdder consumerStallNanos = new LongAdder();
+    private volatile int maxDepth;
+
+    /**
+     * @param minSlots the minimum number of slots; rounded up to a power of two
+     */
+    public BatchRing(int minSlots, int batchSize, WaitStrategy waitStrategy) {
+        int size = Integer.highestOneBit(Math.max(2, minSlots) - 1) << 1;
+        this.slots = new RequestBatch[size];
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        this.released = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new RequestBatch(batchSize);
+            // Treat every slot as released by the sequence one lap before its first use.
+            released.set(i, i - size);
+        }
+    }
+
+    /** Producer: waits for the next slot to be free and returns its cleared batch. */
+    public RequestBatch next() throws InterruptedException {
+        int slot = (int) (nextSequence & mask);
+        long previous = nextSequence - slots.length;
+        if (released.get(slot) < previous) {
+            long start = System.nanoTime();
+            await(() -> released.get(slot) >= previous);
+            producerStallNanos.add(System.nanoTime() - start);
+        }
+        RequestBatch batch = slots[slot];
+        batch.clear();
+        return batch;
+    }
+
+    /** Producer: makes the batch returned by the last {@link #next()} available to workers. */
+    public void publish() {
+        published.set(nextSequence);
+        nextSequence++;
+        int depth = depth();
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        signal();
+    }
+
+    /** Producer: no more batches will be published. Workers drain what is left and stop. */
+    public void close() {
+        closed = true;
+        signal();
+    }
+
+    /**
+     * Worker: claims the next published sequence, waiting if there is none yet. Returns
+     * {@code -1} once the ring has been closed and fully drained.
+     */
+    public long claim() throws InterruptedException {
+        while (true) {
+            long sequence = claimed.get();
+            if (sequence <= published.get()) {
+                if (claimed.compareAndSet(sequence, sequence + 1)) {
+                    return sequence;
+                }
+                continue;
+            }
+            // Read closed first: everything published before close() is then visible.
+            if (closed) {
+                if (sequence > published.get()) {
+                    return -1;
+                }
+                continue;
+            }
+            long start = System.nanoTime();
+            await(() -> closed || published.get() >= sequence);
+            consumerStallNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /** Worker: the batch held by a claimed sequence. */
+    public RequestBatch get(long sequence) {
+        return slots[(int) (sequence & mask)];
+    }
+
+    /** Worker: hands a processed slot back to the producer. */
+    public void release(long sequence) {
+        released.set((int) (sequence & mask), sequence);
+        signal();
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /** Batches published but not yet claimed by a worker. */
+    public int depth() {
+        return (int) Math.max(0, published.get() + 1 - claimed.get());
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /** Total batches published so far. */
+    public long published() {
+        return published.get() + 1;
+    }
+
+    /** Time the producer spent waiting for a free slot. */
+    public long producerStallNanos() {
+        return producerStallNanos.sum();
+    }
+
+    /** Time summed over all workers spent waiting for a published batch. */
+    public long consumerStallNanos() {
+        return consumerStallNanos.sum();
+    }
+
+    private void await(BooleanSupplier ready) throws InterruptedException {
+        if (waitStrategy == WaitStrategy.SPINNING) {
+            int spins = 0;
+            while (!ready.getAsBoolean()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (++spins % SPINS_BEFORE_YIELD == 0) {
+                    Thread.yield();
+                } else {
+                    Thread.onSpinWait();
+                }
+            }
+            return;
+        }
+        lock.lock();
+        try {
+            while (!ready.getAsBoolean()) {
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signal() {
+        if (waitStrategy == WaitStrategy.BLOCKING) {
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
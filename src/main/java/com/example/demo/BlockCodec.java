@@ -0,0 +1,53 @@
+package com.example.demo;
+
+import com.example.demo.Constants.Compression;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses one block of bytes so that it can later be decompressed on its own.
+ *
+ * Implementations must be safe to call from several threads at once. {@link BlockCompressor}
+ * frames the blocks and keeps a block uncompressed when the codec cannot make it smaller.
+ */
+public interface BlockCodec {
+
+    /** Stores every block as is. */
+    BlockCodec NONE = new BlockCodec() {
+        @Override
+        public String name() {
+            return "none";
+        }
+
+        @Override
+        public int compress(ByteBuffer source, ByteBuffer target) {
+            return -1;
+        }
+
+        @Override
+        public void decompress(ByteBuffer source, ByteBuffer target) throws IOException {
+            throw new IOException("Compressed block found, but no codec is configured");
+        }
+    };
+
+    String name();
+
+    /**
+     * Compresses the remaining bytes of {@code source} into {@code target}. Returns the number of
+     * bytes written, or -1 if the result does not fit in the remaining space of {@code target}.
+     */
+    int compress(ByteBuffer source, ByteBuffer target);
+
+    /** Decompresses all of {@code source}, filling exactly the remaining space of {@code target}. */
+    void decompress(ByteBuffer source, ByteBuffer target) throws IOException;
+
+    static BlockCodec forCompression(Compression compression) {
+        switch (compression) {
+            case DEFLATE:
+                return new DeflateCodec();
+            case NONE:
+            default:
+                return NONE;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.demo;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Frames blocks compressed with a {@link BlockCodec} and keeps statistics about them.
+ *
+ * A frame is {@code raw bytes, stored bytes} followed by the stored bytes. Every block is
+ * compressed on its own, so any frame can be decompressed without reading the ones before it, and
+ * readers on different threads can decompress different blocks at the same time. A block the codec
+ * cannot shrink is stored as is and marked by equal raw and stored sizes.
+ *
+ * {@link #outputStream(OutputStream)} and {@link #inputStream(InputStream)} apply the same framing
+ * to streams, cutting them into blocks of {@value #STREAM_BLOCK_BYTES} bytes.
+ */
+public class BlockCompressor {
+
+    static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+    static final int STREAM_BLOCK_BYTES = 64 * 1024;
+    // Largest raw block a frame may claim; anything bigger is treated as corruption.
+    static final int MAX_BLOCK_BYTES = 1 << 30;
+
+    private final BlockCodec codec;
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /** Sizes read from a frame header. */
+    public record Frame(int rawBytes, int storedBytes) {
+        public boolean isCompressed() {
+            return storedBytes < rawBytes;
+        }
+    }
+
+    public BlockCompressor(BlockCodec codec) {
+        this.codec = codec;
+    }
+
+    public BlockCodec codec() {
+        return codec;
+    }
+
+    /** Space a frame of {@code rawBytes} needs in the worst case. */
+    public static int maxFrameSize(int rawBytes) {
+        return FRAME_HEADER_BYTES + rawBytes;
+    }
+
+    /**
+     * Compresses the remaining bytes of {@code raw} into a frame at the position of {@code target},
+     * which needs {@link #maxFrameSize(int)} bytes remaining. Leaves {@code target} positioned
+     * after the frame.
+     */
+    public void compress(ByteBuffer raw, ByteBuffer target) {
+        int size = raw.remaining();
+        int start = target.position();
+        long begin = System.nanoTime();
+        // Only accept output strictly smaller than the input.
+        ByteBuffer payload = target.duplicate().position(start + FRAME_HEADER_BYTES).limit(start + FRAME_HEADER_BYTES + size - 1);
+        int stored = size > 1 ? codec.compress(raw.duplicate(), payload) : -1;
+        compressNanos.add(System.nanoTime() - begin);
+        if (stored < 0) {
+            stored = size;
+            target.position(start + FRAME_HEADER_BYTES);
+            target.put(raw.duplicate());
+        }
+        target.putInt(start, size);
+        target.putInt(start + Integer.BYTES, stored);
+        target.position(start + FRAME_HEADER_BYTES + stored);
+        blocks.increment();
+        rawBytes.add(size);
+        storedBytes.add(FRAME_HEADER_BYTES + stored);
+    }
+
+    /** Reads and validates a frame header; {@code maxStoredBytes} bounds what it may claim. */
+    public static Frame readFrame(ByteBuffer header, long maxStoredBytes) throws IOException {
+        Frame frame = new Frame(header.getInt(), header.getInt());
+        if (frame.rawBytes() <= 0 || frame.rawBytes() > MAX_BLOCK_BYTES || frame.storedBytes() <= 0
+                || frame.storedBytes() > frame.rawBytes() || frame.storedBytes() > maxStoredBytes) {
+            throw new IOException("Corrupt frame header " + frame);
+        }
+        return frame;
+    }
+
+    /**
+     * Returns the raw block of a frame: {@code stored} itself if the block was kept as is,
+     * otherwise {@code target} filled with the decompressed bytes and flipped. {@code target} must
+     * have room for the frame's raw bytes.
+     */
+    public ByteBuffer decompress(Frame frame, ByteBuffer stored, ByteBuffer target) throws IOException {
+        if (stored.remaining() != frame.storedBytes()) {
+            throw new IOException("Frame holds " + stored.remaining() + " bytes, header says " + frame.storedBytes());
+        }
+        if (!frame.isCompressed()) {
+            return stored;
+        }
+        long begin = System.nanoTime();
+        target.limit(target.position() + frame.rawBytes());
+        codec.decompress(stored, target);
+        decompressNanos.add(System.nanoTime() - begin);
+        return target.flip();
+    }
+
+    /** Stream that frames everything written to it and writes the frames to {@code out}. */
+    public OutputStream outputStream(OutputStream out) {
+        return new FramedOutputStream(out);
+    }
+
+    /** Stream that reads the frames written by {@link #outputStream(OutputStream)}. */
+    public InputStream inputStream(InputStream in) {
+        return new FramedInputStream(in);
+    }
+
+    /** One-line description of the bytes compressed and the time spent, for verbose output. */
+    public String summary() {
+        long raw = rawBytes.sum();
+        long stored = storedBytes.sum();
+        String ratio = stored == 0 ? "-" : String.format("%.2fx", (double) raw / stored);
+        return codec.name() + ": " + megabytes(raw) + " -> " + megabytes(stored) + " (" + ratio + ") in "
+            + blocks.sum() + " blocks, compress " + TimeUnit.NANOSECONDS.toMillis(compressNanos.sum())
+            + " ms, decompress " + TimeUnit.NANOSECONDS.toMillis(decompressNanos.sum()) + " ms";
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private final class FramedOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final WritableByteChannel channel;
+        private final ByteBuffer block = ByteBuffer.allocate(STREAM_BLOCK_BYTES);
+        private final ByteBuffer frame = ByteBuffer.allocate(maxFrameSize(STREAM_BLOCK_BYTES));
+
+        FramedOutputStream(OutputStream out) {
+            this.out = out;
+            this.channel = Channels.newChannel(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!block.hasRemaining()) {
+                writeBlock();
+            }
+            block.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!block.hasRemaining()) {
+                    writeBlock();
+                }
+                int n = Math.min(length, block.remaining());
+                block.put(bytes, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeBlock();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writeBlock();
+            } finally {
+                out.close();
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (block.position() == 0) {
+                return;
+            }
+            block.flip();
+            frame.clear();
+            compress(block, frame);
+            frame.flip();
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+            block.clear();
+        }
+    }
+
+    private final class FramedInputStream extends InputStream {
+        private final DataInputStream in;
+        private final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+        private byte[] stored = new byte[STREAM_BLOCK_BYTES];
+        private ByteBuffer decompressed = ByteBuffer.allocate(STREAM_BLOCK_BYTES);
+        private ByteBuffer block = ByteBuffer.allocate(0);
+
+        FramedInputStream(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextBlock()) {
+                return -1;
+            }
+            return block.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!nextBlock()) {
+                return -1;
+            }
+            int n = Math.min(length, block.remaining());
+            block.get(bytes, offset, n);
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /** Makes sure {@code block} has bytes left. Returns false at the end of the stream. */
+        private boolean nextBlock() throws IOException {
+            while (!block.hasRemaining()) {
+                header.clear();
+                try {
+                    in.readFully(header.array());
+                } catch (EOFException e) {
+                    return false;
+                }
+                Frame frame = readFrame(header, MAX_BLOCK_BYTES);
+                if (stored.length < frame.storedBytes()) {
+                    stored = new byte[frame.storedBytes()];
+                }
+                in.readFully(stored, 0, frame.storedBytes());
+                if (decompressed.capacity() < frame.rawBytes()) {
+                    decompressed = ByteBuffer.allocate(frame.rawBytes());
+                }
+                decompressed.clear();
+                block = decompress(frame, ByteBuffer.wrap(stored, 0, frame.storedBytes()), decompressed);
+            }
+            return true;
+        }
+    }
+}
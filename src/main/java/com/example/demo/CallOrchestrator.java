@@ -1,105 +1,809 @@
 package com.example.demo;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
 
 /** 
  * Creates the call agent assignment per hour based on the capacity and customer priority.
+ *
+ * Each request is stored once, under the first bucket of the hour it starts in, with a span that
+ * may reach into later hours. Schedules are worked out for a range of buckets at a time: every
+ * hour a request reaching into the range can be stored under is read once, each request is
+ * clipped to the range and added to a {@link DemandCombiner} as an interval, and one sweep of the
+ * combiner's difference arrays turns the intervals into runs of buckets with the same count and
+ * arrivals. The runs are cut at hour boundaries and each hour's buckets are folded from its own
+ * runs, so a request costs one read however many buckets it covers. The day methods read every
+ * stored hour once for all buckets; the per-hour and per-bucket methods read the hours up to
+ * theirs.
  */
 public class CallOrchestrator {
 
+    // Hours with more requests than this are read as parallel slices of about this size.
+    static final int SLICE_RECORDS = 1 << 16;
+    private static final int MAX_SLICES_PER_WORKER = 4;
+
     private Storage storage;
     private int capacity;
+    private TimeBuckets buckets;
+    private List<ForkJoinPool> readPools;
+    private CustomerDictionary customers;
+
+    public CallOrchestrator(Storage storage, int capacity, CustomerDictionary customers) {
+        this(storage, capacity, TimeBuckets.HOURLY, customers);
+    }
 
-    public CallOrchestrator(Storage storage, int capacity) {
+    /** @param customers the run's dictionary, which names the customers of the stored ids */
+    public CallOrchestrator(Storage storage, int capacity, TimeBuckets buckets, CustomerDictionary customers) {
         this.storage = storage;
         this.capacity = capacity;
+        this.buckets = buckets;
+        this.customers = customers;
+    }
+
+    /**
+     * Reads each stored hour on the pool of the storage device that holds it, so every device has
+     * readers of its own. Without pools, hours are read as subtasks of the calling
+     * {@link ForkJoinPool}, or one after another outside of one.
+     */
+    public void setReadPools(List<ForkJoinPool> readPools) {
+        this.readPools = readPools;
+    }
+
+    /**
+     * Calculates the schedule of one bucket; with hourly buckets the index is the hour.
+     *
+     * The requests reaching into the bucket are streamed from storage once and folded into
+     * per-customer totals and, with a capacity, per-priority demand keyed by customer and agents,
+     * so memory grows with the number of distinct keys rather than with the number of records.
+     * Large hours are read as slices in parallel when called from a {@link ForkJoinPool}.
+     *
+     * If the storage kept {@link DemandTotals} for the bucket, nothing is streamed but the one
+     * priority partition where capacity runs out.
+     */
+    public ScheduleBucket calculateSchedule(int index) {
+        return schedules(index, index + 1).get(0);
+    }
+
+    /**
+     * Calculates the schedules of every bucket of the hour, in time order, reading the requests
+     * once for all of them; each schedule equals what {@link #calculateSchedule(int)} gives.
+     */
+    public List<ScheduleBucket> calculateHour(int hour) {
+        return schedules(buckets.firstOf(hour), buckets.firstOf(hour + 1));
+    }
+
+    /** {@link #calculateHour(int)} for every bucket of the day, reading each stored hour once. */
+    public List<ScheduleBucket> calculateDay() {
+        return schedules(0, buckets.count());
+    }
+
+    /** Schedules of the buckets {@code [from, to)} at the orchestrator's capacity. */
+    private List<ScheduleBucket> schedules(int from, int to) {
+        if (capacity > 0) {
+            List<ScheduleBucket> schedules = new ArrayList<>(to - from);
+            for (List<ScheduleBucket> bucket : schedules(from, to, new int[] {capacity})) {
+                schedules.add(bucket.get(0));
+            }
+            return schedules;
+        }
+        BucketDemand demand = demand(from, to, new int[0]);
+        ScheduleBucket[] schedules = new ScheduleBucket[to - from];
+        forEachHour(from, to, (first, end) -> {
+            for (int bucket = first; bucket < end; bucket++) {
+                DemandTotals totals = demand.totals[bucket - from];
+                schedules[bucket - from] = totals.isEmpty() ? emptyBucket(bucket) : unlimited(totals, bucket);
+            }
+        });
+        return Arrays.asList(schedules);
+    }
+
+    /** The totals the storage kept for the buckets {@code [from, to)}, or null if it lacks any. */
+    private DemandTotals[] demandTotals(int from, int to) {
+        DemandTotals[] totals = new DemandTotals[to - from];
+        for (int bucket = from; bucket < to; bucket++) {
+            totals[bucket - from] = storage.demandTotals(bucket);
+            if (totals[bucket - from] == null) {
+                return null;
+            }
+        }
+        return totals;
+    }
+
+    /** Everyone gets what the totals say they asked for. */
+    private ScheduleBucket unlimited(DemandTotals totals, int bucket) {
+        CustomerTotals allocations = new CustomerTotals();
+        // Customers by best priority, then by arrival at it; each reports its worst priority.
+        CustomerTotals priorityMap = new CustomerTotals();
+        int totalAgents = 0;
+        for (DemandTotals.Tier tier : totals.tiers()) {
+            DemandTotals.Customers customers = tier.customers();
+            for (int i = 0; i < customers.size(); i++) {
+                allocations.put(customers.idAt(i), 0);
+                priorityMap.put(customers.idAt(i), tier.priority());
+            }
+            totalAgents += tier.demand();
+        }
+        DemandTotals.Customers demands = totals.demands();
+        for (int i = 0; i < demands.size(); i++) {
+            allocations.put(demands.idAt(i), demands.valueAt(i));
+        }
+        Map<String, Integer> allocated = allocations.toMap(customers);
+        return new ScheduleBucket(buckets.hourOf(bucket), totalAgents, allocated, allocated, priorityMap.toMap(customers), buckets.minuteOf(bucket));
+    }
+
+    /**
+     * Calculates the bucket's schedule under each of {@code capacities}, all positive, and returns
+     * them in the order the capacities are given. Each one equals what
+     * {@link #calculateSchedule(int)} gives with that capacity.
+     *
+     * The requests are read at most once: with {@link DemandTotals} from the storage only the
+     * tiers some capacity cuts are read, and without them the totals and every tier are folded
+     * from one pass over the requests.
+     */
+    public List<ScheduleBucket> calculateSchedules(int index, int[] capacities) {
+        return schedules(index, index + 1, capacities).get(0);
+    }
+
+    /** {@link #calculateSchedules(int, int[])} for every bucket of the hour, in time order, reading the requests once. */
+    public List<List<ScheduleBucket>> calculateHourSchedules(int hour, int[] capacities) {
+        return schedules(buckets.firstOf(hour), buckets.firstOf(hour + 1), capacities);
+    }
+
+    /** {@link #calculateSchedules(int, int[])} for every bucket of the day, in time order, reading each stored hour once. */
+    public List<List<ScheduleBucket>> calculateDaySchedules(int[] capacities) {
+        return schedules(0, buckets.count(), capacities);
+    }
+
+    private List<List<ScheduleBucket>> schedules(int from, int to, int[] capacities) {
+        BucketDemand demand = demand(from, to, capacities);
+        List<List<ScheduleBucket>> schedules = new ArrayList<>(Collections.nCopies(to - from, null));
+        forEachHour(from, to, (first, end) -> {
+            for (int bucket = first; bucket < end; bucket++) {
+                schedules.set(bucket - from, sweep(demand.tiers.get(bucket - from), demand.totals[bucket - from], capacities, bucket));
+            }
+        });
+        return schedules;
+    }
+
+    /**
+     * The totals of the buckets {@code [from, to)} and, for each capacity, the tier it cuts in
+     * each bucket. Totals the storage kept are used as they are, and the tiers cut are read from
+     * their priority partitions once for all buckets; otherwise the requests are read once and
+     * folded into the totals and, with capacities, every tier.
+     */
+    private BucketDemand demand(int from, int to, int[] capacities) {
+        BucketDemand demand = new BucketDemand(from, to);
+        DemandTotals[] stored = demandTotals(from, to);
+        if (stored != null) {
+            demand.totals = stored;
+            readCutTiers(from, demand, capacities);
+            return demand;
+        }
+        List<StreamedDemand> folds = fold(from, to, runs(from, to, null), () -> new StreamedDemand(capacities.length > 0));
+        for (int i = 0; i < folds.size(); i++) {
+            demand.totals[i] = folds.get(i).totals;
+            demand.tiers.get(i).putAll(folds.get(i).tiers);
+        }
+        return demand;
+    }
+
+    /**
+     * Reads the tiers the capacities cut from their priority partitions, each priority once for
+     * the span of buckets that need it.
+     */
+    private void readCutTiers(int from, BucketDemand demand, int[] capacities) {
+        Map<Integer, BitSet> wanted = new TreeMap<>();
+        for (int i = 0; i < demand.totals.length; i++) {
+            for (int priority : cutPriorities(demand.totals[i], capacities)) {
+                wanted.computeIfAbsent(priority, p -> new BitSet()).set(i);
+            }
+        }
+        for (Map.Entry<Integer, BitSet> entry : wanted.entrySet()) {
+            int priority = entry.getKey();
+            BitSet needed = entry.getValue();
+            int first = from + needed.nextSetBit(0);
+            int end = from + needed.length();
+            List<TierDemand> read = fold(first, end, runs(first, end, priority), () -> new TierDemand(priority));
+            for (int i = needed.nextSetBit(0); i >= 0; i = needed.nextSetBit(i + 1)) {
+                demand.tiers.get(i).put(priority, read.get(from + i - first));
+            }
+        }
+    }
+
+    /** Priorities of the tiers that {@link #sweep} splits under the capacities. */
+    private static List<Integer> cutPriorities(DemandTotals totals, int[] capacities) {
+        List<Integer> cut = new ArrayList<>();
+        int[] ascending = capacities.clone();
+        Arrays.sort(ascending);
+        List<DemandTotals.Tier> tiers = new ArrayList<>(totals.tiers());
+        int fullTiers = 0;
+        long grantedAgents = 0;
+        for (int capacity : ascending) {
+            while (fullTiers < tiers.size() && grantedAgents + tiers.get(fullTiers).demand() <= capacity) {
+                grantedAgents += tiers.get(fullTiers).demand();
+                fullTiers++;
+            }
+            if (fullTiers < tiers.size() && capacity > grantedAgents && !cut.contains(tiers.get(fullTiers).priority())) {
+                cut.add(tiers.get(fullTiers).priority());
+            }
+        }
+        return cut;
+    }
+
+    /**
+     * Calculates the bucket's schedule under each scenario and returns them in the order the
+     * scenarios are given, where the storage holds {@code loads} ids in place of agents. Each one
+     * equals what {@link #calculateSchedule(int)} gives after Step 1 ran at the scenario's
+     * utilization and with its capacity.
+     *
+     * The requests are read once and folded per (customer, priority, load), which no utilization
+     * changes. Each distinct utilization then turns the folded loads into agents, and the
+     * scenarios that share it are swept together.
+     */
+    public List<ScheduleBucket> calculateScenarios(int index, LoadDictionary loads, List<Scenarios.Scenario> scenarios) {
+        return scenarios(index, index + 1, loads, scenarios).get(0);
     }
 
-    public ScheduleBucket calculateSchedule(int hour) {
-        List<AllocationRequest> requests = storage.fetchInterMediateData(hour);
-        if (requests.isEmpty()) {
-            return new ScheduleBucket(
-                hour,
-                0,
-                java.util.Collections.emptyMap(),
-                java.util.Collections.emptyMap(),
-                java.util.Collections.emptyMap());
-        }
-
-        Map<String, Integer> allocations = new LinkedHashMap<>();
-        Map<String, Integer> priorityMap = new LinkedHashMap<>();
-        if (capacity <= 0) {
-            // Infinite capacity
-            int totalAgents = 0;
-            requests.sort(AllocationRequest::compareTo);
-            for (AllocationRequest request : requests) {
-                allocations.merge(request.customer(), request.agents(), Integer::sum);
-                priorityMap.put(request.customer(), request.priority());
-                totalAgents += request.agents();
-            }
-            return new ScheduleBucket(hour, totalAgents, allocations, allocations, priorityMap);
-        }
-        // 1. Group all requests for this hour by priority
-        Map<Integer, List<AllocationRequest>> priorityGroups = new TreeMap<>();
-        Map<String, Integer> demands = new LinkedHashMap<>();
-        for (AllocationRequest request : requests) {
-            priorityGroups.computeIfAbsent(request.priority(), k -> new ArrayList<>()).add(request);
-            demands.merge(request.customer(), request.agents(), Integer::sum);
-            priorityMap.put(request.customer(), request.priority());
-        }
-
-        int remainingCapacty = capacity;
-        int totalAllocated = 0;
-
-
-        // 2. Iterate through priorities in order. 
-        for (int priority : priorityGroups.keySet()) {
-            List<AllocationRequest> tierRequests = priorityGroups.get(priority);
-            int tierDemand = tierRequests.stream().mapToInt(AllocationRequest::agents).sum();
-
-            if (tierDemand <= remainingCapacty) {
-                // Full allocation for this tier.
-                for (AllocationRequest request : tierRequests) {
-                    allocations.merge(request.customer(), request.agents(), Integer::sum);
+    /** {@link #calculateScenarios(int, LoadDictionary, List)} for every bucket of the hour, in time order, reading the requests once. */
+    public List<List<ScheduleBucket>> calculateHourScenarios(int hour, LoadDictionary loads, List<Scenarios.Scenario> scenarios) {
+        return scenarios(buckets.firstOf(hour), buckets.firstOf(hour + 1), loads, scenarios);
+    }
+
+    /** {@link #calculateScenarios(int, LoadDictionary, List)} for every bucket of the day, in time order, reading each stored hour once. */
+    public List<List<ScheduleBucket>> calculateDayScenarios(LoadDictionary loads, List<Scenarios.Scenario> scenarios) {
+        return scenarios(0, buckets.count(), loads, scenarios);
+    }
+
+    private List<List<ScheduleBucket>> scenarios(int from, int to, LoadDictionary loads, List<Scenarios.Scenario> scenarios) {
+        List<LoadDemand> demands = fold(from, to, runs(from, to, null), LoadDemand::new);
+        Map<Float, List<Integer>> byUtilization = new LinkedHashMap<>();
+        for (int i = 0; i < scenarios.size(); i++) {
+            byUtilization.computeIfAbsent(scenarios.get(i).utilization(), u -> new ArrayList<>()).add(i);
+        }
+        List<List<ScheduleBucket>> schedules = new ArrayList<>(Collections.nCopies(to - from, null));
+        forEachHour(from, to, (first, end) -> {
+            for (int index = first; index < end; index++) {
+                List<ScheduleBucket> bucket = new ArrayList<>(Collections.nCopies(scenarios.size(), null));
+                for (Map.Entry<Float, List<Integer>> group : byUtilization.entrySet()) {
+                    Map<Integer, TierDemand> tiers = new HashMap<>();
+                    DemandTotals totals = demands.get(index - from).totals(loads, group.getKey(), tiers);
+                    List<Integer> limited = new ArrayList<>();
+                    for (int i : group.getValue()) {
+                        if (scenarios.get(i).capacity() > 0) {
+                            limited.add(i);
+                        } else {
+                            bucket.set(i, totals.isEmpty() ? emptyBucket(index) : unlimited(totals, index));
+                        }
+                    }
+                    int[] capacities = limited.stream().mapToInt(i -> scenarios.get(i).capacity()).toArray();
+                    List<ScheduleBucket> swept = sweep(tiers, totals, capacities, index);
+                    for (int c = 0; c < capacities.length; c++) {
+                        bucket.set(limited.get(c), swept.get(c));
+                    }
+                }
+                schedules.set(index - from, bucket);
+            }
+        });
+        return schedules;
+    }
+
+    /**
+     * Allocates the bucket under each capacity in ascending order, granting whole tiers from the
+     * running sum of their demand, so each tier's totals are added once for all capacities. The
+     * tier a capacity cuts is split with what that capacity has left, from {@code bucketTiers},
+     * which holds every tier some capacity cuts. Its keys are put in order of first arrival, so
+     * leftover units that fall among keys of equal loss go to the key that arrived first, a unit
+     * per copy, whether or not its copies were combined.
+     */
+    private List<ScheduleBucket> sweep(Map<Integer, TierDemand> bucketTiers, DemandTotals totals, int[] capacities, int bucket) {
+        int hour = buckets.hourOf(bucket);
+        int minute = buckets.minuteOf(bucket);
+        List<ScheduleBucket> schedules = new ArrayList<>(Collections.nCopies(capacities.length, null));
+        if (totals.isEmpty()) {
+            for (int i = 0; i < capacities.length; i++) {
+                schedules.set(i, emptyBucket(bucket));
+            }
+            return schedules;
+        }
+        List<DemandTotals.Tier> tiers = new ArrayList<>(totals.tiers());
+        Map<String, Integer> demands = totals.demands().toMap(customers);
+        Map<String, Integer> priorities = totals.priorities().toMap(customers);
+        Integer[] order = new Integer[capacities.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> capacities[i]));
+        CustomerTotals granted = new CustomerTotals();
+        int fullTiers = 0;
+        long grantedAgents = 0;
+        for (int i : order) {
+            int capacity = capacities[i];
+            while (fullTiers < tiers.size() && grantedAgents + tiers.get(fullTiers).demand() <= capacity) {
+                DemandTotals.Customers customers = tiers.get(fullTiers).customers();
+                for (int c = 0; c < customers.size(); c++) {
+                    granted.add(customers.idAt(c), customers.valueAt(c));
+                }
+                grantedAgents += tiers.get(fullTiers).demand();
+                fullTiers++;
+            }
+            Map<String, Integer> allocations = granted.toMap(customers);
+            int totalAllocated = (int) grantedAgents;
+            if (fullTiers < tiers.size() && capacity > grantedAgents) {
+                TierDemand demand = bucketTiers.get(tiers.get(fullTiers).priority());
+                demand.sortByArrival();
+                int[] shares = LargestRemainder.allocate(demand.agents, demand.counts, demand.size, capacity - totalAllocated, demand.demand);
+                for (int c = 0; c < demand.size; c++) {
+                    allocations.merge(customers.nameOf(demand.customerIds[c]), shares[c], Integer::sum);
                 }
-                remainingCapacty -= tierDemand;
-                totalAllocated += tierDemand;
+                totalAllocated = capacity;
+            }
+            schedules.set(i, new ScheduleBucket(hour, totalAllocated, allocations, demands, priorities, minute));
+        }
+        return schedules;
+    }
+
+    private ScheduleBucket emptyBucket(int bucket) {
+        return new ScheduleBucket(
+            buckets.hourOf(bucket),
+            0,
+            java.util.Collections.emptyMap(),
+            java.util.Collections.emptyMap(),
+            java.util.Collections.emptyMap(),
+            buckets.minuteOf(bucket));
+    }
+
+    /** Calls {@code task} with the part of each hour in {@code [from, to)}, as parallel subtasks inside a {@link ForkJoinPool}. */
+    private void forEachHour(int from, int to, HourTask task) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int hour = buckets.hourOf(from); hour <= buckets.hourOf(to - 1); hour++) {
+            int first = Math.max(from, buckets.firstOf(hour));
+            int end = Math.min(to, buckets.firstOf(hour + 1));
+            if (ForkJoinTask.inForkJoinPool()) {
+                tasks.add(ForkJoinTask.adapt(() -> task.run(first, end)));
             } else {
-                // Return if there is no capacity left.
-                if (remainingCapacty <= 0) {
-                    break;
+                task.run(first, end);
+            }
+        }
+        if (!tasks.isEmpty()) {
+            ForkJoinTask.invokeAll(tasks);
+        }
+    }
+
+    /** Work on the buckets {@code [first, end)} of one hour. */
+    @FunctionalInterface
+    private interface HourTask {
+        void run(int first, int end);
+    }
+
+    /** Folds each hour's runs into a fresh fold per bucket of {@code [from, to)}, each hour on its own. */
+    private <F extends Fold> List<F> fold(int from, int to, List<List<DemandCombiner.Runs>> runs, Supplier<F> fold) {
+        List<F> folds = new ArrayList<>(to - from);
+        for (int bucket = from; bucket < to; bucket++) {
+            folds.add(fold.get());
+        }
+        int firstHour = buckets.hourOf(from);
+        forEachHour(from, to, (first, end) -> {
+            for (DemandCombiner.Runs hour : runs.get(buckets.hourOf(first) - firstHour)) {
+                for (int i = 0; i < hour.size; i++) {
+                    for (int bucket = hour.starts[i]; bucket < hour.ends[i]; bucket++) {
+                        folds.get(bucket - from).add(hour.customerIds[i], hour.agents[i], hour.priorities[i], hour.counts[i],
+                            hour.firsts[i], hour.lasts[i]);
+                    }
                 }
-                double ratio = (double) remainingCapacty / tierDemand;
-                int allocatedInTier = 0;
-                Map<AllocationRequest, Double> roundingLoss = new LinkedHashMap<>();
-                // Pass 1: Floor distribution
-                for (AllocationRequest request : tierRequests) {
-                    double exactShare = request.agents() * ratio;
-                    int flooredShare = (int) Math.floor(exactShare);
-                    allocations.merge(request.customer(), flooredShare, Integer::sum);
-                    allocatedInTier += flooredShare;
-                    roundingLoss.put(request, exactShare - flooredShare);
+            }
+        });
+        return folds;
+    }
+
+    /**
+     * The requests active in the buckets {@code [from, to)}, or only those of {@code priority}
+     * when it is not null, as runs cut at hour boundaries: per hour of the range, the runs of each
+     * stored hour in hour order. Every hour up to the range's last can hold requests reaching
+     * into it, and each is read once and swept on its own; inside a {@link ForkJoinPool} or with
+     * read pools the hours are read and swept in parallel, largest first.
+     */
+    private List<List<DemandCombiner.Runs>> runs(int from, int to, Integer priority) {
+        int hours = buckets.hourOf(to - 1) + 1;
+        List<List<DemandCombiner.Runs>> byHour = new ArrayList<>();
+        for (int hour = buckets.hourOf(from); hour < hours; hour++) {
+            byHour.add(new ArrayList<>());
+        }
+        List<List<DemandCombiner.Runs>> stored = new ArrayList<>(hours);
+        if (readPools == null && !ForkJoinTask.inForkJoinPool()) {
+            DemandCombiner demand = new DemandCombiner(buckets);
+            for (int hour = 0; hour < hours; hour++) {
+                int index = buckets.firstOf(hour);
+                read(index, priority, clip(index, from, to, demand));
+                stored.add(demand.drainByHour(from, to));
+            }
+        } else {
+            List<Integer> order = new ArrayList<>();
+            long[] records = new long[hours];
+            for (int hour = 0; hour < hours; hour++) {
+                order.add(hour);
+                records[hour] = storage.intermediateRecords(buckets.firstOf(hour));
+            }
+            order.sort(Comparator.comparingLong((Integer hour) -> records[hour]).reversed());
+            List<ForkJoinTask<List<DemandCombiner.Runs>>> tasks = new ArrayList<>(Collections.nCopies(hours, null));
+            for (int hour : order) {
+                int index = buckets.firstOf(hour);
+                ForkJoinTask<List<DemandCombiner.Runs>> task = ForkJoinTask.adapt(() -> readHour(index, priority, from, to));
+                tasks.set(hour, task);
+                if (readPools != null) {
+                    readPools.get(Math.floorMod(storage.deviceOf(index), readPools.size())).execute(task);
                 }
-                // Pass 2: Distribute leftovers based on who lost the most value.
-                // Allocate for largest remaining first.
-                int leftovers = remainingCapacty - allocatedInTier;
-                tierRequests.sort((a, b) -> Double.compare(roundingLoss.get(b), roundingLoss.get(a)));
-
-                for (int i = 0; i < leftovers; i++) {
-                    // Using modulo is safe if leftovers > tierRequests.size()
-                    AllocationRequest request = tierRequests.get(i % tierRequests.size());
-                    allocations.merge(request.customer(), 1, Integer::sum);
+            }
+            if (readPools == null) {
+                List<ForkJoinTask<List<DemandCombiner.Runs>>> ordered = new ArrayList<>();
+                for (int hour : order) {
+                    ordered.add(tasks.get(hour));
                 }
+                ForkJoinTask.invokeAll(ordered);
+            }
+            for (ForkJoinTask<List<DemandCombiner.Runs>> task : tasks) {
+                stored.add(task.join());
+            }
+        }
+        for (List<DemandCombiner.Runs> runs : stored) {
+            for (int hour = 0; hour < runs.size(); hour++) {
+                if (runs.get(hour).size > 0) {
+                    byHour.get(hour).add(runs.get(hour));
+                }
+            }
+        }
+        return byHour;
+    }
 
-                remainingCapacty = 0;
-                totalAllocated = capacity;
-                break;
+    /**
+     * One stored hour's requests reaching into {@code [from, to)}, swept into runs. From inside a
+     * {@link ForkJoinPool}, an hour of more than {@value #SLICE_RECORDS} requests is cut into
+     * consecutive slices that are read as subtasks, which idle workers steal, and taken in in
+     * slice order.
+     */
+    private List<DemandCombiner.Runs> readHour(int index, Integer priority, int from, int to) {
+        DemandCombiner demand = new DemandCombiner(buckets);
+        long records = storage.intermediateRecords(index);
+        int slices = 1;
+        if (priority == null && ForkJoinTask.inForkJoinPool() && records > SLICE_RECORDS) {
+            int parallelism = ForkJoinTask.getPool().getParallelism();
+            slices = (int) Math.min((records + SLICE_RECORDS - 1) / SLICE_RECORDS, (long) MAX_SLICES_PER_WORKER * parallelism);
+        }
+        if (slices <= 1) {
+            read(index, priority, clip(index, from, to, demand));
+            return demand.drainByHour(from, to);
+        }
+        List<ForkJoinTask<DemandCombiner>> tasks = new ArrayList<>();
+        for (int i = 0; i < slices; i++) {
+            final int slice = i;
+            final int count = slices;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                DemandCombiner part = new DemandCombiner(buckets);
+                storage.forEachIntermediateSlice(index, slice, count, clip(index, from, to, part));
+                return part;
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        for (ForkJoinTask<DemandCombiner> task : tasks) {
+            demand.addAll(task.join());
+        }
+        return demand.drainByHour(from, to);
+    }
+
+    private void read(int index, Integer priority, RequestVisitor visitor) {
+        if (priority == null) {
+            storage.forEachIntermediateData(index, visitor);
+        } else {
+            storage.forEachIntermediateData(index, priority, visitor);
+        }
+    }
+
+    /** Adds the requests stored under {@code index} to {@code demand} as intervals, clipped to {@code [from, to)}. */
+    private RequestVisitor clip(int index, int from, int to, DemandCombiner demand) {
+        return (customerId, agents, priority, count, span, firstArrival, lastArrival) -> {
+            int start = Math.max(from, index + buckets.startOf(span));
+            int end = Math.min(to, index + buckets.endOf(span));
+            if (start < end) {
+                demand.add(customerId, priority, agents, count, start, end, firstArrival, lastArrival);
+            }
+        };
+    }
+
+    /** What one bucket's runs are folded into. */
+    private interface Fold {
+        void add(int customerId, int agents, int priority, int count, long firstArrival, long lastArrival);
+    }
+
+    /** Totals of a range of buckets, and per bucket the tiers to split by priority. */
+    private static final class BucketDemand {
+        private DemandTotals[] totals;
+        private final List<Map<Integer, TierDemand>> tiers;
+
+        BucketDemand(int from, int to) {
+            this.totals = new DemandTotals[to - from];
+            this.tiers = new ArrayList<>(to - from);
+            for (int bucket = from; bucket < to; bucket++) {
+                tiers.add(new HashMap<>());
+            }
+        }
+    }
+
+    /** Streamed demand: the bucket's totals and, with a capacity, every tier to split. */
+    private static final class StreamedDemand implements Fold {
+        private final DemandTotals totals = new DemandTotals();
+        private final Map<Integer, TierDemand> tiers = new HashMap<>();
+        private final boolean keepTiers;
+
+        StreamedDemand(boolean keepTiers) {
+            this.keepTiers = keepTiers;
+        }
+
+        @Override
+        public void add(int customerId, int agents, int priority, int count, long firstArrival, long lastArrival) {
+            totals.add(customerId, agents, priority, count, firstArrival, lastArrival);
+            if (keepTiers) {
+                TierDemand tier = tiers.get(priority);
+                if (tier == null) {
+                    tier = new TierDemand(priority);
+                    tiers.put(priority, tier);
+                }
+                tier.add(customerId, agents, count, firstArrival);
+            }
+        }
+    }
+
+    /**
+     * A bucket's requests carrying load ids in place of agents, folded per (customer, priority,
+     * load) with the first and last arrival of the requests that went into each key. Requests that
+     * share a load share their agents at any utilization, so folding them changes no tier; the
+     * totals order customers by first arrival and take each one's latest priority from its last,
+     * however the requests were read.
+     */
+    private static final class LoadDemand implements Fold {
+        private int[] customerIds = new int[16];
+        private int[] priorities = new int[16];
+        private int[] loads = new int[16];
+        private int[] counts = new int[16];
+        private long[] firsts = new long[16];
+        private long[] lasts = new long[16];
+        private int size;
+        // Open-addressing index of entry + 1 per slot; zero marks an empty slot.
+        private int[] table = new int[32];
+
+        @Override
+        public void add(int customerId, int load, int priority, int count, long firstArrival, long lastArrival) {
+            int mask = table.length - 1;
+            int slot = hash(customerId, priority, load) & mask;
+            while (table[slot] != 0) {
+                int entry = table[slot] - 1;
+                if (customerIds[entry] == customerId && loads[entry] == load && priorities[entry] == priority) {
+                    counts[entry] += count;
+                    firsts[entry] = Math.min(firsts[entry], firstArrival);
+                    lasts[entry] = Math.max(lasts[entry], lastArrival);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == customerIds.length) {
+                customerIds = Arrays.copyOf(customerIds, size * 2);
+                priorities = Arrays.copyOf(priorities, size * 2);
+                loads = Arrays.copyOf(loads, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+                firsts = Arrays.copyOf(firsts, size * 2);
+                lasts = Arrays.copyOf(lasts, size * 2);
+            }
+            customerIds[size] = customerId;
+            priorities[size] = priority;
+            loads[size] = load;
+            counts[size] = count;
+            firsts[size] = firstArrival;
+            lasts[size] = lastArrival;
+            table[slot] = ++size;
+            if (size * 2 > table.length) {
+                rehash();
+            }
+        }
+
+        /** The bucket's totals at {@code utilization}, putting every tier in {@code tierDemands} as well. */
+        DemandTotals totals(LoadDictionary dictionary, float utilization, Map<Integer, TierDemand> tierDemands) {
+            DemandTotals totals = new DemandTotals();
+            for (int i = 0; i < size; i++) {
+                int agents = dictionary.agents(loads[i], utilization);
+                totals.add(customerIds[i], agents, priorities[i], counts[i], firsts[i], lasts[i]);
+                tierDemands.computeIfAbsent(priorities[i], TierDemand::new).add(customerIds[i], agents, counts[i], firsts[i]);
+            }
+            return totals;
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int entry = 0; entry < size; entry++) {
+                int slot = hash(customerIds[entry], priorities[entry], loads[entry]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = entry + 1;
+            }
+        }
+
+        private static int hash(int customerId, int priority, int load) {
+            int h = (customerId * 0x9E3779B9 + priority) * 0x9E3779B9 + load;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Copies per (customer, agents) within one priority, with the key's first arrival. Requests
+     * that share a key floor and lose the same amount, so they are kept as one request with their
+     * counts summed, and a key's copies stand at its first arrival.
+     */
+    private static final class TierDemand implements Fold {
+        private final int priority;
+        private int[] customerIds = new int[16];
+        private int[] agents = new int[16];
+        private int[] counts = new int[16];
+        private long[] firsts = new long[16];
+        private int size;
+        private boolean sorted = true;
+        // Open-addressing index of entry + 1 per slot; zero marks an empty slot.
+        private int[] table = new int[32];
+        private int demand;
+
+        TierDemand(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public void add(int customerId, int agents, int priority, int count, long firstArrival, long lastArrival) {
+            add(customerId, agents, count, firstArrival);
+        }
+
+        /** Adds {@code count} copies, the first arriving at {@code firstArrival}. */
+        void add(int customerId, int agents, int count, long firstArrival) {
+            demand += agents * count;
+            int mask = table.length - 1;
+            int slot = hash(customerId, agents) & mask;
+            while (table[slot] != 0) {
+                int entry = table[slot] - 1;
+                if (customerIds[entry] == customerId && this.agents[entry] == agents) {
+                    counts[entry] += count;
+                    if (firstArrival < firsts[entry]) {
+                        firsts[entry] = firstArrival;
+                        sorted = false;
+                    }
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == customerIds.length) {
+                customerIds = Arrays.copyOf(customerIds, size * 2);
+                this.agents = Arrays.copyOf(this.agents, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+                firsts = Arrays.copyOf(firsts, size * 2);
+            }
+            customerIds[size] = customerId;
+            this.agents[size] = agents;
+            counts[size] = count;
+            firsts[size] = firstArrival;
+            sorted &= size == 0 || firsts[size - 1] <= firstArrival;
+            table[slot] = ++size;
+            if (size * 2 > table.length) {
+                rehash();
+            }
+        }
+
+        /** Puts the keys in order of first arrival, which is the order the split hands tied units out in. */
+        void sortByArrival() {
+            if (sorted) {
+                return;
+            }
+            int[] order = DemandTotals.inArrivalOrder(firsts, size);
+            int[] sortedIds = new int[customerIds.length];
+            int[] sortedAgents = new int[customerIds.length];
+            int[] sortedCounts = new int[customerIds.length];
+            long[] sortedFirsts = new long[customerIds.length];
+            for (int i = 0; i < size; i++) {
+                sortedIds[i] = customerIds[order[i]];
+                sortedAgents[i] = agents[order[i]];
+                sortedCounts[i] = counts[order[i]];
+                sortedFirsts[i] = firsts[order[i]];
+            }
+            customerIds = sortedIds;
+            agents = sortedAgents;
+            counts = sortedCounts;
+            firsts = sortedFirsts;
+            rehash(table.length);
+            sorted = true;
+        }
+
+        private void rehash() {
+            rehash(table.length * 2);
+        }
+
+        private void rehash(int slots) {
+            table = new int[slots];
+            int mask = table.length - 1;
+            for (int entry = 0; entry < size; entry++) {
+                int slot = hash(customerIds[entry], agents[entry]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = entry + 1;
+            }
+        }
+
+        private static int hash(int customerId, int agents) {
+            int h = customerId * 0x9E3779B9 + agents;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Per-customer values indexed by dictionary id that remember the order customers were first
+     * touched, so the resulting map iterates like the {@link LinkedHashMap} it replaces. The
+     * arrays grow as larger ids arrive.
+     */
+    private static final class CustomerTotals {
+        private int[] values = new int[16];
+        private boolean[] present = new boolean[16];
+        private int[] order = new int[16];
+        private int size;
+
+        void add(int customerId, int value) {
+            touch(customerId);
+            values[customerId] += value;
+        }
+
+        void put(int customerId, int value) {
+            touch(customerId);
+            values[customerId] = value;
+        }
+
+        int get(int customerId) {
+            return values[customerId];
+        }
+
+        int size() {
+            return size;
+        }
+
+        /** The customer touched {@code i}-th. */
+        int idAt(int i) {
+            return order[i];
+        }
+
+        Map<String, Integer> toMap(CustomerDictionary customers) {
+            Map<String, Integer> map = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                map.put(customers.nameOf(order[i]), values[order[i]]);
+            }
+            return map;
+        }
+
+        private void touch(int customerId) {
+            if (customerId >= present.length) {
+                int length = Math.max(customerId + 1, present.length * 2);
+                values = Arrays.copyOf(values, length);
+                present = Arrays.copyOf(present, length);
+            }
+            if (!present[customerId]) {
+                present[customerId] = true;
+                if (size == order.length) {
+                    order = Arrays.copyOf(order, size * 2);
+                }
+                order[size++] = customerId;
             }
         }
-        return new ScheduleBucket(hour, totalAllocated, allocations, demands, priorityMap);
     }
 }
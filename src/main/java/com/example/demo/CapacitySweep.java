@@ -0,0 +1,117 @@
+package com.example.demo;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Schedules of one input under several capacities, computed in a single run, together with the
+ * least capacity at which no customer is throttled.
+ *
+ * Nobody is throttled in a bucket exactly when the capacity covers the bucket's whole demand, so
+ * a bucket's minimum capacity is its {@link ScheduleBucket#totalDemand()}; an hour needs the
+ * largest of its buckets' minimums, and the day the largest of all.
+ */
+public class CapacitySweep {
+
+    /** Most capacities one sweep may compute. */
+    public static final int MAX_CAPACITIES = 1000;
+
+    private final int[] capacities;
+    private final List<List<ScheduleBucket>> schedules;
+
+    /**
+     * @param capacities the capacities swept, in ascending order
+     * @param schedules one schedule per capacity, its buckets in time order
+     */
+    public CapacitySweep(int[] capacities, List<List<ScheduleBucket>> schedules) {
+        Preconditions.checkArgument(capacities.length == schedules.size(), "One schedule per capacity is needed");
+        this.capacities = capacities.clone();
+        this.schedules = schedules;
+    }
+
+    /**
+     * Builds a sweep from the schedules of each bucket, where {@code bucketSchedules.get(b).get(i)}
+     * is bucket {@code b} under {@code capacities[i]} and the buckets are in time order.
+     */
+    public static CapacitySweep ofBuckets(int[] capacities, List<List<ScheduleBucket>> bucketSchedules) {
+        List<List<ScheduleBucket>> schedules = new ArrayList<>();
+        for (int i = 0; i < capacities.length; i++) {
+            List<ScheduleBucket> schedule = new ArrayList<>();
+            for (List<ScheduleBucket> bucket : bucketSchedules) {
+                schedule.add(bucket.get(i));
+            }
+            schedules.add(schedule);
+        }
+        return new CapacitySweep(capacities, schedules);
+    }
+
+    /**
+     * Parses a comma-separated list of capacities and ranges, such as {@code 100,200,500-1000:100},
+     * where {@code A-B:S} stands for A to B in steps of S and a range without a step counts by one.
+     * Returns the distinct capacities in ascending order.
+     */
+    public static int[] parse(String text) {
+        TreeSet<Integer> capacities = new TreeSet<>();
+        for (String part : text.split(",")) {
+            String[] range = part.trim().split(":");
+            Preconditions.checkArgument(range.length == 1 || range.length == 2, "Invalid capacity range: %s", part);
+            String[] bounds = range[0].trim().split("-");
+            Preconditions.checkArgument(bounds.length == 1 || bounds.length == 2, "Invalid capacity range: %s", part);
+            int from = Integer.parseInt(bounds[0].trim());
+            int to = bounds.length == 2 ? Integer.parseInt(bounds[1].trim()) : from;
+            int step = range.length == 2 ? Integer.parseInt(range[1].trim()) : 1;
+            Preconditions.checkArgument(from >= 1 && from <= to && step >= 1, "Invalid capacity range: %s", part);
+            for (long capacity = from; capacity <= to; capacity += step) {
+                capacities.add((int) capacity);
+                Preconditions.checkArgument(capacities.size() <= MAX_CAPACITIES, "A sweep takes at most %s capacities", MAX_CAPACITIES);
+            }
+        }
+        return capacities.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** The capacities swept, in ascending order. */
+    public int[] capacities() {
+        return capacities.clone();
+    }
+
+    public int size() {
+        return capacities.length;
+    }
+
+    public int capacity(int i) {
+        return capacities[i];
+    }
+
+    /** The schedule under the {@code i}-th capacity. */
+    public List<ScheduleBucket> schedule(int i) {
+        return schedules.get(i);
+    }
+
+    /** Number of buckets in which someone is throttled under the {@code i}-th capacity. */
+    public int throttledBuckets(int i) {
+        return (int) schedules.get(i).stream().filter(ScheduleBucket::isAnyThrottled).count();
+    }
+
+    /** The buckets of the day, in time order. */
+    public List<ScheduleBucket> buckets() {
+        return schedules.isEmpty() ? List.of() : schedules.get(0);
+    }
+
+    /** Least capacity that throttles nobody, per hour of the day that has buckets. */
+    public Map<Integer, Integer> minimumCapacityByHour() {
+        Map<Integer, Integer> minimums = new TreeMap<>();
+        for (ScheduleBucket bucket : buckets()) {
+            minimums.merge(bucket.hour(), bucket.totalDemand(), Math::max);
+        }
+        return minimums;
+    }
+
+    /** Least capacity that throttles nobody at any time of the day. */
+    public int minimumCapacity() {
+        return buckets().stream().mapToInt(ScheduleBucket::totalDemand).max().orElse(0);
+    }
+}
@@ -10,6 +10,7 @@ public class Constants {
     public static final String PRIORITY = "Priority";
     public static final String SCHEDULE_FILE_PREFIX = "schedule";
     public static final String INTERMEDIATE_FILE_PREFIX = "intermediate";
+    public static final String MANIFEST_FILE_NAME = "ingest.manifest";
     public static final String HTLM_FILE_NAME = "scheduler_report.html";
 
     /** The output format. */
@@ -21,6 +22,48 @@ public class Constants {
 
     enum StorageType {
         MEMORY,
-        FILESYSTEM
+        FILESYSTEM,
+        // In memory until a byte budget is used up, then the largest hours spill to disk.
+        HYBRID,
+        // Intermediate records in direct memory outside the Java heap.
+        OFF_HEAP
+    }
+
+    /** Block compression for FILESYSTEM spill and schedule files. */
+    enum Compression {
+        NONE,
+        // JDK Deflater at its fastest level.
+        DEFLATE
+    }
+
+    /** Where map output is pre-aggregated before it is stored. */
+    enum CombineMode {
+        NONE,
+        BATCH,
+        GLOBAL,
+        // One combiner per map thread, merged once at the end of Step 1.
+        WORKER
+    }
+
+    /** How the Step 1 reader and map workers wait on each other. */
+    enum WaitStrategy {
+        BLOCKING,
+        SPINNING
+    }
+
+    /** How Step 1 reads the input file. */
+    enum IngestMode {
+        STREAM,
+        MAPPED
+    }
+
+    /** What a FILESYSTEM run does with the manifest an earlier run left behind. */
+    enum ResumeMode {
+        // Start over with a new manifest.
+        OFF,
+        // Skip the input ranges the manifest has committed.
+        RESUME,
+        // Skip Step 1 and run Step 2 on what the manifest has committed.
+        REDUCE_ONLY
     }
 }
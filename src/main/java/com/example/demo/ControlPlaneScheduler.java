@@ -1,26 +1,38 @@
 package com.example.demo;
 
+import com.example.demo.Constants.CombineMode;
+import com.example.demo.Constants.Compression;
+import com.example.demo.Constants.IngestMode;
 import com.example.demo.Constants.OutputFormat;
+import com.example.demo.Constants.ResumeMode;
 import com.example.demo.Constants.StorageType;
+import com.example.demo.Constants.WaitStrategy;
+import com.example.demo.IngestController.Bounds;
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.ImmutableList;
-import de.siegmar.fastcsv.reader.CsvReader;
-import de.siegmar.fastcsv.reader.NamedCsvRecord;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ControlPlaneScheduler {
     private static final int BATCH_SIZE = 10000;
     private static final int INITIAL_THREAD_POOL_SIZE = 4;
+    static final Bounds DEFAULT_BATCH_SIZE_BOUNDS = new Bounds(1000, 100000);
+    static final Bounds DEFAULT_WORKER_BOUNDS = new Bounds(1, Runtime.getRuntime().availableProcessors());
+    // HYBRID storage keeps up to a quarter of the heap in memory unless told otherwise.
+    static final long DEFAULT_MEMORY_BUDGET_BYTES = Runtime.getRuntime().maxMemory() / 4;
+    // The JVM's default direct memory cap is the maximum heap size.
+    static final long DEFAULT_OFF_HEAP_LIMIT_BYTES = Runtime.getRuntime().maxMemory();
 
     private final String inputFile;
     private final float utilization;
@@ -29,6 +41,26 @@ public class ControlPlaneScheduler {
     private final Storage storage;
     private final boolean verbose;
     private final boolean skipOutput;
+    private IngestMode ingestMode = IngestMode.STREAM;
+    private CombineMode combineMode = CombineMode.BATCH;
+    private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+    private Bounds batchSizeBounds = DEFAULT_BATCH_SIZE_BOUNDS;
+    private Bounds workerBounds = DEFAULT_WORKER_BOUNDS;
+    private DemandCombiner globalCombiner;
+    private WorkerCombiners workerCombiners;
+    // Step 1 stores and Step 2 reads through this, partitioned by (hour, priority).
+    private PartitionedStorage partitions;
+    // Processors hold reusable scratch state, so each map thread gets its own.
+    private ThreadLocal<RequestProcessor> processors;
+    private TimeBuckets buckets = TimeBuckets.HOURLY;
+    private ResumeMode resumeMode = ResumeMode.OFF;
+    private ScheduleCache scheduleCache;
+    private int[] sweepCapacities;
+    private List<Scenarios.Scenario> scenarios;
+    // Loads Step 1 stores in place of agents when utilization is left to the scenarios.
+    private LoadDictionary loads;
+    // Customer ids belong to one run; a resumed run re-interns the names its manifest lists.
+    private CustomerDictionary customers;
 
     public ControlPlaneScheduler(String inputFile, float utilization, OutputFormat outputFormat, int capacity, StorageType storageType, boolean verbose, boolean skipOutput) {
         this(inputFile, utilization, outputFormat, capacity, createStorage(storageType), verbose, skipOutput);
@@ -38,6 +70,10 @@ public class ControlPlaneScheduler {
         switch (storageType) {
             case FILESYSTEM:
                 return new PersistentStorage(LocalDate.now());
+            case HYBRID:
+                return new HybridStorage(LocalDate.now(), DEFAULT_MEMORY_BUDGET_BYTES);
+            case OFF_HEAP:
+                return new OffHeapStorage(DEFAULT_OFF_HEAP_LIMIT_BYTES);
             case MEMORY:
             default:
                 return new InMemoryStorage();
@@ -54,18 +90,136 @@ public class ControlPlaneScheduler {
         this.skipOutput = skipOutput;
     }
 
+    public void setIngestMode(IngestMode ingestMode) {
+        this.ingestMode = ingestMode;
+    }
+
+    public void setCombineMode(CombineMode combineMode) {
+        this.combineMode = combineMode;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    /** Range the Step 1 batch size may be tuned within. */
+    public void setBatchSizeBounds(Bounds batchSizeBounds) {
+        this.batchSizeBounds = batchSizeBounds;
+    }
+
+    /** Range the number of map workers may be tuned within; the maximum also sizes the reduce pool. */
+    public void setWorkerBounds(Bounds workerBounds) {
+        this.workerBounds = workerBounds;
+    }
+
+    /** Block compression for data the storage writes to disk. */
+    public void setCompression(Compression compression) {
+        storage.setCompression(compression);
+    }
+
+    /** Directories FILESYSTEM storage stripes its segments across, typically one per disk. */
+    public void setSpillDirectories(List<Path> spillDirectories) {
+        if (storage instanceof PersistentStorage) {
+            ((PersistentStorage) storage).setSpillDirectories(spillDirectories);
+        }
+    }
+
+    /** Bytes of blocks FILESYSTEM storage queues for its background writers; zero writes on the map threads. */
+    public void setWriteQueueBytes(long writeQueueBytes) {
+        if (storage instanceof PersistentStorage) {
+            ((PersistentStorage) storage).setWriteQueueBytes(writeQueueBytes);
+        }
+    }
+
+    /** Bytes of intermediate data HYBRID storage keeps in memory before spilling hours to disk. */
+    public void setMemoryBudgetBytes(long memoryBudgetBytes) {
+        if (storage instanceof HybridStorage) {
+            ((HybridStorage) storage).setBudgetBytes(memoryBudgetBytes);
+        }
+    }
+
+    /** Bytes of intermediate records OFF_HEAP storage may hold. */
+    public void setOffHeapLimitBytes(long offHeapLimitBytes) {
+        if (storage instanceof OffHeapStorage) {
+            ((OffHeapStorage) storage).setLimitBytes(offHeapLimitBytes);
+        }
+    }
+
+    public void setBucketMinutes(int bucketMinutes) {
+        this.buckets = new TimeBuckets(bucketMinutes);
+    }
+
+    /** Whether a FILESYSTEM run picks up the manifest an earlier run left; other storages ignore it. */
+    public void setResumeMode(ResumeMode resumeMode) {
+        this.resumeMode = resumeMode;
+    }
+
+    /** Cache of finished schedules to look the run up in first and to store its schedule in. */
+    public void setScheduleCache(ScheduleCache scheduleCache) {
+        this.scheduleCache = scheduleCache;
+    }
+
+    /**
+     * Computes the schedule under each of {@code capacities}, all positive, instead of under the
+     * configured capacity, and prints the sweep with the least capacity that throttles nobody.
+     * Null turns the sweep off. Sweeps bypass the schedule cache and are not stored.
+     */
+    public void setCapacitySweep(int[] capacities) {
+        this.sweepCapacities = capacities == null ? null : capacities.clone();
+    }
+
+    /**
+     * Computes the schedule under each (utilization, capacity) scenario instead of under the
+     * configured ones, parsing the input once: Step 1 stores every request's load before
+     * utilization and Step 2 applies each scenario's. Null turns scenarios off. Scenario runs
+     * bypass the schedule cache, are not stored and cannot resume, as the loads live in memory.
+     */
+    public void setScenarios(List<Scenarios.Scenario> scenarios) {
+        this.scenarios = scenarios == null ? null : List.copyOf(scenarios);
+    }
+
     public void run() {
+        customers = new CustomerDictionary();
+        Path path = Paths.get(inputFile);
+        ScheduleCache.Key cacheKey = cacheKey(path);
+        if (cacheKey != null) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            List<ScheduleBucket> cached = scheduleCache.get(cacheKey);
+            if (cached != null) {
+                if (verbose) {
+                    System.out.println("Schedule cache hit " + cacheKey + " in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+                }
+                print(cached);
+                return;
+            }
+        }
+        storage.setCustomers(customers);
+        PersistentStorage persistent = storage instanceof PersistentStorage ? (PersistentStorage) storage : null;
+        boolean reduceOnly = persistent != null && resumeMode == ResumeMode.REDUCE_ONLY;
+        InputRanges ingested = null;
+        if (persistent != null && resumeMode != ResumeMode.OFF) {
+            storage.setTimeBuckets(buckets);
+            ingested = resume(persistent, reduceOnly ? null : path);
+            if (ingested == null && reduceOnly) {
+                System.err.println("No manifest to reduce from in the output directory.");
+                return;
+            }
+        }
         // Check the previous calculation.
         List<ScheduleBucket> schedule = storage.fetchSchedule();
+        if (!schedule.isEmpty() && (sweepCapacities != null || scenarios != null)) {
+            System.err.println("The recorded run already finished Step 2; its intermediate data is gone, so there is nothing to sweep or re-evaluate.");
+            return;
+        }
+        CapacitySweep sweep = null;
+        Scenarios scenarioRun = null;
         if (schedule.isEmpty()) {
-            Path path = Paths.get(inputFile);
-            if (!Files.exists(path)) {
+            if (!reduceOnly && !Files.exists(path)) {
                 System.err.println("Input file does not exist: " + inputFile);
                 return;
             }
 
             schedule = new ArrayList<>();
-            ExecutorService mapExecutor = Executors.newFixedThreadPool(INITIAL_THREAD_POOL_SIZE);
 
             if (verbose) {
                 System.out.println("Starting Step 1: Processing CSV...");
@@ -73,83 +227,148 @@ public class ControlPlaneScheduler {
             Stopwatch stopwatch = Stopwatch.createStarted();
 
             // Step 1: Read CSV data from the input. And pass it to RequestProcessor.
-            System.out.println("Processing file: " + inputFile);
-            try (CsvReader<NamedCsvRecord> reader = CsvReader.builder().ofNamedCsvRecord(path)) {
-                int count = 0;
-                ImmutableList.Builder<NamedCsvRecord> builder = ImmutableList.builderWithExpectedSize(BATCH_SIZE);
-                List<CompletableFuture<Void>> futures = new ArrayList<>();
-
-                for (NamedCsvRecord record : reader) {
-                    builder.add(record);
-                    if (++count >= BATCH_SIZE) {
-                        ImmutableList<NamedCsvRecord> batch = builder.build();
-                        futures.add(CompletableFuture.runAsync(() -> { 
-                            RequestProcessor processor = new RequestProcessor(storage, utilization);
-                            processor.processRequest(batch);
-                        }, mapExecutor));
-                        builder = ImmutableList.builderWithExpectedSize(BATCH_SIZE);
-                        count = 0;
-                        // Optimization: Check if we have too many active tasks
-                        if (futures.size() > INITIAL_THREAD_POOL_SIZE * 2) {
-                            // Wait for one to finish before reading more lines
-                            CompletableFuture.anyOf(futures.toArray(new CompletableFuture[0])).join();
-                            // Clean up finished futures to free memory
-                            futures.removeIf(CompletableFuture::isDone);
-                        }
-                    }
+            if (ingested == null) {
+                storage.setTimeBuckets(buckets);
+                ingested = new InputRanges();
+                if (persistent != null) {
+                    persistent.beginIngest(path);
                 }
-                if (count > 0) {
-                    ImmutableList<NamedCsvRecord> batch = builder.build();
-                        futures.add(CompletableFuture.runAsync(() -> { 
-                            RequestProcessor processor = new RequestProcessor(storage, utilization);
-                            processor.processRequest(batch);
-                        }, mapExecutor));
+            }
+            partitions = new PartitionedStorage(storage, buckets);
+            // Requests an earlier run stored are not in this run's totals, and loads are no agents to total.
+            partitions.setTotalsComplete(ingested.isEmpty() && !reduceOnly && scenarios == null);
+            loads = scenarios != null ? new LoadDictionary() : null;
+            globalCombiner = combineMode == CombineMode.GLOBAL ? new DemandCombiner(buckets) : null;
+            workerCombiners = combineMode == CombineMode.WORKER ? new WorkerCombiners(buckets) : null;
+            processors = ThreadLocal.withInitial(this::newProcessor);
+            boolean complete = false;
+            if (!reduceOnly) {
+                System.out.println("Processing file: " + inputFile);
+                complete = ingestMode == IngestMode.MAPPED ? ingestMapped(path, ingested) : ingestStream(path, ingested);
+            }
+            if (globalCombiner != null) {
+                if (verbose) {
+                    System.out.println("Combined map output into " + globalCombiner.size() + " keys");
                 }
-
-                // Wait for all async tasks to complete
-                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-
-            } catch (Exception e) {
-                System.out.println("Filed to read data.");
-                e.printStackTrace();
+                globalCombiner.flush(partitions);
             }
+            if (workerCombiners != null) {
+                int workers = workerCombiners.workers();
+                DemandCombiner merged = workerCombiners.merge();
+                if (verbose) {
+                    System.out.println("Merged " + workers + " worker buffers into " + merged.size() + " keys");
+                }
+                merged.flush(partitions);
+            }
+            if (complete && !commitsPerBatch()) {
+                // Combined output is only stored now, so it covers the whole input at once.
+                storage.commitInput(0, inputBytes(path));
+            }
+            storage.flushIntermediateData();
             if (verbose) {
                 System.out.println("Step 1 completed in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
             }
-            mapExecutor.shutdown();
 
-            // Step 2: Aggregate intermediate requests into ScheduleBucket per hour.
+            // Step 2: Aggregate intermediate requests into one ScheduleBucket per time bucket.
             if (verbose) {
                 System.out.println("Starting Step 2: Aggregating buckets...");
             }
             stopwatch.reset().start();
-            ExecutorService reduceExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-            List<CompletableFuture<ScheduleBucket>> reduceFutures = new ArrayList<>();
-            for (int h = 0; h < 24; h++) {
-                final int hour = h;
-                reduceFutures.add(CompletableFuture.supplyAsync(() -> {
-                    CallOrchestrator callOrchestrator = new CallOrchestrator(storage, capacity);
-                    return callOrchestrator.calculateSchedule(hour);
-                }, reduceExecutor));
-            }
-            CompletableFuture.allOf(reduceFutures.toArray(new CompletableFuture[0])).join();
-            for (CompletableFuture<ScheduleBucket> future : reduceFutures) {
-                ScheduleBucket bucket = future.join();
-                schedule.add(bucket);
+            // One read pool per storage device, so that every device has readers of its own, and a
+            // reduce pool that folds and allocates the hours. The pools are fork-join pools sized
+            // by the workers rather than the hours: large hours are read as slices, which idle
+            // workers steal.
+            int devices = Math.max(1, storage.devices());
+            int threadsPerDevice = Math.max(1, (workerBounds.max() + devices - 1) / devices);
+            List<ForkJoinPool> readPools = new ArrayList<>();
+            for (int device = 0; device < devices; device++) {
+                readPools.add(new ForkJoinPool(threadsPerDevice));
+            }
+            ForkJoinPool reducePool = new ForkJoinPool(workerBounds.max());
+            // Every stored hour is read once for the whole day, largest hours first, so the longest
+            // read is not the one started last.
+            CallOrchestrator callOrchestrator = new CallOrchestrator(partitions, capacity, buckets, customers);
+            callOrchestrator.setReadPools(readPools);
+            // Each bucket's schedules: one, or one per capacity of a sweep or per scenario.
+            List<List<ScheduleBucket>> bucketSchedules = reducePool.submit(() -> {
+                if (scenarios != null) {
+                    return callOrchestrator.calculateDayScenarios(loads, scenarios);
+                }
+                if (sweepCapacities != null) {
+                    return callOrchestrator.calculateDaySchedules(sweepCapacities);
+                }
+                List<List<ScheduleBucket>> single = new ArrayList<>();
+                for (ScheduleBucket bucket : callOrchestrator.calculateDay()) {
+                    single.add(List.of(bucket));
+                }
+                return single;
+            }).join();
+            for (List<ScheduleBucket> bucket : bucketSchedules) {
+                schedule.add(bucket.get(0));
             }
             Collections.sort(schedule);
+            if (sweepCapacities != null) {
+                // Bucket indexes run in time order, so the schedules need no sorting.
+                sweep = CapacitySweep.ofBuckets(sweepCapacities, bucketSchedules);
+            }
+            if (scenarios != null) {
+                scenarioRun = Scenarios.ofBuckets(scenarios, bucketSchedules);
+            }
             if (verbose) {
                 System.out.println("Step 2 completed in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+                System.out.println("Reduce: " + devices + " read pools of " + threadsPerDevice + " workers, " + workerBounds.max()
+                    + " reduce workers, " + (reducePool.getStealCount() + readPools.stream().mapToLong(ForkJoinPool::getStealCount).sum())
+                    + " steals");
+                System.out.println("Partitions: " + partitions.summary());
+                if (loads != null) {
+                    System.out.println("Scenarios: " + scenarios.size() + " evaluated over " + loads.size() + " distinct loads");
+                }
             }
 
-            storage.storeSchedule(schedule);
+            if (sweep == null && scenarioRun == null) {
+                storage.storeSchedule(schedule);
+            }
+            if (cacheKey != null && complete) {
+                try {
+                    scheduleCache.put(cacheKey, schedule);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
             storage.cleanupIntermediateFiles();
-            reduceExecutor.shutdown();
+            readPools.forEach(ForkJoinPool::shutdown);
+            reducePool.shutdown();
+            if (verbose && !storage.statistics().isEmpty()) {
+                System.out.println("Storage: " + storage.statistics());
+            }
+            if (verbose && scheduleCache != null) {
+                System.out.println("Schedule cache: " + scheduleCache.summary());
+            }
+        }
+        if (sweep != null) {
+            if (!skipOutput) {
+                formatter().printSweep(sweep);
+            }
+            return;
+        }
+        if (scenarioRun != null) {
+            if (!skipOutput) {
+                formatter().printScenarios(scenarioRun);
+            }
+            return;
         }
-        // Step 3: Show output 
+        print(schedule);
+    }
+
+    /** Step 3: Show output */
+    private void print(List<ScheduleBucket> schedule) {
         if (skipOutput) {
             return;
         }
+        formatter().print(schedule);
+    }
+
+    private OutputFormatter formatter() {
         OutputFormatter formatter;
         switch (outputFormat) {
             case JSON:
@@ -163,6 +382,172 @@ public class ControlPlaneScheduler {
                 break;
         }
         formatter.setCapacity(capacity);
-        formatter.print(schedule);
+        return formatter;
+    }
+
+    /**
+     * Reads the input on the calling thread and publishes batches to a ring buffer drained by the
+     * map workers. The batch size and the number of workers are tuned as the input is read.
+     */
+    private boolean ingestStream(Path path, InputRanges ingested) {
+        IngestController controller = new IngestController(batchSizeBounds, BATCH_SIZE, workerBounds, INITIAL_THREAD_POOL_SIZE);
+        ExecutorService mapExecutor = Executors.newFixedThreadPool(controller.maxWorkers());
+        // Two batches queued or in progress per worker.
+        BatchRing ring = new BatchRing(controller.maxWorkers() * 2, controller.batchSize(), waitStrategy);
+        AtomicInteger running = new AtomicInteger();
+        List<CompletableFuture<Void>> consumers = new ArrayList<>();
+        boolean complete = false;
+        try (CsvBatchReader reader = new CsvBatchReader(path, customers)) {
+            reader.skip(ingested);
+            startWorkers(ring, controller, running, consumers, mapExecutor);
+            RequestBatch batch = ring.next();
+            batch.setLimit(controller.batchSize());
+            while (reader.read(batch)) {
+                ring.publish();
+                // Also catches up if a worker retired just as the target went back up.
+                if (controller.onPublish(ring) || running.get() < controller.workers()) {
+                    startWorkers(ring, controller, running, consumers, mapExecutor);
+                }
+                batch = ring.next();
+                batch.setLimit(controller.batchSize());
+            }
+            complete = true;
+        } catch (Exception e) {
+            System.out.println("Filed to read data.");
+            e.printStackTrace();
+        } finally {
+            ring.close();
+        }
+        // Wait for the workers to drain the ring
+        CompletableFuture.allOf(consumers.toArray(new CompletableFuture<?>[0])).join();
+        if (verbose) {
+            System.out.println("Ring buffer: " + ring.capacity() + " slots, " + ring.published() + " batches, max depth "
+                + ring.maxDepth() + ", reader stalled " + TimeUnit.NANOSECONDS.toMillis(ring.producerStallNanos())
+                + " ms, workers idle " + TimeUnit.NANOSECONDS.toMillis(ring.consumerStallNanos()) + " ms");
+            System.out.println("Ingest controller: " + controller.summary());
+        }
+        mapExecutor.shutdown();
+        return complete;
+    }
+
+    /** Starts drain loops until as many are running as the controller asks for. */
+    private void startWorkers(BatchRing ring, IngestController controller, AtomicInteger running,
+            List<CompletableFuture<Void>> consumers, ExecutorService mapExecutor) {
+        consumers.removeIf(CompletableFuture::isDone);
+        while (running.get() < controller.workers()) {
+            running.incrementAndGet();
+            consumers.add(CompletableFuture.runAsync(() -> drain(ring, controller, running), mapExecutor));
+        }
+    }
+
+    /**
+     * Processes batches from the ring on the calling worker until the ring is closed and empty, or
+     * until the controller wants fewer workers than are running.
+     */
+    private void drain(BatchRing ring, IngestController controller, AtomicInteger running) {
+        RequestProcessor processor = processors.get();
+        try {
+            long sequence;
+            while ((sequence = ring.claim()) >= 0) {
+                long start = System.nanoTime();
+                try {
+                    RequestBatch batch = ring.get(sequence);
+                    processor.processBatch(batch);
+                    if (commitsPerBatch()) {
+                        storage.commitInput(batch.startOffset(), batch.endOffset());
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    ring.release(sequence);
+                }
+                controller.recordBatch(System.nanoTime() - start);
+                int current = running.get();
+                if (current > controller.workers() && running.compareAndSet(current, current - 1)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+    }
+
+    /** Memory-maps the input and parses newline-aligned ranges on the maximum number of workers. */
+    private boolean ingestMapped(Path path, InputRanges ingested) {
+        int parallelism = workerBounds.max();
+        ExecutorService mapExecutor = Executors.newFixedThreadPool(parallelism);
+        MappedCsvIngestor ingestor = new MappedCsvIngestor(path, parallelism, batchSizeBounds.clamp(BATCH_SIZE), customers);
+        ingestor.skip(ingested);
+        boolean complete = false;
+        try {
+            ingestor.ingest(mapExecutor, batch -> {
+                processors.get().processBatch(batch);
+                if (commitsPerBatch()) {
+                    storage.commitInput(batch.startOffset(), batch.endOffset());
+                }
+            });
+            complete = true;
+        } catch (Exception e) {
+            System.out.println("Filed to read data.");
+            e.printStackTrace();
+        }
+        mapExecutor.shutdown();
+        return complete;
+    }
+
+    /**
+     * Loads the manifest an earlier run left and returns the input ranges it committed, or null
+     * if there is none or it cannot be used, in which case the run starts over.
+     */
+    private InputRanges resume(PersistentStorage persistent, Path input) {
+        try {
+            IngestManifest.Contents contents = persistent.resume(input);
+            if (contents == null) {
+                System.out.println("No manifest to resume from; starting over.");
+                return null;
+            }
+            InputRanges ingested = contents.ingested();
+            if (verbose) {
+                System.out.println("Resumed manifest of " + contents.header().input() + ": " + contents.blockCount()
+                    + " blocks, " + ingested.bytes() + " of " + contents.header().inputBytes() + " input bytes ingested");
+            }
+            return ingested;
+        } catch (Exception e) {
+            System.out.println("Cannot resume: " + e.getMessage() + "; starting over.");
+            return null;
+        }
+    }
+
+    /** The run's key in the schedule cache, or null without a cache or when the input cannot be read. */
+    private ScheduleCache.Key cacheKey(Path input) {
+        if (scheduleCache == null || sweepCapacities != null || scenarios != null || !Files.exists(input)) {
+            return null;
+        }
+        try {
+            return scheduleCache.key(input, new ScheduleCache.Settings(utilization, capacity, buckets, combineMode, ingestMode, batchSizeBounds));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Whether map workers store each batch before taking the next, so it can be committed on its own. */
+    private boolean commitsPerBatch() {
+        return combineMode == CombineMode.NONE || combineMode == CombineMode.BATCH;
+    }
+
+    private static long inputBytes(Path path) {
+        try {
+            return Files.size(path);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    private RequestProcessor newProcessor() {
+        DemandCombiner combiner = workerCombiners != null ? workerCombiners.local() : globalCombiner;
+        return new RequestProcessor(partitions, utilization, combineMode, combiner, buckets, loads);
     }
 }
@@ -0,0 +1,430 @@
+package com.example.demo;
+
+import static com.example.demo.Constants.AVG_CALL_DURATION_SEC;
+import static com.example.demo.Constants.CUSTOMER_COLUMN;
+import static com.example.demo.Constants.END_TIME;
+import static com.example.demo.Constants.NUM_CALLS;
+import static com.example.demo.Constants.PRIORITY;
+import static com.example.demo.Constants.START_TIME;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses CSV rows straight from bytes into the primitive columns of a {@link RequestBatch}.
+ *
+ * Column positions are resolved once from the header. Numbers and {@code HH:MM AM/PM} times are
+ * decoded in place, and customer names are mapped to ids in the run's {@link CustomerDictionary}
+ * by their bytes, so a valid row allocates nothing once its customer has been seen. Quoted fields are
+ * supported, quoted line breaks are not. Instances are not thread-safe; use one per reader or
+ * worker.
+ */
+public class CsvBatchParser {
+
+    private static final byte NONE = 0;
+    private static final byte CUSTOMER = 1;
+    private static final byte CALLS = 2;
+    private static final byte DURATION = 3;
+    private static final byte PRIORITY_FIELD = 4;
+    private static final byte START = 5;
+    private static final byte END = 6;
+    private static final String[] REQUIRED = {
+        CUSTOMER_COLUMN, NUM_CALLS, AVG_CALL_DURATION_SEC, PRIORITY, START_TIME, END_TIME
+    };
+
+    private final byte[] roles;
+    private final CustomerDictionary customers;
+    private final NameCache names;
+
+    // Per-field parse state, reset for every row. Kept in fields so the hot path stays
+    // allocation-free.
+    private boolean invalid;
+    private String error;
+
+    private CsvBatchParser(byte[] roles, CustomerDictionary customers) {
+        this.roles = roles;
+        this.customers = customers;
+        this.names = new NameCache(customers);
+    }
+
+    /**
+     * Creates a parser for the given header line (without its line terminator) that interns
+     * customer names in {@code customers}.
+     */
+    public static CsvBatchParser forHeader(String headerLine, CustomerDictionary customers) {
+        List<String> columns = splitHeader(headerLine);
+        byte[] roles = new byte[columns.size()];
+        for (int i = 0; i < REQUIRED.length; i++) {
+            int index = columns.indexOf(REQUIRED[i]);
+            if (index < 0) {
+                throw new IllegalArgumentException("Missing column: " + REQUIRED[i]);
+            }
+            roles[index] = (byte) (i + 1);
+        }
+        return new CsvBatchParser(roles, customers);
+    }
+
+    /** Creates a parser from the header line at the start of the buffer. */
+    public static CsvBatchParser forHeader(ByteBuffer buffer, int position, int limit, CustomerDictionary customers) {
+        int end = indexOf(buffer, (byte) '\n', position, limit);
+        if (end < 0) {
+            end = limit;
+        }
+        return forHeader(decode(buffer, position, trimCarriageReturn(buffer, position, end)), customers);
+    }
+
+    /**
+     * Parses rows from {@code [position, limit)} until the batch is full or the input runs out.
+     *
+     * Only complete lines are consumed unless {@code endOfInput} is set, in which case a trailing
+     * line without terminator is parsed too.
+     *
+     * @return the position just past the last consumed line
+     */
+    public int parse(ByteBuffer buffer, int position, int limit, boolean endOfInput, RequestBatch batch) {
+        return parse(buffer, position, limit, endOfInput, batch, 0);
+    }
+
+    /**
+     * As {@link #parse(ByteBuffer, int, int, boolean, RequestBatch)}, where the buffer's first byte
+     * is input byte {@code bufferOffset}; each row is added with the input offset it starts at.
+     */
+    public int parse(ByteBuffer buffer, int position, int limit, boolean endOfInput, RequestBatch batch, long bufferOffset) {
+        while (position < limit && !batch.isFull()) {
+            int lineEnd = indexOf(buffer, (byte) '\n', position, limit);
+            int next;
+            if (lineEnd < 0) {
+                if (!endOfInput) {
+                    break;
+                }
+                lineEnd = limit;
+                next = limit;
+            } else {
+                next = lineEnd + 1;
+            }
+            int contentEnd = trimCarriageReturn(buffer, position, lineEnd);
+            if (contentEnd > position) {
+                parseLine(buffer, position, contentEnd, batch, bufferOffset + position);
+            }
+            position = next;
+        }
+        return position;
+    }
+
+    private void parseLine(ByteBuffer buffer, int start, int end, RequestBatch batch, long offset) {
+        invalid = false;
+        error = null;
+        int customerId = -1;
+        int calls = 0;
+        int duration = 0;
+        int priority = 0;
+        int startMinute = 0;
+        int endMinute = 0;
+        int found = 0;
+
+        int field = 0;
+        int position = start;
+        while (position <= end && !invalid) {
+            int fieldStart = position;
+            int fieldEnd;
+            boolean quoted = position < end && buffer.get(position) == '"';
+            boolean escaped = false;
+            if (quoted) {
+                int i = position + 1;
+                while (true) {
+                    if (i >= end) {
+                        fail("Unterminated quoted field");
+                        break;
+                    }
+                    if (buffer.get(i) == '"') {
+                        if (i + 1 < end && buffer.get(i + 1) == '"') {
+                            escaped = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                if (invalid) {
+                    break;
+                }
+                fieldStart = position + 1;
+                fieldEnd = i;
+                position = indexOf(buffer, (byte) ',', i, end);
+            } else {
+                position = indexOf(buffer, (byte) ',', position, end);
+                fieldEnd = position < 0 ? end : position;
+            }
+            position = position < 0 ? end + 1 : position + 1;
+
+            byte role = field < roles.length ? roles[field] : NONE;
+            switch (role) {
+                case CUSTOMER:
+                    customerId = escaped
+                        ? customers.idOf(unescape(buffer, fieldStart, fieldEnd))
+                        : names.get(buffer, fieldStart, fieldEnd);
+                    found++;
+                    break;
+                case CALLS:
+                    calls = parseInt(buffer, fieldStart, fieldEnd);
+                    found++;
+                    break;
+                case DURATION:
+                    duration = parseInt(buffer, fieldStart, fieldEnd);
+                    found++;
+                    break;
+                case PRIORITY_FIELD:
+                    priority = parseInt(buffer, fieldStart, fieldEnd);
+                    found++;
+                    break;
+                case START:
+                    startMinute = parseMinuteOfDay(buffer, fieldStart, fieldEnd);
+                    found++;
+                    break;
+                case END:
+                    endMinute = parseMinuteOfDay(buffer, fieldStart, fieldEnd);
+                    found++;
+                    break;
+                default:
+                    break;
+            }
+            field++;
+        }
+        if (!invalid && found < REQUIRED.length) {
+            invalid = true;
+            error = "Missing fields";
+        }
+        if (invalid) {
+            System.err.println("Skipping invalid record: " + decode(buffer, start, end) + " Error: " + error);
+            return;
+        }
+        batch.add(customerId, calls, duration, priority, startMinute, endMinute, offset);
+    }
+
+    /** Equivalent of {@code Integer.parseInt(field.trim())}. */
+    private int parseInt(ByteBuffer buffer, int start, int end) {
+        while (start < end && (buffer.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        boolean negative = false;
+        if (start < end && (buffer.get(start) == '-' || buffer.get(start) == '+')) {
+            negative = buffer.get(start) == '-';
+            start++;
+        }
+        if (start >= end) {
+            return fail("Not a number");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return fail("Not a number");
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return fail("Number out of range");
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            return fail("Number out of range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses a time such as {@code 10:30 AM}, {@code 9PM} or {@code 13:00} into minutes of the
+     * day, matching the rules of {@link RequestProcessor}: digits before the first ':' form the
+     * hour, digits right after it the minutes, and an AM/PM marker anywhere in the field shifts
+     * the hour to a 24-hour clock.
+     */
+    private int parseMinuteOfDay(ByteBuffer buffer, int start, int end) {
+        int hour = 0;
+        int minute = 0;
+        int digits = 0;
+        int colons = 0;
+        boolean minuteDigits = true;
+        boolean pm = false;
+        boolean am = false;
+        byte previous = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            boolean digit = b >= '0' && b <= '9';
+            if (b == ':') {
+                colons++;
+            } else if (colons == 0 && digit) {
+                hour = hour * 10 + (b - '0');
+                if (++digits > 9) {
+                    return fail("Hour out of range");
+                }
+            } else if (colons == 1 && digit && minuteDigits) {
+                minute = minute * 10 + (b - '0');
+                if (minute >= 60) {
+                    return fail("Minute out of range");
+                }
+            } else if (colons == 1) {
+                minuteDigits = false;
+            }
+            byte upper = (byte) (b >= 'a' && b <= 'z' ? b - 32 : b);
+            if (upper == 'M') {
+                pm |= previous == 'P';
+                am |= previous == 'A';
+            }
+            previous = upper;
+        }
+        if (digits == 0) {
+            return fail("Missing hour");
+        }
+        if (pm && hour < 12) {
+            hour += 12;
+        }
+        if (am && hour == 12) {
+            hour = 0;
+        }
+        int minuteOfDay = hour * 60 + minute;
+        if (minuteOfDay > TimeBuckets.MINUTES_PER_DAY) {
+            return fail("Time out of range");
+        }
+        return minuteOfDay;
+    }
+
+    private int fail(String message) {
+        if (!invalid) {
+            invalid = true;
+            error = message;
+        }
+        return 0;
+    }
+
+    static int indexOf(ByteBuffer buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int trimCarriageReturn(ByteBuffer buffer, int start, int end) {
+        return end > start && buffer.get(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String unescape(ByteBuffer buffer, int start, int end) {
+        return decode(buffer, start, end).replace("\"\"", "\"");
+    }
+
+    private static List<String> splitHeader(String line) {
+        List<String> columns = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                columns.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        columns.add(current.toString());
+        return columns;
+    }
+
+    /**
+     * Maps customer name bytes to their dictionary id so repeated names are neither re-decoded nor
+     * looked up in the run's dictionary. Open addressing over the raw bytes; only a miss
+     * allocates.
+     */
+    private static class NameCache {
+        private final CustomerDictionary customers;
+        private byte[][] keys = new byte[64][];
+        private int[] values = new int[64];
+        private int[] hashes = new int[64];
+        private int size;
+
+        NameCache(CustomerDictionary customers) {
+            this.customers = customers;
+        }
+
+        int get(ByteBuffer buffer, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            int mask = keys.length - 1;
+            int slot = mix(hash) & mask;
+            while (keys[slot] != null) {
+                if (hashes[slot] == hash && matches(keys[slot], buffer, start, end)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            byte[] key = new byte[end - start];
+            buffer.get(start, key);
+            int value = customers.idOf(new String(key, StandardCharsets.UTF_8));
+            keys[slot] = key;
+            values[slot] = value;
+            hashes[slot] = hash;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return value;
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer buffer, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            int[] oldValues = values;
+            int[] oldHashes = hashes;
+            keys = new byte[oldKeys.length * 2][];
+            values = new int[oldKeys.length * 2];
+            hashes = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = mix(oldHashes[i]) & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                    hashes[slot] = oldHashes[i];
+                }
+            }
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
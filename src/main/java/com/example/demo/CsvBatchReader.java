@@ -0,0 +1,125 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a CSV file sequentially through a {@link FileChannel} and fills {@link RequestBatch}es
+ * with {@link CsvBatchParser}. A partial line at the end of a read is carried over to the next one.
+ *
+ * Each batch records the input byte range it was parsed from. Ranges passed to
+ * {@link #skip(InputRanges)} are jumped over without being parsed; they must start and end on
+ * line boundaries, as the ranges of earlier batches do.
+ */
+public class CsvBatchReader implements AutoCloseable {
+
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final CsvBatchParser parser;
+    private boolean endOfInput;
+    // File offset of the first byte in the buffer.
+    private long bufferOffset;
+    private InputRanges skipped = new InputRanges();
+
+    /** Opens {@code path} and reads its header; customer names are interned in {@code customers}. */
+    public CsvBatchReader(Path path, CustomerDictionary customers) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        buffer.flip();
+        fill();
+        int headerEnd = CsvBatchParser.indexOf(buffer, (byte) '\n', 0, buffer.limit());
+        this.parser = CsvBatchParser.forHeader(buffer, 0, buffer.limit(), customers);
+        buffer.position(headerEnd < 0 ? buffer.limit() : headerEnd + 1);
+    }
+
+    /** Ranges of the input to leave out, such as those an earlier run already ingested. */
+    public void skip(InputRanges ranges) {
+        this.skipped = ranges;
+    }
+
+    /**
+     * Clears the batch and fills it with the next rows.
+     *
+     * @return false once the input is exhausted and the batch is empty
+     */
+    public boolean read(RequestBatch batch) throws IOException {
+        batch.clear();
+        long start = offset();
+        while (!batch.isFull()) {
+            long skipTo = skipped.skipFrom(offset());
+            if (skipTo >= 0) {
+                seek(skipTo);
+                if (batch.isEmpty()) {
+                    start = offset();
+                }
+                continue;
+            }
+            // Stop parsing where the next skipped range begins.
+            int limit = (int) Math.min(buffer.limit(), skipped.nextStart(offset()) - bufferOffset);
+            boolean last = endOfInput && limit == buffer.limit();
+            int position = parser.parse(buffer, buffer.position(), limit, last, batch, bufferOffset);
+            buffer.position(position);
+            if (batch.isFull() || (endOfInput && !buffer.hasRemaining())) {
+                break;
+            }
+            if (limit < buffer.limit()) {
+                if (position < limit) {
+                    throw new IOException("Skipped range at offset " + (bufferOffset + limit) + " does not start on a line");
+                }
+                continue;
+            }
+            fill();
+        }
+        batch.setOffsets(start, offset());
+        return !batch.isEmpty();
+    }
+
+    /** File offset of the next unread byte. */
+    private long offset() {
+        return bufferOffset + buffer.position();
+    }
+
+    /** Moves the read position forward to {@code target}, reading from there if it is past the buffer. */
+    private void seek(long target) throws IOException {
+        if (target <= bufferOffset + buffer.limit()) {
+            buffer.position((int) (target - bufferOffset));
+            return;
+        }
+        channel.position(target);
+        bufferOffset = target;
+        buffer.clear().flip();
+        endOfInput = false;
+        fill();
+    }
+
+    /** Compacts the unread bytes to the front and reads more, growing the buffer for long lines. */
+    private void fill() throws IOException {
+        if (endOfInput) {
+            return;
+        }
+        bufferOffset += buffer.position();
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                endOfInput = true;
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.demo;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mapping between customer names and dense integer ids, owned by one run.
+ *
+ * Names are interned once while parsing; from then on the pipeline carries the id, and the name
+ * is looked up again only when a schedule is built for output. Ids start at 0 and are not reused,
+ * so they can index plain arrays sized by {@link #size()}. Each {@link ControlPlaneScheduler#run()}
+ * creates its own dictionary and hands it to the parsers, the storages and the orchestrator, so
+ * names do not pile up in a long-lived process and a resumed run reproduces the ids its manifest
+ * lists by interning them first.
+ */
+public final class CustomerDictionary {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    // Replaced (never mutated in place past size) when it grows; volatile so readers see new slots.
+    private volatile String[] names = new String[1024];
+    private int size;
+
+    /** Returns the id for {@code name}, assigning the next free one on first sight. */
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (lock) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            String[] current = names;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = name;
+            names = current;
+            id = size++;
+            ids.put(name, id);
+            return id;
+        }
+    }
+
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    /** Number of ids handed out so far; every id is below this. */
+    public int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+}
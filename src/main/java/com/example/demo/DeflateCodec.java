@@ -0,0 +1,65 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link BlockCodec} using the JDK's zlib {@link Deflater} and {@link Inflater}, one of each per
+ * thread. Defaults to {@link Deflater#BEST_SPEED}: spill data is written once and read once, so
+ * the cheapest level that still removes most redundancy is the right trade.
+ */
+public class DeflateCodec implements BlockCodec {
+
+    private final int level;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    public DeflateCodec(int level) {
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public String name() {
+        return "deflate-" + level;
+    }
+
+    @Override
+    public int compress(ByteBuffer source, ByteBuffer target) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(source);
+        deflater.finish();
+        int start = target.position();
+        while (!deflater.finished()) {
+            if (!target.hasRemaining()) {
+                return -1;
+            }
+            deflater.deflate(target);
+        }
+        return target.position() - start;
+    }
+
+    @Override
+    public void decompress(ByteBuffer source, ByteBuffer target) throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(source);
+        try {
+            while (target.hasRemaining()) {
+                if (inflater.inflate(target) == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed block is shorter than its recorded size");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed block", e);
+        }
+    }
+}
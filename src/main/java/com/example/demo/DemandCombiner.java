@@ -0,0 +1,375 @@
+package com.example.demo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pre-aggregates map output before it reaches {@link Storage}.
+ *
+ * Requests that share (bucket, customer id, priority, agents) are folded into one
+ * {@link AllocationRequest} whose {@code count} records how many there were. The per-request
+ * agent value is part of the key so the orchestrator's floor and remainder distribution sees
+ * exactly the requests it would have seen without combining.
+ *
+ * Each row is recorded as an interval of buckets with its arrival, so adding a row costs the same
+ * for any window length, and a key holds only the intervals it was given. Flushing sweeps each
+ * key's intervals once and stores every run of buckets with the same count, earliest arrival and
+ * latest arrival as one interval request, under the first bucket of the hour the run starts in
+ * and with a span that may reach into later hours. Each bucket therefore sees the count and the
+ * first and last arrival the uncombined rows would give it, and what is stored grows with the
+ * changes a key's rows make, not with the number of buckets or hours they cover. A key whose
+ * intervals pile up is swept into its runs early, so a combiner that lives for the whole input
+ * holds about as many intervals per key as it would store.
+ *
+ * The same sweep serves the reduce side: {@link PartitionedStorage} and {@link CallOrchestrator}
+ * add stored interval requests to a combiner and {@link #drain(RunVisitor)} its runs into
+ * per-bucket totals, so each request is read once however many buckets it covers.
+ *
+ * Interval lists are emptied and kept for reuse when the combiner is flushed or cleared, so a
+ * combiner that is reused across batches stops allocating once it has seen its working set.
+ */
+public class DemandCombiner {
+
+    // A key's intervals are swept into runs once there are this many more than after the last sweep.
+    private static final int MIN_INTERVALS_BEFORE_SWEEP = 64;
+
+    private final TimeBuckets buckets;
+    // Keys in first-seen order.
+    private final Map<Key, Intervals> intervals = new LinkedHashMap<>();
+    private final Key probe = new Key();
+    private final Deque<Intervals> spare = new ArrayDeque<>();
+
+    public DemandCombiner() {
+        this(TimeBuckets.HOURLY);
+    }
+
+    public DemandCombiner(TimeBuckets buckets) {
+        this.buckets = buckets;
+    }
+
+    /** Records a row without an arrival; such rows arrive at zero, in the order they are added. */
+    public void add(int customerId, int priority, int agents, int startBucket, int endBucket) {
+        add(customerId, priority, agents, startBucket, endBucket, 0);
+    }
+
+    /** Records one request of {@code agents} per bucket for buckets {@code [startBucket, endBucket)}, arriving at {@code arrival}. */
+    public void add(int customerId, int priority, int agents, int startBucket, int endBucket, long arrival) {
+        add(customerId, priority, agents, 1, startBucket, endBucket, arrival, arrival);
+    }
+
+    /** Records {@code count} requests per bucket for buckets {@code [startBucket, endBucket)}, from rows arriving at {@code firstArrival} to {@code lastArrival}. */
+    public void add(int customerId, int priority, int agents, int count, int startBucket, int endBucket, long firstArrival,
+            long lastArrival) {
+        intervalsFor(customerId, priority, agents).add(startBucket, endBucket, count, firstArrival, lastArrival);
+    }
+
+    /** Folds another combiner's state into this one. Safe to call from several workers. */
+    public synchronized void addAll(DemandCombiner other) {
+        for (Map.Entry<Key, Intervals> entry : other.intervals.entrySet()) {
+            Key key = entry.getKey();
+            Intervals target = intervalsFor(key.customerId, key.priority, key.agents);
+            Intervals source = entry.getValue();
+            for (int i = 0; i < source.size; i++) {
+                target.add(source.starts[i], source.ends[i], source.counts[i], source.firsts[i], source.lasts[i]);
+            }
+        }
+    }
+
+    /** Sweeps the intervals into interval requests, stores them under the hour each starts in, and resets. */
+    public synchronized void flush(Storage storage) {
+        int perHour = buckets.perHour();
+        List<List<AllocationRequest>> perHourRequests = new ArrayList<>(buckets.count() / perHour);
+        for (int i = 0; i < buckets.count() / perHour; i++) {
+            perHourRequests.add(new ArrayList<>());
+        }
+        drain((customerId, priority, agents, count, start, end, firstArrival, lastArrival) -> {
+            int first = start - start % perHour;
+            perHourRequests.get(first / perHour).add(new AllocationRequest(customerId, agents, priority, count,
+                buckets.span(start - first, end - first), firstArrival, lastArrival));
+        });
+        for (int hour = 0; hour < perHourRequests.size(); hour++) {
+            if (!perHourRequests.get(hour).isEmpty()) {
+                storage.storeIntermediateData(buckets.firstOf(hour), perHourRequests.get(hour));
+            }
+        }
+    }
+
+    /**
+     * Sweeps every key's intervals into runs and hands them to {@code visitor}, key by key in the
+     * order the keys were first seen and each key's runs in bucket order, then resets.
+     */
+    public synchronized void drain(RunVisitor visitor) {
+        for (Map.Entry<Key, Intervals> entry : intervals.entrySet()) {
+            Key key = entry.getKey();
+            Intervals runs = entry.getValue();
+            runs.sweep();
+            for (int i = 0; i < runs.size; i++) {
+                visitor.visit(key.customerId, key.priority, key.agents, runs.counts[i], runs.starts[i], runs.ends[i], runs.firsts[i],
+                    runs.lasts[i]);
+            }
+        }
+        clear();
+    }
+
+    /**
+     * {@link #drain(RunVisitor)} with the runs cut at hour boundaries, one {@link Runs} per hour
+     * of the buckets {@code [from, to)}, which must hold every interval.
+     */
+    public synchronized List<Runs> drainByHour(int from, int to) {
+        int firstHour = buckets.hourOf(from);
+        List<Runs> byHour = new ArrayList<>();
+        for (int hour = firstHour; hour <= buckets.hourOf(to - 1); hour++) {
+            byHour.add(new Runs());
+        }
+        int perHour = buckets.perHour();
+        drain((customerId, priority, agents, count, start, end, firstArrival, lastArrival) -> {
+            for (int first = start - start % perHour; first < end; first += perHour) {
+                byHour.get(buckets.hourOf(first) - firstHour).add(customerId, priority, agents, count, Math.max(start, first),
+                    Math.min(end, first + perHour), firstArrival, lastArrival);
+            }
+        });
+        return byHour;
+    }
+
+    /** Drops all keys, keeping their interval lists for reuse. */
+    public synchronized void clear() {
+        for (Intervals list : intervals.values()) {
+            list.clear();
+            spare.push(list);
+        }
+        intervals.clear();
+    }
+
+    /** Number of distinct (customer, priority, agents) keys held. */
+    public synchronized int size() {
+        return intervals.size();
+    }
+
+    private Intervals intervalsFor(int customerId, int priority, int agents) {
+        probe.set(customerId, priority, agents);
+        Intervals list = intervals.get(probe);
+        if (list == null) {
+            Key key = new Key();
+            key.set(customerId, priority, agents);
+            list = spare.isEmpty() ? new Intervals() : spare.pop();
+            intervals.put(key, list);
+        }
+        return list;
+    }
+
+    /**
+     * One key's intervals of buckets, each standing for {@code count} requests whose rows arrived
+     * from {@code first} to {@code last}. After {@link #sweep()} they are the key's runs: disjoint,
+     * in bucket order, and each with one count, earliest arrival and latest arrival throughout.
+     */
+    private static final class Intervals {
+        private int[] starts = new int[2];
+        private int[] ends = new int[2];
+        private int[] counts = new int[2];
+        private long[] firsts = new long[2];
+        private long[] lasts = new long[2];
+        private int size;
+        private int swept;
+
+        void add(int start, int end, int count, long first, long last) {
+            if (size == starts.length) {
+                if (size - swept >= Math.max(MIN_INTERVALS_BEFORE_SWEEP, swept)) {
+                    sweep();
+                }
+                if (size == starts.length) {
+                    starts = Arrays.copyOf(starts, size * 2);
+                    ends = Arrays.copyOf(ends, size * 2);
+                    counts = Arrays.copyOf(counts, size * 2);
+                    firsts = Arrays.copyOf(firsts, size * 2);
+                    lasts = Arrays.copyOf(lasts, size * 2);
+                }
+            }
+            starts[size] = start;
+            ends[size] = end;
+            counts[size] = count;
+            firsts[size] = first;
+            lasts[size] = last;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+            swept = 0;
+        }
+
+        /**
+         * Replaces the intervals by their runs. The interval ends cut the day into segments; counts
+         * are summed over the segments with a difference array, and each segment's earliest and
+         * latest arrival are painted by taking the intervals in order of arrival and skipping the
+         * segments already painted, so every segment is painted once per pass.
+         */
+        void sweep() {
+            if (size <= 1) {
+                // A lone interval is its own run.
+                swept = size;
+                return;
+            }
+            int[] points = new int[2 * size];
+            for (int i = 0; i < size; i++) {
+                points[2 * i] = starts[i];
+                points[2 * i + 1] = ends[i];
+            }
+            Arrays.sort(points);
+            int distinct = 0;
+            for (int point : points) {
+                if (distinct == 0 || points[distinct - 1] != point) {
+                    points[distinct++] = point;
+                }
+            }
+            int segments = Math.max(0, distinct - 1);
+            int[] from = new int[size];
+            int[] to = new int[size];
+            int[] delta = new int[segments + 1];
+            for (int i = 0; i < size; i++) {
+                from[i] = Arrays.binarySearch(points, 0, distinct, starts[i]);
+                to[i] = Arrays.binarySearch(points, 0, distinct, ends[i]);
+                delta[from[i]] += counts[i];
+                delta[to[i]] -= counts[i];
+            }
+            long[] segmentFirsts = new long[segments];
+            long[] segmentLasts = new long[segments];
+            paint(DemandTotals.inArrivalOrder(firsts, size), false, from, to, firsts, segmentFirsts);
+            paint(DemandTotals.inArrivalOrder(lasts, size), true, from, to, lasts, segmentLasts);
+
+            // Nested intervals leave more segments than intervals, so runs may outnumber them.
+            int capacity = Math.max(starts.length, segments);
+            starts = new int[capacity];
+            ends = new int[capacity];
+            counts = new int[capacity];
+            firsts = new long[capacity];
+            lasts = new long[capacity];
+            int runs = 0;
+            int count = 0;
+            for (int segment = 0; segment < segments; segment++) {
+                count += delta[segment];
+                if (count <= 0) {
+                    continue;
+                }
+                if (runs > 0 && ends[runs - 1] == points[segment] && counts[runs - 1] == count
+                        && firsts[runs - 1] == segmentFirsts[segment] && lasts[runs - 1] == segmentLasts[segment]) {
+                    ends[runs - 1] = points[segment + 1];
+                    continue;
+                }
+                starts[runs] = points[segment];
+                ends[runs] = points[segment + 1];
+                counts[runs] = count;
+                firsts[runs] = segmentFirsts[segment];
+                lasts[runs] = segmentLasts[segment];
+                runs++;
+            }
+            size = runs;
+            swept = runs;
+        }
+
+        /**
+         * Gives each segment the arrival of the first interval in {@code order} (or the last, if
+         * {@code reversed}) that covers it. {@code next} skips painted segments: each entry points
+         * towards the first segment at or after it that is still unpainted.
+         */
+        private void paint(int[] order, boolean reversed, int[] from, int[] to, long[] arrivals, long[] painted) {
+            int[] next = new int[painted.length + 1];
+            for (int i = 0; i < next.length; i++) {
+                next[i] = i;
+            }
+            for (int k = 0; k < order.length; k++) {
+                int i = order[reversed ? order.length - 1 - k : k];
+                for (int segment = unpainted(next, from[i]); segment < to[i]; segment = unpainted(next, segment + 1)) {
+                    painted[segment] = arrivals[i];
+                    next[segment] = segment + 1;
+                }
+            }
+        }
+
+        private static int unpainted(int[] next, int segment) {
+            int root = segment;
+            while (next[root] != root) {
+                root = next[root];
+            }
+            while (next[segment] != root) {
+                int following = next[segment];
+                next[segment] = root;
+                segment = following;
+            }
+            return root;
+        }
+    }
+
+    /** Runs of one hour: {@code counts[i]} requests active in buckets {@code [starts[i], ends[i])}. */
+    static final class Runs {
+        int[] customerIds = new int[16];
+        int[] priorities = new int[16];
+        int[] agents = new int[16];
+        int[] counts = new int[16];
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        long[] firsts = new long[16];
+        long[] lasts = new long[16];
+        int size;
+
+        void add(int customerId, int priority, int agents, int count, int start, int end, long first, long last) {
+            if (size == customerIds.length) {
+                customerIds = Arrays.copyOf(customerIds, size * 2);
+                priorities = Arrays.copyOf(priorities, size * 2);
+                this.agents = Arrays.copyOf(this.agents, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                firsts = Arrays.copyOf(firsts, size * 2);
+                lasts = Arrays.copyOf(lasts, size * 2);
+            }
+            customerIds[size] = customerId;
+            priorities[size] = priority;
+            this.agents[size] = agents;
+            counts[size] = count;
+            starts[size] = start;
+            ends[size] = end;
+            firsts[size] = first;
+            lasts[size] = last;
+            size++;
+        }
+    }
+
+    /** Receives one run: {@code count} requests active in every bucket of {@code [startBucket, endBucket)}. */
+    @FunctionalInterface
+    public interface RunVisitor {
+        void visit(int customerId, int priority, int agents, int count, int startBucket, int endBucket, long firstArrival,
+            long lastArrival);
+    }
+
+    /** Mutable so lookups can reuse one probe instance; stored keys are never modified. */
+    private static final class Key {
+        private int customerId;
+        private int priority;
+        private int agents;
+
+        void set(int customerId, int priority, int agents) {
+            this.customerId = customerId;
+            this.priority = priority;
+            this.agents = agents;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return priority == other.priority && agents == other.agents && customerId == other.customerId;
+        }
+
+        @Override
+        public int hashCode() {
+            return (customerId * 31 + priority) * 31 + agents;
+        }
+    }
+}
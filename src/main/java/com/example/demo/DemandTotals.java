@@ -0,0 +1,251 @@
+package com.example.demo;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Running demand of one bucket, kept by {@link PartitionedStorage} while Step 1 stores the
+ * bucket's requests: the total demand and latest priority of each customer, and per priority the
+ * tier's total demand and what each customer asked for in it.
+ *
+ * Customers are listed in the order their first request arrived in the input, overall and within
+ * each tier, and a customer's latest priority is that of its latest arrival, so the totals come
+ * out the same whatever order the requests are added in. Requests added without arrivals tie at
+ * zero and keep the order they were added in. That lets the reduce allocate whole tiers, and
+ * report demand, without reading the requests again.
+ */
+public class DemandTotals {
+
+    /** Agents asked for at one priority, in total and per customer. */
+    public static final class Tier {
+        private final int priority;
+        private int demand;
+        private final Customers customers = new Customers();
+
+        Tier(int priority) {
+            this.priority = priority;
+        }
+
+        public int priority() {
+            return priority;
+        }
+
+        public int demand() {
+            return demand;
+        }
+
+        public Customers customers() {
+            return customers;
+        }
+    }
+
+    /** Values per customer id in the order the customers first arrived. */
+    public static final class Customers {
+        private int[] ids = new int[8];
+        private int[] values = new int[8];
+        private long[] firsts = new long[8];
+        private long[] lasts = new long[8];
+        private int size;
+        // Open-addressing index of entry + 1 per slot; zero marks an empty slot.
+        private int[] table = new int[16];
+        // Entries by first arrival; null until asked for after a change.
+        private int[] order;
+
+        void add(int customerId, int value, long firstArrival, long lastArrival) {
+            // Find the entry first: it may grow the arrays.
+            int entry = entry(customerId, firstArrival, lastArrival);
+            values[entry] += value;
+            arrive(entry, firstArrival, lastArrival);
+        }
+
+        /** Sets the value unless the customer already arrived later than {@code lastArrival}. */
+        void putLatest(int customerId, int value, long firstArrival, long lastArrival) {
+            int entry = entry(customerId, firstArrival, lastArrival);
+            if (lastArrival >= lasts[entry]) {
+                values[entry] = value;
+            }
+            arrive(entry, firstArrival, lastArrival);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /** Customer that arrived {@code i}-th. */
+        public int idAt(int i) {
+            return ids[order()[i]];
+        }
+
+        public int valueAt(int i) {
+            return values[order()[i]];
+        }
+
+        /** Customer names, as {@code customers} has them, to values, in the order the customers arrived. */
+        public Map<String, Integer> toMap(CustomerDictionary customers) {
+            Map<String, Integer> map = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                map.put(customers.nameOf(idAt(i)), valueAt(i));
+            }
+            return map;
+        }
+
+        private void arrive(int entry, long firstArrival, long lastArrival) {
+            if (firstArrival < firsts[entry]) {
+                firsts[entry] = firstArrival;
+                order = null;
+            }
+            lasts[entry] = Math.max(lasts[entry], lastArrival);
+        }
+
+        private int[] order() {
+            if (order == null) {
+                order = inArrivalOrder(firsts, size);
+            }
+            return order;
+        }
+
+        private int entry(int customerId, long firstArrival, long lastArrival) {
+            int mask = table.length - 1;
+            int slot = hash(customerId) & mask;
+            while (table[slot] != 0) {
+                int entry = table[slot] - 1;
+                if (ids[entry] == customerId) {
+                    return entry;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                firsts = Arrays.copyOf(firsts, size * 2);
+                lasts = Arrays.copyOf(lasts, size * 2);
+            }
+            ids[size] = customerId;
+            values[size] = 0;
+            firsts[size] = firstArrival;
+            lasts[size] = lastArrival;
+            order = null;
+            table[slot] = ++size;
+            if (size * 2 > table.length) {
+                rehash();
+            }
+            return size - 1;
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int entry = 0; entry < size; entry++) {
+                int slot = hash(ids[entry]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = entry + 1;
+            }
+        }
+
+        private static int hash(int customerId) {
+            int h = customerId * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Stable order of the first {@code size} entries by ascending arrival. Entries usually come
+     * in arrival order already, which is checked before sorting.
+     */
+    static int[] inArrivalOrder(long[] arrivals, int size) {
+        int[] order = new int[size];
+        boolean sorted = true;
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            sorted &= i == 0 || arrivals[i - 1] <= arrivals[i];
+        }
+        if (sorted) {
+            return order;
+        }
+        Integer[] entries = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = i;
+        }
+        Arrays.sort(entries, Comparator.comparingLong(i -> arrivals[i]));
+        for (int i = 0; i < size; i++) {
+            order[i] = entries[i];
+        }
+        return order;
+    }
+
+    private final Customers demands = new Customers();
+    private final Customers priorities = new Customers();
+    private final Map<Integer, Tier> tiers = new TreeMap<>();
+
+    /** Adds {@code count} requests of {@code agents} agents without arrivals, which tie at zero. */
+    public synchronized void add(int customerId, int agents, int priority, int count) {
+        add(customerId, agents, priority, count, 0, 0);
+    }
+
+    /** Adds {@code count} requests of {@code agents} agents whose rows arrived from {@code firstArrival} to {@code lastArrival}. */
+    public synchronized void add(int customerId, int agents, int priority, int count, long firstArrival, long lastArrival) {
+        Tier tier = tiers.get(priority);
+        if (tier == null) {
+            tier = new Tier(priority);
+            tiers.put(priority, tier);
+        }
+        int demand = agents * count;
+        tier.demand += demand;
+        tier.customers.add(customerId, demand, firstArrival, lastArrival);
+        demands.add(customerId, demand, firstArrival, lastArrival);
+        priorities.putLatest(customerId, priority, firstArrival, lastArrival);
+    }
+
+    /**
+     * Adds the totals of other requests, as though they had been added one by one after these:
+     * customers keep their earliest arrival and take their priority from their latest, and
+     * ties go to {@code later}.
+     */
+    public synchronized void addAll(DemandTotals later) {
+        for (Tier tier : later.tiers()) {
+            Tier mine = tiers.get(tier.priority);
+            if (mine == null) {
+                mine = new Tier(tier.priority);
+                tiers.put(tier.priority, mine);
+            }
+            mine.demand += tier.demand;
+            Customers customers = tier.customers;
+            for (int i = 0; i < customers.size; i++) {
+                mine.customers.add(customers.ids[i], customers.values[i], customers.firsts[i], customers.lasts[i]);
+            }
+        }
+        Customers demands = later.demands();
+        for (int i = 0; i < demands.size; i++) {
+            this.demands.add(demands.ids[i], demands.values[i], demands.firsts[i], demands.lasts[i]);
+        }
+        Customers priorities = later.priorities();
+        for (int i = 0; i < priorities.size; i++) {
+            this.priorities.putLatest(priorities.ids[i], priorities.values[i], priorities.firsts[i], priorities.lasts[i]);
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return tiers.isEmpty();
+    }
+
+    /** The tiers in ascending priority, that is the order capacity is handed out in. */
+    public synchronized Collection<Tier> tiers() {
+        return tiers.values();
+    }
+
+    /** Each customer's demand over all tiers. */
+    public synchronized Customers demands() {
+        return demands;
+    }
+
+    /** Each customer's priority as of its latest stored request. */
+    public synchronized Customers priorities() {
+        return priorities;
+    }
+}
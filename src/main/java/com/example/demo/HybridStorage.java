@@ -0,0 +1,273 @@
+package com.example.demo;
+
+import com.example.demo.Constants.Compression;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps intermediate data in memory until a byte budget is used up, then moves whole hours to
+ * disk.
+ *
+ * Buckets start out as {@link RequestColumns}, as in {@link InMemoryStorage}. When a store takes
+ * the in-memory data over the budget, the storing thread spills the hours holding the most data
+ * to a {@link SegmentStore}, largest first, until the data fits again. Once an hour has been
+ * spilled, later stores for it go straight to its segment. Reads visit a bucket's in-memory
+ * records and then its segment, so the reduce phase sees one stream whichever tier holds the
+ * data. The schedule is kept in memory.
+ */
+public class HybridStorage implements Storage {
+
+    // Column bytes per record: customer id, agents, priority, count, span and both arrivals.
+    static final int RECORD_BYTES = 5 * Integer.BYTES + 2 * Long.BYTES;
+    // Records handed to the segment store per block while an hour is spilled.
+    private static final int SPILL_BLOCK_RECORDS = 64 * 1024;
+
+    private final LocalDate date;
+    private final String outputDir;
+    private volatile long budgetBytes;
+    private TimeBuckets buckets = TimeBuckets.HOURLY;
+    private BlockCompressor compressor = new BlockCompressor(BlockCodec.NONE);
+    private SegmentStore segments;
+
+    private final Map<Integer, RequestColumns> memory = new ConcurrentHashMap<>();
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final AtomicLong peakMemoryBytes = new AtomicLong();
+    private final AtomicLongArray hourBytes = new AtomicLongArray(SegmentStore.HOURS);
+    private final boolean[] spilled = new boolean[SegmentStore.HOURS];
+    // Stores hold an hour's read lock; spilling the hour takes its write lock.
+    private final ReentrantReadWriteLock[] hourLocks = new ReentrantReadWriteLock[SegmentStore.HOURS];
+    private final ReentrantLock spillLock = new ReentrantLock();
+    private final AtomicInteger spills = new AtomicInteger();
+    // Hours in the order they were spilled; guarded by spillLock.
+    private final List<Integer> spilledHours = new ArrayList<>();
+    private final AtomicLong spilledBytes = new AtomicLong();
+    private List<ScheduleBucket> schedule = Collections.emptyList();
+
+    public HybridStorage(LocalDate date, long budgetBytes) {
+        this(date, ".", budgetBytes);
+    }
+
+    public HybridStorage(LocalDate date, String outputDir, long budgetBytes) {
+        this.date = date;
+        this.outputDir = outputDir;
+        this.budgetBytes = budgetBytes;
+        for (int hour = 0; hour < SegmentStore.HOURS; hour++) {
+            hourLocks[hour] = new ReentrantReadWriteLock();
+        }
+        this.segments = newSegmentStore();
+    }
+
+    /** Bytes of intermediate data kept in memory before hours are spilled. */
+    public void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    @Override
+    public void setTimeBuckets(TimeBuckets buckets) {
+        this.buckets = buckets;
+        cleanupIntermediateFiles();
+        segments = newSegmentStore();
+    }
+
+    @Override
+    public void setCompression(Compression compression) {
+        this.compressor = new BlockCompressor(BlockCodec.forCompression(compression));
+        segments.delete();
+        segments = newSegmentStore();
+    }
+
+    @Override
+    public void storeIntermediateData(int index, List<AllocationRequest> requests) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        int hour = buckets.hourOf(index);
+        ReentrantReadWriteLock.ReadLock lock = hourLocks[hour].readLock();
+        lock.lock();
+        try {
+            if (!spilled[hour]) {
+                RequestColumns columns = memory.get(index);
+                if (columns == null) {
+                    columns = memory.computeIfAbsent(index, k -> new RequestColumns());
+                }
+                columns.appendAll(requests);
+                long bytes = (long) requests.size() * RECORD_BYTES;
+                hourBytes.addAndGet(hour, bytes);
+                peakMemoryBytes.accumulateAndGet(memoryBytes.addAndGet(bytes), Math::max);
+            } else {
+                segments.append(index, requests);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+        if (memoryBytes.get() > budgetBytes) {
+            spillLargestHours();
+        }
+    }
+
+    @Override
+    public List<AllocationRequest> fetchInterMediateData(int index) {
+        List<AllocationRequest> requests = new ArrayList<>();
+        forEachIntermediateData(index, (customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+            requests.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+        return requests;
+    }
+
+    /** Visits the bucket's in-memory records, then whatever was spilled to its segment. */
+    @Override
+    public void forEachIntermediateData(int index, RequestVisitor visitor) {
+        RequestColumns columns = memory.get(index);
+        if (columns != null) {
+            columns.forEach(visitor);
+        }
+        try {
+            segments.forEach(index, visitor);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Compacts the segments of spilled hours. */
+    @Override
+    public void flushIntermediateData() {
+        try {
+            segments.compact();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void storeSchedule(List<ScheduleBucket> schedule) {
+        this.schedule = new ArrayList<>(schedule);
+    }
+
+    @Override
+    public List<ScheduleBucket> fetchSchedule() {
+        return new ArrayList<>(schedule);
+    }
+
+    @Override
+    public void cleanupIntermediateFiles() {
+        memory.clear();
+        memoryBytes.set(0);
+        for (int hour = 0; hour < SegmentStore.HOURS; hour++) {
+            hourBytes.set(hour, 0);
+            spilled[hour] = false;
+        }
+        segments.delete();
+    }
+
+    @Override
+    public String statistics() {
+        return "hybrid budget " + megabytes(budgetBytes) + ", peak in memory " + megabytes(peakMemoryBytes.get())
+            + ", spilled " + spills.get() + " hours " + spilledHoursText() + " (" + megabytes(spilledBytes.get())
+            + "), blocks " + compressor.summary();
+    }
+
+    /** Number of hours spilled to disk so far. */
+    public int spills() {
+        return spills.get();
+    }
+
+    /** Whether stores for the hour go to disk. */
+    boolean isSpilled(int hour) {
+        ReentrantReadWriteLock.ReadLock lock = hourLocks[hour].readLock();
+        lock.lock();
+        try {
+            return spilled[hour];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Spills the hours holding the most in-memory data until the rest fits in the budget. Only one
+     * thread spills at a time; others carry on storing in the meantime.
+     */
+    private void spillLargestHours() {
+        if (!spillLock.tryLock()) {
+            return;
+        }
+        try {
+            while (memoryBytes.get() > budgetBytes) {
+                int largest = -1;
+                for (int hour = 0; hour < SegmentStore.HOURS; hour++) {
+                    if (hourBytes.get(hour) > 0 && (largest < 0 || hourBytes.get(hour) > hourBytes.get(largest))) {
+                        largest = hour;
+                    }
+                }
+                if (largest < 0 || !spill(largest)) {
+                    return;
+                }
+            }
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    /** Moves an hour's in-memory data to its segment. Returns false if that failed. */
+    private boolean spill(int hour) {
+        List<Map.Entry<Integer, RequestColumns>> taken = new ArrayList<>();
+        ReentrantReadWriteLock.WriteLock lock = hourLocks[hour].writeLock();
+        lock.lock();
+        try {
+            spilled[hour] = true;
+            for (Map.Entry<Integer, RequestColumns> entry : memory.entrySet()) {
+                if (buckets.hourOf(entry.getKey()) == hour) {
+                    taken.add(entry);
+                }
+            }
+            // Segments are per hour, so the hour's data is written while new stores wait on it.
+            long bytes = 0;
+            for (Map.Entry<Integer, RequestColumns> entry : taken) {
+                RequestColumns.View view = entry.getValue().view();
+                for (int start = 0; start < view.size(); start += SPILL_BLOCK_RECORDS) {
+                    segments.append(entry.getKey(), view.subList(start, Math.min(view.size(), start + SPILL_BLOCK_RECORDS)));
+                }
+                memory.remove(entry.getKey());
+                bytes += (long) view.size() * RECORD_BYTES;
+            }
+            hourBytes.addAndGet(hour, -bytes);
+            memoryBytes.addAndGet(-bytes);
+            spills.incrementAndGet();
+            spilledHours.add(hour);
+            spilledBytes.addAndGet(bytes);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String spilledHoursText() {
+        spillLock.lock();
+        try {
+            return spilledHours.toString();
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    private SegmentStore newSegmentStore() {
+        return new SegmentStore(Paths.get(outputDir), Constants.INTERMEDIATE_FILE_PREFIX + "_" + date, buckets, compressor);
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -5,29 +5,116 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+/**
+ * Keeps intermediate data on the heap as one set of {@link RequestColumns} per bucket.
+ *
+ * Appends are lock-free. Fetches return read-only views over the columns rather than copies, and
+ * {@link #forEachIntermediateData(int, RequestVisitor)} walks the columns directly.
+ *
+ * Requests stored with a priority get columns of their own per (bucket, priority), so one
+ * priority is read without touching the others. Reading the whole bucket visits the requests
+ * stored without a priority first, then the partitions in ascending priority.
+ */
 public class InMemoryStorage implements Storage {
 
-    private final Map<Integer, List<AllocationRequest>> intermediateData = new ConcurrentHashMap<>();
+    private final Map<Integer, RequestColumns> intermediateData = new ConcurrentHashMap<>();
+    // Bucket -> priority -> columns, for requests stored by priority.
+    private final Map<Integer, ConcurrentSkipListMap<Integer, RequestColumns>> partitions = new ConcurrentHashMap<>();
     private List<ScheduleBucket> schedule = Collections.emptyList();
 
     @Override
     public void storeIntermediateData(int index, List<AllocationRequest> requests) {
-        intermediateData.computeIfAbsent(index, k -> Collections.synchronizedList(new ArrayList<>()))
-                .addAll(requests);
+        RequestColumns columns = intermediateData.get(index);
+        if (columns == null) {
+            columns = intermediateData.computeIfAbsent(index, k -> new RequestColumns());
+        }
+        columns.appendAll(requests);
+    }
+
+    @Override
+    public void storeIntermediateData(int index, int priority, List<AllocationRequest> requests) {
+        Map<Integer, RequestColumns> bucket = partitions.computeIfAbsent(index, k -> new ConcurrentSkipListMap<>());
+        RequestColumns columns = bucket.get(priority);
+        if (columns == null) {
+            columns = bucket.computeIfAbsent(priority, k -> new RequestColumns());
+        }
+        columns.appendAll(requests);
     }
 
     @Override
     public List<AllocationRequest> fetchInterMediateData(int index) {
-        List<AllocationRequest> requests = intermediateData.get(index);
-        if (requests == null) {
-            return Collections.emptyList();
+        RequestColumns columns = intermediateData.get(index);
+        if (!partitions.containsKey(index)) {
+            return columns == null ? Collections.emptyList() : columns.view();
+        }
+        List<AllocationRequest> requests = new ArrayList<>();
+        forEachIntermediateData(index, (customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+            requests.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+        return Collections.unmodifiableList(requests);
+    }
+
+    @Override
+    public void forEachIntermediateData(int index, RequestVisitor visitor) {
+        RequestColumns columns = intermediateData.get(index);
+        if (columns != null) {
+            columns.forEach(visitor);
+        }
+        Map<Integer, RequestColumns> bucket = partitions.get(index);
+        if (bucket != null) {
+            for (RequestColumns partition : bucket.values()) {
+                partition.forEach(visitor);
+            }
+        }
+    }
+
+    @Override
+    public void forEachIntermediateData(int index, int priority, RequestVisitor visitor) {
+        RequestColumns columns = intermediateData.get(index);
+        if (columns != null) {
+            columns.forEach((customerId, agents, requestPriority, count, span, firstArrival, lastArrival) -> {
+                if (requestPriority == priority) {
+                    visitor.visit(customerId, agents, requestPriority, count, span, firstArrival, lastArrival);
+                }
+            });
         }
-        synchronized (requests) {
-            return new ArrayList<>(requests);
+        Map<Integer, RequestColumns> bucket = partitions.get(index);
+        RequestColumns partition = bucket == null ? null : bucket.get(priority);
+        if (partition != null) {
+            partition.forEach(visitor);
         }
     }
 
+    /** Slices the bucket by position in the order it is read: unpartitioned requests, then partitions by priority. */
+    @Override
+    public void forEachIntermediateSlice(int index, int slice, int slices, RequestVisitor visitor) {
+        List<RequestColumns> all = columns(index);
+        long total = 0;
+        for (RequestColumns columns : all) {
+            total += columns.size();
+        }
+        long from = total * slice / slices;
+        long to = total * (slice + 1) / slices;
+        long start = 0;
+        for (RequestColumns columns : all) {
+            long end = start + columns.size();
+            if (end > from && start < to) {
+                columns.forEach((int) (Math.max(from, start) - start), (int) (Math.min(to, end) - start), visitor);
+            }
+            start = end;
+        }
+    }
+
+    @Override
+    public long intermediateRecords(int index) {
+        long records = 0;
+        for (RequestColumns columns : columns(index)) {
+            records += columns.size();
+        }
+        return records;
+    }
+
     @Override
     public void storeSchedule(List<ScheduleBucket> schedule) {
         this.schedule = new ArrayList<>(schedule);
@@ -41,5 +128,20 @@ public class InMemoryStorage implements Storage {
     @Override
     public void cleanupIntermediateFiles() {
         intermediateData.clear();
+        partitions.clear();
+    }
+
+    /** The bucket's columns in the order they are read. */
+    private List<RequestColumns> columns(int index) {
+        List<RequestColumns> all = new ArrayList<>();
+        RequestColumns columns = intermediateData.get(index);
+        if (columns != null) {
+            all.add(columns);
+        }
+        Map<Integer, RequestColumns> bucket = partitions.get(index);
+        if (bucket != null) {
+            all.addAll(bucket.values());
+        }
+        return all;
     }
 }
\ No newline at end of file
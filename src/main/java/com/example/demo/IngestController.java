@@ -0,0 +1,165 @@
+package com.example.demo;
+
+import com.google.common.base.Preconditions;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tunes the Step 1 batch size and map worker count while the input is being read.
+ *
+ * Workers report how long each batch took; the reader calls {@link #onPublish(BatchRing)} after
+ * every batch and the controller re-evaluates every {@value #SAMPLE_BATCHES} batches:
+ * <ul>
+ *   <li>Batches that finish very quickly are dominated by hand-off and flush overhead, so the
+ *       batch size doubles; batches that take too long hurt load balance, so it halves.</li>
+ *   <li>If the reader had to wait for a free slot the workers are the bottleneck and one is
+ *       added; if workers mostly sat idle with nothing queued, one is retired.</li>
+ *   <li>When free heap falls below {@value #MIN_HEAP_HEADROOM_PERCENT}% of the maximum, the batch
+ *       size halves and no workers are added.</li>
+ * </ul>
+ * Both values stay within their configured {@link Bounds}; equal bounds pin a value.
+ */
+public class IngestController {
+
+    static final int SAMPLE_BATCHES = 8;
+    static final int MIN_HEAP_HEADROOM_PERCENT = 20;
+    private static final long FAST_BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long SLOW_BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    // Share of the sample window the reader may wait for a slot before a worker is added.
+    private static final double PRODUCER_STALL_RATIO = 0.1;
+    // Share of the workers' time spent idle before one is retired.
+    private static final double CONSUMER_IDLE_RATIO = 0.5;
+
+    /** Inclusive bounds for a tuned value. */
+    public record Bounds(int min, int max) {
+        public Bounds {
+            Preconditions.checkArgument(min >= 1 && min <= max, "Invalid bounds: %s-%s", min, max);
+        }
+
+        /** Parses {@code MIN-MAX}, or a single value for fixed bounds. */
+        public static Bounds parse(String text) {
+            String[] parts = text.trim().split("-");
+            Preconditions.checkArgument(parts.length == 1 || parts.length == 2, "Invalid bounds: %s", text);
+            int min = Integer.parseInt(parts[0].trim());
+            int max = parts.length == 2 ? Integer.parseInt(parts[1].trim()) : min;
+            return new Bounds(min, max);
+        }
+
+        public int clamp(int value) {
+            return Math.max(min, Math.min(max, value));
+        }
+
+        @Override
+        public String toString() {
+            return min == max ? Integer.toString(min) : min + "-" + max;
+        }
+    }
+
+    private final Bounds batchBounds;
+    private final Bounds workerBounds;
+    private final int initialBatchSize;
+    private final int initialWorkers;
+    private volatile int batchSize;
+    private volatile int workers;
+
+    private final LongAdder processedBatches = new LongAdder();
+    private final LongAdder processingNanos = new LongAdder();
+
+    // Reader-confined sampling state.
+    private int sinceSample;
+    private long sampleStart = System.nanoTime();
+    private long lastBatches;
+    private long lastProcessingNanos;
+    private long lastProducerStall;
+    private long lastConsumerStall;
+    private int adjustments;
+
+    public IngestController(Bounds batchBounds, int initialBatchSize, Bounds workerBounds, int initialWorkers) {
+        this.batchBounds = batchBounds;
+        this.workerBounds = workerBounds;
+        this.initialBatchSize = batchBounds.clamp(initialBatchSize);
+        this.initialWorkers = workerBounds.clamp(initialWorkers);
+        this.batchSize = this.initialBatchSize;
+        this.workers = this.initialWorkers;
+    }
+
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /** Number of map workers that should be running. */
+    public int workers() {
+        return workers;
+    }
+
+    public int maxWorkers() {
+        return workerBounds.max();
+    }
+
+    /** Worker: records one processed batch. */
+    public void recordBatch(long nanos) {
+        processedBatches.increment();
+        processingNanos.add(nanos);
+    }
+
+    /**
+     * Reader: called after each published batch. Returns true if the batch size or the worker
+     * count changed.
+     */
+    public boolean onPublish(BatchRing ring) {
+        if (++sinceSample < SAMPLE_BATCHES) {
+            return false;
+        }
+        sinceSample = 0;
+        long now = System.nanoTime();
+        long window = Math.max(1, now - sampleStart);
+        long batches = processedBatches.sum() - lastBatches;
+        long nanos = processingNanos.sum() - lastProcessingNanos;
+        long producerStall = ring.producerStallNanos() - lastProducerStall;
+        long consumerStall = ring.consumerStallNanos() - lastConsumerStall;
+        sampleStart = now;
+        lastBatches += batches;
+        lastProcessingNanos += nanos;
+        lastProducerStall += producerStall;
+        lastConsumerStall += consumerStall;
+
+        boolean heapTight = heapHeadroomPercent() < MIN_HEAP_HEADROOM_PERCENT;
+        int newBatchSize = batchSize;
+        if (heapTight) {
+            newBatchSize = batchBounds.clamp(batchSize / 2);
+        } else if (batches > 0) {
+            long perBatch = nanos / batches;
+            if (perBatch < FAST_BATCH_NANOS) {
+                newBatchSize = batchBounds.clamp(batchSize * 2);
+            } else if (perBatch > SLOW_BATCH_NANOS) {
+                newBatchSize = batchBounds.clamp(batchSize / 2);
+            }
+        }
+        int newWorkers = workers;
+        if (!heapTight && producerStall > window * PRODUCER_STALL_RATIO) {
+            newWorkers = workerBounds.clamp(workers + 1);
+        } else if (ring.depth() == 0 && consumerStall > window * workers * CONSUMER_IDLE_RATIO) {
+            newWorkers = workerBounds.clamp(workers - 1);
+        }
+        if (newBatchSize == batchSize && newWorkers == workers) {
+            return false;
+        }
+        batchSize = newBatchSize;
+        workers = newWorkers;
+        adjustments++;
+        return true;
+    }
+
+    /** One-line description of the starting and final settings, for verbose output. */
+    public String summary() {
+        return "batch size " + initialBatchSize + " -> " + batchSize + " (bounds " + batchBounds + "), workers "
+            + initialWorkers + " -> " + workers + " (bounds " + workerBounds + "), " + adjustments + " adjustments";
+    }
+
+    /** Free heap, including room the heap may still grow into, as a percentage of the maximum. */
+    static int heapHeadroomPercent() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return (int) (100 - used * 100 / runtime.maxMemory());
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.demo;
+
+import com.example.demo.Constants.Compression;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Record of what Step 1 has made durable in a {@link PersistentStorage}: which input byte ranges
+ * have been ingested, which segment blocks hold their requests and which customers those blocks
+ * refer to.
+ *
+ * The manifest is a text file of tab-separated lines. It opens with a header naming the input
+ * and the layout the segments were written with. Each committed batch appends the customers
+ * interned since the previous commit, its blocks and finally a {@code batch} line with its input
+ * range; {@link #load(Path)} applies the lines before a {@code batch} line only once it reads it,
+ * so a commit cut short by a crash is ignored. After compaction the whole manifest is rewritten
+ * as one checkpoint through a temporary file and an atomic move. The schedule's path is appended
+ * once Step 2 has stored it.
+ *
+ * Lines are flushed to the file system but not forced to the device: the manifest survives the
+ * JVM dying, not necessarily the machine.
+ */
+public class IngestManifest implements AutoCloseable {
+
+    // 2: records carry the buckets of their hour they are active in.
+    // 3: records carry their first and last arrival.
+    // 4: one record per row, stored under the hour it starts in, with a span reaching into later hours.
+    static final int VERSION = 4;
+
+    /** The input and segment layout a manifest was written for. */
+    public record Header(String input, long inputBytes, long inputModified, int bucketMinutes,
+            Compression compression, String segmentPrefix) {
+    }
+
+    /** A block of a bucket at an offset in its hour's segment. */
+    public record Block(int bucket, long position) {
+    }
+
+    /** Everything a manifest has committed. */
+    public static final class Contents {
+        final Header header;
+        // Customer names in id order.
+        final List<String> customers = new ArrayList<>();
+        final Map<Integer, String> segmentFiles = new TreeMap<>();
+        final List<Block> blocks = new ArrayList<>();
+        final InputRanges ingested = new InputRanges();
+        String schedulePath = "";
+
+        Contents(Header header) {
+            this.header = header;
+        }
+
+        public Header header() {
+            return header;
+        }
+
+        public InputRanges ingested() {
+            return ingested;
+        }
+
+        public int blockCount() {
+            return blocks.size();
+        }
+
+        public String schedulePath() {
+            return schedulePath;
+        }
+    }
+
+    private final Path path;
+    private BufferedWriter writer;
+    // The run's dictionary; customers with ids below customersWritten are in the manifest.
+    private final CustomerDictionary customers;
+    private int customersWritten;
+    private final InputRanges ingested;
+
+    private IngestManifest(Path path, BufferedWriter writer, CustomerDictionary customers, int customersWritten, InputRanges ingested) {
+        this.path = path;
+        this.writer = writer;
+        this.customers = customers;
+        this.customersWritten = customersWritten;
+        this.ingested = ingested;
+    }
+
+    /**
+     * Starts a new manifest at {@code path}, replacing any earlier one, that records the customers
+     * of {@code customers}.
+     */
+    public static IngestManifest create(Path path, Header header, CustomerDictionary customers) throws IOException {
+        BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        writeHeader(writer, header);
+        writer.flush();
+        return new IngestManifest(path, writer, customers, 0, new InputRanges());
+    }
+
+    /**
+     * Continues a manifest that {@link #load(Path)} read as {@code contents}. {@code customers}
+     * must already hold the ids the manifest lists.
+     */
+    public static IngestManifest append(Path path, Contents contents, CustomerDictionary customers) throws IOException {
+        // Drop a torn last line so that new lines start cleanly.
+        rewrite(path, contents);
+        BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        // The caller may read the loaded ranges while commits extend this manifest's own copy.
+        return new IngestManifest(path, writer, customers, contents.customers.size(), contents.ingested.copy());
+    }
+
+    /**
+     * Records that the input range [start, end) is ingested and its requests are in
+     * {@code blocks}, together with any customers interned since the last commit.
+     */
+    public synchronized void commit(List<Block> blocks, long start, long end) throws IOException {
+        int interned = customers.size();
+        for (int id = customersWritten; id < interned; id++) {
+            writeCustomer(writer, id, customers.nameOf(id));
+        }
+        for (Block block : blocks) {
+            writeBlock(writer, block);
+        }
+        writer.write("batch\t" + start + "\t" + end + "\n");
+        writer.flush();
+        customersWritten = interned;
+        ingested.add(start, end);
+    }
+
+    /**
+     * Rewrites the manifest as a single checkpoint of the current segment files and block index,
+     * keeping the header and the ingested ranges. The old manifest stays in place until the new
+     * one is complete.
+     */
+    public synchronized void checkpoint(Header header, Map<Integer, String> segmentFiles, Map<Integer, List<Long>> blockIndex)
+            throws IOException {
+        Contents contents = new Contents(header);
+        int interned = customers.size();
+        for (int id = 0; id < interned; id++) {
+            contents.customers.add(customers.nameOf(id));
+        }
+        contents.segmentFiles.putAll(segmentFiles);
+        for (Map.Entry<Integer, List<Long>> bucket : blockIndex.entrySet()) {
+            for (long position : bucket.getValue()) {
+                contents.blocks.add(new Block(bucket.getKey(), position));
+            }
+        }
+        for (Map.Entry<Long, Long> range : ingested.ranges().entrySet()) {
+            contents.ingested.add(range.getKey(), range.getValue());
+        }
+        writer.close();
+        rewrite(path, contents);
+        writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        customersWritten = interned;
+    }
+
+    /** Records where Step 2 stored the schedule. */
+    public synchronized void recordSchedule(String schedulePath) throws IOException {
+        writer.write("schedule\t" + escape(schedulePath) + "\n");
+        writer.flush();
+    }
+
+    /** Input ranges committed so far. */
+    public synchronized InputRanges ingested() {
+        return ingested.copy();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Reads a manifest. Returns null if there is none or its header is unreadable. Lines after
+     * the last {@code batch} line, and everything from the first malformed line on, are ignored.
+     */
+    public static Contents load(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            Contents contents;
+            try {
+                contents = new Contents(parseHeader(reader.readLine()));
+            } catch (RuntimeException e) {
+                return null;
+            }
+            List<String> customers = new ArrayList<>();
+            Map<Integer, String> segmentFiles = new TreeMap<>();
+            List<Block> blocks = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                try {
+                    switch (fields[0]) {
+                        case "customer":
+                            if (Integer.parseInt(fields[1]) != contents.customers.size() + customers.size()) {
+                                return contents;
+                            }
+                            customers.add(unescape(fields[2]));
+                            break;
+                        case "segment":
+                            segmentFiles.put(Integer.parseInt(fields[1]), unescape(fields[2]));
+                            break;
+                        case "block":
+                            blocks.add(new Block(Integer.parseInt(fields[1]), Long.parseLong(fields[2])));
+                            break;
+                        case "batch":
+                            long start = Long.parseLong(fields[1]);
+                            long end = Long.parseLong(fields[2]);
+                            contents.customers.addAll(customers);
+                            contents.segmentFiles.putAll(segmentFiles);
+                            contents.blocks.addAll(blocks);
+                            contents.ingested.add(start, end);
+                            customers.clear();
+                            segmentFiles.clear();
+                            blocks.clear();
+                            break;
+                        case "schedule":
+                            contents.schedulePath = unescape(fields[1]);
+                            break;
+                        default:
+                            return contents;
+                    }
+                } catch (RuntimeException e) {
+                    // A line torn by a crash; nothing after it was committed.
+                    return contents;
+                }
+            }
+            return contents;
+        }
+    }
+
+    /** Writes the contents to a temporary file and moves it over {@code path}. */
+    private static void rewrite(Path path, Contents contents) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writeHeader(out, contents.header);
+            for (int id = 0; id < contents.customers.size(); id++) {
+                writeCustomer(out, id, contents.customers.get(id));
+            }
+            for (Map.Entry<Integer, String> segment : contents.segmentFiles.entrySet()) {
+                out.write("segment\t" + segment.getKey() + "\t" + escape(segment.getValue()) + "\n");
+            }
+            for (Block block : contents.blocks) {
+                writeBlock(out, block);
+            }
+            // One batch line per merged range; the first one commits everything above it.
+            Map<Long, Long> ranges = contents.ingested.ranges();
+            if (ranges.isEmpty()) {
+                ranges = Map.of(0L, 0L);
+            }
+            for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+                out.write("batch\t" + range.getKey() + "\t" + range.getValue() + "\n");
+            }
+            if (!contents.schedulePath.isEmpty()) {
+                out.write("schedule\t" + escape(contents.schedulePath) + "\n");
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeHeader(BufferedWriter out, Header header) throws IOException {
+        out.write(String.join("\t", "manifest", Integer.toString(VERSION), escape(header.input()),
+            Long.toString(header.inputBytes()), Long.toString(header.inputModified()),
+            Integer.toString(header.bucketMinutes()), header.compression().name(), escape(header.segmentPrefix())) + "\n");
+    }
+
+    private static Header parseHeader(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 8 || !fields[0].equals("manifest") || Integer.parseInt(fields[1]) != VERSION) {
+            throw new IllegalArgumentException("Not a manifest header: " + line);
+        }
+        return new Header(unescape(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]),
+            Integer.parseInt(fields[5]), Compression.valueOf(fields[6]), unescape(fields[7]));
+    }
+
+    private static void writeCustomer(BufferedWriter out, int id, String name) throws IOException {
+        out.write("customer\t" + id + "\t" + escape(name) + "\n");
+    }
+
+    private static void writeBlock(BufferedWriter out, Block block) throws IOException {
+        out.write("block\t" + block.bucket() + "\t" + block.position() + "\n");
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String value) {
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            char next = value.charAt(++i);
+            out.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.demo;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * A set of half-open byte ranges [start, end) of the input file, kept merged so that overlapping
+ * and touching ranges become one.
+ *
+ * Used to remember which parts of the input a {@link PersistentStorage} manifest has committed,
+ * and by the readers to skip them when a run is resumed. Not thread-safe.
+ */
+public class InputRanges {
+
+    private final NavigableMap<Long, Long> ranges = new TreeMap<>();
+
+    /** Adds [start, end), merging it with every range it overlaps or touches. */
+    public void add(long start, long end) {
+        if (start >= end) {
+            return;
+        }
+        Map.Entry<Long, Long> before = ranges.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        Map.Entry<Long, Long> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            ranges.remove(next.getKey());
+        }
+        ranges.put(start, end);
+    }
+
+    /** Returns the end of the range containing {@code offset}, or -1 if no range contains it. */
+    public long skipFrom(long offset) {
+        Map.Entry<Long, Long> covering = ranges.floorEntry(offset);
+        return covering != null && covering.getValue() > offset ? covering.getValue() : -1;
+    }
+
+    /** Returns the start of the first range after {@code offset}, or {@link Long#MAX_VALUE}. */
+    public long nextStart(long offset) {
+        Long start = ranges.higherKey(offset);
+        return start == null ? Long.MAX_VALUE : start;
+    }
+
+    /** Total bytes covered. */
+    public long bytes() {
+        long bytes = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            bytes += range.getValue() - range.getKey();
+        }
+        return bytes;
+    }
+
+    public InputRanges copy() {
+        InputRanges copy = new InputRanges();
+        copy.ranges.putAll(ranges);
+        return copy;
+    }
+
+    public boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    /** The merged ranges in ascending order, start to end. */
+    public NavigableMap<Long, Long> ranges() {
+        return new TreeMap<>(ranges);
+    }
+
+    @Override
+    public String toString() {
+        return ranges.toString();
+    }
+}
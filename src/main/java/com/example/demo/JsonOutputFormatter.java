@@ -1,6 +1,7 @@
 package com.example.demo;
 
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class JsonOutputFormatter implements OutputFormatter {
@@ -14,9 +15,11 @@ public class JsonOutputFormatter implements OutputFormatter {
             return;
         }
 
+        // Minutes are only listed when the schedule uses sub-hour buckets.
+        boolean subHourly = schedule.stream().anyMatch(bucket -> bucket.minute() != 0);
         System.out.println("[");
         for (int i = 0; i < schedule.size(); i++) {
-            System.out.print(formatBucket(schedule.get(i)));
+            System.out.print(formatBucket(schedule.get(i), subHourly));
             if (i < schedule.size() - 1) {
                 System.out.println(",");
             } else {
@@ -26,15 +29,83 @@ public class JsonOutputFormatter implements OutputFormatter {
         System.out.println("]");
     }
 
+    @Override
+    public void printSweep(CapacitySweep sweep) {
+        boolean subHourly = sweep.buckets().stream().anyMatch(bucket -> bucket.minute() != 0);
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"minimumCapacity\": ").append(sweep.minimumCapacity()).append(",\n");
+        sb.append("  \"minimumCapacityByHour\": {");
+        Map<Integer, Integer> byHour = sweep.minimumCapacityByHour();
+        if (!byHour.isEmpty()) {
+            sb.append("\n");
+            sb.append(byHour.entrySet().stream()
+                    .map(e -> String.format("    \"%d\": %d", e.getKey(), e.getValue()))
+                    .collect(Collectors.joining(",\n")));
+            sb.append("\n  ");
+        }
+        sb.append("},\n");
+        sb.append("  \"sweep\": [");
+        for (int i = 0; i < sweep.size(); i++) {
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\n");
+            sb.append("      \"capacity\": ").append(sweep.capacity(i)).append(",\n");
+            sb.append("      \"throttledBuckets\": ").append(sweep.throttledBuckets(i)).append(",\n");
+            appendSchedule(sb, sweep.schedule(i), subHourly);
+            sb.append("    }");
+        }
+        if (sweep.size() > 0) {
+            sb.append("\n  ");
+        }
+        sb.append("]\n");
+        sb.append("}");
+        System.out.println(sb);
+    }
+
+    @Override
+    public void printScenarios(Scenarios scenarios) {
+        boolean subHourly = scenarios.buckets().stream().anyMatch(bucket -> bucket.minute() != 0);
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"scenarios\": [");
+        for (int i = 0; i < scenarios.size(); i++) {
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\n");
+            sb.append("      \"utilization\": ").append(scenarios.scenario(i).utilization()).append(",\n");
+            sb.append("      \"capacity\": ").append(scenarios.scenario(i).capacity()).append(",\n");
+            sb.append("      \"throttledBuckets\": ").append(scenarios.throttledBuckets(i)).append(",\n");
+            appendSchedule(sb, scenarios.schedule(i), subHourly);
+            sb.append("    }");
+        }
+        if (scenarios.size() > 0) {
+            sb.append("\n  ");
+        }
+        sb.append("]\n");
+        sb.append("}");
+        System.out.println(sb);
+    }
+
+    /** A {@code "schedule"} member whose buckets are formatted as in a plain schedule, nested three levels deeper. */
+    private void appendSchedule(StringBuilder sb, List<ScheduleBucket> schedule, boolean subHourly) {
+        sb.append("      \"schedule\": [\n");
+        sb.append(schedule.stream()
+                .map(bucket -> "      " + formatBucket(bucket, subHourly).replace("\n", "\n      "))
+                .collect(Collectors.joining(",\n")));
+        sb.append("\n      ]\n");
+    }
+
     @Override
     public void setCapacity(int capacity) {
         this.capacity = capacity;
     }
 
-    private String formatBucket(ScheduleBucket bucket) {
+    private String formatBucket(ScheduleBucket bucket, boolean subHourly) {
         StringBuilder sb = new StringBuilder();
         sb.append("  {\n");
         sb.append("    \"hour\": ").append(bucket.hour()).append(",\n");
+        if (subHourly) {
+            sb.append("    \"minute\": ").append(bucket.minute()).append(",\n");
+        }
         sb.append("    \"totalAgents\": ").append(bucket.totalAgents()).append(",\n");
         sb.append("    \"allocations\": {");
 
@@ -0,0 +1,166 @@
+package com.example.demo;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Splits a capacity among requests in proportion to their agents, working on primitive arrays.
+ *
+ * Every request first gets the floor of its exact share, once per copy. The units left over go
+ * to the requests that lost the most to rounding: requests are taken in descending order of
+ * loss, and among those with equal loss the earlier request comes first, as
+ * {@link #allocate(int[], int[], int, int, int)} describes. Rather than sorting by loss, a weighted
+ * selection finds the loss at which the leftovers run out; everything above it gets a unit per
+ * copy and everything below nothing, so a tier is split in expected linear time.
+ */
+public final class LargestRemainder {
+
+    /** Hands out the leftover units that fall among requests of equal loss. */
+    public interface TieBreak {
+        /**
+         * Adds {@code units} units to {@code granted}, at most one per copy of the requests marked
+         * in {@code tied}, which together hold more copies than there are units.
+         */
+        void distribute(boolean[] tied, int[] counts, int units, int[] granted);
+    }
+
+    /** Gives each tied request, earliest first, a unit per copy until the units run out. */
+    public static final TieBreak IN_ORDER = (tied, counts, units, granted) -> {
+        for (int i = 0; i < tied.length && units > 0; i++) {
+            if (tied[i]) {
+                int given = Math.min(counts[i], units);
+                granted[i] += given;
+                units -= given;
+            }
+        }
+    };
+
+    private LargestRemainder() {
+    }
+
+    /**
+     * Returns the agents granted to each of the first {@code size} requests, where request
+     * {@code i} asks for {@code agents[i]} agents {@code counts[i]} times and {@code demand},
+     * their total, exceeds {@code capacity}. The grants add up to {@code capacity}.
+     *
+     * Leftover units are handed out in rounds: each round visits the distinct losses from
+     * largest to smallest and gives the requests at that loss one unit per copy. If fewer units
+     * remain than they have copies, the earlier requests take theirs first, as though every copy
+     * were a request of its own listed right after the previous copy.
+     */
+    public static int[] allocate(int[] agents, int[] counts, int size, int capacity, int demand) {
+        return allocate(agents, counts, size, capacity, demand, IN_ORDER);
+    }
+
+    /**
+     * As {@link #allocate(int[], int[], int, int, int)}, with {@code tieBreak} choosing which of
+     * the requests at the cut-off loss get the units that do not cover all of them; it is not
+     * called when no such units are left.
+     */
+    public static int[] allocate(int[] agents, int[] counts, int size, int capacity, int demand, TieBreak tieBreak) {
+        double ratio = (double) capacity / demand;
+        int[] granted = new int[size];
+        long[] losses = new long[size];
+        long[] copies = new long[size];
+        long totalCopies = 0;
+        int allocated = 0;
+        for (int i = 0; i < size; i++) {
+            double exactShare = agents[i] * ratio;
+            int flooredShare = (int) Math.floor(exactShare);
+            granted[i] = flooredShare * counts[i];
+            allocated += flooredShare * counts[i];
+            losses[i] = sortableBits(exactShare - flooredShare);
+            copies[i] = counts[i];
+            totalCopies += counts[i];
+        }
+        long leftovers = capacity - allocated;
+        if (leftovers <= 0 || totalCopies <= 0) {
+            return granted;
+        }
+        // Whole rounds give every request a unit per copy.
+        long rounds = leftovers / totalCopies;
+        if (rounds > 0) {
+            for (int i = 0; i < size; i++) {
+                granted[i] += (int) (rounds * counts[i]);
+            }
+            leftovers -= rounds * totalCopies;
+        }
+        if (leftovers == 0) {
+            return granted;
+        }
+        long loss = threshold(losses, copies, size, leftovers);
+        long above = 0;
+        long tiedCopies = 0;
+        boolean[] tied = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            if (losses[i] > loss) {
+                granted[i] += counts[i];
+                above += counts[i];
+            } else if (losses[i] == loss) {
+                tied[i] = true;
+                tiedCopies += counts[i];
+            }
+        }
+        int units = (int) (leftovers - above);
+        if (units == tiedCopies) {
+            for (int i = 0; i < size; i++) {
+                if (tied[i]) {
+                    granted[i] += counts[i];
+                }
+            }
+        } else {
+            tieBreak.distribute(tied, counts, units, granted);
+        }
+        return granted;
+    }
+
+    /**
+     * The largest key such that the entries with keys at least that large weigh {@code units} or
+     * more, found by quickselect with three-way partitions in expected linear time. The entries
+     * must weigh at least {@code units} in all, and {@code units} must be positive.
+     */
+    static long threshold(long[] keys, long[] weights, int size, long units) {
+        int[] entries = new int[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = i;
+        }
+        int from = 0;
+        int to = size;
+        while (true) {
+            long pivot = keys[entries[from + ThreadLocalRandom.current().nextInt(to - from)]];
+            // Partition [from, to) into keys above the pivot, equal to it and below it.
+            int greaterEnd = from;
+            int i = from;
+            int lessStart = to;
+            long greater = 0;
+            long equal = 0;
+            while (i < lessStart) {
+                int entry = entries[i];
+                if (keys[entry] > pivot) {
+                    greater += weights[entry];
+                    entries[i++] = entries[greaterEnd];
+                    entries[greaterEnd++] = entry;
+                } else if (keys[entry] < pivot) {
+                    entries[i] = entries[--lessStart];
+                    entries[lessStart] = entry;
+                } else {
+                    equal += weights[entry];
+                    i++;
+                }
+            }
+            if (greater >= units) {
+                to = greaterEnd;
+            } else if (greater + equal >= units) {
+                return pivot;
+            } else {
+                units -= greater + equal;
+                from = lessStart;
+            }
+        }
+    }
+
+    /** Bits of a double that compare as longs the way the doubles compare. */
+    private static long sortableBits(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+}
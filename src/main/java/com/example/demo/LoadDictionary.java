@@ -0,0 +1,64 @@
+package com.example.demo;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mapping between the utilization-independent load of a request and a dense integer id, for runs
+ * that apply utilization only in Step 2.
+ *
+ * A load is the agents a request needs per bucket at full utilization, before rounding up, as
+ * {@link RequestProcessor} computes it. Loads are interned exactly, by their bits, so applying a
+ * utilization to an interned load gives the very agents a run at that utilization would have
+ * stored. Rows share few distinct loads, so the dictionary stays small. Like
+ * {@link CustomerDictionary} it belongs to one run: ids mean nothing to another process.
+ */
+public final class LoadDictionary {
+
+    private final Map<Long, Integer> ids = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    // Replaced (never mutated in place past size) when it grows; volatile so readers see new slots.
+    private volatile double[] loads = new double[1024];
+    private int size;
+
+    /** Returns the id for {@code load}, assigning the next free one on first sight. */
+    public int idOf(double load) {
+        long bits = Double.doubleToLongBits(load);
+        Integer id = ids.get(bits);
+        if (id != null) {
+            return id;
+        }
+        synchronized (lock) {
+            id = ids.get(bits);
+            if (id != null) {
+                return id;
+            }
+            double[] current = loads;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = load;
+            loads = current;
+            id = size++;
+            ids.put(bits, id);
+            return id;
+        }
+    }
+
+    public double loadOf(int id) {
+        return loads[id];
+    }
+
+    /** Agents the load with {@code id} needs per bucket at {@code utilization}. */
+    public int agents(int id, float utilization) {
+        return RequestProcessor.agents(loads[id], utilization);
+    }
+
+    /** Number of ids handed out so far. */
+    public int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+}
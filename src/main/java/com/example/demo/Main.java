@@ -1,7 +1,19 @@
 package com.example.demo;
 
+import com.example.demo.Constants.CombineMode;
+import com.example.demo.Constants.Compression;
+import com.example.demo.Constants.IngestMode;
 import com.example.demo.Constants.OutputFormat;
+import com.example.demo.Constants.ResumeMode;
 import com.example.demo.Constants.StorageType;
+import com.example.demo.Constants.WaitStrategy;
+import com.example.demo.IngestController.Bounds;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -22,9 +34,60 @@ public class Main implements Callable<Integer> {
     @Option(names = {"--capacity"}, defaultValue = "0", description = "The capacity of the agent. Zero means unlimited capacity.")
     private int capacity;
 
+    @Option(names = {"--capacity-sweep"}, description = "Comma-separated capacities and ranges, such as 100,200,500-1000:100, to compute the schedule under in one run instead of --capacity, followed by the least capacity that throttles nobody per hour and per day.")
+    private String capacitySweep;
+
+    @Option(names = {"--scenarios"}, description = "Comma-separated UTILIZATION:CAPACITY pairs, such as 0.7:500,0.9:500,0.9:0, to compute the schedule under in one run instead of --utilization and --capacity. The input is parsed once.")
+    private String scenarios;
+
     @Option(names = {"--storage"}, defaultValue = "MEMORY", description = "The storage type.")
     private StorageType storageType;
 
+    @Option(names = {"--compression"}, defaultValue = "NONE", description = "Block compression for FILESYSTEM spill and schedule files: NONE or DEFLATE.")
+    private Compression compression;
+
+    @Option(names = {"--spill-dirs"}, split = ",", description = "Comma-separated directories, one per disk, that FILESYSTEM storage stripes its per-hour segments across. Defaults to the working directory.")
+    private List<String> spillDirs;
+
+    @Option(names = {"--write-queue-mb"}, defaultValue = "64", description = "Megabytes of encoded blocks FILESYSTEM storage queues for its background writers before map threads wait. Zero makes map threads write their own blocks.")
+    private long writeQueueMb;
+
+    @Option(names = {"--memory-budget-mb"}, description = "Megabytes of intermediate data HYBRID storage keeps in memory before spilling to disk. Defaults to a quarter of the maximum heap.")
+    private Long memoryBudgetMb;
+
+    @Option(names = {"--off-heap-limit-mb"}, description = "Megabytes of intermediate records OFF_HEAP storage may hold. Defaults to the maximum heap size, the JVM's default direct memory cap.")
+    private Long offHeapLimitMb;
+
+    @Option(names = {"--ingest"}, defaultValue = "STREAM", description = "How the input is read: STREAM (single reader) or MAPPED (memory-mapped, parallel ranges).")
+    private IngestMode ingestMode;
+
+    @Option(names = {"--combine"}, defaultValue = "BATCH", description = "Map-side pre-aggregation: NONE, BATCH (within each batch), GLOBAL (across all batches) or WORKER (per map thread, merged after Step 1).")
+    private CombineMode combineMode;
+
+    @Option(names = {"--wait-strategy"}, defaultValue = "BLOCKING", description = "How the STREAM reader and map workers wait for each other: BLOCKING or SPINNING.")
+    private WaitStrategy waitStrategy;
+
+    @Option(names = {"--batch-size"}, defaultValue = "1000-100000", description = "Bounds for the adaptive Step 1 batch size, as MIN-MAX or a fixed value.")
+    private String batchSize;
+
+    @Option(names = {"--workers"}, description = "Bounds for the adaptive number of map workers, as MIN-MAX or a fixed value. Defaults to 1 up to the number of cores.")
+    private String workers;
+
+    @Option(names = {"--bucket-minutes"}, defaultValue = "60", description = "Length of a schedule bucket in minutes. Must divide 60.")
+    private int bucketMinutes;
+
+    @Option(names = {"--resume"}, defaultValue = "false", description = "FILESYSTEM only: continue the run recorded in the output directory's manifest, skipping input it already ingested.")
+    private boolean resume;
+
+    @Option(names = {"--reduce-only"}, defaultValue = "false", description = "FILESYSTEM only: skip Step 1 and run Step 2 on the intermediate data the manifest has committed.")
+    private boolean reduceOnly;
+
+    @Option(names = {"--cache-dir"}, description = "Directory of the schedule cache. A rerun with the same input contents, utilization, capacity and bucket length prints the stored schedule. Off unless set.")
+    private String cacheDir;
+
+    @Option(names = {"--cache-max-mb"}, defaultValue = "64", description = "Megabytes of schedules the cache keeps before evicting the least recently used.")
+    private long cacheMaxMb;
+
     @Option(names = {"--verbose"}, defaultValue = "false", description = "Enable verbose logging for benchmarking.")
     private boolean verbose;
 
@@ -38,7 +101,90 @@ public class Main implements Callable<Integer> {
             System.err.println("Error: Utilization must be between 0 (exclusive) and 1 (inclusive).");
             return 1;
         }
+        if (bucketMinutes <= 0 || 60 % bucketMinutes != 0) {
+            System.err.println("Error: Bucket length must be a divisor of 60 minutes.");
+            return 1;
+        }
+        if ((memoryBudgetMb != null && memoryBudgetMb < 0) || (offHeapLimitMb != null && offHeapLimitMb < 0) || cacheMaxMb < 0
+                || writeQueueMb < 0) {
+            System.err.println("Error: Memory budget, off-heap limit, cache size and write queue must not be negative.");
+            return 1;
+        }
+        if ((resume || reduceOnly) && storageType != StorageType.FILESYSTEM) {
+            System.err.println("Error: --resume and --reduce-only need FILESYSTEM storage.");
+            return 1;
+        }
+        int[] sweepCapacities = null;
+        if (capacitySweep != null) {
+            try {
+                sweepCapacities = CapacitySweep.parse(capacitySweep);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: Capacity sweep must list positive capacities or ranges as MIN-MAX:STEP, at most "
+                    + CapacitySweep.MAX_CAPACITIES + " in all.");
+                return 1;
+            }
+        }
+        List<Scenarios.Scenario> scenarioList = null;
+        if (scenarios != null) {
+            if (capacitySweep != null || resume || reduceOnly) {
+                System.err.println("Error: --scenarios cannot be combined with --capacity-sweep, --resume or --reduce-only.");
+                return 1;
+            }
+            try {
+                scenarioList = Scenarios.parse(scenarios);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: Scenarios must be UTILIZATION:CAPACITY pairs with a utilization between 0 (exclusive) and 1 (inclusive) and a capacity of at least 0, at most "
+                    + Scenarios.MAX_SCENARIOS + " in all.");
+                return 1;
+            }
+        }
+        Bounds batchSizeBounds;
+        Bounds workerBounds;
+        try {
+            batchSizeBounds = Bounds.parse(batchSize);
+            workerBounds = workers == null ? ControlPlaneScheduler.DEFAULT_WORKER_BOUNDS : Bounds.parse(workers);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: Batch size and worker bounds must be positive, as MIN-MAX or a single value.");
+            return 1;
+        }
         ControlPlaneScheduler scheduler = new ControlPlaneScheduler(inputFile, utilization, outputFormat, capacity, storageType, verbose, skipOutput);
+        scheduler.setIngestMode(ingestMode);
+        scheduler.setCombineMode(combineMode);
+        scheduler.setWaitStrategy(waitStrategy);
+        scheduler.setBatchSizeBounds(batchSizeBounds);
+        scheduler.setWorkerBounds(workerBounds);
+        scheduler.setBucketMinutes(bucketMinutes);
+        scheduler.setCompression(compression);
+        scheduler.setResumeMode(reduceOnly ? ResumeMode.REDUCE_ONLY : resume ? ResumeMode.RESUME : ResumeMode.OFF);
+        scheduler.setWriteQueueBytes(writeQueueMb * 1024 * 1024);
+        scheduler.setCapacitySweep(sweepCapacities);
+        scheduler.setScenarios(scenarioList);
+        if (memoryBudgetMb != null) {
+            scheduler.setMemoryBudgetBytes(memoryBudgetMb * 1024 * 1024);
+        }
+        if (offHeapLimitMb != null) {
+            scheduler.setOffHeapLimitBytes(offHeapLimitMb * 1024 * 1024);
+        }
+        if (spillDirs != null) {
+            List<Path> directories = new ArrayList<>();
+            for (String dir : spillDirs) {
+                Path directory = Paths.get(dir);
+                if (!Files.isDirectory(directory)) {
+                    System.err.println("Error: Spill directory does not exist: " + dir);
+                    return 1;
+                }
+                directories.add(directory);
+            }
+            scheduler.setSpillDirectories(directories);
+        }
+        if (cacheDir != null) {
+            try {
+                scheduler.setScheduleCache(new ScheduleCache(Paths.get(cacheDir), cacheMaxMb * 1024 * 1024));
+            } catch (IOException e) {
+                System.err.println("Error: Cannot open the schedule cache in " + cacheDir + ": " + e.getMessage());
+                return 1;
+            }
+        }
         scheduler.run();
 
         return 0;
@@ -0,0 +1,153 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Reads the input CSV by memory-mapping it and parsing newline-aligned byte ranges in parallel.
+ *
+ * The header line is read once to resolve the column layout, and each range is then parsed
+ * independently on its own worker into a reusable {@link RequestBatch}. Records must not contain
+ * quoted line breaks.
+ *
+ * Each batch records the input byte range it was parsed from, and ranges passed to
+ * {@link #skip(InputRanges)} are left out, as in {@link CsvBatchReader}.
+ */
+public class MappedCsvIngestor {
+
+    // A single MappedByteBuffer cannot address more than this.
+    private static final long MAX_RANGE_BYTES = Integer.MAX_VALUE;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    /** A half-open byte range [start, end) of the input file. */
+    public record ByteRange(long start, long end) {
+        public long length() {
+            return end - start;
+        }
+    }
+
+    private final Path path;
+    private final int parallelism;
+    private final int batchSize;
+    private final CustomerDictionary customers;
+    // Only read once ingest starts, so the workers can share it.
+    private InputRanges skipped = new InputRanges();
+
+    public MappedCsvIngestor(Path path, int parallelism, int batchSize, CustomerDictionary customers) {
+        this.path = path;
+        this.parallelism = Math.max(1, parallelism);
+        this.batchSize = batchSize;
+        this.customers = customers;
+    }
+
+    /** Ranges of the input to leave out, such as those an earlier run already ingested. */
+    public void skip(InputRanges ranges) {
+        this.skipped = ranges;
+    }
+
+    /**
+     * Parses every range on the executor and hands the rows to the sink in batches of at most
+     * {@code batchSize}. The sink runs on the worker that parsed the batch, and the batch is
+     * refilled once the sink returns.
+     */
+    public void ingest(ExecutorService executor, Consumer<RequestBatch> sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            byte[] header = readHeader(channel);
+            List<ByteRange> ranges = split(channel, header.length);
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (ByteRange range : ranges) {
+                futures.add(CompletableFuture.runAsync(() -> parseRange(channel, header, range, sink), executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        }
+    }
+
+    /**
+     * Splits the data section (everything after the header) into ranges that start and end on
+     * line boundaries.
+     */
+    List<ByteRange> split(FileChannel channel, long dataStart) throws IOException {
+        long size = channel.size();
+        List<ByteRange> ranges = new ArrayList<>();
+        if (dataStart >= size) {
+            return ranges;
+        }
+        long dataLength = size - dataStart;
+        long rangeCount = Math.max(parallelism, (dataLength + MAX_RANGE_BYTES - 1) / MAX_RANGE_BYTES);
+        long targetLength = (dataLength + rangeCount - 1) / rangeCount;
+
+        long start = dataStart;
+        while (start < size) {
+            long end = start + targetLength >= size ? size : nextLineStart(channel, start + targetLength);
+            if (end - start > MAX_RANGE_BYTES) {
+                throw new IOException("Line too long to map near offset " + start);
+            }
+            ranges.add(new ByteRange(start, end));
+            start = end;
+        }
+        return ranges;
+    }
+
+    private void parseRange(FileChannel channel, byte[] header, ByteRange range, Consumer<RequestBatch> sink) {
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, range.start(), range.length());
+            CsvBatchParser parser = CsvBatchParser.forHeader(ByteBuffer.wrap(header), 0, header.length, customers);
+            RequestBatch batch = new RequestBatch(batchSize);
+            int position = 0;
+            int limit = buffer.limit();
+            while (position < limit) {
+                batch.clear();
+                long skipTo = skipped.skipFrom(range.start() + position);
+                if (skipTo >= 0) {
+                    position = (int) Math.min(limit, skipTo - range.start());
+                    continue;
+                }
+                int start = position;
+                int stop = (int) Math.min(limit, skipped.nextStart(range.start() + position) - range.start());
+                position = parser.parse(buffer, position, stop, true, batch, range.start());
+                batch.setOffsets(range.start() + start, range.start() + position);
+                if (!batch.isEmpty()) {
+                    sink.accept(batch);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read range " + range, e);
+        }
+    }
+
+    /** Returns the header line including its terminating newline. */
+    private static byte[] readHeader(FileChannel channel) throws IOException {
+        long headerEnd = nextLineStart(channel, 0);
+        ByteBuffer header = ByteBuffer.allocate((int) headerEnd);
+        channel.read(header, 0);
+        return header.array();
+    }
+
+    /** Returns the offset just past the first '\n' at or after {@code from}, or the file size. */
+    private static long nextLineStart(FileChannel channel, long from) throws IOException {
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = from;
+        while (true) {
+            scan.clear();
+            int read = channel.read(scan, position);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (scan.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+}
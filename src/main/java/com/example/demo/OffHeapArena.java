@@ -0,0 +1,56 @@
+package com.example.demo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out direct buffers outside the Java heap and releases them all at once.
+ *
+ * {@link #releaseAll()} drops the arena's references to its buffers; the garbage collector frees
+ * the native memory once the buffers are unreachable, so callers must drop theirs too. No
+ * JDK-internal API is used, so no {@code --add-opens} is needed. Buffers must not be used after
+ * they have been released.
+ *
+ * Direct memory is also capped by the JVM's {@code -XX:MaxDirectMemorySize}, which defaults to
+ * the maximum heap size.
+ */
+public class OffHeapArena {
+
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong peakBytes = new AtomicLong();
+    private final AtomicLong releasedBytes = new AtomicLong();
+
+    /** Allocates a zeroed direct buffer in native byte order. Safe to call from several threads. */
+    public ByteBuffer allocate(int bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        buffers.add(buffer);
+        peakBytes.accumulateAndGet(allocatedBytes.addAndGet(bytes), Math::max);
+        return buffer;
+    }
+
+    /** Releases every buffer handed out so far to the collector. No other thread may be using them. */
+    public void releaseAll() {
+        ByteBuffer buffer;
+        while ((buffer = buffers.poll()) != null) {
+            allocatedBytes.addAndGet(-buffer.capacity());
+            releasedBytes.addAndGet(buffer.capacity());
+        }
+    }
+
+    /** Bytes currently allocated. */
+    public long allocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public long peakBytes() {
+        return peakBytes.get();
+    }
+
+    public long releasedBytes() {
+        return releasedBytes.get();
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.demo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps intermediate records outside the Java heap, so the heap and garbage collection pauses
+ * stay the same size however large the input is.
+ *
+ * Each stored index (an hour) keeps its records as 36-byte customer id, agents, priority, count,
+ * span and first and last arrival entries in direct buffers from an {@link OffHeapArena}. Chunks start
+ * at {@value #MIN_CHUNK_RECORDS} records and double up to {@value #MAX_CHUNK_RECORDS}, so a small
+ * bucket stays small and a large one needs few chunks. A writer reserves its range with one atomic
+ * add and writes with absolute puts, so appends take no lock.
+ *
+ * Stores that would take the records past the off-heap limit fail with an
+ * {@link IllegalStateException}. {@link #cleanupIntermediateFiles()} drops every chunk at once and
+ * leaves the native memory to the garbage collector. The schedule is kept on the heap.
+ */
+public class OffHeapStorage implements Storage {
+
+    static final int RECORD_BYTES = 5 * Integer.BYTES + 2 * Long.BYTES;
+    static final int MIN_CHUNK_RECORDS = 1024;
+    static final int MAX_CHUNK_RECORDS = 64 * 1024;
+    // Chunks 0..GROWING_CHUNKS-1 double in size; later chunks are all MAX_CHUNK_RECORDS.
+    private static final int GROWING_CHUNKS = Integer.numberOfTrailingZeros(MAX_CHUNK_RECORDS / MIN_CHUNK_RECORDS) + 1;
+    private static final int GROWING_RECORDS = MIN_CHUNK_RECORDS * ((1 << GROWING_CHUNKS) - 1);
+
+    private final OffHeapArena arena = new OffHeapArena();
+    private final Map<Integer, Bucket> intermediateData = new ConcurrentHashMap<>();
+    private final AtomicLong recordBytes = new AtomicLong();
+    private volatile long limitBytes;
+    private List<ScheduleBucket> schedule = Collections.emptyList();
+
+    public OffHeapStorage(long limitBytes) {
+        this.limitBytes = limitBytes;
+    }
+
+    /** Bytes of records that may be stored off-heap. */
+    public void setLimitBytes(long limitBytes) {
+        this.limitBytes = limitBytes;
+    }
+
+    @Override
+    public void storeIntermediateData(int index, List<AllocationRequest> requests) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        long bytes = (long) requests.size() * RECORD_BYTES;
+        if (recordBytes.addAndGet(bytes) > limitBytes) {
+            recordBytes.addAndGet(-bytes);
+            throw new IllegalStateException("Off-heap limit of " + megabytes(limitBytes) + " reached");
+        }
+        Bucket bucket = intermediateData.get(index);
+        if (bucket == null) {
+            bucket = intermediateData.computeIfAbsent(index, k -> new Bucket(arena));
+        }
+        bucket.appendAll(requests);
+    }
+
+    @Override
+    public List<AllocationRequest> fetchInterMediateData(int index) {
+        List<AllocationRequest> requests = new ArrayList<>();
+        forEachIntermediateData(index, (customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+            requests.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+        return requests;
+    }
+
+    @Override
+    public void forEachIntermediateData(int index, RequestVisitor visitor) {
+        Bucket bucket = intermediateData.get(index);
+        if (bucket != null) {
+            bucket.forEach(visitor);
+        }
+    }
+
+    @Override
+    public void storeSchedule(List<ScheduleBucket> schedule) {
+        this.schedule = new ArrayList<>(schedule);
+    }
+
+    @Override
+    public List<ScheduleBucket> fetchSchedule() {
+        return new ArrayList<>(schedule);
+    }
+
+    /** Releases the off-heap memory. Nothing may read intermediate data concurrently. */
+    @Override
+    public void cleanupIntermediateFiles() {
+        intermediateData.clear();
+        recordBytes.set(0);
+        arena.releaseAll();
+    }
+
+    @Override
+    public String statistics() {
+        return "off-heap limit " + megabytes(limitBytes) + ", peak " + megabytes(arena.peakBytes()) + ", released "
+            + megabytes(arena.releasedBytes()) + ", in use " + megabytes(arena.allocatedBytes());
+    }
+
+    /** Bytes of off-heap memory currently allocated, including unused chunk space. */
+    long allocatedBytes() {
+        return arena.allocatedBytes();
+    }
+
+    static int chunkRecords(int chunk) {
+        return chunk < GROWING_CHUNKS ? MIN_CHUNK_RECORDS << chunk : MAX_CHUNK_RECORDS;
+    }
+
+    static int chunkOf(int position) {
+        if (position < GROWING_RECORDS) {
+            return 31 - Integer.numberOfLeadingZeros(position / MIN_CHUNK_RECORDS + 1);
+        }
+        return GROWING_CHUNKS + (position - GROWING_RECORDS) / MAX_CHUNK_RECORDS;
+    }
+
+    static int chunkStart(int chunk) {
+        if (chunk < GROWING_CHUNKS) {
+            return MIN_CHUNK_RECORDS * ((1 << chunk) - 1);
+        }
+        return GROWING_RECORDS + (chunk - GROWING_CHUNKS) * MAX_CHUNK_RECORDS;
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    /** One bucket's records in a growing list of off-heap chunks. */
+    private static final class Bucket {
+        private final OffHeapArena arena;
+        private final AtomicInteger size = new AtomicInteger();
+        // Replaced, never modified, when a chunk is added, so a reader sees complete chunks.
+        private volatile ByteBuffer[] chunks = new ByteBuffer[4];
+
+        Bucket(OffHeapArena arena) {
+            this.arena = arena;
+        }
+
+        void appendAll(List<AllocationRequest> requests) {
+            int count = requests.size();
+            int start = size.getAndAdd(count);
+            if (start < 0 || start > Integer.MAX_VALUE - count) {
+                size.getAndAdd(-count);
+                throw new IllegalStateException("Bucket is full");
+            }
+            int chunk = chunkOf(start);
+            int offset = start - chunkStart(chunk);
+            ByteBuffer buffer = chunk(chunk);
+            for (AllocationRequest request : requests) {
+                if (offset == chunkRecords(chunk)) {
+                    buffer = chunk(++chunk);
+                    offset = 0;
+                }
+                int at = offset * RECORD_BYTES;
+                buffer.putInt(at, request.customerId());
+                buffer.putInt(at + Integer.BYTES, request.agents());
+                buffer.putInt(at + 2 * Integer.BYTES, request.priority());
+                buffer.putInt(at + 3 * Integer.BYTES, request.count());
+                buffer.putInt(at + 4 * Integer.BYTES, request.span());
+                buffer.putLong(at + 5 * Integer.BYTES, request.firstArrival());
+                buffer.putLong(at + 5 * Integer.BYTES + Long.BYTES, request.lastArrival());
+                offset++;
+            }
+        }
+
+        /** Visits the records appended so far. Appends must have finished. */
+        void forEach(RequestVisitor visitor) {
+            int count = size.get();
+            ByteBuffer[] current = chunks;
+            for (int chunk = 0; chunkStart(chunk) < count; chunk++) {
+                ByteBuffer buffer = current[chunk];
+                int records = Math.min(chunkRecords(chunk), count - chunkStart(chunk));
+                for (int i = 0, at = 0; i < records; i++, at += RECORD_BYTES) {
+                    visitor.visit(buffer.getInt(at), buffer.getInt(at + Integer.BYTES),
+                        buffer.getInt(at + 2 * Integer.BYTES), buffer.getInt(at + 3 * Integer.BYTES), buffer.getInt(at + 4 * Integer.BYTES),
+                        buffer.getLong(at + 5 * Integer.BYTES), buffer.getLong(at + 5 * Integer.BYTES + Long.BYTES));
+                }
+            }
+        }
+
+        private ByteBuffer chunk(int chunk) {
+            ByteBuffer[] current = chunks;
+            if (chunk < current.length && current[chunk] != null) {
+                return current[chunk];
+            }
+            synchronized (this) {
+                current = chunks;
+                if (chunk >= current.length || current[chunk] == null) {
+                    int length = current.length;
+                    while (length <= chunk) {
+                        length *= 2;
+                    }
+                    ByteBuffer[] next = Arrays.copyOf(current, length);
+                    next[chunk] = arena.allocate(chunkRecords(chunk) * RECORD_BYTES);
+                    chunks = next;
+                    current = next;
+                }
+                return current[chunk];
+            }
+        }
+    }
+}
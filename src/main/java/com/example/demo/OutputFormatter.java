@@ -4,5 +4,11 @@ import java.util.List;
 
 public interface OutputFormatter {
     void print(List<ScheduleBucket> schedule);
+
+    /** Prints the schedule under each capacity of a sweep and the least capacity that throttles nobody. */
+    void printSweep(CapacitySweep sweep);
+
+    /** Prints the schedule under each (utilization, capacity) scenario. */
+    void printScenarios(Scenarios scenarios);
     void setCapacity(int capacity);
 }
@@ -0,0 +1,304 @@
+package com.example.demo;
+
+import com.example.demo.Constants.Compression;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lays Step 1's output out by (bucket, priority) in front of the storage that holds it, and keeps
+ * {@link DemandTotals} for every bucket as the requests go by.
+ *
+ * Requests are stored under the first bucket of the hour they start in, with spans that may reach
+ * into later hours. Storing one only adds its interval to a {@link DemandCombiner}; the intervals
+ * are swept into the totals of the buckets they cover when Step 2 first asks for totals, so a
+ * request costs the same to store however many buckets it covers.
+ *
+ * Each list stored for a bucket is grouped by priority with a counting sort over the list's
+ * priority range, which is a handful of values in practice, and each group is handed to the
+ * storage as a partition of its own. With the totals, Step 2 allocates whole tiers and reports
+ * demand without reading anything, and reads only the partition where capacity runs out; the
+ * tiers below it are never read.
+ *
+ * The totals only describe requests stored through this storage. When a run carries on from
+ * intermediate data an earlier process stored, {@link #setTotalsComplete(boolean)} turns them
+ * off and Step 2 reads whole buckets as it would without partitions.
+ */
+public class PartitionedStorage implements Storage {
+
+    // Priority ranges wider than this are grouped with a sorted map instead.
+    private static final int MAX_COUNTING_RANGE = 1024;
+
+    private final Storage storage;
+    private final TimeBuckets buckets;
+    private final DemandTotals[] totals;
+    // Intervals stored since the totals were last brought up to date, per hour they are stored under.
+    private final DemandCombiner[] pending;
+    // Requests stored through this storage per stored index, for storages that cannot count their own.
+    private final AtomicLongArray records;
+    private volatile boolean totalsComplete = true;
+    private final LongAdder partitionsStored = new LongAdder();
+    private final LongAdder partitionsRead = new LongAdder();
+    private final LongAdder bucketsRead = new LongAdder();
+
+    public PartitionedStorage(Storage storage, TimeBuckets buckets) {
+        this.storage = storage;
+        this.buckets = buckets;
+        this.totals = new DemandTotals[buckets.count()];
+        this.pending = new DemandCombiner[buckets.count() / buckets.perHour()];
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = new DemandCombiner(buckets);
+        }
+        this.records = new AtomicLongArray(buckets.count());
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = new DemandTotals();
+        }
+    }
+
+    /** Whether the totals cover all intermediate data the storage holds; totals are not kept while they do not. */
+    public void setTotalsComplete(boolean totalsComplete) {
+        this.totalsComplete = totalsComplete;
+    }
+
+    /** Groups the requests by priority and stores each group as its own partition. */
+    @Override
+    public void storeIntermediateData(int index, List<AllocationRequest> requests) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (AllocationRequest request : requests) {
+            min = Math.min(min, request.priority());
+            max = Math.max(max, request.priority());
+        }
+        Map<Integer, List<AllocationRequest>> byPriority;
+        if (min == max) {
+            byPriority = Map.of(min, requests);
+        } else if ((long) max - min < MAX_COUNTING_RANGE) {
+            byPriority = countingSort(requests, min, max);
+        } else {
+            byPriority = new TreeMap<>();
+            for (AllocationRequest request : requests) {
+                byPriority.computeIfAbsent(request.priority(), k -> new ArrayList<>()).add(request);
+            }
+        }
+        store(index, requests, byPriority);
+    }
+
+    @Override
+    public void storeIntermediateData(int index, int priority, List<AllocationRequest> requests) {
+        store(index, requests, Map.of(priority, requests));
+    }
+
+    @Override
+    public List<AllocationRequest> fetchInterMediateData(int index) {
+        return storage.fetchInterMediateData(index);
+    }
+
+    @Override
+    public void forEachIntermediateData(int index, RequestVisitor visitor) {
+        bucketsRead.increment();
+        storage.forEachIntermediateData(index, visitor);
+    }
+
+    @Override
+    public void forEachIntermediateData(int index, int priority, RequestVisitor visitor) {
+        partitionsRead.increment();
+        storage.forEachIntermediateData(index, priority, visitor);
+    }
+
+    @Override
+    public void forEachIntermediateSlice(int index, int slice, int slices, RequestVisitor visitor) {
+        if (slice == 0) {
+            bucketsRead.increment();
+        }
+        storage.forEachIntermediateSlice(index, slice, slices, visitor);
+    }
+
+    /**
+     * The storage's own count where it keeps one; otherwise the requests stored through this
+     * storage, which leaves out what an earlier process stored.
+     */
+    @Override
+    public long intermediateRecords(int index) {
+        long stored = storage.intermediateRecords(index);
+        return stored >= 0 || index < 0 || index >= records.length() ? stored : records.get(index);
+    }
+
+    @Override
+    public DemandTotals demandTotals(int index) {
+        if (!totalsComplete || index < 0 || index >= totals.length) {
+            return null;
+        }
+        settle();
+        return totals[index];
+    }
+
+    /**
+     * Sweeps the intervals stored since the last call into the totals of the buckets they cover,
+     * an hour per subtask inside a {@link ForkJoinPool}. Callers wait for a sweep in progress.
+     */
+    private void settle() {
+        synchronized (pending) {
+            // Runs of every stored hour, by the hour they fall in.
+            List<List<DemandCombiner.Runs>> byHour = new ArrayList<>();
+            for (int hour = 0; hour < pending.length; hour++) {
+                byHour.add(new ArrayList<>());
+            }
+            for (DemandCombiner stored : pending) {
+                if (stored.size() > 0) {
+                    List<DemandCombiner.Runs> runs = stored.drainByHour(0, totals.length);
+                    for (int hour = 0; hour < runs.size(); hour++) {
+                        byHour.get(hour).add(runs.get(hour));
+                    }
+                }
+            }
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (List<DemandCombiner.Runs> hour : byHour) {
+                Runnable task = () -> {
+                    for (DemandCombiner.Runs runs : hour) {
+                        for (int i = 0; i < runs.size; i++) {
+                            for (int bucket = runs.starts[i]; bucket < runs.ends[i]; bucket++) {
+                                totals[bucket].add(runs.customerIds[i], runs.agents[i], runs.priorities[i], runs.counts[i],
+                                    runs.firsts[i], runs.lasts[i]);
+                            }
+                        }
+                    }
+                };
+                if (ForkJoinTask.inForkJoinPool()) {
+                    tasks.add(ForkJoinTask.adapt(task));
+                } else {
+                    task.run();
+                }
+            }
+            if (!tasks.isEmpty()) {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        }
+    }
+
+    @Override
+    public void storeSchedule(List<ScheduleBucket> schedule) {
+        storage.storeSchedule(schedule);
+    }
+
+    @Override
+    public List<ScheduleBucket> fetchSchedule() {
+        return storage.fetchSchedule();
+    }
+
+    @Override
+    public void cleanupIntermediateFiles() {
+        storage.cleanupIntermediateFiles();
+    }
+
+    @Override
+    public void setTimeBuckets(TimeBuckets buckets) {
+        storage.setTimeBuckets(buckets);
+    }
+
+    @Override
+    public void setCompression(Compression compression) {
+        storage.setCompression(compression);
+    }
+
+    @Override
+    public void setCustomers(CustomerDictionary customers) {
+        storage.setCustomers(customers);
+    }
+
+    @Override
+    public void commitInput(long startOffset, long endOffset) {
+        storage.commitInput(startOffset, endOffset);
+    }
+
+    @Override
+    public int devices() {
+        return storage.devices();
+    }
+
+    @Override
+    public int deviceOf(int index) {
+        return storage.deviceOf(index);
+    }
+
+    @Override
+    public void flushIntermediateData() {
+        storage.flushIntermediateData();
+    }
+
+    @Override
+    public String statistics() {
+        return storage.statistics();
+    }
+
+    /** Partitions stored and how Step 2 read them back. */
+    public String summary() {
+        return partitionsStored.sum() + " partition writes, Step 2 read " + partitionsRead.sum() + " partitions and "
+            + bucketsRead.sum() + " whole buckets";
+    }
+
+    /** Stable counting sort by priority into one list per priority present, in ascending priority. */
+    private static Map<Integer, List<AllocationRequest>> countingSort(List<AllocationRequest> requests, int min, int max) {
+        int[] starts = new int[max - min + 2];
+        for (AllocationRequest request : requests) {
+            starts[request.priority() - min + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        AllocationRequest[] sorted = new AllocationRequest[requests.size()];
+        int[] next = Arrays.copyOf(starts, starts.length);
+        for (AllocationRequest request : requests) {
+            sorted[next[request.priority() - min]++] = request;
+        }
+        List<AllocationRequest> grouped = Arrays.asList(sorted);
+        Map<Integer, List<AllocationRequest>> byPriority = new TreeMap<>();
+        for (int priority = min; priority <= max; priority++) {
+            int from = starts[priority - min];
+            int to = starts[priority - min + 1];
+            if (from < to) {
+                byPriority.put(priority, grouped.subList(from, to));
+            }
+        }
+        return byPriority;
+    }
+
+    /**
+     * Adds the requests' intervals to the pending ones of their hour, then stores each partition.
+     * Only the hour's intervals are locked, and the storage write holds no lock. Totals order
+     * customers by arrival rather than by the order intervals are added in, so workers storing
+     * the same hour at once need not agree on one.
+     */
+    private void store(int index, List<AllocationRequest> requests, Map<Integer, List<AllocationRequest>> byPriority) {
+        if (totalsComplete) {
+            DemandCombiner hour = pending[buckets.hourOf(index)];
+            synchronized (hour) {
+                for (AllocationRequest request : requests) {
+                    int start = index + buckets.startOf(request.span());
+                    int end = Math.min(totals.length, index + buckets.endOf(request.span()));
+                    if (start < end) {
+                        hour.add(request.customerId(), request.priority(), request.agents(), request.count(), start, end,
+                            request.firstArrival(), request.lastArrival());
+                    }
+                }
+            }
+        }
+        storePartitions(index, byPriority);
+    }
+
+    private void storePartitions(int index, Map<Integer, List<AllocationRequest>> byPriority) {
+        for (Map.Entry<Integer, List<AllocationRequest>> partition : byPriority.entrySet()) {
+            partitionsStored.increment();
+            records.addAndGet(index, partition.getValue().size());
+            storage.storeIntermediateData(index, partition.getKey(), partition.getValue());
+        }
+    }
+}
@@ -1,35 +1,75 @@
 package com.example.demo;
 
+import com.example.demo.Constants.Compression;
 import com.google.common.collect.ImmutableList;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDate;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The storage system which stores the call requests.
  * 
  * It stores and fetches the call requests for both intermediate and final stages.
+ * Intermediate data goes to one append-only {@link SegmentStore} segment per hour. Segments
+ * record customers by their id in the run's {@link CustomerDictionary}, given by
+ * {@link #setCustomers(CustomerDictionary)}, so they are only readable by the process that wrote
+ * them or by a run that resumes from the manifest.
+ *
+ * Segment blocks and the schedule file are framed by a {@link BlockCompressor}; compression is off
+ * unless {@link #setCompression(Compression)} picks a codec.
+ *
+ * Once {@link #beginIngest(Path)} has been called, every {@link #commitInput(long, long)} records
+ * the blocks the calling thread stored since its previous commit in an {@link IngestManifest},
+ * together with the input range they came from and the customers they refer to.
+ * {@link #resume(Path)} reopens the segments such a manifest describes, so that a run
+ * that died part way through Step 1 can carry on where it stopped, or go straight to Step 2.
+ *
+ * Map threads hand their blocks to the segment store's background writers through a
+ * {@link WriteQueue} of {@link #DEFAULT_WRITE_QUEUE_BYTES} unless
+ * {@link #setWriteQueueBytes(long)} says otherwise, so parsing carries on while blocks are
+ * written. A batch's manifest commit then waits for its blocks on the writer thread instead of on
+ * the map thread, and is only recorded once they are all written.
  */
 public class PersistentStorage implements Storage {
 
+    public static final long DEFAULT_WRITE_QUEUE_BYTES = 64L * 1024 * 1024;
+
     private String schedulePath = "";
     private AtomicInteger intermediateFileIndex = new AtomicInteger(0);
-    private Map<Integer, List<String>> intermediateFileMap = new ConcurrentHashMap<>();
     private LocalDate date;
     private final String outputDir;
+    // Segment directories; the schedule and the manifest stay in outputDir.
+    private List<Path> spillDirectories;
+    private TimeBuckets buckets = TimeBuckets.HOURLY;
+    private BlockCompressor compressor = new BlockCompressor(BlockCodec.NONE);
+    private SegmentStore segments;
+    private Compression compression = Compression.NONE;
+    private CustomerDictionary customers = new CustomerDictionary();
+    private IngestManifest manifest;
+    private IngestManifest.Header manifestHeader;
+    private long writeQueueBytes = DEFAULT_WRITE_QUEUE_BYTES;
+    // Blocks stored by each thread since its last commit, and the writes that put them on disk.
+    private final ThreadLocal<List<IngestManifest.Block>> uncommittedBlocks = ThreadLocal.withInitial(ArrayList::new);
+    private final ThreadLocal<List<CompletableFuture<Void>>> uncommittedWrites = ThreadLocal.withInitial(ArrayList::new);
+    // Commits waiting for their blocks to be written.
+    private final Queue<CompletableFuture<Void>> pendingCommits = new ConcurrentLinkedQueue<>();
 
     public PersistentStorage(LocalDate date) {
         this(date, ".");
@@ -38,71 +78,280 @@ public class PersistentStorage implements Storage {
     public PersistentStorage(LocalDate date, String outputDir) {
         this.date = date;
         this.outputDir = outputDir;
+        this.spillDirectories = List.of(Paths.get(outputDir));
+        this.segments = newSegmentStore();
     }
 
-    public void storeIntermediateData(int index, List<AllocationRequest> requests) {
-        Path path = Paths.get(outputDir, getUniqueFileString(Constants.INTERMEDIATE_FILE_PREFIX));
-        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
-            for (AllocationRequest entry : requests) {
-                out.writeUTF(entry.customer());
-                out.writeInt(entry.agents());
-                out.writeInt(entry.priority());
-            }
+    @Override
+    public void setTimeBuckets(TimeBuckets buckets) {
+        this.buckets = buckets;
+        segments.delete();
+        segments = newSegmentStore();
+    }
+
+    /** Selects the codec for blocks written from now on. */
+    @Override
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+        this.compressor = new BlockCompressor(BlockCodec.forCompression(compression));
+        segments.delete();
+        segments = newSegmentStore();
+    }
+
+    /**
+     * Uses the run's dictionary for the customers the manifest records and resumes. Called before
+     * {@link #beginIngest(Path)} or {@link #resume(Path)}.
+     */
+    @Override
+    public void setCustomers(CustomerDictionary customers) {
+        this.customers = customers;
+    }
+
+    /**
+     * Stripes the segments across these directories, typically one per disk, instead of the
+     * output directory.
+     */
+    public void setSpillDirectories(List<Path> spillDirectories) {
+        this.spillDirectories = List.copyOf(spillDirectories);
+        segments.delete();
+        segments = newSegmentStore();
+    }
+
+    /**
+     * Bytes of blocks the write queue may hold before map threads wait for the writers; zero
+     * makes map threads write their blocks themselves.
+     */
+    public void setWriteQueueBytes(long writeQueueBytes) {
+        this.writeQueueBytes = writeQueueBytes;
+        segments.delete();
+        segments = newSegmentStore();
+    }
+
+    @Override
+    public int devices() {
+        return segments.devices();
+    }
+
+    @Override
+    public int deviceOf(int index) {
+        return segments.deviceOf(buckets.hourOf(index));
+    }
+
+    @Override
+    public String statistics() {
+        return "blocks " + compressor.summary() + ", segments " + segments.deviceSummary() + ", writer "
+            + segments.writerSummary();
+    }
+
+    /**
+     * Starts a new manifest for the input, replacing the one an earlier run left. Blocks stored
+     * from now on are recorded as their batches are committed.
+     */
+    public void beginIngest(Path input) {
+        try {
+            closeManifest();
+            manifestHeader = new IngestManifest.Header(input.toAbsolutePath().toString(), Files.size(input),
+                Files.getLastModifiedTime(input).toMillis(), buckets.minutes(), compression,
+                Constants.INTERMEDIATE_FILE_PREFIX + "_" + date);
+            manifest = IngestManifest.create(manifestPath(), manifestHeader, customers);
         } catch (Exception e) {
             e.printStackTrace();
+            manifest = null;
+        }
+    }
+
+    /**
+     * Reopens what the manifest of an earlier run recorded: its customers, segments and blocks,
+     * and the schedule if Step 2 finished. Later stores and commits extend that manifest.
+     *
+     * @param input the input the earlier run must have read, or null to accept whatever it read
+     * @return the manifest's contents, or null if there is no manifest
+     * @throws IOException if the manifest does not match the input or the settings of this run,
+     *     or its files cannot be reopened
+     */
+    public IngestManifest.Contents resume(Path input) throws IOException {
+        Path path = manifestPath();
+        IngestManifest.Contents contents = IngestManifest.load(path);
+        if (contents == null) {
+            return null;
+        }
+        IngestManifest.Header header = contents.header();
+        if (input != null && (!header.input().equals(input.toAbsolutePath().toString())
+                || header.inputBytes() != Files.size(input)
+                || header.inputModified() != Files.getLastModifiedTime(input).toMillis())) {
+            throw new IOException("The manifest was written for " + header.input() + " as it was then");
+        }
+        if (header.bucketMinutes() != buckets.minutes() || header.compression() != compression) {
+            throw new IOException("The manifest was written with " + header.bucketMinutes() + "-minute buckets and "
+                + header.compression() + " compression");
+        }
+        // Ids are handed out in order, so the fresh dictionary a run starts with reproduces the earlier run's ids.
+        for (int id = 0; id < contents.customers.size(); id++) {
+            if (customers.idOf(contents.customers.get(id)) != id) {
+                throw new IOException("Customer ids no longer match the manifest");
+            }
+        }
+        closeManifest();
+        segments.delete();
+        segments = newSegmentStore(header.segmentPrefix());
+        schedulePath = contents.schedulePath();
+        if (schedulePath.isEmpty() || !Files.exists(Paths.get(schedulePath))) {
+            schedulePath = "";
+            Map<Integer, String> files = new TreeMap<>(contents.segmentFiles);
+            for (IngestManifest.Block block : contents.blocks) {
+                files.putIfAbsent(buckets.hourOf(block.bucket()), header.segmentPrefix() + "_" + buckets.hourOf(block.bucket()) + ".seg");
+            }
+            for (Map.Entry<Integer, String> file : files.entrySet()) {
+                segments.restoreSegment(file.getKey(), file.getValue());
+            }
+            for (IngestManifest.Block block : contents.blocks) {
+                segments.restoreBlock(block.bucket(), block.position());
+            }
+        }
+        manifestHeader = header;
+        manifest = IngestManifest.append(path, contents, customers);
+        return contents;
+    }
+
+    /**
+     * Commits the blocks the calling thread stored since its last commit as holding the input
+     * range [start, end), as soon as they are all written. A batch whose blocks fail to write is
+     * left uncommitted.
+     */
+    @Override
+    public void commitInput(long startOffset, long endOffset) {
+        List<IngestManifest.Block> blocks = new ArrayList<>(uncommittedBlocks.get());
+        List<CompletableFuture<Void>> writes = uncommittedWrites.get();
+        CompletableFuture<?>[] written = writes.toArray(new CompletableFuture<?>[0]);
+        uncommittedBlocks.get().clear();
+        writes.clear();
+        IngestManifest current = manifest;
+        if (current == null) {
             return;
         }
-        intermediateFileMap.computeIfAbsent(index, k -> Collections.synchronizedList(new LinkedList<>()))
-                .add(path.toString());
+        CompletableFuture<Void> commit = CompletableFuture.allOf(written).thenRun(() -> {
+            try {
+                current.commit(blocks, startOffset, endOffset);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).exceptionally(e -> {
+            e.printStackTrace();
+            return null;
+        });
+        if (!commit.isDone()) {
+            pendingCommits.removeIf(CompletableFuture::isDone);
+            pendingCommits.add(commit);
+        }
+    }
+
+    public void storeIntermediateData(int index, List<AllocationRequest> requests) {
+        try {
+            track(index, segments.appendAsync(index, requests));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Appends the requests as a block of the bucket's partition of {@code priority}. */
+    @Override
+    public void storeIntermediateData(int index, int priority, List<AllocationRequest> requests) {
+        try {
+            track(index, segments.appendAsync(index, priority, requests));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Holds an appended block back from the manifest until its batch is committed. */
+    private void track(int index, SegmentStore.Append append) {
+        if (manifest != null && append.position() >= 0) {
+            uncommittedBlocks.get().add(new IngestManifest.Block(index, append.position()));
+            uncommittedWrites.get().add(append.written());
+        }
     }
 
     public List<AllocationRequest> fetchInterMediateData(int index) {
-        List<AllocationRequest> request = new LinkedList<>();
-        if (!intermediateFileMap.containsKey(index)) {
-            return request;
-        }
-        for (String file : intermediateFileMap.get(index)) {
-            Path path = Paths.get(file);
-            if (!Files.exists(path)) {
-                continue;
+        try {
+            return segments.read(index);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Streams the bucket's segment blocks one at a time. If a block cannot be read, the error is
+     * printed and the records already visited stand.
+     */
+    @Override
+    public void forEachIntermediateData(int index, RequestVisitor visitor) {
+        try {
+            segments.forEach(index, visitor);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void forEachIntermediateSlice(int index, int slice, int slices, RequestVisitor visitor) {
+        try {
+            segments.forEachSlice(index, slice, slices, visitor);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Estimated from the bytes the bucket's blocks span, as restored blocks carry no count. */
+    @Override
+    public long intermediateRecords(int index) {
+        return segments.estimatedRecords(index);
+    }
+
+    /** Reads only the blocks of the bucket's partition of {@code priority}, where it has one. */
+    @Override
+    public void forEachIntermediateData(int index, int priority, RequestVisitor visitor) {
+        try {
+            segments.forEach(index, priority, visitor);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Waits for queued blocks and their commits, then compacts segments that were written as many
+     * small blocks. With a manifest, the manifest is switched over to the compacted files before
+     * the files they replace are deleted.
+     */
+    @Override
+    public void flushIntermediateData() {
+        try {
+            segments.flush();
+            awaitCommits();
+            List<Path> superseded = new ArrayList<>();
+            segments.compact(superseded);
+            if (manifest != null) {
+                manifest.checkpoint(manifestHeader, segments.segmentFiles(), segments.blockIndex());
             }
-            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
-                while (in.available() > 0) {
-                    String customer = in.readUTF();
-                    int agents = in.readInt();
-                    int priority = in.readInt();
-                    request.add(new AllocationRequest(customer, agents, priority));
-                }
-            } catch (EOFException e) {
-                // End of file reached.
-            } catch (Exception e) {
-                e.printStackTrace();
+            for (Path path : superseded) {
+                Files.deleteIfExists(path);
             }
+        } catch (Exception e) {
+            e.printStackTrace();
         }
-        return request;
     }
 
     public void storeSchedule(List<ScheduleBucket> schedule) {
         Path path = Paths.get(outputDir, getUniqueFileString(Constants.SCHEDULE_FILE_PREFIX));
-        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(compressor.outputStream(Files.newOutputStream(path))))) {
             this.schedulePath = path.toString();
-            out.writeInt(schedule.size());
-            for (ScheduleBucket entry : schedule) {
-                out.writeInt(entry.hour());
-                out.writeInt(entry.totalAgents());
-                out.writeInt(entry.allocations().size());
-                for (Map.Entry<String, Integer> allocation : entry.allocations().entrySet()) {
-                    out.writeUTF(allocation.getKey());
-                    out.writeInt(allocation.getValue());
-                }
-                for (Map.Entry<String, Integer> demand : entry.demands().entrySet()) {
-                    out.writeUTF(demand.getKey());
-                    out.writeInt(demand.getValue());
-                }
-                for (Map.Entry<String, Integer> priority : entry.priorityMap().entrySet()) {
-                    out.writeUTF(priority.getKey());
-                    out.writeInt(priority.getValue());
-                }
+            writeSchedule(out, schedule);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        try {
+            if (manifest != null) {
+                manifest.recordSchedule(Paths.get(schedulePath).toAbsolutePath().toString());
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -118,32 +367,8 @@ public class PersistentStorage implements Storage {
         if (!Files.exists(path)) {
             return scheduleBuilder.build();
         }
-        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
-            int count = in.readInt();
-            for (int i = 0; i < count; i++) {
-                int hour = in.readInt();
-                int totalAgents = in.readInt();
-                int allocationCount = in.readInt();
-                Map<String, Integer> allocations = new LinkedHashMap<>();
-                for (int j = 0; j < allocationCount; j++) {
-                    String customer = in.readUTF();
-                    int agents = in.readInt();
-                    allocations.put(customer, agents);
-                }
-                Map<String, Integer> demands = new LinkedHashMap<>();
-                for (int k = 0; k < allocationCount; k++) {
-                    String customer = in.readUTF();
-                    int agents = in.readInt();
-                    demands.put(customer, agents);
-                }
-                Map<String, Integer> priorityMap = new LinkedHashMap<>();
-                for (int l = 0; l < allocationCount; l++) {
-                    String customer = in.readUTF();
-                    int priority = in.readInt();
-                    priorityMap.put(customer, priority);
-                }
-                scheduleBuilder.add(new ScheduleBucket(hour, totalAgents, allocations, demands, priorityMap));
-            }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(compressor.inputStream(Files.newInputStream(path))))) {
+            readSchedule(in, scheduleBuilder);
         } catch (EOFException e) {
             // End of file reached.
         } catch (Exception e) {
@@ -152,19 +377,109 @@ public class PersistentStorage implements Storage {
         return scheduleBuilder.build();
     }
 
-    public void cleanupIntermediateFiles() {
-        for (List<String> files : intermediateFileMap.values()) {
-            for (String file : files) {
-                Path path = Paths.get(file);
-                try {
-                    Files.deleteIfExists(path);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+    /** Writes a schedule in the format {@link #readSchedule(DataInputStream, ImmutableList.Builder)} reads. */
+    static void writeSchedule(DataOutputStream out, List<ScheduleBucket> schedule) throws IOException {
+        out.writeInt(schedule.size());
+        for (ScheduleBucket entry : schedule) {
+            out.writeInt(entry.hour());
+            out.writeInt(entry.minute());
+            out.writeInt(entry.totalAgents());
+            out.writeInt(entry.allocations().size());
+            for (Map.Entry<String, Integer> allocation : entry.allocations().entrySet()) {
+                out.writeUTF(allocation.getKey());
+                out.writeInt(allocation.getValue());
+            }
+            for (Map.Entry<String, Integer> demand : entry.demands().entrySet()) {
+                out.writeUTF(demand.getKey());
+                out.writeInt(demand.getValue());
+            }
+            for (Map.Entry<String, Integer> priority : entry.priorityMap().entrySet()) {
+                out.writeUTF(priority.getKey());
+                out.writeInt(priority.getValue());
             }
         }
     }
 
+    /** Reads a schedule written by {@link #writeSchedule(DataOutputStream, List)}, adding each bucket as it is read. */
+    static void readSchedule(DataInputStream in, ImmutableList.Builder<ScheduleBucket> scheduleBuilder) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int hour = in.readInt();
+            int minute = in.readInt();
+            int totalAgents = in.readInt();
+            int allocationCount = in.readInt();
+            Map<String, Integer> allocations = new LinkedHashMap<>();
+            for (int j = 0; j < allocationCount; j++) {
+                String customer = in.readUTF();
+                int agents = in.readInt();
+                allocations.put(customer, agents);
+            }
+            Map<String, Integer> demands = new LinkedHashMap<>();
+            for (int k = 0; k < allocationCount; k++) {
+                String customer = in.readUTF();
+                int agents = in.readInt();
+                demands.put(customer, agents);
+            }
+            Map<String, Integer> priorityMap = new LinkedHashMap<>();
+            for (int l = 0; l < allocationCount; l++) {
+                String customer = in.readUTF();
+                int priority = in.readInt();
+                priorityMap.put(customer, priority);
+            }
+            scheduleBuilder.add(new ScheduleBucket(hour, totalAgents, allocations, demands, priorityMap, minute));
+        }
+    }
+
+    /** Deletes the segments. The manifest stays, pointing at the stored schedule. */
+    public void cleanupIntermediateFiles() {
+        segments.delete();
+        closeManifest();
+    }
+
+    /** Input ranges the manifest has committed, empty without a manifest. */
+    public InputRanges ingestedRanges() {
+        return manifest == null ? new InputRanges() : manifest.ingested();
+    }
+
+    Path manifestPath() {
+        return Paths.get(outputDir, Constants.MANIFEST_FILE_NAME);
+    }
+
+    private void awaitCommits() {
+        CompletableFuture<Void> commit;
+        while ((commit = pendingCommits.poll()) != null) {
+            commit.join();
+        }
+    }
+
+    private void closeManifest() {
+        if (manifest == null) {
+            return;
+        }
+        try {
+            segments.flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        awaitCommits();
+        try {
+            manifest.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        manifest = null;
+    }
+
+    private SegmentStore newSegmentStore() {
+        return newSegmentStore(Constants.INTERMEDIATE_FILE_PREFIX + "_" + date);
+    }
+
+    private SegmentStore newSegmentStore(String prefix) {
+        SegmentStore store = new SegmentStore(spillDirectories, prefix, buckets, compressor);
+        store.setWriteQueueBytes(writeQueueBytes);
+        return store;
+    }
+
     private String getUniqueFileString(String prefix) {
         return
             prefix + "_"
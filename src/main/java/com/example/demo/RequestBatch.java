@@ -0,0 +1,143 @@
+package com.example.demo;
+
+/**
+ * A batch of parsed input rows held as primitive columns.
+ *
+ * Batches are filled by {@link CsvBatchParser} and consumed by {@link RequestProcessor}. The
+ * column arrays are allocated once and reused across {@link #clear()} calls; they only grow
+ * when {@link #setLimit(int)} asks for more rows than they hold. Start and end times
+ * are kept as minutes of the day and customers as {@link CustomerDictionary} ids.
+ *
+ * Readers also record the input byte range the rows were parsed from, so that a storage can
+ * note which part of the input a batch covers once it has been stored, and the offset each row
+ * starts at, which orders rows by arrival however the input was split into batches.
+ */
+public class RequestBatch {
+
+    private int[] customerIds;
+    private int[] calls;
+    private int[] durations;
+    private int[] priorities;
+    private int[] startMinutes;
+    private int[] endMinutes;
+    private long[] offsets;
+    private int size;
+    private int limit;
+    private long startOffset;
+    private long endOffset;
+
+    public RequestBatch(int capacity) {
+        this.customerIds = new int[capacity];
+        this.calls = new int[capacity];
+        this.durations = new int[capacity];
+        this.priorities = new int[capacity];
+        this.startMinutes = new int[capacity];
+        this.endMinutes = new int[capacity];
+        this.offsets = new long[capacity];
+        this.limit = capacity;
+    }
+
+    /** Adds a row without an input offset; such rows arrive at offset zero, in the order they are visited. */
+    public void add(int customerId, int callCount, int duration, int priority, int startMinute, int endMinute) {
+        add(customerId, callCount, duration, priority, startMinute, endMinute, 0);
+    }
+
+    /** Adds a row that starts at input byte {@code offset}. */
+    public void add(int customerId, int callCount, int duration, int priority, int startMinute, int endMinute, long offset) {
+        customerIds[size] = customerId;
+        calls[size] = callCount;
+        durations[size] = duration;
+        priorities[size] = priority;
+        startMinutes[size] = startMinute;
+        endMinutes[size] = endMinute;
+        offsets[size] = offset;
+        size++;
+    }
+
+    public void clear() {
+        size = 0;
+        startOffset = 0;
+        endOffset = 0;
+    }
+
+    /** Records that the rows were parsed from the input bytes [start, end). */
+    public void setOffsets(long startOffset, long endOffset) {
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+    }
+
+    public long startOffset() {
+        return startOffset;
+    }
+
+    public long endOffset() {
+        return endOffset;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return calls.length;
+    }
+
+    /** Number of rows the batch accepts before it reports full. */
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * Sets how many rows the batch accepts before it reports full, growing the columns if they
+     * are smaller. Must only be called on an empty batch.
+     */
+    public void setLimit(int limit) {
+        if (limit > calls.length) {
+            customerIds = new int[limit];
+            calls = new int[limit];
+            durations = new int[limit];
+            priorities = new int[limit];
+            startMinutes = new int[limit];
+            endMinutes = new int[limit];
+            offsets = new long[limit];
+        }
+        this.limit = limit;
+    }
+
+    public boolean isFull() {
+        return size >= limit;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int customerId(int row) {
+        return customerIds[row];
+    }
+
+    public int calls(int row) {
+        return calls[row];
+    }
+
+    public int duration(int row) {
+        return durations[row];
+    }
+
+    public int priority(int row) {
+        return priorities[row];
+    }
+
+    public int startMinute(int row) {
+        return startMinutes[row];
+    }
+
+    public int endMinute(int row) {
+        return endMinutes[row];
+    }
+
+    /** Input byte offset the row starts at. */
+    public long offset(int row) {
+        return offsets[row];
+    }
+}
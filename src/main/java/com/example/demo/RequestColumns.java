@@ -0,0 +1,181 @@
+package com.example.demo;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Append-only intermediate data of one bucket, stored as primitive columns.
+ *
+ * Records live in fixed-size chunks of customer id, agents, priority, count, span and arrival arrays. A writer
+ * reserves a range of positions with a single atomic add and fills it without taking a lock;
+ * chunks are created on demand with compare-and-set. Reads go through {@link #view()}, which
+ * wraps the columns as a read-only list instead of copying them. A view is meant to be taken
+ * once appends have finished, as the scheduler does between the map and reduce phases.
+ */
+public class RequestColumns {
+
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int DIRECTORY_SHIFT = 10;
+    private static final int DIRECTORY_SIZE = 1 << DIRECTORY_SHIFT;
+    private static final int DIRECTORY_MASK = DIRECTORY_SIZE - 1;
+    /** Largest number of records a bucket can hold. */
+    public static final int MAX_RECORDS = DIRECTORY_SIZE * DIRECTORY_SIZE * CHUNK_SIZE;
+
+    private final AtomicInteger size = new AtomicInteger();
+    // Two-level chunk directory, both levels filled lazily, so an empty bucket costs one small array.
+    private final AtomicReferenceArray<AtomicReferenceArray<Chunk>> directory =
+        new AtomicReferenceArray<>(DIRECTORY_SIZE);
+
+    /** Appends all requests as one contiguous range. Safe to call from several threads. */
+    public void appendAll(List<AllocationRequest> requests) {
+        int count = requests.size();
+        if (count == 0) {
+            return;
+        }
+        int start = size.getAndAdd(count);
+        if (start < 0 || start > MAX_RECORDS - count) {
+            size.getAndAdd(-count);
+            throw new IllegalStateException("Bucket is full: " + MAX_RECORDS + " records");
+        }
+        int position = start;
+        Chunk chunk = null;
+        for (AllocationRequest request : requests) {
+            int offset = position & CHUNK_MASK;
+            if (chunk == null || offset == 0) {
+                chunk = chunk(position >>> CHUNK_SHIFT);
+            }
+            chunk.customerIds[offset] = request.customerId();
+            chunk.agents[offset] = request.agents();
+            chunk.priorities[offset] = request.priority();
+            chunk.counts[offset] = request.count();
+            chunk.spans[offset] = request.span();
+            chunk.firstArrivals[offset] = request.firstArrival();
+            chunk.lastArrivals[offset] = request.lastArrival();
+            position++;
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /** Read-only list over the records appended so far. */
+    public View view() {
+        return new View(size.get());
+    }
+
+    /** Streams the records appended so far to the visitor, a chunk at a time. */
+    public void forEach(RequestVisitor visitor) {
+        forEach(0, size.get(), visitor);
+    }
+
+    /** Streams the records at positions {@code [from, to)}, which must have been appended, to the visitor. */
+    public void forEach(int from, int to, RequestVisitor visitor) {
+        int position = from;
+        while (position < to) {
+            Chunk chunk = existingChunk(position >>> CHUNK_SHIFT);
+            int offset = position & CHUNK_MASK;
+            int length = Math.min(CHUNK_SIZE - offset, to - position);
+            for (int i = offset; i < offset + length; i++) {
+                visitor.visit(chunk.customerIds[i], chunk.agents[i], chunk.priorities[i], chunk.counts[i], chunk.spans[i],
+                    chunk.firstArrivals[i], chunk.lastArrivals[i]);
+            }
+            position += length;
+        }
+    }
+
+    private Chunk chunk(int index) {
+        int top = index >>> DIRECTORY_SHIFT;
+        AtomicReferenceArray<Chunk> chunks = directory.get(top);
+        if (chunks == null) {
+            directory.compareAndSet(top, null, new AtomicReferenceArray<>(DIRECTORY_SIZE));
+            chunks = directory.get(top);
+        }
+        int slot = index & DIRECTORY_MASK;
+        Chunk chunk = chunks.get(slot);
+        if (chunk == null) {
+            chunks.compareAndSet(slot, null, new Chunk());
+            chunk = chunks.get(slot);
+        }
+        return chunk;
+    }
+
+    private Chunk existingChunk(int index) {
+        return directory.get(index >>> DIRECTORY_SHIFT).get(index & DIRECTORY_MASK);
+    }
+
+    private static final class Chunk {
+        final int[] customerIds = new int[CHUNK_SIZE];
+        final int[] agents = new int[CHUNK_SIZE];
+        final int[] priorities = new int[CHUNK_SIZE];
+        final int[] counts = new int[CHUNK_SIZE];
+        final int[] spans = new int[CHUNK_SIZE];
+        final long[] firstArrivals = new long[CHUNK_SIZE];
+        final long[] lastArrivals = new long[CHUNK_SIZE];
+    }
+
+    /**
+     * Fixed-size, unmodifiable window over the columns. Column accessors read without creating
+     * an {@link AllocationRequest}; {@link #get(int)} builds one per call.
+     */
+    public final class View extends AbstractList<AllocationRequest> implements RandomAccess {
+        private final int size;
+
+        private View(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public AllocationRequest get(int index) {
+            Chunk chunk = chunkAt(index);
+            int offset = index & CHUNK_MASK;
+            return new AllocationRequest(chunk.customerIds[offset], chunk.agents[offset],
+                chunk.priorities[offset], chunk.counts[offset], chunk.spans[offset], chunk.firstArrivals[offset], chunk.lastArrivals[offset]);
+        }
+
+        public int customerId(int index) {
+            return chunkAt(index).customerIds[index & CHUNK_MASK];
+        }
+
+        public int agents(int index) {
+            return chunkAt(index).agents[index & CHUNK_MASK];
+        }
+
+        public int priority(int index) {
+            return chunkAt(index).priorities[index & CHUNK_MASK];
+        }
+
+        public int count(int index) {
+            return chunkAt(index).counts[index & CHUNK_MASK];
+        }
+
+        public int span(int index) {
+            return chunkAt(index).spans[index & CHUNK_MASK];
+        }
+
+        public long firstArrival(int index) {
+            return chunkAt(index).firstArrivals[index & CHUNK_MASK];
+        }
+
+        public long lastArrival(int index) {
+            return chunkAt(index).lastArrivals[index & CHUNK_MASK];
+        }
+
+        private Chunk chunkAt(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return existingChunk(index >>> CHUNK_SHIFT);
+        }
+    }
+}
@@ -1,67 +1,127 @@
 package com.example.demo;
 
-import static com.example.demo.Constants.AVG_CALL_DURATION_SEC;
-import static com.example.demo.Constants.CUSTOMER_COLUMN;
-import static com.example.demo.Constants.END_TIME;
-import static com.example.demo.Constants.NUM_CALLS;
-import static com.example.demo.Constants.PRIORITY;
-import static com.example.demo.Constants.START_TIME;
-
+import com.example.demo.Constants.CombineMode;
+import com.google.common.base.Preconditions;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import com.google.common.collect.ImmutableList;
-import de.siegmar.fastcsv.reader.NamedCsvRecord;
 
+/**
+ * Turns parsed rows into per-bucket agent demand and hands it to {@link Storage}, one interval
+ * request per row, stored under the first bucket of the hour the row starts in with the buckets
+ * it is active in as its span, however many hours those reach over.
+ *
+ * A processor keeps a scratch combiner that is reused across batches, so an instance must only
+ * be used by one thread at a time.
+ */
 public class RequestProcessor {
     Storage storage;
     float utilization;
+    CombineMode combineMode;
+    DemandCombiner combiner;
+    TimeBuckets buckets;
+    LoadDictionary loads;
+    private DemandCombiner scratch;
 
     public RequestProcessor(Storage storage, float utilization) {
+        this(storage, utilization, CombineMode.BATCH, null);
+    }
+
+    public RequestProcessor(Storage storage, float utilization, CombineMode combineMode, DemandCombiner combiner) {
+        this(storage, utilization, combineMode, combiner, TimeBuckets.HOURLY);
+    }
+
+    /**
+     * @param combiner the combiner batches are folded into; required for {@link CombineMode#GLOBAL},
+     *     where it is shared by all workers, and for {@link CombineMode#WORKER}, where it must be
+     *     confined to the calling thread. Flushing it is left to the caller in both modes.
+     * @param buckets the bucket layout; requests are stored under the index of their hour's first bucket
+     */
+    public RequestProcessor(Storage storage, float utilization, CombineMode combineMode, DemandCombiner combiner, TimeBuckets buckets) {
+        this(storage, utilization, combineMode, combiner, buckets, null);
+    }
+
+    /**
+     * @param loads when set, each request carries the id of its load in this dictionary where it
+     *     would carry agents, and utilization is left to Step 2
+     */
+    public RequestProcessor(Storage storage, float utilization, CombineMode combineMode, DemandCombiner combiner, TimeBuckets buckets,
+            LoadDictionary loads) {
+        Preconditions.checkArgument(
+            (combineMode != CombineMode.GLOBAL && combineMode != CombineMode.WORKER) || combiner != null,
+            "%s combining needs a target combiner", combineMode);
         this.storage = storage;
         this.utilization = utilization;
+        this.combineMode = combineMode;
+        this.combiner = combiner;
+        this.buckets = buckets;
+        this.loads = loads;
     }
 
-    public void processRequest(List<NamedCsvRecord> request) {
-        // Hour -> (CustomerName -> AgentCount)
-        Map<Integer, ImmutableList.Builder<AllocationRequest>> batchResult = new HashMap<>();
-        for (NamedCsvRecord record : request) {
-            try {
-                String customer = record.getField(CUSTOMER_COLUMN);
-                int totalCalls = Integer.parseInt(record.getField(NUM_CALLS).trim());
-                int avgDuration = Integer.parseInt(record.getField(AVG_CALL_DURATION_SEC).trim());
-                int priority = Integer.parseInt(record.getField(PRIORITY).trim());
-                String startTime = record.getField(START_TIME);
-                String endTime = record.getField(END_TIME);
-                int startHour = parseTime(startTime);
-                int endHour = parseTime(endTime);
-
-                int activHours = endHour - startHour;
-                if (activHours <= 0) {
-                    continue;
-                }
-                double callsPerHour = (double) totalCalls / activHours;
-                int agents = (int) Math.ceil((callsPerHour * avgDuration) / 3600.0 * utilization);
-                for (int hour = startHour; hour < endHour; hour++) {
-                    batchResult.putIfAbsent(hour, ImmutableList.builder());
-                    batchResult.get(hour).add(new AllocationRequest(customer, agents, priority));
-                }
-            } catch (Exception e) {
-                System.err.println("Skipping invalid record: " + record + " Error: " + e.getMessage());
+    public void processBatch(RequestBatch batch) {
+        if (combineMode == CombineMode.NONE) {
+            storeUncombined(batch);
+            return;
+        }
+        // A worker's own combiner takes rows directly; otherwise combine the batch first.
+        DemandCombiner batchCombiner = combineMode == CombineMode.WORKER ? combiner : scratch();
+        for (int row = 0; row < batch.size(); row++) {
+            int startBucket = buckets.indexOf(batch.startMinute(row));
+            int endBucket = buckets.indexOf(batch.endMinute(row));
+            if (endBucket - startBucket <= 0) {
+                continue;
             }
+            batchCombiner.add(batch.customerId(row), batch.priority(row), agents(batch, row, endBucket - startBucket), startBucket, endBucket,
+                batch.offset(row));
         }
-        if (!batchResult.isEmpty()) {
-            for (int hour : batchResult.keySet()) {
-                storage.storeIntermediateData(hour, batchResult.get(hour).build());
+        if (combineMode == CombineMode.GLOBAL) {
+            combiner.addAll(batchCombiner);
+            batchCombiner.clear();
+        } else if (combineMode == CombineMode.BATCH) {
+            batchCombiner.flush(storage);
+        }
+    }
+
+    private DemandCombiner scratch() {
+        if (scratch == null) {
+            scratch = new DemandCombiner(buckets);
+        }
+        return scratch;
+    }
+
+    private void storeUncombined(RequestBatch batch) {
+        // Starting hour's first bucket -> requests starting in the hour, each with the buckets it covers
+        Map<Integer, ImmutableList.Builder<AllocationRequest>> batchResult = new HashMap<>();
+        int perHour = buckets.perHour();
+        for (int row = 0; row < batch.size(); row++) {
+            int startBucket = buckets.indexOf(batch.startMinute(row));
+            int endBucket = buckets.indexOf(batch.endMinute(row));
+            if (endBucket - startBucket <= 0) {
+                continue;
             }
+            int agents = agents(batch, row, endBucket - startBucket);
+            int first = startBucket - startBucket % perHour;
+            int span = buckets.span(startBucket - first, endBucket - first);
+            batchResult.computeIfAbsent(first, k -> ImmutableList.builder())
+                .add(new AllocationRequest(batch.customerId(row), agents, batch.priority(row), 1, span, batch.offset(row), batch.offset(row)));
+        }
+        for (Map.Entry<Integer, ImmutableList.Builder<AllocationRequest>> hour : batchResult.entrySet()) {
+            storage.storeIntermediateData(hour.getKey(), hour.getValue().build());
         }
     }
 
-    private int parseTime(String time) {
-        time = time.trim().toUpperCase();
-        int hour = Integer.parseInt(time.split(":")[0].replaceAll("[^0-9]", ""));
-        if (time.contains("PM") && hour < 12) hour += 12;
-        if (time.contains("AM") && hour == 12) hour = 0;
-        return hour;
+    /**
+     * Agents needed in each active bucket to handle the row's calls spread evenly over its window,
+     * or the id of that load before utilization when utilization is deferred.
+     */
+    private int agents(RequestBatch batch, int row, int activeBuckets) {
+        double callsPerBucket = (double) batch.calls(row) / activeBuckets;
+        double load = (callsPerBucket * batch.duration(row)) / buckets.seconds();
+        return loads != null ? loads.idOf(load) : agents(load, utilization);
+    }
+
+    /** Agents a load needs at {@code utilization}; the one place utilization is applied. */
+    static int agents(double load, float utilization) {
+        return (int) Math.ceil(load * utilization);
     }
 }
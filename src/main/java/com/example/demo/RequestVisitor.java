@@ -0,0 +1,11 @@
+package com.example.demo;
+
+/**
+ * Receives intermediate requests one at a time as primitive values, so a storage can stream a
+ * bucket without building an {@link AllocationRequest} per record. {@code span}, {@code firstArrival}
+ * and {@code lastArrival} are the request's {@link AllocationRequest#span()} and arrivals.
+ */
+@FunctionalInterface
+public interface RequestVisitor {
+    void visit(int customerId, int agents, int priority, int count, int span, long firstArrival, long lastArrival);
+}
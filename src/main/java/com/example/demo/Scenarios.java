@@ -0,0 +1,97 @@
+package com.example.demo;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Schedules of one input under several (utilization, capacity) scenarios, computed from a single
+ * pass of Step 1.
+ *
+ * Step 1 stores each request's load before utilization, and Step 2 applies every scenario's
+ * utilization to a bucket's loads as it reads them, so a scenario costs a reduction rather than
+ * another parse.
+ */
+public class Scenarios {
+
+    /** Most scenarios one run may compute. */
+    public static final int MAX_SCENARIOS = 1000;
+
+    /** One what-if: a utilization in (0, 1] and a capacity, zero meaning unlimited. */
+    public record Scenario(float utilization, int capacity) {
+
+        public Scenario {
+            Preconditions.checkArgument(utilization > 0 && utilization <= 1.0f, "Invalid utilization: %s", utilization);
+            Preconditions.checkArgument(capacity >= 0, "Invalid capacity: %s", capacity);
+        }
+    }
+
+    private final List<Scenario> scenarios;
+    private final List<List<ScheduleBucket>> schedules;
+
+    /**
+     * @param scenarios the scenarios computed
+     * @param schedules one schedule per scenario, its buckets in time order
+     */
+    public Scenarios(List<Scenario> scenarios, List<List<ScheduleBucket>> schedules) {
+        Preconditions.checkArgument(scenarios.size() == schedules.size(), "One schedule per scenario is needed");
+        this.scenarios = List.copyOf(scenarios);
+        this.schedules = schedules;
+    }
+
+    /**
+     * Builds the scenarios from the schedules of each bucket, where {@code bucketSchedules.get(b).get(i)}
+     * is bucket {@code b} under {@code scenarios.get(i)} and the buckets are in time order.
+     */
+    public static Scenarios ofBuckets(List<Scenario> scenarios, List<List<ScheduleBucket>> bucketSchedules) {
+        List<List<ScheduleBucket>> schedules = new ArrayList<>();
+        for (int i = 0; i < scenarios.size(); i++) {
+            List<ScheduleBucket> schedule = new ArrayList<>();
+            for (List<ScheduleBucket> bucket : bucketSchedules) {
+                schedule.add(bucket.get(i));
+            }
+            schedules.add(schedule);
+        }
+        return new Scenarios(scenarios, schedules);
+    }
+
+    /**
+     * Parses a comma-separated list of {@code UTILIZATION:CAPACITY} pairs, such as
+     * {@code 0.7:500,0.9:500,0.9:0}. Returns the distinct scenarios in the order given.
+     */
+    public static List<Scenario> parse(String text) {
+        Set<Scenario> scenarios = new LinkedHashSet<>();
+        for (String part : text.split(",")) {
+            String[] pair = part.trim().split(":");
+            Preconditions.checkArgument(pair.length == 2, "Invalid scenario: %s", part);
+            scenarios.add(new Scenario(Float.parseFloat(pair[0].trim()), Integer.parseInt(pair[1].trim())));
+            Preconditions.checkArgument(scenarios.size() <= MAX_SCENARIOS, "A run takes at most %s scenarios", MAX_SCENARIOS);
+        }
+        return new ArrayList<>(scenarios);
+    }
+
+    public int size() {
+        return scenarios.size();
+    }
+
+    public Scenario scenario(int i) {
+        return scenarios.get(i);
+    }
+
+    /** The schedule under the {@code i}-th scenario. */
+    public List<ScheduleBucket> schedule(int i) {
+        return schedules.get(i);
+    }
+
+    /** Number of buckets in which someone is throttled under the {@code i}-th scenario. */
+    public int throttledBuckets(int i) {
+        return (int) schedules.get(i).stream().filter(ScheduleBucket::isAnyThrottled).count();
+    }
+
+    /** The buckets of the day, in time order. */
+    public List<ScheduleBucket> buckets() {
+        return schedules.isEmpty() ? List.of() : schedules.get(0);
+    }
+}
@@ -4,14 +4,16 @@ import com.google.common.collect.ImmutableMap;
 import java.util.Map;
 
 /**
- * Represents the final calculated schedule for a specific hour.
+ * Represents the final calculated schedule for a specific hour, or for a part of it when the day
+ * is split into sub-hour buckets. {@code minute} is where the bucket starts within the hour.
  */
 public record ScheduleBucket(
     int hour,
     int totalAgents,
     Map<String, Integer> allocations, // Customer -> Number of agents allocated
     Map<String, Integer> demands,
-    Map<String, Integer> priorityMap
+    Map<String, Integer> priorityMap,
+    int minute
 ) implements Comparable<ScheduleBucket> {
     public ScheduleBucket {
         allocations = ImmutableMap.copyOf(allocations);
@@ -19,8 +21,17 @@ public record ScheduleBucket(
         priorityMap = ImmutableMap.copyOf(priorityMap);
     }
 
+    public ScheduleBucket(
+        int hour,
+        int totalAgents,
+        Map<String, Integer> allocations,
+        Map<String, Integer> demands,
+        Map<String, Integer> priorityMap) {
+        this(hour, totalAgents, allocations, demands, priorityMap, 0);
+    }
+
     public String getHourFormatted() {
-        return String.format("%02d:00", hour);
+        return String.format("%02d:%02d", hour, minute);
     }
 
     public boolean isEmpty() {
@@ -31,6 +42,11 @@ public record ScheduleBucket(
         return allocations.values().stream().mapToInt(Integer::intValue).sum();
     }
 
+    /** Agents asked for in the bucket; the least capacity under which nobody is throttled. */
+    public int totalDemand() {
+        return demands.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
     public boolean isThrottled(String customer) {
         return demands.getOrDefault(customer, 0) > allocations.getOrDefault(customer, 0);
     }
@@ -41,6 +57,7 @@ public record ScheduleBucket(
 
     @Override
     public int compareTo(ScheduleBucket other) {
-        return Integer.compare(this.hour, other.hour);
+        int byHour = Integer.compare(this.hour, other.hour);
+        return byHour != 0 ? byHour : Integer.compare(this.minute, other.minute);
     }
 }
@@ -0,0 +1,284 @@
+package com.example.demo;
+
+import com.example.demo.Constants.CombineMode;
+import com.example.demo.Constants.IngestMode;
+import com.example.demo.IngestController.Bounds;
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finished schedules kept on disk across runs, keyed by what they were computed from.
+ *
+ * A key is the SHA-256 of the input file's contents together with every setting that shapes the
+ * schedule ({@link Settings}), so a rerun over identical data finds the schedule even if the file
+ * was copied or renamed, and a run whose settings could break ties differently does not. Hashing is much cheaper than Step 1 but still reads the whole file, so the
+ * index remembers each input's path, size and modification time with its content hash and skips
+ * the read while those are unchanged.
+ *
+ * Each schedule is one file named by its key, in the format {@link PersistentStorage} uses. The
+ * index lists the schedules in least-recently-used order; once their total size passes the cap,
+ * the oldest are deleted. The index is rewritten through a temporary file and an atomic move
+ * after every change. The cache is meant for one process at a time.
+ */
+public class ScheduleCache {
+
+    static final String INDEX_FILE = "index";
+    private static final int VERSION = 2;
+    private static final int HASH_BUFFER_BYTES = 1 << 20;
+
+    /** Identifies a schedule by its input's content hash and the settings it was computed with. */
+    public record Key(String id, String contentHash) {
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+
+    /**
+     * The settings a schedule depends on besides its input: utilization, capacity and bucket
+     * length, and the combine mode, ingest mode and batch size bounds, which decide how requests
+     * are folded and in what order the reduce meets them.
+     */
+    public record Settings(float utilization, int capacity, TimeBuckets buckets, CombineMode combineMode, IngestMode ingestMode,
+            Bounds batchSizeBounds) {
+    }
+
+    /** A stored schedule, the content hash of its input and its size on disk. */
+    private record Entry(String key, String contentHash, long bytes) {
+    }
+
+    /** What an input file looked like when its contents were hashed. */
+    private record InputFile(String path, long size, long modified, String contentHash) {
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    // Access-ordered, so iteration starts at the least recently used schedule.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, InputFile> inputs = new LinkedHashMap<>();
+    private long totalBytes;
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    /** Opens the cache in {@code directory}, creating it if needed and loading its index. */
+    public ScheduleCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        loadIndex();
+    }
+
+    /** Key of the schedule computed from the input with these settings. */
+    public Key key(Path input, Settings settings) throws IOException {
+        String contentHash = contentHash(input);
+        String id = sha256(("schedule-v" + VERSION + "|" + contentHash + "|" + Float.floatToIntBits(settings.utilization()) + "|"
+            + settings.capacity() + "|" + settings.buckets().minutes() + "|" + settings.combineMode() + "|" + settings.ingestMode() + "|"
+            + settings.batchSizeBounds().min() + "-" + settings.batchSizeBounds().max()).getBytes(StandardCharsets.UTF_8));
+        return new Key(id, contentHash);
+    }
+
+    /** Returns the stored schedule for the key, or null if there is none or it cannot be read. */
+    public synchronized List<ScheduleBucket> get(Key key) {
+        Entry entry = entries.get(key.id());
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        ImmutableList.Builder<ScheduleBucket> schedule = ImmutableList.builder();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(schedulePath(key.id()))))) {
+            PersistentStorage.readSchedule(in, schedule);
+            saveIndex();
+        } catch (IOException e) {
+            System.out.println("Dropping unreadable cached schedule " + key + ": " + e.getMessage());
+            remove(key.id());
+            misses++;
+            return null;
+        }
+        hits++;
+        return schedule.build();
+    }
+
+    /** Stores the schedule under the key, then evicts least recently used schedules over the cap. */
+    public synchronized void put(Key key, List<ScheduleBucket> schedule) throws IOException {
+        Path path = schedulePath(key.id());
+        Path temporary = directory.resolve(key.id() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            PersistentStorage.writeSchedule(out, schedule);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        long bytes = Files.size(path);
+        Entry previous = entries.put(key.id(), new Entry(key.id(), key.contentHash(), bytes));
+        totalBytes += bytes - (previous == null ? 0 : previous.bytes());
+        evict();
+        saveIndex();
+    }
+
+    /** Number of schedules stored. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Bytes of schedule files stored. */
+    public synchronized long bytes() {
+        return totalBytes;
+    }
+
+    public synchronized String summary() {
+        return entries.size() + " schedules, " + totalBytes + " of " + maxBytes + " bytes, " + hits + " hits, "
+            + misses + " misses, " + evictions + " evictions";
+    }
+
+    /**
+     * SHA-256 of the input's contents. Reuses the hash recorded for the same path while its size
+     * and modification time are unchanged.
+     */
+    synchronized String contentHash(Path input) throws IOException {
+        String path = input.toAbsolutePath().toString();
+        long size = Files.size(input);
+        long modified = Files.getLastModifiedTime(input).toMillis();
+        InputFile known = inputs.get(path);
+        if (known != null && known.size() == size && known.modified() == modified) {
+            return known.contentHash();
+        }
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_BYTES);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        String contentHash = hex(digest.digest());
+        inputs.put(path, new InputFile(path, size, modified, contentHash));
+        return contentHash;
+    }
+
+    Path schedulePath(String key) {
+        return directory.resolve(key + ".schedule");
+    }
+
+    private void evict() {
+        Iterator<Entry> oldest = entries.values().iterator();
+        // The newest schedule stays even if it alone is over the cap.
+        while (totalBytes > maxBytes && entries.size() > 1 && oldest.hasNext()) {
+            Entry entry = oldest.next();
+            oldest.remove();
+            totalBytes -= entry.bytes();
+            evictions++;
+            deleteQuietly(schedulePath(entry.key()));
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.bytes();
+        }
+        deleteQuietly(schedulePath(key));
+        try {
+            saveIndex();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Reads the index, keeping only entries whose schedule file still exists. */
+    private void loadIndex() throws IOException {
+        Path index = directory.resolve(INDEX_FILE);
+        if (!Files.exists(index)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                try {
+                    if (fields[0].equals("schedule") && Files.exists(schedulePath(fields[1]))) {
+                        Entry entry = new Entry(fields[1], fields[2], Long.parseLong(fields[3]));
+                        entries.put(entry.key(), entry);
+                        totalBytes += entry.bytes();
+                    } else if (fields[0].equals("input")) {
+                        InputFile input = new InputFile(IngestManifest.unescape(fields[1]), Long.parseLong(fields[2]),
+                            Long.parseLong(fields[3]), fields[4]);
+                        inputs.put(input.path(), input);
+                    }
+                } catch (RuntimeException e) {
+                    // Skip a malformed line; its schedule is simply not found.
+                }
+            }
+        }
+    }
+
+    /** Rewrites the index, dropping remembered inputs that no stored schedule was computed from. */
+    private void saveIndex() throws IOException {
+        Set<String> used = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            used.add(entry.contentHash());
+        }
+        inputs.values().removeIf(input -> !used.contains(input.contentHash()));
+        Path temporary = directory.resolve(INDEX_FILE + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            for (InputFile input : inputs.values()) {
+                out.write("input\t" + IngestManifest.escape(input.path()) + "\t" + input.size() + "\t" + input.modified()
+                    + "\t" + input.contentHash() + "\n");
+            }
+            // Least recently used first, as the index is read back in order.
+            for (Entry entry : new ArrayList<>(entries.values())) {
+                out.write("schedule\t" + entry.key() + "\t" + entry.contentHash() + "\t" + entry.bytes() + "\n");
+            }
+        }
+        Files.move(temporary, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        return hex(newDigest().digest(bytes));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder out = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            out.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return out.toString();
+    }
+}
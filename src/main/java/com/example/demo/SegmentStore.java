@@ -0,0 +1,896 @@
+package com.example.demo;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Intermediate data kept in one append-only segment file per hour of the day.
+ *
+ * Every {@link #append(int, List)} encodes its requests into a single block in a per-thread
+ * direct buffer, reserves the block's region at the end of the hour's segment with one atomic
+ * add, and writes it with a positional {@link FileChannel} write, so writers never wait for each
+ * other. Sub-hour buckets share their hour's segment; an in-memory index records where each
+ * bucket's blocks start. At most 24 files are open however large the input is.
+ *
+ * Blocks use the compact {@link SpillEncoding}, so each one carries its own customer dictionary
+ * and can be decoded on its own. Each block is then framed, and optionally compressed, by a
+ * {@link BlockCompressor}. {@link #compact()} rewrites segments made up of many small blocks into a few large
+ * blocks per bucket so the reduce phase reads them sequentially. A compacted segment is written to
+ * a second file name, alternating between {@code <prefix>_<hour>.seg} and
+ * {@code <prefix>_<hour>.compact.seg}, so the old file stays readable until the caller lets go of it.
+ *
+ * {@link #restoreSegment(int, String)} and {@link #restoreBlock(int, long)} reopen the segments and
+ * block index another store left on disk, as recorded in a {@link PersistentStorage} manifest.
+ *
+ * Given several directories, typically one per disk, hours are striped across them round-robin
+ * ({@link #deviceOf(int)}), so consecutive hours land on different devices. Each directory then
+ * gets a writer thread of its own that performs the positional writes for its segments while the
+ * appending thread waits, keeping one sequential writer per device however many map threads
+ * there are; with a single directory, appending threads write themselves. Bytes moved and time
+ * spent in reads and writes are counted per directory for {@link #deviceSummary()}.
+ *
+ * With a {@link WriteQueue} ({@link #setWriteQueueBytes(long)}), appends do not write at all: the
+ * block is framed into a pooled buffer, its region reserved and indexed, and the buffer queued
+ * for its directory's writer thread, which drains whatever has queued up and writes each run of
+ * adjacent blocks of a segment with one gathering {@link FileChannel} write. The appending thread
+ * only waits when the queue's byte budget is used up. Reads, compaction and {@link #flush()} wait
+ * for the queue to empty first, and {@link #appendAsync(int, List)} tells the caller when its
+ * block is on disk.
+ *
+ * Blocks appended with a priority ({@link #appendAsync(int, int, List)}) are also indexed by
+ * (bucket, priority), so {@link #forEach(int, int, RequestVisitor)} reads one priority's blocks
+ * and skips the rest of the bucket. Compaction keeps such buckets partitioned. A bucket that also
+ * holds blocks without a priority, such as blocks restored from a manifest, is read whole and
+ * filtered instead.
+ */
+public class SegmentStore {
+
+    static final int HOURS = 24;
+    static final int HEADER_BYTES = SpillEncoding.HEADER_BYTES;
+    // Blocks smaller than this on average make a segment worth compacting.
+    static final int SMALL_BLOCK_BYTES = 64 * 1024;
+    static final int COMPACT_BLOCK_RECORDS = 64 * 1024;
+    // Typical stored size of a record, for estimating a bucket's requests from the bytes it spans.
+    static final int ESTIMATED_RECORD_BYTES = 9;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    // Writer threads of idle devices exit after this long and are started again on demand.
+    private static final long WRITER_KEEP_ALIVE_SECONDS = 1;
+    // Queued blocks one gathering write may take, well below the usual IOV_MAX of 1024.
+    static final int MAX_GATHER_BLOCKS = 256;
+    private static final CompletableFuture<Void> WRITTEN = CompletableFuture.completedFuture(null);
+
+    /** Where an appended block starts, and when it is on disk. */
+    public record Append(long position, CompletableFuture<Void> written) {
+    }
+
+    /** A framed block waiting for its directory's writer thread. */
+    private record PendingWrite(int hour, FileChannel channel, long position, ByteBuffer buffer, CompletableFuture<Void> written) {
+    }
+
+    private final List<Device> devices = new ArrayList<>();
+    private final String prefix;
+    private final TimeBuckets buckets;
+    private final BlockCompressor compressor;
+    private final Segment[] segments = new Segment[HOURS];
+    private final ThreadLocal<ByteBuffer> writeBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_BYTES));
+    private final ThreadLocal<ByteBuffer> frameBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_BYTES));
+    private final ThreadLocal<ByteBuffer> readBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_BYTES));
+    private final ThreadLocal<ByteBuffer> blockBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_BYTES));
+    private final ThreadLocal<SpillEncoding> encodings = ThreadLocal.withInitial(SpillEncoding::new);
+    private volatile WriteQueue writeQueue;
+
+    /**
+     * @param prefix the segment file name prefix; files are named {@code <prefix>_<hour>.seg}
+     */
+    public SegmentStore(Path directory, String prefix, TimeBuckets buckets) {
+        this(directory, prefix, buckets, new BlockCompressor(BlockCodec.NONE));
+    }
+
+    public SegmentStore(Path directory, String prefix, TimeBuckets buckets, BlockCompressor compressor) {
+        this(List.of(directory), prefix, buckets, compressor);
+    }
+
+    /** Stripes the hours across {@code directories}, one writer thread per directory if there are several. */
+    public SegmentStore(List<Path> directories, String prefix, TimeBuckets buckets, BlockCompressor compressor) {
+        Preconditions.checkArgument(!directories.isEmpty(), "At least one segment directory is needed");
+        for (Path directory : directories) {
+            devices.add(new Device(directory, directories.size() > 1));
+        }
+        this.prefix = prefix;
+        this.buckets = buckets;
+        this.compressor = compressor;
+    }
+
+    /**
+     * Queues appended blocks for background writer threads, holding up to {@code bytes} of them
+     * in memory; zero makes appends write before they return. Must be set before the first append.
+     */
+    public void setWriteQueueBytes(long bytes) {
+        writeQueue = bytes > 0 ? new WriteQueue(bytes) : null;
+    }
+
+    /**
+     * Appends the requests of one bucket as a single block. Safe to call from several threads.
+     * With a write queue the block may not be on disk yet when this returns.
+     *
+     * @return the block's offset in its hour's segment, or -1 if there was nothing to append
+     */
+    public long append(int index, List<AllocationRequest> requests) throws IOException {
+        return appendAsync(index, requests).position();
+    }
+
+    /**
+     * Like {@link #append(int, List)}, but also returns a future that completes once the block
+     * is written, or fails with the write's error.
+     */
+    public Append appendAsync(int index, List<AllocationRequest> requests) throws IOException {
+        return appendBlock(index, requests, false, 0);
+    }
+
+    /**
+     * Like {@link #appendAsync(int, List)} for requests that all have {@code priority}; the block
+     * is indexed as part of the bucket's partition of that priority.
+     */
+    public Append appendAsync(int index, int priority, List<AllocationRequest> requests) throws IOException {
+        return appendBlock(index, requests, true, priority);
+    }
+
+    private Append appendBlock(int index, List<AllocationRequest> requests, boolean partitioned, int priority) throws IOException {
+        if (requests.isEmpty()) {
+            return new Append(-1, WRITTEN);
+        }
+        Segment segment = segment(buckets.hourOf(index));
+        ByteBuffer block = encode(index, requests);
+        WriteQueue queue = writeQueue;
+        if (queue == null) {
+            ByteBuffer buffer = frame(block);
+            long position = segment.end.getAndAdd(buffer.remaining());
+            segment.device.write(segment.channel, buffer, position);
+            segment.addBlock(index, position, partitioned, priority);
+            return new Append(position, WRITTEN);
+        }
+        ByteBuffer buffer = queue.acquire(BlockCompressor.maxFrameSize(block.remaining()));
+        try {
+            compressor.compress(block, buffer);
+        } catch (RuntimeException e) {
+            queue.release(buffer, null);
+            throw e;
+        }
+        buffer.flip();
+        long position = segment.end.getAndAdd(buffer.remaining());
+        segment.addBlock(index, position, partitioned, priority);
+        PendingWrite write = new PendingWrite(segment.hour, segment.channel, position, buffer, new CompletableFuture<>());
+        segment.device.enqueue(write, queue);
+        return new Append(position, write.written());
+    }
+
+    /** Waits until every block appended so far is written; rethrows the first write that failed. */
+    public void flush() throws IOException {
+        WriteQueue queue = writeQueue;
+        if (queue != null) {
+            queue.await();
+        }
+    }
+
+    /**
+     * Reopens an existing segment file for the hour without truncating it. Later appends go after
+     * everything already in the file.
+     */
+    public void restoreSegment(int hour, String fileName) throws IOException {
+        Device device = devices.get(deviceOf(hour));
+        Path path = device.directory.resolve(fileName);
+        if (!Files.exists(path)) {
+            throw new IOException("Segment file " + path + " is missing");
+        }
+        synchronized (segments) {
+            if (segments[hour] != null) {
+                segments[hour].channel.close();
+            }
+            Segment segment = new Segment(hour, path, open(path, false), device);
+            segment.end.set(segment.channel.size());
+            segments[hour] = segment;
+        }
+    }
+
+    /** Adds a block written by an earlier store to the bucket's index. */
+    public void restoreBlock(int index, long position) throws IOException {
+        Segment segment = existingSegment(buckets.hourOf(index));
+        if (segment == null) {
+            throw new IOException("No segment restored for bucket " + index);
+        }
+        if (position < 0 || position + BlockCompressor.FRAME_HEADER_BYTES > segment.end.get()) {
+            throw new IOException("Block at offset " + position + " lies outside " + segment.path);
+        }
+        segment.addBlock(index, position, false, 0);
+    }
+
+    /** Reads every request stored for the bucket, in file order. */
+    public List<AllocationRequest> read(int index) throws IOException {
+        List<AllocationRequest> requests = new ArrayList<>();
+        forEach(index, (customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+            requests.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+        return requests;
+    }
+
+    /**
+     * Streams every request stored for the bucket to the visitor, in file order. Only one block
+     * is held in memory at a time.
+     */
+    public void forEach(int index, RequestVisitor visitor) throws IOException {
+        if (index < 0 || index >= buckets.count()) {
+            return;
+        }
+        Segment segment = existingSegment(buckets.hourOf(index));
+        if (segment == null) {
+            return;
+        }
+        flush();
+        for (long position : segment.blocks(index)) {
+            readBlock(segment, position, visitor);
+        }
+    }
+
+    /**
+     * Streams the {@code slice}-th of {@code slices} consecutive runs of the bucket's blocks to the
+     * visitor. Slices hold whole blocks, so some may be empty. Safe to call from several threads.
+     */
+    public void forEachSlice(int index, int slice, int slices, RequestVisitor visitor) throws IOException {
+        if (index < 0 || index >= buckets.count()) {
+            return;
+        }
+        Segment segment = existingSegment(buckets.hourOf(index));
+        if (segment == null) {
+            return;
+        }
+        flush();
+        List<Long> blocks = segment.blocks(index);
+        int from = (int) ((long) blocks.size() * slice / slices);
+        int to = (int) ((long) blocks.size() * (slice + 1) / slices);
+        for (long position : blocks.subList(from, to)) {
+            readBlock(segment, position, visitor);
+        }
+    }
+
+    /**
+     * Streams the bucket's requests of one priority to the visitor. Only the blocks of that
+     * partition are read, unless the bucket has blocks appended without a priority, in which case
+     * every block is read and the other priorities skipped.
+     */
+    public void forEach(int index, int priority, RequestVisitor visitor) throws IOException {
+        if (index < 0 || index >= buckets.count()) {
+            return;
+        }
+        Segment segment = existingSegment(buckets.hourOf(index));
+        if (segment == null) {
+            return;
+        }
+        flush();
+        if (segment.mixed.contains(index)) {
+            RequestVisitor filter = (customerId, agents, requestPriority, count, span, firstArrival, lastArrival) -> {
+                if (requestPriority == priority) {
+                    visitor.visit(customerId, agents, requestPriority, count, span, firstArrival, lastArrival);
+                }
+            };
+            for (long position : segment.blocks(index)) {
+                readBlock(segment, position, filter);
+            }
+            return;
+        }
+        for (long position : Segment.sorted(segment.partitions.get(partitionKey(index, priority)))) {
+            readBlock(segment, position, visitor);
+        }
+    }
+
+    /**
+     * Rewrites every segment whose blocks are small on average into blocks of up to
+     * {@value #COMPACT_BLOCK_RECORDS} records per bucket, and deletes the files it replaced. Must
+     * not run concurrently with appends or reads. Returns the number of segments rewritten.
+     */
+    public int compact() throws IOException {
+        List<Path> superseded = new ArrayList<>();
+        int compacted = compact(superseded);
+        for (Path path : superseded) {
+            Files.deleteIfExists(path);
+        }
+        return compacted;
+    }
+
+    /**
+     * Like {@link #compact()}, but leaves the replaced files in place and adds their paths to
+     * {@code superseded}, so that a manifest can be switched over to the new files first.
+     */
+    public int compact(List<Path> superseded) throws IOException {
+        flush();
+        if (devices.size() == 1) {
+            return compactDevice(0, superseded);
+        }
+        // Devices are independent, so each compacts its own segments on a thread of its own.
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(devices.size());
+        try {
+            for (int device = 0; device < devices.size(); device++) {
+                final int current = device;
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        List<Path> replaced = new ArrayList<>();
+                        int compacted = compactDevice(current, replaced);
+                        synchronized (superseded) {
+                            superseded.addAll(replaced);
+                        }
+                        return compacted;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, executor));
+            }
+            int compacted = 0;
+            for (CompletableFuture<Integer> future : futures) {
+                compacted += future.join();
+            }
+            return compacted;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private int compactDevice(int device, List<Path> superseded) throws IOException {
+        int compacted = 0;
+        for (int hour = device; hour < HOURS; hour += devices.size()) {
+            Segment segment = existingSegment(hour);
+            if (segment == null || !segment.isFragmented()) {
+                continue;
+            }
+            superseded.add(compact(segment));
+            compacted++;
+        }
+        return compacted;
+    }
+
+    /** Closes and deletes every segment file, once queued writes have finished. */
+    public void delete() {
+        WriteQueue queue = writeQueue;
+        if (queue != null) {
+            try {
+                queue.awaitIdle();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        synchronized (segments) {
+            for (int hour = 0; hour < HOURS; hour++) {
+                Segment segment = segments[hour];
+                if (segment == null) {
+                    continue;
+                }
+                try {
+                    segment.channel.close();
+                    Files.deleteIfExists(segment.path);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                segments[hour] = null;
+            }
+        }
+    }
+
+    /** Number of segment files currently open. */
+    public int openFiles() {
+        int open = 0;
+        synchronized (segments) {
+            for (Segment segment : segments) {
+                if (segment != null) {
+                    open++;
+                }
+            }
+        }
+        return open;
+    }
+
+    /** Index of the directory holding the hour's segment. */
+    public int deviceOf(int hour) {
+        return hour % devices.size();
+    }
+
+    /** Number of directories the segments are striped across. */
+    public int devices() {
+        return devices.size();
+    }
+
+    /** Bytes written and read per directory, with the throughput of the time spent doing it. */
+    public String deviceSummary() {
+        List<String> parts = new ArrayList<>();
+        for (Device device : devices) {
+            parts.add(device.summary());
+        }
+        return String.join("; ", parts);
+    }
+
+    /** What the write queue has done, or that appends write themselves without one. */
+    public String writerSummary() {
+        WriteQueue queue = writeQueue;
+        return queue == null ? "synchronous" : queue.summary();
+    }
+
+    WriteQueue writeQueue() {
+        return writeQueue;
+    }
+
+    /** File name of each open segment, by hour. */
+    public Map<Integer, String> segmentFiles() {
+        Map<Integer, String> files = new TreeMap<>();
+        synchronized (segments) {
+            for (int hour = 0; hour < HOURS; hour++) {
+                if (segments[hour] != null) {
+                    files.put(hour, segments[hour].path.getFileName().toString());
+                }
+            }
+        }
+        return files;
+    }
+
+    /** Block offsets of every bucket that has blocks, in ascending order. */
+    public Map<Integer, List<Long>> blockIndex() {
+        Map<Integer, List<Long>> index = new TreeMap<>();
+        for (int hour = 0; hour < HOURS; hour++) {
+            Segment segment = existingSegment(hour);
+            if (segment == null) {
+                continue;
+            }
+            for (int bucket : segment.blocks.keySet()) {
+                index.put(bucket, segment.blocks(bucket));
+            }
+        }
+        return index;
+    }
+
+    /** Number of blocks stored for the bucket. */
+    int blockCount(int index) {
+        Segment segment = existingSegment(buckets.hourOf(index));
+        return segment == null ? 0 : segment.blocks(index).size();
+    }
+
+    /**
+     * Estimated number of requests stored for the bucket, from the bytes its blocks span at
+     * {@value #ESTIMATED_RECORD_BYTES} bytes per record. Needs no reads, so it also covers blocks
+     * restored from a manifest; compressed blocks are underestimated.
+     */
+    public long estimatedRecords(int index) {
+        Segment segment = existingSegment(buckets.hourOf(index));
+        return segment == null ? 0 : segment.storedBytes(index) / ESTIMATED_RECORD_BYTES;
+    }
+
+    /** The hour's current segment file, which moves to its alternate name when compacted. */
+    Path segmentPath(int hour) {
+        Segment segment = existingSegment(hour);
+        return segment != null ? segment.path : devices.get(deviceOf(hour)).directory.resolve(prefix + "_" + hour + ".seg");
+    }
+
+    private Segment existingSegment(int hour) {
+        synchronized (segments) {
+            return segments[hour];
+        }
+    }
+
+    private Segment segment(int hour) throws IOException {
+        synchronized (segments) {
+            if (segments[hour] == null) {
+                Path path = segmentPath(hour);
+                segments[hour] = new Segment(hour, path, open(path, true), devices.get(deviceOf(hour)));
+            }
+            return segments[hour];
+        }
+    }
+
+    /** Rewrites the segment into its alternate file and returns the path it replaced. */
+    private Path compact(Segment segment) throws IOException {
+        Path oldPath = segment.path;
+        String name = oldPath.getFileName().toString();
+        Path compactPath = name.endsWith(".compact.seg")
+            ? oldPath.resolveSibling(name.substring(0, name.length() - ".compact.seg".length()) + ".seg")
+            : oldPath.resolveSibling(name.substring(0, name.length() - ".seg".length()) + ".compact.seg");
+        Map<Integer, List<Long>> blocks = new TreeMap<>();
+        Map<Long, List<Long>> partitions = new TreeMap<>();
+        long end = 0;
+        try (FileChannel out = open(compactPath, true)) {
+            for (int index : new TreeMap<>(segment.blocks).keySet()) {
+                List<Long> positions = new ArrayList<>();
+                if (segment.mixed.contains(index)) {
+                    end = compactBlocks(segment, index, segment.blocks(index), out, end, positions);
+                } else {
+                    // One run of blocks per priority, in ascending priority.
+                    for (Map.Entry<Long, List<Long>> partition : segment.partitions(index).entrySet()) {
+                        List<Long> partitionPositions = new ArrayList<>();
+                        end = compactBlocks(segment, index, Segment.sorted(partition.getValue()), out, end, partitionPositions);
+                        partitions.put(partition.getKey(), partitionPositions);
+                        positions.addAll(partitionPositions);
+                    }
+                }
+                blocks.put(index, positions);
+            }
+        }
+        segment.channel.close();
+        segment.replace(compactPath, open(compactPath, false), end, blocks, partitions);
+        return oldPath;
+    }
+
+    /**
+     * Rewrites the records of the blocks at {@code positions} into blocks of up to
+     * {@value #COMPACT_BLOCK_RECORDS} records at {@code end} of {@code out}, adding their offsets
+     * to {@code written}. Returns the new end.
+     */
+    private long compactBlocks(Segment segment, int index, List<Long> positions, FileChannel out, long end, List<Long> written)
+            throws IOException {
+        List<AllocationRequest> pending = new ArrayList<>();
+        for (long position : positions) {
+            readBlock(segment, position, (customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+                pending.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+            while (pending.size() >= COMPACT_BLOCK_RECORDS) {
+                List<AllocationRequest> head = pending.subList(0, COMPACT_BLOCK_RECORDS);
+                written.add(end);
+                end += segment.device.write(out, frame(encode(index, head)), end);
+                head.clear();
+            }
+        }
+        if (!pending.isEmpty()) {
+            written.add(end);
+            end += segment.device.write(out, frame(encode(index, pending)), end);
+        }
+        return end;
+    }
+
+    /** Key of a bucket's partition of one priority; keys of a bucket sort by priority. */
+    static long partitionKey(int index, int priority) {
+        return ((long) index << 32) | (priority - (long) Integer.MIN_VALUE);
+    }
+
+    private ByteBuffer encode(int index, List<AllocationRequest> requests) {
+        ByteBuffer buffer = buffer(writeBuffers, SpillEncoding.maxEncodedSize(requests.size()));
+        encodings.get().encode(index, requests, buffer);
+        return buffer.flip();
+    }
+
+    private ByteBuffer frame(ByteBuffer block) {
+        ByteBuffer buffer = buffer(frameBuffers, BlockCompressor.maxFrameSize(block.remaining()));
+        compressor.compress(block, buffer);
+        return buffer.flip();
+    }
+
+    private void readBlock(Segment segment, long position, RequestVisitor visitor) throws IOException {
+        ByteBuffer buffer = buffer(readBuffers, BlockCompressor.FRAME_HEADER_BYTES);
+        segment.device.read(segment.channel, buffer, position);
+        BlockCompressor.Frame frame = BlockCompressor.readFrame(buffer, segment.end.get() - position - BlockCompressor.FRAME_HEADER_BYTES);
+        buffer = buffer(readBuffers, frame.storedBytes());
+        segment.device.read(segment.channel, buffer, position + BlockCompressor.FRAME_HEADER_BYTES);
+        ByteBuffer block = compressor.decompress(frame, buffer, buffer(blockBuffers, frame.rawBytes()));
+        SpillEncoding.Header header = SpillEncoding.readHeader(block, block.remaining() - HEADER_BYTES);
+        encodings.get().decode(header, block, visitor);
+    }
+
+    /** A cleared per-thread buffer with room for at least {@code size} bytes, limited to it. */
+    private static ByteBuffer buffer(ThreadLocal<ByteBuffer> buffers, int size) {
+        ByteBuffer buffer = buffers.get();
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(Math.max(size, buffer.capacity() * 2));
+            buffers.set(buffer);
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int read = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + read);
+            if (n < 0) {
+                throw new IOException("Unexpected end of segment at offset " + (position + read));
+            }
+            read += n;
+        }
+        buffer.flip();
+    }
+
+    private static FileChannel open(Path path, boolean truncate) throws IOException {
+        if (truncate) {
+            return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /** A segment directory, its writer thread and what has moved through it. */
+    private static final class Device {
+        final Path directory;
+        // Performs the directory's queued writes, and its direct writes too if ownWriter is set.
+        final ThreadPoolExecutor writer;
+        final boolean ownWriter;
+        final LinkedBlockingQueue<PendingWrite> pending = new LinkedBlockingQueue<>();
+        // Set while a drain task is scheduled or running on the writer.
+        final AtomicBoolean draining = new AtomicBoolean();
+        final LongAdder bytesWritten = new LongAdder();
+        final LongAdder writeNanos = new LongAdder();
+        final LongAdder bytesRead = new LongAdder();
+        final LongAdder readNanos = new LongAdder();
+
+        Device(Path directory, boolean ownWriter) {
+            this.directory = directory;
+            this.ownWriter = ownWriter;
+            // The thread is only started once there is something to write.
+            writer = new ThreadPoolExecutor(1, 1, WRITER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "segment-writer-" + directory);
+                thread.setDaemon(true);
+                return thread;
+            });
+            writer.allowCoreThreadTimeOut(true);
+        }
+
+        /** Writes the whole buffer at the position, on the device's writer thread if it has its own. */
+        int write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            if (!ownWriter) {
+                return timedWrite(channel, buffer, position);
+            }
+            Future<Integer> written = writer.submit(() -> timedWrite(channel, buffer, position));
+            try {
+                return written.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Write to " + directory + " failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing to " + directory, e);
+            }
+        }
+
+        /** Queues a block for the writer thread, starting a drain unless one is under way. */
+        void enqueue(PendingWrite write, WriteQueue queue) {
+            pending.add(write);
+            if (draining.compareAndSet(false, true)) {
+                writer.execute(() -> drain(queue));
+            }
+        }
+
+        /** Writes queued blocks until the queue is empty. */
+        private void drain(WriteQueue queue) {
+            List<PendingWrite> batch = new ArrayList<>();
+            while (true) {
+                pending.drainTo(batch, MAX_GATHER_BLOCKS);
+                if (batch.isEmpty()) {
+                    draining.set(false);
+                    // A block queued after drainTo saw the flag still set; pick it up here.
+                    if (pending.isEmpty() || !draining.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                writeGathered(batch, queue);
+                batch.clear();
+            }
+        }
+
+        /**
+         * Writes the blocks in segment and offset order, each run of blocks adjacent in the same
+         * file with a single gathering write.
+         */
+        private void writeGathered(List<PendingWrite> batch, WriteQueue queue) {
+            batch.sort(Comparator.comparingInt(PendingWrite::hour).thenComparingLong(PendingWrite::position));
+            int start = 0;
+            while (start < batch.size()) {
+                PendingWrite first = batch.get(start);
+                long next = first.position() + first.buffer().remaining();
+                int end = start + 1;
+                while (end < batch.size() && batch.get(end).channel() == first.channel() && batch.get(end).position() == next) {
+                    next += batch.get(end).buffer().remaining();
+                    end++;
+                }
+                List<PendingWrite> run = batch.subList(start, end);
+                IOException error = null;
+                try {
+                    gatheringWrite(run);
+                } catch (IOException e) {
+                    error = e;
+                } catch (RuntimeException e) {
+                    error = new IOException("Write to " + directory + " failed", e);
+                }
+                queue.gathered(run.size());
+                for (PendingWrite write : run) {
+                    if (error == null) {
+                        write.written().complete(null);
+                    } else {
+                        write.written().completeExceptionally(error);
+                    }
+                    queue.release(write.buffer(), error);
+                }
+                start = end;
+            }
+        }
+
+        private void gatheringWrite(List<PendingWrite> run) throws IOException {
+            ByteBuffer[] buffers = new ByteBuffer[run.size()];
+            long bytes = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = run.get(i).buffer();
+                bytes += buffers[i].remaining();
+            }
+            FileChannel channel = run.get(0).channel();
+            long start = System.nanoTime();
+            // Only this thread moves the channel's position; readers and direct writes are positional.
+            channel.position(run.get(0).position());
+            long written = 0;
+            while (written < bytes) {
+                written += channel.write(buffers);
+            }
+            writeNanos.add(System.nanoTime() - start);
+            bytesWritten.add(bytes);
+        }
+
+        void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            long start = System.nanoTime();
+            readFully(channel, buffer, position);
+            readNanos.add(System.nanoTime() - start);
+            bytesRead.add(buffer.remaining());
+        }
+
+        private int timedWrite(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            long start = System.nanoTime();
+            int written = writeFully(channel, buffer, position);
+            writeNanos.add(System.nanoTime() - start);
+            bytesWritten.add(written);
+            return written;
+        }
+
+        String summary() {
+            return directory + " written " + megabytes(bytesWritten.sum()) + " (" + throughput(bytesWritten.sum(), writeNanos.sum())
+                + "), read " + megabytes(bytesRead.sum()) + " (" + throughput(bytesRead.sum(), readNanos.sum()) + ")";
+        }
+
+        private static String megabytes(long bytes) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+        }
+
+        private static String throughput(long bytes, long nanos) {
+            return nanos == 0 ? "-" : String.format("%.0f MB/s", bytes / (1024.0 * 1024.0) / (nanos / 1e9));
+        }
+    }
+
+    /** One hour's file, its reserved end and where each bucket's blocks start. */
+    private static final class Segment {
+        final int hour;
+        final Device device;
+        volatile Path path;
+        volatile FileChannel channel;
+        final AtomicLong end = new AtomicLong();
+        final AtomicInteger blockCount = new AtomicInteger();
+        final Map<Integer, List<Long>> blocks = new ConcurrentHashMap<>();
+        // Block offsets per (bucket, priority) of blocks appended with a priority.
+        final Map<Long, List<Long>> partitions = new ConcurrentHashMap<>();
+        // Buckets holding blocks appended without a priority.
+        final Set<Integer> mixed = ConcurrentHashMap.newKeySet();
+
+        Segment(int hour, Path path, FileChannel channel, Device device) {
+            this.hour = hour;
+            this.device = device;
+            this.path = path;
+            this.channel = channel;
+        }
+
+        void addBlock(int index, long position, boolean partitioned, int priority) {
+            if (partitioned) {
+                partitions.computeIfAbsent(partitionKey(index, priority), k -> Collections.synchronizedList(new ArrayList<>())).add(position);
+            } else {
+                mixed.add(index);
+            }
+            blocks.computeIfAbsent(index, k -> Collections.synchronizedList(new ArrayList<>())).add(position);
+            blockCount.incrementAndGet();
+        }
+
+        /** Block offsets of the bucket in ascending order, so reads move forward through the file. */
+        List<Long> blocks(int index) {
+            return sorted(blocks.get(index));
+        }
+
+        /** The bucket's partitions by key, in ascending priority. */
+        Map<Long, List<Long>> partitions(int index) {
+            Map<Long, List<Long>> bucket = new TreeMap<>();
+            for (Map.Entry<Long, List<Long>> entry : partitions.entrySet()) {
+                if (entry.getKey() >> 32 == index) {
+                    bucket.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return bucket;
+        }
+
+        static List<Long> sorted(List<Long> positions) {
+            if (positions == null) {
+                return Collections.emptyList();
+            }
+            List<Long> sorted;
+            synchronized (positions) {
+                sorted = new ArrayList<>(positions);
+            }
+            Collections.sort(sorted);
+            return sorted;
+        }
+
+        /** Bytes the bucket's blocks take up, each block running up to the next block of the segment. */
+        long storedBytes(int index) {
+            List<Long> own = blocks(index);
+            if (own.isEmpty()) {
+                return 0;
+            }
+            long[] starts = blocks.values().stream().flatMap(positions -> sorted(positions).stream())
+                .mapToLong(Long::longValue).sorted().toArray();
+            long bytes = 0;
+            for (long position : own) {
+                int next = Arrays.binarySearch(starts, position) + 1;
+                bytes += (next < starts.length ? starts[next] : end.get()) - position;
+            }
+            return bytes;
+        }
+
+        boolean isFragmented() {
+            int count = blockCount.get();
+            // Compaction leaves at least one block per bucket, and per partition.
+            return count > Math.max(blocks.size(), partitions.size()) && end.get() / count < SMALL_BLOCK_BYTES;
+        }
+
+        void replace(Path path, FileChannel channel, long end, Map<Integer, List<Long>> blocks, Map<Long, List<Long>> partitions) {
+            this.path = path;
+            this.channel = channel;
+            this.end.set(end);
+            this.blocks.clear();
+            int count = 0;
+            for (Map.Entry<Integer, List<Long>> entry : blocks.entrySet()) {
+                this.blocks.put(entry.getKey(), Collections.synchronizedList(new ArrayList<>(entry.getValue())));
+                count += entry.getValue().size();
+            }
+            this.partitions.clear();
+            for (Map.Entry<Long, List<Long>> entry : partitions.entrySet()) {
+                this.partitions.put(entry.getKey(), Collections.synchronizedList(new ArrayList<>(entry.getValue())));
+            }
+            this.blockCount.set(count);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary form of one block of intermediate requests.
+ *
+ * A block starts with a fixed header of {@code bucket, record count, dictionary size, payload
+ * bytes}. The payload holds the block's customer dictionary, the distinct {@link CustomerDictionary}
+ * ids in ascending order as varint deltas, followed by one record per request: the customer's
+ * position in the block dictionary, then agents, priority, count, span, the first arrival as a
+ * difference from the previous record's and the last arrival as a difference from the first.
+ * Every value is an unsigned LEB128 varint; agents, priority and the first arrival's difference
+ * are zigzag-encoded first so that a negative value costs no more than a small positive one.
+ * Records stored in arrival order take about a dozen bytes instead of thirty-six.
+ *
+ * The decoder reads exactly the counted records and dictionary entries, checks every varint and
+ * dictionary reference against the payload bounds, and rejects a payload with bytes left over.
+ *
+ * An instance keeps reusable scratch arrays and is not thread-safe.
+ */
+public class SpillEncoding {
+
+    static final int HEADER_BYTES = 4 * Integer.BYTES;
+    static final int MAX_VARINT_BYTES = 5;
+    static final int MAX_LONG_VARINT_BYTES = 10;
+
+    // Block dictionary position + 1 per customer id, zero when absent; reset after every block.
+    private int[] positions = new int[1024];
+    private int[] dictionary = new int[64];
+
+    /** Header of a block, read before its payload. */
+    public record Header(int bucket, int records, int dictionarySize, int payloadBytes) {
+    }
+
+    /** Upper bound of the encoded size of a block of {@code records} requests. */
+    public static int maxEncodedSize(int records) {
+        return HEADER_BYTES + records * (6 * MAX_VARINT_BYTES + 2 * MAX_LONG_VARINT_BYTES);
+    }
+
+    /**
+     * Encodes the requests at the buffer's position, which must have at least
+     * {@link #maxEncodedSize(int)} bytes remaining. Returns the number of bytes written.
+     */
+    public int encode(int bucket, List<AllocationRequest> requests, ByteBuffer buffer) {
+        int start = buffer.position();
+        int size = 0;
+        for (AllocationRequest request : requests) {
+            int id = request.customerId();
+            if (id >= positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(id + 1, positions.length * 2));
+            }
+            if (positions[id] == 0) {
+                if (size == dictionary.length) {
+                    dictionary = Arrays.copyOf(dictionary, size * 2);
+                }
+                dictionary[size++] = id;
+                positions[id] = -1;
+            }
+        }
+        Arrays.sort(dictionary, 0, size);
+        buffer.position(start + HEADER_BYTES);
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            positions[dictionary[i]] = i + 1;
+            putVarint(buffer, dictionary[i] - previous);
+            previous = dictionary[i];
+        }
+        long previousArrival = 0;
+        for (AllocationRequest request : requests) {
+            putVarint(buffer, positions[request.customerId()] - 1);
+            putVarint(buffer, zigzag(request.agents()));
+            putVarint(buffer, zigzag(request.priority()));
+            putVarint(buffer, request.count());
+            putVarint(buffer, request.span());
+            putLongVarint(buffer, zigzag(request.firstArrival() - previousArrival));
+            putLongVarint(buffer, request.lastArrival() - request.firstArrival());
+            previousArrival = request.firstArrival();
+        }
+        for (int i = 0; i < size; i++) {
+            positions[dictionary[i]] = 0;
+        }
+        int end = buffer.position();
+        buffer.putInt(start, bucket);
+        buffer.putInt(start + Integer.BYTES, requests.size());
+        buffer.putInt(start + 2 * Integer.BYTES, size);
+        buffer.putInt(start + 3 * Integer.BYTES, end - start - HEADER_BYTES);
+        return end - start;
+    }
+
+    /** Reads and validates a header; {@code maxPayloadBytes} bounds what the payload may claim. */
+    public static Header readHeader(ByteBuffer buffer, long maxPayloadBytes) throws IOException {
+        Header header = new Header(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+        if (header.records() < 0 || header.dictionarySize() < 0 || header.payloadBytes() < 0
+                || header.payloadBytes() > maxPayloadBytes
+                || header.dictionarySize() > header.records()
+                // Every entry and record takes at least one byte per value.
+                || (long) header.dictionarySize() + 7L * header.records() > header.payloadBytes()) {
+            throw new IOException("Corrupt block header " + header);
+        }
+        return header;
+    }
+
+    /** Decodes exactly the payload described by the header, appending to {@code requests}. */
+    public void decode(Header header, ByteBuffer payload, List<AllocationRequest> requests) throws IOException {
+        decode(header, payload, (customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+            requests.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+    }
+
+    /** Decodes exactly the payload described by the header, handing each record to the visitor. */
+    public void decode(Header header, ByteBuffer payload, RequestVisitor visitor) throws IOException {
+        if (payload.remaining() != header.payloadBytes()) {
+            throw new IOException("Block payload is " + payload.remaining() + " bytes, header says " + header.payloadBytes());
+        }
+        int size = header.dictionarySize();
+        if (dictionary.length < size) {
+            dictionary = new int[size];
+        }
+        int id = 0;
+        for (int i = 0; i < size; i++) {
+            id += getVarint(payload);
+            if (id < 0 || (i > 0 && id <= dictionary[i - 1])) {
+                throw new IOException("Corrupt block dictionary at entry " + i);
+            }
+            dictionary[i] = id;
+        }
+        long firstArrival = 0;
+        for (int i = 0; i < header.records(); i++) {
+            int position = getVarint(payload);
+            if (position < 0 || position >= size) {
+                throw new IOException("Corrupt block: record " + i + " refers to dictionary entry " + position);
+            }
+            int agents = unzigzag(getVarint(payload));
+            int priority = unzigzag(getVarint(payload));
+            int count = getVarint(payload);
+            int span = getVarint(payload);
+            firstArrival += unzigzag(getLongVarint(payload));
+            long lastArrival = firstArrival + getLongVarint(payload);
+            if (lastArrival < firstArrival) {
+                throw new IOException("Corrupt block: record " + i + " arrives last before it arrives first");
+            }
+            visitor.visit(dictionary[position], agents, priority, count, span, firstArrival, lastArrival);
+        }
+        if (payload.hasRemaining()) {
+            throw new IOException("Corrupt block: " + payload.remaining() + " bytes after the last record");
+        }
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 7 * MAX_VARINT_BYTES; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Corrupt block: varint runs past the end of the payload");
+            }
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt block: varint longer than " + MAX_VARINT_BYTES + " bytes");
+    }
+
+    static void putLongVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getLongVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 7 * MAX_LONG_VARINT_BYTES; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Corrupt block: varint runs past the end of the payload");
+            }
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt block: varint longer than " + MAX_LONG_VARINT_BYTES + " bytes");
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -1,11 +1,114 @@
 package com.example.demo;
 
+import com.example.demo.Constants.Compression;
 import java.util.List;
 
 public interface Storage {
     void storeIntermediateData(int index, List<AllocationRequest> requests);
     List<AllocationRequest> fetchInterMediateData(int index);
+
+    /**
+     * Streams the requests stored for a bucket to the visitor, in the order
+     * {@link #fetchInterMediateData(int)} would return them. Storages override this to hand out
+     * records without materializing the bucket.
+     */
+    default void forEachIntermediateData(int index, RequestVisitor visitor) {
+        for (AllocationRequest request : fetchInterMediateData(index)) {
+            visitor.visit(request.customerId(), request.agents(), request.priority(), request.count(), request.span(),
+                request.firstArrival(), request.lastArrival());
+        }
+    }
+
+    /**
+     * Stores requests of a bucket that all have {@code priority}. Storages that lay their data
+     * out by (bucket, priority) keep each partition apart; the rest store them with the bucket.
+     */
+    default void storeIntermediateData(int index, int priority, List<AllocationRequest> requests) {
+        storeIntermediateData(index, requests);
+    }
+
+    /**
+     * Streams the bucket's requests of one priority, in the order they were stored. Storages that
+     * do not partition by priority read the whole bucket and skip the other priorities.
+     */
+    default void forEachIntermediateData(int index, int priority, RequestVisitor visitor) {
+        forEachIntermediateData(index, (customerId, agents, requestPriority, count, span, firstArrival, lastArrival) -> {
+            if (requestPriority == priority) {
+                visitor.visit(customerId, agents, requestPriority, count, span, firstArrival, lastArrival);
+            }
+        });
+    }
+
+    /**
+     * Streams the {@code slice}-th of {@code slices} consecutive slices of the bucket's requests.
+     * Visiting every slice in turn visits what {@link #forEachIntermediateData(int, RequestVisitor)}
+     * does, in the same order, so folds of the slices can be read in parallel and merged in slice
+     * order. Storages that cannot slice a bucket stream all of it as slice 0 and nothing else.
+     */
+    default void forEachIntermediateSlice(int index, int slice, int slices, RequestVisitor visitor) {
+        if (slice == 0) {
+            forEachIntermediateData(index, visitor);
+        }
+    }
+
+    /**
+     * Number of requests stored for the bucket, or an estimate of it, used to order and slice Step 2;
+     * -1 if the storage cannot tell without reading the bucket.
+     */
+    default long intermediateRecords(int index) {
+        return -1;
+    }
+
+    /**
+     * Demand totals of everything stored for the bucket, or null if the storage does not keep
+     * them and the bucket has to be read instead.
+     */
+    default DemandTotals demandTotals(int index) {
+        return null;
+    }
+
     void storeSchedule(List<ScheduleBucket> schedule);
     List<ScheduleBucket> fetchSchedule();
     void cleanupIntermediateFiles();
-}
\ No newline at end of file
+
+    /** Tells the storage how bucket indexes map onto the day. Called before Step 1 stores anything. */
+    default void setTimeBuckets(TimeBuckets buckets) {
+    }
+
+    /** Selects block compression for data written to disk. Storages that stay in memory ignore it. */
+    default void setCompression(Compression compression) {
+    }
+
+    /**
+     * Tells the storage which dictionary the run's customer ids come from. Storages that record
+     * customers by name, so that a later run can resume, keep it; the rest ignore it.
+     */
+    default void setCustomers(CustomerDictionary customers) {
+    }
+
+    /**
+     * Called on a map thread once everything it parsed from the input bytes [start, end) has been
+     * stored. Storages that can resume an interrupted run record it; the rest ignore it.
+     */
+    default void commitInput(long startOffset, long endOffset) {
+    }
+
+    /** Number of independent devices the intermediate data is spread over. */
+    default int devices() {
+        return 1;
+    }
+
+    /** The device, below {@link #devices()}, holding a bucket's intermediate data. */
+    default int deviceOf(int index) {
+        return 0;
+    }
+
+    /** Called once Step 1 has stored everything and before Step 2 fetches anything. */
+    default void flushIntermediateData() {
+    }
+
+    /** One-line description of storage activity for verbose output, or empty if there is nothing to report. */
+    default String statistics() {
+        return "";
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.demo;
 
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class TextOutputFormatter implements OutputFormatter{
@@ -18,13 +19,48 @@ public class TextOutputFormatter implements OutputFormatter{
         }
     }
 
+    @Override
+    public void printSweep(CapacitySweep sweep) {
+        if (sweep.buckets().isEmpty()) {
+            System.out.println("No schedule available.");
+            return;
+        }
+        for (int i = 0; i < sweep.size(); i++) {
+            System.out.println("capacity=" + sweep.capacity(i) + " : throttled=" + sweep.throttledBuckets(i) + " of " + sweep.schedule(i).size() + " buckets");
+            for (ScheduleBucket b : sweep.schedule(i)) {
+                printBucket(b);
+            }
+        }
+        System.out.println("Minimum capacity without throttling:");
+        for (Map.Entry<Integer, Integer> hour : sweep.minimumCapacityByHour().entrySet()) {
+            System.out.println(String.format("%02d:00", hour.getKey()) + " : " + hour.getValue());
+        }
+        System.out.println("day : " + sweep.minimumCapacity());
+    }
+
+    @Override
+    public void printScenarios(Scenarios scenarios) {
+        if (scenarios.buckets().isEmpty()) {
+            System.out.println("No schedule available.");
+            return;
+        }
+        for (int i = 0; i < scenarios.size(); i++) {
+            Scenarios.Scenario scenario = scenarios.scenario(i);
+            System.out.println("utilization=" + scenario.utilization() + " capacity=" + scenario.capacity() + " : throttled="
+                + scenarios.throttledBuckets(i) + " of " + scenarios.schedule(i).size() + " buckets");
+            for (ScheduleBucket b : scenarios.schedule(i)) {
+                printBucket(b);
+            }
+        }
+    }
+
     @Override
     public void setCapacity(int capacity) {
         this.capacity = capacity;
     }
 
     private void printBucket(ScheduleBucket bucket) {
-        String timeStr = String.format("%02d:00", bucket.hour());
+        String timeStr = bucket.getHourFormatted();
         if (bucket.totalAgents() == 0) {
             System.out.println(timeStr + " : total=0; none");
         } else {
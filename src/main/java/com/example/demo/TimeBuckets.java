@@ -0,0 +1,83 @@
+package com.example.demo;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Splits the day into equal scheduling buckets of {@code minutes} length.
+ *
+ * Bucket indexes are what {@link CallOrchestrator} uses; with the default 60-minute buckets an
+ * index is simply the hour of the day. Step 1 stores each request once, under the index of the
+ * first bucket of the hour it starts in, and the request carries a span telling which buckets it
+ * is active in, counted from that bucket and reaching into later hours where the window does, so
+ * a request does not grow with the number of buckets or hours it covers.
+ */
+public record TimeBuckets(int minutes) {
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    public static final TimeBuckets HOURLY = new TimeBuckets(60);
+    /** Span of a request that is active in every bucket of the hour it is stored under, and no other. */
+    public static final int WHOLE_HOUR = 0;
+
+    public TimeBuckets {
+        Preconditions.checkArgument(minutes > 0 && 60 % minutes == 0,
+            "Bucket length must divide an hour: %s", minutes);
+    }
+
+    /** Number of buckets in a day. */
+    public int count() {
+        return MINUTES_PER_DAY / minutes;
+    }
+
+    /** Bucket holding the given minute of the day. */
+    public int indexOf(int minuteOfDay) {
+        return minuteOfDay / minutes;
+    }
+
+    public int hourOf(int index) {
+        return index * minutes / 60;
+    }
+
+    public int minuteOf(int index) {
+        return index * minutes % 60;
+    }
+
+    /** Number of buckets in an hour. */
+    public int perHour() {
+        return 60 / minutes;
+    }
+
+    /** Index of the hour's first bucket, which the hour's requests are stored under. */
+    public int firstOf(int hour) {
+        return hour * perHour();
+    }
+
+    /**
+     * Span of a request active in the buckets {@code [first, end)}, counted from the first bucket
+     * of the hour it is stored under. {@code first} lies in that hour; {@code end} may lie in any
+     * later hour of the day.
+     */
+    public int span(int first, int end) {
+        Preconditions.checkArgument(0 <= first && first < perHour() && first < end && end <= count(), "Bad span [%s, %s)", first, end);
+        return first == 0 && end == perHour() ? WHOLE_HOUR : first << 16 | end;
+    }
+
+    /** First bucket of {@code span}, counted from the first bucket of the hour it is stored under. */
+    public int startOf(int span) {
+        return span >>> 16;
+    }
+
+    /** Bucket after the last one of {@code span}, counted from the first bucket of the hour it is stored under. */
+    public int endOf(int span) {
+        return span == WHOLE_HOUR ? perHour() : span & 0xFFFF;
+    }
+
+    /** Whether a request with {@code span} is active in the {@code offset}-th bucket from the first of its hour. */
+    public boolean covers(int span, int offset) {
+        return offset >= startOf(span) && offset < endOf(span);
+    }
+
+    /** Length of a bucket in seconds, the unit agent demand is expressed in. */
+    public double seconds() {
+        return minutes * 60.0;
+    }
+}
@@ -35,6 +35,42 @@ public class UiOutputFormatter implements OutputFormatter {
         }
     }
 
+    @Override
+    public void printSweep(CapacitySweep sweep) {
+        if (sweep.buckets().isEmpty()) {
+            System.out.println("No schedule available.");
+            return;
+        }
+        String report = generateSweepHtml(sweep);
+        if (saveToFile(report, HTLM_FILE_NAME)) {
+            File file = new File(HTLM_FILE_NAME);
+            String fileUri = file.toURI().toString();
+
+            System.out.println("\n" + "=".repeat(40));
+            System.out.println("Capacity Sweep Complete.");
+            System.out.println("View dashboard: " + fileUri);
+            System.out.println("=".repeat(40));
+        }
+    }
+
+    @Override
+    public void printScenarios(Scenarios scenarios) {
+        if (scenarios.buckets().isEmpty()) {
+            System.out.println("No schedule available.");
+            return;
+        }
+        String report = generateScenariosHtml(scenarios);
+        if (saveToFile(report, HTLM_FILE_NAME)) {
+            File file = new File(HTLM_FILE_NAME);
+            String fileUri = file.toURI().toString();
+
+            System.out.println("\n" + "=".repeat(40));
+            System.out.println("Scenarios Complete.");
+            System.out.println("View dashboard: " + fileUri);
+            System.out.println("=".repeat(40));
+        }
+    }
+
     @Override
     public void setCapacity(int capacity) {
         this.capacityConstraint = capacity;
@@ -45,23 +81,7 @@ public class UiOutputFormatter implements OutputFormatter {
         StringBuilder html = new StringBuilder();
 
         // 1. HTML Header & CSS 
-        html.append("<!DOCTYPE html><html><head><title>Control Plane Scheduler</title>");
-        html.append("<style>");
-        html.append("body { font-family: 'Inter', sans-serif; background: #F8FAFC; color: #1E293B; padding: 40px; }");
-        html.append(".container { max-width: 1000px; margin: 0 auto; }");
-        html.append("h1 { color: " + BASE_BLUE + "; font-weight: 800; }");
-        html.append(".card { background: white; border: 1px solid #E2E8F0; border-radius: 12px; margin-bottom: 12px; transition: 0.2s; }");
-        html.append(".card:hover { box-shadow: 0 10px 15px -3px rgba(0,0,0,0.1); }");
-        html.append("summary { padding: 20px; cursor: pointer; display: flex; justify-content: space-between; align-items: center; list-style: none; }");
-        html.append(".badge { padding: 4px 12px; border-radius: 99px; font-size: 12px; font-weight: 600; }");
-        html.append(".badge-ok { background: #DCFCE7; color: " + BASE_GREEN + "; }");
-        html.append(".badge-warn { background: #FEE2E2; color: #EF4444; }");
-        html.append(".table-container { padding: 0 20px 20px; border-top: 1px solid #F1F5F9; }");
-        html.append("table { width: 100%; border-collapse: collapse; margin-top: 15px; }");
-        html.append("th { text-align: left; font-size: 13px; color: #64748B; border-bottom: 2px solid #F1F5F9; padding-bottom: 8px; }");
-        html.append("td { padding: 12px 0; border-bottom: 1px solid #F8FAFC; font-size: 14px; }");
-        html.append(".unmet { color: #EF4444; font-weight: bold; }");
-        html.append("</style></head><body><div class='container'>");
+        appendHead(html);
 
         // 2. Dashboard Header
         html.append("<h1>Agent Allocation Dashboard</h1>");
@@ -107,6 +127,100 @@ public class UiOutputFormatter implements OutputFormatter {
         return html.toString();
     }
 
+    /**
+     * One row per bucket with the agents allocated under each capacity of the sweep, marked where
+     * someone is throttled, then the least capacity that throttles nobody per hour and per day.
+     */
+    String generateSweepHtml(CapacitySweep sweep) {
+        StringBuilder html = new StringBuilder();
+        appendHead(html);
+        html.append("<h1>Capacity Sweep</h1>");
+        html.append("<p>Minimum capacity without throttling: <strong>" + sweep.minimumCapacity() + " Agents</strong></p>");
+
+        html.append("<div class='card'><div class='table-container'><table>");
+        html.append("<tr><th>Time</th><th>Required</th>");
+        for (int i = 0; i < sweep.size(); i++) {
+            html.append("<th>" + sweep.capacity(i) + " (" + sweep.throttledBuckets(i) + " throttled)</th>");
+        }
+        html.append("</tr>");
+        for (int b = 0; b < sweep.buckets().size(); b++) {
+            ScheduleBucket bucket = sweep.buckets().get(b);
+            html.append("<tr>");
+            html.append("<td>" + bucket.getHourFormatted() + " PT</td>");
+            html.append("<td>" + bucket.totalDemand() + "</td>");
+            for (int i = 0; i < sweep.size(); i++) {
+                ScheduleBucket swept = sweep.schedule(i).get(b);
+                String cellClass = swept.isAnyThrottled() ? "unmet" : "";
+                html.append("<td class='" + cellClass + "'>" + swept.totalAllocated() + "</td>");
+            }
+            html.append("</tr>");
+        }
+        html.append("</table></div></div>");
+
+        html.append("<div class='card'><div class='table-container'><table>");
+        html.append("<tr><th>Hour</th><th>Minimum Capacity</th></tr>");
+        for (Map.Entry<Integer, Integer> hour : sweep.minimumCapacityByHour().entrySet()) {
+            html.append("<tr><td>" + String.format("%02d:00", hour.getKey()) + " PT</td><td>" + hour.getValue() + "</td></tr>");
+        }
+        html.append("</table></div></div>");
+
+        html.append("</div></body></html>");
+        return html.toString();
+    }
+
+    /**
+     * One row per bucket with the agents allocated and required under each scenario, marked where
+     * someone is throttled. Demand differs between utilizations, so each cell shows both.
+     */
+    String generateScenariosHtml(Scenarios scenarios) {
+        StringBuilder html = new StringBuilder();
+        appendHead(html);
+        html.append("<h1>Scenarios</h1>");
+
+        html.append("<div class='card'><div class='table-container'><table>");
+        html.append("<tr><th>Time</th>");
+        for (int i = 0; i < scenarios.size(); i++) {
+            Scenarios.Scenario scenario = scenarios.scenario(i);
+            String capacity = scenario.capacity() > 0 ? String.valueOf(scenario.capacity()) : "unlimited";
+            html.append("<th>" + Math.round(scenario.utilization() * 100) + "% / " + capacity + " (" + scenarios.throttledBuckets(i) + " throttled)</th>");
+        }
+        html.append("</tr>");
+        for (int b = 0; b < scenarios.buckets().size(); b++) {
+            html.append("<tr>");
+            html.append("<td>" + scenarios.buckets().get(b).getHourFormatted() + " PT</td>");
+            for (int i = 0; i < scenarios.size(); i++) {
+                ScheduleBucket bucket = scenarios.schedule(i).get(b);
+                String cellClass = bucket.isAnyThrottled() ? "unmet" : "";
+                html.append("<td class='" + cellClass + "'>" + bucket.totalAllocated() + " / " + bucket.totalDemand() + "</td>");
+            }
+            html.append("</tr>");
+        }
+        html.append("</table></div></div>");
+
+        html.append("</div></body></html>");
+        return html.toString();
+    }
+
+    private void appendHead(StringBuilder html) {
+        html.append("<!DOCTYPE html><html><head><title>Control Plane Scheduler</title>");
+        html.append("<style>");
+        html.append("body { font-family: 'Inter', sans-serif; background: #F8FAFC; color: #1E293B; padding: 40px; }");
+        html.append(".container { max-width: 1000px; margin: 0 auto; }");
+        html.append("h1 { color: " + BASE_BLUE + "; font-weight: 800; }");
+        html.append(".card { background: white; border: 1px solid #E2E8F0; border-radius: 12px; margin-bottom: 12px; transition: 0.2s; }");
+        html.append(".card:hover { box-shadow: 0 10px 15px -3px rgba(0,0,0,0.1); }");
+        html.append("summary { padding: 20px; cursor: pointer; display: flex; justify-content: space-between; align-items: center; list-style: none; }");
+        html.append(".badge { padding: 4px 12px; border-radius: 99px; font-size: 12px; font-weight: 600; }");
+        html.append(".badge-ok { background: #DCFCE7; color: " + BASE_GREEN + "; }");
+        html.append(".badge-warn { background: #FEE2E2; color: #EF4444; }");
+        html.append(".table-container { padding: 0 20px 20px; border-top: 1px solid #F1F5F9; }");
+        html.append("table { width: 100%; border-collapse: collapse; margin-top: 15px; }");
+        html.append("th { text-align: left; font-size: 13px; color: #64748B; border-bottom: 2px solid #F1F5F9; padding-bottom: 8px; }");
+        html.append("td { padding: 12px 0; border-bottom: 1px solid #F8FAFC; font-size: 14px; }");
+        html.append(".unmet { color: #EF4444; font-weight: bold; }");
+        html.append("</style></head><body><div class='container'>");
+    }
+
     private boolean saveToFile(String html, String filename) {
         try {
             Path path = Paths.get(filename);
@@ -0,0 +1,53 @@
+package com.example.demo;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * One {@link DemandCombiner} per map worker thread.
+ *
+ * A worker only ever touches its own combiner, so the map phase shares no locks or monitors.
+ * Each combiner is registered once, when its thread first asks for it, and all of them are
+ * merged by {@link #merge()} after the map phase has finished.
+ */
+public class WorkerCombiners {
+
+    private final TimeBuckets buckets;
+    private final List<DemandCombiner> all = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<DemandCombiner> local;
+
+    public WorkerCombiners(TimeBuckets buckets) {
+        this.buckets = buckets;
+        this.local = ThreadLocal.withInitial(this::register);
+    }
+
+    /** The calling thread's combiner. */
+    public DemandCombiner local() {
+        return local.get();
+    }
+
+    /** Number of workers that have asked for a combiner. */
+    public int workers() {
+        return all.size();
+    }
+
+    /**
+     * Folds every worker's combiner into one. Must only be called once no worker is adding any
+     * more, e.g. after the map executor's tasks have been joined. Threads keep their old
+     * combiner afterwards, so an instance serves a single map phase.
+     */
+    public DemandCombiner merge() {
+        DemandCombiner merged = new DemandCombiner(buckets);
+        for (DemandCombiner combiner : all) {
+            merged.addAll(combiner);
+        }
+        all.clear();
+        return merged;
+    }
+
+    private DemandCombiner register() {
+        DemandCombiner combiner = new DemandCombiner(buckets);
+        all.add(combiner);
+        return combiner;
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.demo;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded hand-off of framed blocks from the threads appending to a {@link SegmentStore} to its
+ * writer threads.
+ *
+ * An appending thread frames its block straight into a direct buffer from
+ * {@link #acquire(int)}, so nothing is copied when the block changes hands. Buffers come from a
+ * pool of power-of-two sizes and count against a byte budget until the writer hands them back
+ * with {@link #release(ByteBuffer, IOException)}; an appending thread only waits when the
+ * writers have fallen a whole budget behind. {@link #await()} waits for every buffer handed out
+ * to come back and rethrows the first write that failed.
+ */
+public class WriteQueue {
+
+    private static final int MIN_BUFFER_BYTES = 4 * 1024;
+    // The budget is a semaphore of kilobytes so that budgets past 2 GB still fit in an int.
+    private static final int PERMIT_BYTES = 1024;
+
+    private final long budgetBytes;
+    private final int permits;
+    private final Semaphore budget;
+    // Idle buffers by log2 of their capacity.
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> pool = new ArrayList<>(Integer.SIZE);
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong peakQueuedBytes = new AtomicLong();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final Object idle = new Object();
+    private volatile IOException failure;
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public WriteQueue(long budgetBytes) {
+        Preconditions.checkArgument(budgetBytes > 0, "Write queue budget must be positive");
+        this.budgetBytes = budgetBytes;
+        this.permits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / PERMIT_BYTES));
+        this.budget = new Semaphore(permits);
+        for (int i = 0; i < Integer.SIZE; i++) {
+            pool.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Returns a cleared direct buffer limited to {@code size} bytes, waiting while the buffers
+     * not yet written use up the budget. The buffer must come back through
+     * {@link #release(ByteBuffer, IOException)}.
+     */
+    public ByteBuffer acquire(int size) throws IOException {
+        int capacity = capacityFor(size);
+        int needed = permitsFor(capacity);
+        if (!budget.tryAcquire(needed)) {
+            long start = System.nanoTime();
+            try {
+                budget.acquire(needed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the segment writers", e);
+            }
+            waits.increment();
+            waitNanos.add(System.nanoTime() - start);
+        }
+        outstanding.incrementAndGet();
+        peakQueuedBytes.accumulateAndGet(queuedBytes.addAndGet(capacity), Math::max);
+        ByteBuffer buffer = pool.get(classOf(capacity)).poll();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-capacity);
+        } else {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Hands a buffer back once its block is written, or could not be, and returns it to the pool
+     * while idle buffers take less than the budget.
+     */
+    public void release(ByteBuffer buffer, IOException error) {
+        if (error != null && failure == null) {
+            failure = error;
+        }
+        int capacity = buffer.capacity();
+        queuedBytes.addAndGet(-capacity);
+        budget.release(permitsFor(capacity));
+        if (pooledBytes.addAndGet(capacity) <= budgetBytes) {
+            pool.get(classOf(capacity)).offer(buffer);
+        } else {
+            pooledBytes.addAndGet(-capacity);
+        }
+        if (outstanding.decrementAndGet() == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    /** Counts one gathering write of {@code count} blocks. */
+    public void gathered(int count) {
+        writes.increment();
+        blocks.add(count);
+    }
+
+    /** Waits until every acquired buffer has been released, then rethrows the first failure. */
+    public void await() throws IOException {
+        awaitIdle();
+        if (failure != null) {
+            throw new IOException("A queued segment write failed", failure);
+        }
+    }
+
+    /** Waits until every acquired buffer has been released. */
+    public void awaitIdle() throws IOException {
+        if (outstanding.get() == 0) {
+            return;
+        }
+        synchronized (idle) {
+            while (outstanding.get() > 0) {
+                try {
+                    idle.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the segment writers", e);
+                }
+            }
+        }
+    }
+
+    long blocksWritten() {
+        return blocks.sum();
+    }
+
+    long gatheredWrites() {
+        return writes.sum();
+    }
+
+    long peakQueuedBytes() {
+        return peakQueuedBytes.get();
+    }
+
+    public String summary() {
+        return "queue " + megabytes(budgetBytes) + ", " + blocks.sum() + " blocks in " + writes.sum()
+            + " gathered writes, peak " + megabytes(peakQueuedBytes.get()) + " queued, producers waited " + waits.sum()
+            + " times (" + waitNanos.sum() / 1_000_000 + " ms)";
+    }
+
+    private int permitsFor(int capacity) {
+        return Math.min(permits, (capacity + PERMIT_BYTES - 1) / PERMIT_BYTES);
+    }
+
+    private static int capacityFor(int size) {
+        Preconditions.checkArgument(size <= 1 << 30, "Block of %s bytes is too large to queue", size);
+        return Math.max(MIN_BUFFER_BYTES, Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+    }
+
+    private static int classOf(int capacity) {
+        return Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
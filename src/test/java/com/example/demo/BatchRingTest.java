@@ -0,0 +1,101 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.demo.Constants.WaitStrategy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class BatchRingTest {
+
+    private static final CustomerDictionary CUSTOMERS = new CustomerDictionary();
+    private static final int CUSTOMER = CUSTOMERS.idOf("A");
+
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    void testRing_EveryBatchProcessedOnce(WaitStrategy waitStrategy) throws Exception {
+        BatchRing ring = new BatchRing(4, 1, waitStrategy);
+        AtomicLong sum = new AtomicLong();
+        AtomicLong batches = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<CompletableFuture<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                workers.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        long sequence;
+                        while ((sequence = ring.claim()) >= 0) {
+                            sum.addAndGet(ring.get(sequence).calls(0));
+                            batches.incrementAndGet();
+                            ring.release(sequence);
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, executor));
+            }
+            for (int i = 1; i <= 1000; i++) {
+                ring.next().add(CUSTOMER, i, 1, 1, 0, 60);
+                ring.publish();
+            }
+            ring.close();
+            CompletableFuture.allOf(workers.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1000, batches.get());
+        assertEquals(1000L * 1001 / 2, sum.get());
+        assertEquals(1000, ring.published());
+        assertEquals(0, ring.depth());
+        assertTrue(ring.maxDepth() <= ring.capacity());
+    }
+
+    @Test
+    void testNext_WaitsForSlotToBeReleased() throws Exception {
+        BatchRing ring = new BatchRing(2, 1, WaitStrategy.BLOCKING);
+        RequestBatch first = ring.next();
+        ring.publish();
+        ring.next();
+        ring.publish();
+        assertEquals(2, ring.depth());
+
+        CompletableFuture<RequestBatch> third = CompletableFuture.supplyAsync(() -> {
+            try {
+                return ring.next();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> third.get(100, TimeUnit.MILLISECONDS));
+
+        long sequence = ring.claim();
+        ring.release(sequence);
+
+        assertSame(first, third.get(5, TimeUnit.SECONDS));
+        assertEquals(1, ring.depth());
+    }
+
+    @Test
+    void testClaim_ReturnsMinusOneOnceClosedAndDrained() throws Exception {
+        BatchRing ring = new BatchRing(2, 1, WaitStrategy.BLOCKING);
+        ring.next();
+        ring.publish();
+        ring.close();
+
+        assertEquals(0, ring.claim());
+        assertEquals(-1, ring.claim());
+    }
+}
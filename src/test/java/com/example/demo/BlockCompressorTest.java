@@ -0,0 +1,104 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class BlockCompressorTest {
+
+    private final BlockCompressor compressor = new BlockCompressor(new DeflateCodec());
+
+    @Test
+    void testCompress_RepetitiveBlockShrinksAndRoundTrips() throws IOException {
+        byte[] raw = new byte[10000];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = (byte) (i % 10);
+        }
+
+        ByteBuffer frame = compress(raw);
+        BlockCompressor.Frame header = BlockCompressor.readFrame(frame, frame.remaining() - BlockCompressor.FRAME_HEADER_BYTES);
+
+        assertTrue(header.isCompressed());
+        assertTrue(header.storedBytes() < raw.length / 10, "stored " + header.storedBytes());
+        assertArrayEquals(raw, decompress(header, frame));
+    }
+
+    @Test
+    void testCompress_IncompressibleBlockIsStoredAsIs() throws IOException {
+        byte[] raw = new byte[1000];
+        new Random(42).nextBytes(raw);
+
+        ByteBuffer frame = compress(raw);
+        BlockCompressor.Frame header = BlockCompressor.readFrame(frame, frame.remaining() - BlockCompressor.FRAME_HEADER_BYTES);
+
+        assertFalse(header.isCompressed());
+        assertEquals(raw.length, header.storedBytes());
+        assertArrayEquals(raw, decompress(header, frame));
+    }
+
+    @Test
+    void testReadFrame_RejectsImpossibleSizes() {
+        assertThrows(IOException.class, () -> BlockCompressor.readFrame(frameHeader(0, 0), 100));
+        assertThrows(IOException.class, () -> BlockCompressor.readFrame(frameHeader(10, 20), 100));
+        assertThrows(IOException.class, () -> BlockCompressor.readFrame(frameHeader(500, 200), 100));
+    }
+
+    @Test
+    void testDecompress_TruncatedBlockFails() throws IOException {
+        byte[] raw = new byte[10000];
+        ByteBuffer frame = compress(raw);
+        BlockCompressor.Frame header = BlockCompressor.readFrame(frame, frame.remaining() - BlockCompressor.FRAME_HEADER_BYTES);
+        BlockCompressor.Frame claimed = new BlockCompressor.Frame(header.rawBytes(), header.storedBytes() / 2);
+        ByteBuffer stored = frame.slice().limit(claimed.storedBytes());
+
+        assertThrows(IOException.class, () -> compressor.decompress(claimed, stored, ByteBuffer.allocate(raw.length)));
+    }
+
+    @Test
+    void testStreams_RoundTripAcrossBlocks() throws IOException {
+        byte[] raw = new byte[3 * BlockCompressor.STREAM_BLOCK_BYTES + 123];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = (byte) (i / 100);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = compressor.outputStream(bytes)) {
+            out.write(raw, 0, 10);
+            out.write(raw[10]);
+            out.write(raw, 11, raw.length - 11);
+        }
+
+        assertTrue(bytes.size() < raw.length / 10, "wrote " + bytes.size());
+        try (InputStream in = compressor.inputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertArrayEquals(raw, in.readAllBytes());
+        }
+        assertTrue(compressor.summary().startsWith("deflate-1: "), compressor.summary());
+    }
+
+    private ByteBuffer compress(byte[] raw) {
+        ByteBuffer frame = ByteBuffer.allocate(BlockCompressor.maxFrameSize(raw.length));
+        compressor.compress(ByteBuffer.wrap(raw), frame);
+        return frame.flip();
+    }
+
+    private byte[] decompress(BlockCompressor.Frame header, ByteBuffer stored) throws IOException {
+        ByteBuffer block = compressor.decompress(header, stored.slice(), ByteBuffer.allocate(header.rawBytes()));
+        byte[] result = new byte[block.remaining()];
+        block.get(result);
+        return result;
+    }
+
+    private static ByteBuffer frameHeader(int rawBytes, int storedBytes) {
+        return ByteBuffer.allocate(BlockCompressor.FRAME_HEADER_BYTES).putInt(rawBytes).putInt(storedBytes).flip();
+    }
+}
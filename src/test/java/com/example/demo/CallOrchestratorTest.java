@@ -2,22 +2,40 @@ package com.example.demo;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.example.demo.Constants.CombineMode;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.jupiter.api.Test;
 
 class CallOrchestratorTest {
 
+    private final CustomerDictionary customers = new CustomerDictionary();
+
     @Test
     void testCalculateSchedule_NoRequests() {
-        Storage storage = mock(Storage.class);
+        Storage storage = mock(Storage.class, CALLS_REAL_METHODS);
         when(storage.fetchInterMediateData(10)).thenReturn(Collections.emptyList());
         
-        CallOrchestrator orchestrator = new CallOrchestrator(storage, 100);
+        CallOrchestrator orchestrator = new CallOrchestrator(storage, 100, customers);
         ScheduleBucket bucket = orchestrator.calculateSchedule(10);
         
         assertTrue(bucket.isEmpty());
@@ -26,14 +44,14 @@ class CallOrchestratorTest {
 
     @Test
     void testCalculateSchedule_InfiniteCapacity() {
-        Storage storage = mock(Storage.class);
+        Storage storage = mock(Storage.class, CALLS_REAL_METHODS);
         List<AllocationRequest> requests = new ArrayList<>(List.of(
-            new AllocationRequest("A", 10, 1),
-            new AllocationRequest("B", 20, 2)
+            new AllocationRequest(customers.idOf("A"), 10, 1),
+            new AllocationRequest(customers.idOf("B"), 20, 2)
         ));
         when(storage.fetchInterMediateData(10)).thenReturn(requests);
 
-        CallOrchestrator orchestrator = new CallOrchestrator(storage, 0); // 0 = infinite
+        CallOrchestrator orchestrator = new CallOrchestrator(storage, 0, customers); // 0 = infinite
         ScheduleBucket bucket = orchestrator.calculateSchedule(10);
 
         assertEquals(30, bucket.totalAgents());
@@ -43,14 +61,14 @@ class CallOrchestratorTest {
 
     @Test
     void testCalculateSchedule_SufficientCapacity() {
-        Storage storage = mock(Storage.class);
+        Storage storage = mock(Storage.class, CALLS_REAL_METHODS);
         List<AllocationRequest> requests = new ArrayList<>(List.of(
-            new AllocationRequest("A", 10, 1),
-            new AllocationRequest("B", 20, 2)
+            new AllocationRequest(customers.idOf("A"), 10, 1),
+            new AllocationRequest(customers.idOf("B"), 20, 2)
         ));
         when(storage.fetchInterMediateData(10)).thenReturn(requests);
 
-        CallOrchestrator orchestrator = new CallOrchestrator(storage, 50);
+        CallOrchestrator orchestrator = new CallOrchestrator(storage, 50, customers);
         ScheduleBucket bucket = orchestrator.calculateSchedule(10);
 
         assertEquals(30, bucket.totalAgents());
@@ -60,17 +78,17 @@ class CallOrchestratorTest {
 
     @Test
     void testCalculateSchedule_PriorityEnforcement() {
-        Storage storage = mock(Storage.class);
+        Storage storage = mock(Storage.class, CALLS_REAL_METHODS);
         // Priority 1 (High), Priority 2 (Low)
         // Total demand: 10 (P1) + 20 (P2) = 30. Capacity = 20.
         // P1 should get 10. Remaining 10. P2 needs 20, gets 10.
         List<AllocationRequest> requests = new ArrayList<>(List.of(
-            new AllocationRequest("HighPrio", 10, 1),
-            new AllocationRequest("LowPrio", 20, 2)
+            new AllocationRequest(customers.idOf("HighPrio"), 10, 1),
+            new AllocationRequest(customers.idOf("LowPrio"), 20, 2)
         ));
         when(storage.fetchInterMediateData(10)).thenReturn(requests);
 
-        CallOrchestrator orchestrator = new CallOrchestrator(storage, 20);
+        CallOrchestrator orchestrator = new CallOrchestrator(storage, 20, customers);
         ScheduleBucket bucket = orchestrator.calculateSchedule(10);
 
         assertEquals(20, bucket.totalAgents());
@@ -84,20 +102,20 @@ class CallOrchestratorTest {
 
     @Test
     void testCalculateSchedule_FairShareWithRounding() {
-        Storage storage = mock(Storage.class);
+        Storage storage = mock(Storage.class, CALLS_REAL_METHODS);
         // Capacity 10.
         // A: 10, B: 11, C: 12. Total 33.
         // Ratio 10/33 ~= 0.303.
         // A: 3, B: 3, C: 3. Total 9. Leftover 1.
         // C is largest (12), so C gets +1 -> 4.
         List<AllocationRequest> requests = new ArrayList<>(List.of(
-            new AllocationRequest("A", 10, 1),
-            new AllocationRequest("B", 11, 1),
-            new AllocationRequest("C", 12, 1)
+            new AllocationRequest(customers.idOf("A"), 10, 1),
+            new AllocationRequest(customers.idOf("B"), 11, 1),
+            new AllocationRequest(customers.idOf("C"), 12, 1)
         ));
         when(storage.fetchInterMediateData(10)).thenReturn(requests);
 
-        CallOrchestrator orchestrator = new CallOrchestrator(storage, 10);
+        CallOrchestrator orchestrator = new CallOrchestrator(storage, 10, customers);
         ScheduleBucket bucket = orchestrator.calculateSchedule(10);
 
         assertEquals(10, bucket.totalAgents());
@@ -113,18 +131,468 @@ class CallOrchestratorTest {
 
     @Test
     void testCalculateSchedule_DuplicateCustomers() {
-        Storage storage = mock(Storage.class);
+        Storage storage = mock(Storage.class, CALLS_REAL_METHODS);
         // Customer A has two requests: 10 and 20. Total 30.
         List<AllocationRequest> requests = new ArrayList<>(List.of(
-            new AllocationRequest("A", 10, 1),
-            new AllocationRequest("A", 20, 1)
+            new AllocationRequest(customers.idOf("A"), 10, 1),
+            new AllocationRequest(customers.idOf("A"), 20, 1)
         ));
         when(storage.fetchInterMediateData(10)).thenReturn(requests);
 
-        CallOrchestrator orchestrator = new CallOrchestrator(storage, 0); // Infinite
+        CallOrchestrator orchestrator = new CallOrchestrator(storage, 0, customers); // Infinite
         ScheduleBucket bucket = orchestrator.calculateSchedule(10);
 
         assertEquals(30, bucket.totalAgents());
         assertEquals(30, bucket.allocations().get("A"));
     }
+
+    @Test
+    void testCalculateSchedule_CombinedRequestsMatchExpanded() {
+        // A has three identical requests of 3 agents. Capacity 5 on demand 12 -> ratio 5/12.
+        // Each copy floors to 1 (loss 0.25), B floors 3*5/12 = 1.25 to 1 (loss 0.25).
+        // Leftover 1 goes to the first entry in loss order.
+        List<AllocationRequest> expanded = new ArrayList<>(List.of(
+            new AllocationRequest(customers.idOf("A"), 3, 1),
+            new AllocationRequest(customers.idOf("A"), 3, 1),
+            new AllocationRequest(customers.idOf("A"), 3, 1),
+            new AllocationRequest(customers.idOf("B"), 3, 1)
+        ));
+        List<AllocationRequest> combined = new ArrayList<>(List.of(
+            new AllocationRequest(customers.idOf("A"), 3, 1, 3),
+            new AllocationRequest(customers.idOf("B"), 3, 1)
+        ));
+        Storage expandedStorage = mock(Storage.class, CALLS_REAL_METHODS);
+        when(expandedStorage.fetchInterMediateData(10)).thenReturn(expanded);
+        Storage combinedStorage = mock(Storage.class, CALLS_REAL_METHODS);
+        when(combinedStorage.fetchInterMediateData(10)).thenReturn(combined);
+
+        ScheduleBucket expectedBucket = new CallOrchestrator(expandedStorage, 5, customers).calculateSchedule(10);
+        ScheduleBucket bucket = new CallOrchestrator(combinedStorage, 5, customers).calculateSchedule(10);
+
+        assertEquals(expectedBucket, bucket);
+        assertEquals(4, bucket.allocations().get("A"));
+        assertEquals(1, bucket.allocations().get("B"));
+        assertEquals(9, bucket.demands().get("A"));
+    }
+
+    @Test
+    void testCalculateSchedule_StreamsFromStorage() {
+        Storage storage = mock(Storage.class);
+        doAnswer(invocation -> {
+            RequestVisitor visitor = invocation.getArgument(1);
+            visitor.visit(customers.idOf("A"), 10, 1, 1, TimeBuckets.WHOLE_HOUR, 0, 0);
+            visitor.visit(customers.idOf("B"), 20, 2, 1, TimeBuckets.WHOLE_HOUR, 0, 0);
+            return null;
+        }).when(storage).forEachIntermediateData(eq(10), any());
+
+        ScheduleBucket bucket = new CallOrchestrator(storage, 20, customers).calculateSchedule(10);
+
+        assertEquals(20, bucket.totalAgents());
+        assertEquals(10, bucket.allocations().get("B"));
+        verify(storage, never()).fetchInterMediateData(anyInt());
+    }
+
+    @Test
+    void testCalculateSchedule_InfiniteCapacityOrdersByBestPriority() {
+        Storage storage = mock(Storage.class, CALLS_REAL_METHODS);
+        when(storage.fetchInterMediateData(10)).thenReturn(List.of(
+            new AllocationRequest(customers.idOf("B"), 1, 2),
+            new AllocationRequest(customers.idOf("C"), 1, 3),
+            new AllocationRequest(customers.idOf("A"), 1, 1),
+            new AllocationRequest(customers.idOf("B"), 1, 1)
+        ));
+
+        ScheduleBucket bucket = new CallOrchestrator(storage, 0, customers).calculateSchedule(10);
+
+        // Same as a stable sort by priority: A and B at priority 1 in arrival order, then C.
+        assertEquals(List.of("A", "B", "C"), new ArrayList<>(bucket.allocations().keySet()));
+        assertEquals(2, bucket.allocations().get("B"));
+        assertEquals(2, bucket.priorityMap().get("B"));
+    }
+
+    @Test
+    void testCalculateSchedule_TiedLeftoversGoInArrivalOrder() {
+        // Eight 1-agent requests tie on loss 0.5 at capacity 4; A's six copies arrived first.
+        Storage storage = mock(Storage.class, CALLS_REAL_METHODS);
+        when(storage.fetchInterMediateData(10)).thenReturn(new ArrayList<>(List.of(
+            new AllocationRequest(customers.idOf("A"), 1, 1, 6),
+            new AllocationRequest(customers.idOf("B"), 1, 1, 2)
+        )));
+
+        ScheduleBucket bucket = new CallOrchestrator(storage, 4, customers).calculateSchedule(10);
+
+        assertEquals(4, bucket.totalAgents());
+        assertEquals(4, bucket.allocations().get("A"));
+        assertEquals(0, bucket.allocations().get("B"));
+    }
+
+    @Test
+    void testCalculateSchedule_TiedLeftoverGoesToTheFirstRowCombinedOrNot() {
+        // One batch of rows B, A, A, one agent each at the same priority: the one agent goes to B.
+        for (CombineMode mode : new CombineMode[] {CombineMode.NONE, CombineMode.BATCH}) {
+            PartitionedStorage storage = new PartitionedStorage(new InMemoryStorage(), TimeBuckets.HOURLY);
+            RequestBatch batch = new RequestBatch(3);
+            for (String customer : List.of("B", "A", "A")) {
+                batch.add(customers.idOf(customer), 10, 360, 1, 600, 660);
+            }
+            new RequestProcessor(storage, 1.0f, mode, null).processBatch(batch);
+
+            ScheduleBucket bucket = new CallOrchestrator(storage, 1, customers).calculateSchedule(10);
+
+            assertEquals(1, bucket.allocations().get("B"), mode.name());
+            assertEquals(0, bucket.allocations().get("A"), mode.name());
+        }
+    }
+
+    @Test
+    void testCalculateSchedule_MatchesSplittingRequestByRequest() {
+        Random random = new Random(29);
+        for (int trial = 0; trial < 300; trial++) {
+            InMemoryStorage plain = new InMemoryStorage();
+            PartitionedStorage partitioned = new PartitionedStorage(new InMemoryStorage(), TimeBuckets.HOURLY);
+            List<AllocationRequest> stored = new ArrayList<>();
+            for (int batch = 0; batch < 1 + random.nextInt(4); batch++) {
+                List<AllocationRequest> requests = new ArrayList<>();
+                for (int i = 0; i < 1 + random.nextInt(30); i++) {
+                    // Few customers and agent values, so a customer's copies interleave and tie.
+                    requests.add(new AllocationRequest(customers.idOf("C" + random.nextInt(6)), 1 + random.nextInt(3), 1 + random.nextInt(2), 1 + random.nextInt(2)));
+                }
+                plain.storeIntermediateData(6, requests);
+                partitioned.storeIntermediateData(6, requests);
+                stored.addAll(requests);
+            }
+            for (int capacity : new int[] {1 + random.nextInt(20), 1 + random.nextInt(80)}) {
+                Map<String, Integer> expected = splitRequestByRequest(stored, capacity);
+
+                for (Storage storage : List.of(plain, partitioned)) {
+                    ScheduleBucket bucket = new CallOrchestrator(storage, capacity, customers).calculateSchedule(6);
+                    ScheduleBucket swept = new CallOrchestrator(storage, 0, customers).calculateSchedules(6, new int[] {capacity}).get(0);
+
+                    assertEquals(expected, bucket.allocations(), "trial " + trial + ", capacity " + capacity);
+                    assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(bucket.allocations().keySet()));
+                    assertEquals(expected, swept.allocations(), "trial " + trial + ", capacity " + capacity);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testCalculateSchedule_FromTotalsMatchesStreamedBucket() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 200; trial++) {
+            InMemoryStorage plain = new InMemoryStorage();
+            PartitionedStorage partitioned = new PartitionedStorage(new InMemoryStorage(), TimeBuckets.HOURLY);
+            for (int batch = 0; batch < 1 + random.nextInt(4); batch++) {
+                List<AllocationRequest> requests = new ArrayList<>();
+                for (int i = 0; i < 1 + random.nextInt(30); i++) {
+                    requests.add(new AllocationRequest(customers.idOf("C" + random.nextInt(12)), 1 + random.nextInt(20), 1 + random.nextInt(4), 1 + random.nextInt(3)));
+                }
+                plain.storeIntermediateData(6, requests);
+                partitioned.storeIntermediateData(6, requests);
+            }
+            for (int capacity : new int[] {0, 1 + random.nextInt(100), 1 + random.nextInt(1000)}) {
+                ScheduleBucket expected = new CallOrchestrator(plain, capacity, customers).calculateSchedule(6);
+                ScheduleBucket bucket = new CallOrchestrator(partitioned, capacity, customers).calculateSchedule(6);
+
+                assertEquals(expected, bucket, "trial " + trial + ", capacity " + capacity);
+                assertEquals(new ArrayList<>(expected.allocations().keySet()), new ArrayList<>(bucket.allocations().keySet()));
+                assertEquals(new ArrayList<>(expected.demands().keySet()), new ArrayList<>(bucket.demands().keySet()));
+                assertEquals(new ArrayList<>(expected.priorityMap().keySet()), new ArrayList<>(bucket.priorityMap().keySet()));
+            }
+        }
+    }
+
+    @Test
+    void testCalculateHour_SweepsSpansLikeBucketsStoredApart() {
+        Random random = new Random(31);
+        TimeBuckets quarters = new TimeBuckets(15);
+        int first = quarters.firstOf(6);
+        for (int trial = 0; trial < 100; trial++) {
+            InMemoryStorage plain = new InMemoryStorage();
+            PartitionedStorage partitioned = new PartitionedStorage(new InMemoryStorage(), quarters);
+            // Each bucket's requests stored on their own, as a whole hour.
+            List<InMemoryStorage> apart = new ArrayList<>();
+            for (int offset = 0; offset < quarters.perHour(); offset++) {
+                apart.add(new InMemoryStorage());
+            }
+            // Rows start in hours 5 and 6 and reach as far as hour 7, each stored once under its starting hour.
+            long arrival = 0;
+            for (int batch = 0; batch < 1 + random.nextInt(4); batch++) {
+                Map<Integer, List<AllocationRequest>> byHour = new TreeMap<>();
+                List<List<AllocationRequest>> active = new ArrayList<>();
+                for (int offset = 0; offset < quarters.perHour(); offset++) {
+                    active.add(new ArrayList<>());
+                }
+                for (int i = 0; i < 1 + random.nextInt(30); i++) {
+                    int start = quarters.firstOf(5) + random.nextInt(2 * quarters.perHour());
+                    int end = start + 1 + random.nextInt(quarters.firstOf(8) - start);
+                    int stored = start - start % quarters.perHour();
+                    int customerId = customers.idOf("C" + random.nextInt(12));
+                    int agents = 1 + random.nextInt(20);
+                    int priority = 1 + random.nextInt(4);
+                    int count = 1 + random.nextInt(3);
+                    byHour.computeIfAbsent(stored, k -> new ArrayList<>()).add(
+                        new AllocationRequest(customerId, agents, priority, count, quarters.span(start - stored, end - stored), arrival, arrival));
+                    for (int offset = 0; offset < quarters.perHour(); offset++) {
+                        if (start <= first + offset && first + offset < end) {
+                            active.get(offset).add(new AllocationRequest(customerId, agents, priority, count, TimeBuckets.WHOLE_HOUR, arrival, arrival));
+                        }
+                    }
+                    arrival++;
+                }
+                for (Map.Entry<Integer, List<AllocationRequest>> hour : byHour.entrySet()) {
+                    plain.storeIntermediateData(hour.getKey(), hour.getValue());
+                    partitioned.storeIntermediateData(hour.getKey(), hour.getValue());
+                }
+                for (int offset = 0; offset < quarters.perHour(); offset++) {
+                    if (!active.get(offset).isEmpty()) {
+                        apart.get(offset).storeIntermediateData(6, active.get(offset));
+                    }
+                }
+            }
+            int[] capacities = {1 + random.nextInt(100), 1 + random.nextInt(1000)};
+            for (Storage storage : List.of(plain, partitioned)) {
+                for (int capacity : new int[] {0, capacities[0], capacities[1]}) {
+                    List<ScheduleBucket> hour = new CallOrchestrator(storage, capacity, quarters, customers).calculateHour(6);
+                    List<ScheduleBucket> day = new CallOrchestrator(storage, capacity, quarters, customers).calculateDay();
+                    for (int offset = 0; offset < quarters.perHour(); offset++) {
+                        ScheduleBucket expected = atMinute(new CallOrchestrator(apart.get(offset), capacity, customers).calculateSchedule(6), offset * 15);
+                        assertSameBucket(expected, hour.get(offset));
+                        assertSameBucket(expected, day.get(first + offset));
+                        assertSameBucket(expected, new CallOrchestrator(storage, capacity, quarters, customers).calculateSchedule(first + offset));
+                    }
+                }
+                List<List<ScheduleBucket>> sweep = new CallOrchestrator(storage, 0, quarters, customers).calculateHourSchedules(6, capacities);
+                for (int offset = 0; offset < quarters.perHour(); offset++) {
+                    List<ScheduleBucket> expected = new CallOrchestrator(apart.get(offset), 0, customers).calculateSchedules(6, capacities);
+                    for (int c = 0; c < capacities.length; c++) {
+                        assertSameBucket(atMinute(expected.get(c), offset * 15), sweep.get(offset).get(c));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testCalculateSchedule_FromTotalsReadsOnlyTheTierThatIsCut() {
+        Storage storage = mock(Storage.class);
+        PartitionedStorage partitioned = new PartitionedStorage(storage, TimeBuckets.HOURLY);
+        partitioned.storeIntermediateData(10, List.of(
+            new AllocationRequest(customers.idOf("A"), 10, 1),
+            new AllocationRequest(customers.idOf("B"), 10, 2),
+            new AllocationRequest(customers.idOf("C"), 10, 3)
+        ));
+        doAnswer(invocation -> {
+            RequestVisitor visitor = invocation.getArgument(2);
+            visitor.visit(customers.idOf("B"), 10, 2, 1, TimeBuckets.WHOLE_HOUR, 0, 0);
+            return null;
+        }).when(storage).forEachIntermediateData(eq(10), eq(2), any());
+
+        ScheduleBucket bucket = new CallOrchestrator(partitioned, 15, customers).calculateSchedule(10);
+
+        assertEquals(15, bucket.totalAgents());
+        assertEquals(10, bucket.allocations().get("A"));
+        assertEquals(5, bucket.allocations().get("B"));
+        assertEquals(10, bucket.demands().get("C"));
+        verify(storage, never()).forEachIntermediateData(eq(10), eq(1), any());
+        verify(storage, never()).forEachIntermediateData(eq(10), eq(3), any());
+        verify(storage, never()).forEachIntermediateData(anyInt(), any(RequestVisitor.class));
+    }
+
+    @Test
+    void testCalculateSchedules_MatchesOneCapacityAtATime() {
+        Random random = new Random(11);
+        for (int trial = 0; trial < 100; trial++) {
+            InMemoryStorage plain = new InMemoryStorage();
+            PartitionedStorage partitioned = new PartitionedStorage(new InMemoryStorage(), TimeBuckets.HOURLY);
+            List<AllocationRequest> requests = new ArrayList<>();
+            for (int i = 0; i < 1 + random.nextInt(40); i++) {
+                requests.add(new AllocationRequest(customers.idOf("C" + random.nextInt(10)), 1 + random.nextInt(20), 1 + random.nextInt(4), 1 + random.nextInt(3)));
+            }
+            plain.storeIntermediateData(6, requests);
+            partitioned.storeIntermediateData(6, requests);
+            int[] capacities = {1 + random.nextInt(800), 1 + random.nextInt(50), 1 + random.nextInt(300), 1 + random.nextInt(50)};
+
+            // Without totals the bucket is streamed; with them only the cut tiers are read.
+            for (Storage storage : List.of(plain, partitioned)) {
+                List<ScheduleBucket> schedules = new CallOrchestrator(storage, 0, customers).calculateSchedules(6, capacities);
+
+                for (int i = 0; i < capacities.length; i++) {
+                    ScheduleBucket expected = new CallOrchestrator(plain, capacities[i], customers).calculateSchedule(6);
+                    assertEquals(expected, schedules.get(i), "trial " + trial + ", capacity " + capacities[i]);
+                    assertEquals(new ArrayList<>(expected.allocations().keySet()), new ArrayList<>(schedules.get(i).allocations().keySet()));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testCalculateSchedules_ReadsEachCutTierOnce() {
+        Storage storage = spy(new InMemoryStorage());
+        PartitionedStorage partitioned = new PartitionedStorage(storage, TimeBuckets.HOURLY);
+        partitioned.storeIntermediateData(10, List.of(
+            new AllocationRequest(customers.idOf("A"), 10, 1),
+            new AllocationRequest(customers.idOf("B"), 10, 2),
+            new AllocationRequest(customers.idOf("C"), 10, 3)
+        ));
+
+        List<ScheduleBucket> schedules = new CallOrchestrator(partitioned, 0, customers).calculateSchedules(10, new int[] {14, 5, 12, 30});
+
+        assertEquals(List.of(14, 5, 12, 30), schedules.stream().map(ScheduleBucket::totalAgents).toList());
+        assertTrue(schedules.get(3).allocations().equals(schedules.get(3).demands()));
+        verify(storage, times(1)).forEachIntermediateData(eq(10), eq(1), any());
+        verify(storage, times(1)).forEachIntermediateData(eq(10), eq(2), any());
+        verify(storage, never()).forEachIntermediateData(eq(10), eq(3), any());
+    }
+
+    @Test
+    void testCalculateScenarios_MatchesRunsAtEachUtilization() {
+        Random random = new Random(17);
+        List<Scenarios.Scenario> scenarios = List.of(
+            new Scenarios.Scenario(0.7f, 40), new Scenarios.Scenario(0.9f, 0), new Scenarios.Scenario(0.7f, 0),
+            new Scenarios.Scenario(1.0f, 25), new Scenarios.Scenario(0.9f, 120), new Scenarios.Scenario(0.7f, 10));
+        for (int trial = 0; trial < 100; trial++) {
+            LoadDictionary loads = new LoadDictionary();
+            InMemoryStorage deferred = new InMemoryStorage();
+            List<String> names = new ArrayList<>();
+            List<double[]> rows = new ArrayList<>();
+            for (int i = 0; i < 1 + random.nextInt(40); i++) {
+                // Few distinct calls and durations, so loads repeat; customers change priority.
+                double load = (double) (10 * (1 + random.nextInt(5))) / (1 + random.nextInt(3)) * (60 * (1 + random.nextInt(4))) / 3600;
+                names.add("C" + random.nextInt(8));
+                rows.add(new double[] {load, 1 + random.nextInt(3), 1 + random.nextInt(3)});
+            }
+            List<AllocationRequest> stored = new ArrayList<>();
+            for (int i = 0; i < rows.size(); i++) {
+                // Each row arrives at its own offset, as parsed rows do.
+                stored.add(new AllocationRequest(customers.idOf(names.get(i)), loads.idOf(rows.get(i)[0]), (int) rows.get(i)[1],
+                    (int) rows.get(i)[2], TimeBuckets.WHOLE_HOUR, i, i));
+            }
+            deferred.storeIntermediateData(6, stored);
+
+            List<ScheduleBucket> schedules = new CallOrchestrator(deferred, 0, customers).calculateScenarios(6, loads, scenarios);
+
+            for (int s = 0; s < scenarios.size(); s++) {
+                Scenarios.Scenario scenario = scenarios.get(s);
+                InMemoryStorage applied = new InMemoryStorage();
+                List<AllocationRequest> requests = new ArrayList<>();
+                for (int i = 0; i < rows.size(); i++) {
+                    int agents = RequestProcessor.agents(rows.get(i)[0], scenario.utilization());
+                    requests.add(new AllocationRequest(customers.idOf(names.get(i)), agents, (int) rows.get(i)[1],
+                        (int) rows.get(i)[2], TimeBuckets.WHOLE_HOUR, i, i));
+                }
+                applied.storeIntermediateData(6, requests);
+                ScheduleBucket expected = new CallOrchestrator(applied, scenario.capacity(), customers).calculateSchedule(6);
+                assertEquals(expected, schedules.get(s), "trial " + trial + ", " + scenario);
+                assertEquals(new ArrayList<>(expected.allocations().keySet()), new ArrayList<>(schedules.get(s).allocations().keySet()));
+                assertEquals(new ArrayList<>(expected.priorityMap().entrySet()), new ArrayList<>(schedules.get(s).priorityMap().entrySet()));
+            }
+        }
+    }
+
+    @Test
+    void testForkJoinPool_SlicedBucketsMatchSequentialReads() throws Exception {
+        Random random = new Random(23);
+        LoadDictionary loads = new LoadDictionary();
+        Storage storage = spy(new InMemoryStorage());
+        // Several slices' worth, with customers that change priority between slices.
+        for (int batch = 0; batch < 8; batch++) {
+            List<AllocationRequest> requests = new ArrayList<>();
+            for (int i = 0; i < CallOrchestrator.SLICE_RECORDS / 2; i++) {
+                double load = (1 + random.nextInt(6)) * 0.37;
+                requests.add(new AllocationRequest(customers.idOf("C" + random.nextInt(500)), loads.idOf(load), 1 + random.nextInt(4), 1 + random.nextInt(3)));
+            }
+            storage.storeIntermediateData(6, requests);
+        }
+        int[] capacities = {500, 20000, 90000};
+        List<Scenarios.Scenario> scenarios = List.of(new Scenarios.Scenario(0.8f, 5000), new Scenarios.Scenario(1.0f, 0));
+        CallOrchestrator unlimited = new CallOrchestrator(storage, 0, customers);
+        CallOrchestrator capped = new CallOrchestrator(storage, 20000, customers);
+
+        ScheduleBucket expectedUnlimited = unlimited.calculateSchedule(6);
+        ScheduleBucket expectedCapped = capped.calculateSchedule(6);
+        List<ScheduleBucket> expectedSweep = unlimited.calculateSchedules(6, capacities);
+        List<ScheduleBucket> expectedScenarios = unlimited.calculateScenarios(6, loads, scenarios);
+        verify(storage, never()).forEachIntermediateSlice(anyInt(), anyInt(), anyInt(), any());
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertSameBucket(expectedUnlimited, pool.submit(() -> unlimited.calculateSchedule(6)).get());
+            assertSameBucket(expectedCapped, pool.submit(() -> capped.calculateSchedule(6)).get());
+            List<ScheduleBucket> sweep = pool.submit(() -> unlimited.calculateSchedules(6, capacities)).get();
+            List<ScheduleBucket> scenarioBuckets = pool.submit(() -> unlimited.calculateScenarios(6, loads, scenarios)).get();
+            for (int i = 0; i < capacities.length; i++) {
+                assertSameBucket(expectedSweep.get(i), sweep.get(i));
+            }
+            for (int i = 0; i < scenarios.size(); i++) {
+                assertSameBucket(expectedScenarios.get(i), scenarioBuckets.get(i));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        verify(storage, atLeastOnce()).forEachIntermediateSlice(eq(6), eq(3), anyInt(), any());
+    }
+
+    private static ScheduleBucket atMinute(ScheduleBucket bucket, int minute) {
+        return new ScheduleBucket(bucket.hour(), bucket.totalAgents(), bucket.allocations(), bucket.demands(), bucket.priorityMap(), minute);
+    }
+
+    private static void assertSameBucket(ScheduleBucket expected, ScheduleBucket bucket) {
+        assertEquals(expected, bucket);
+        assertEquals(new ArrayList<>(expected.allocations().keySet()), new ArrayList<>(bucket.allocations().keySet()));
+        assertEquals(new ArrayList<>(expected.demands().keySet()), new ArrayList<>(bucket.demands().keySet()));
+        assertEquals(new ArrayList<>(expected.priorityMap().entrySet()), new ArrayList<>(bucket.priorityMap().entrySet()));
+    }
+
+    /**
+     * The allocations as found by taking every copy of every request as a request of its own, the
+     * copies of each (customer, agents) key of a tier together where the key was first stored, and
+     * stably sorting the cut tier by rounding loss.
+     */
+    private Map<String, Integer> splitRequestByRequest(List<AllocationRequest> stored, int capacity) {
+        Map<Integer, Map<List<Integer>, List<AllocationRequest>>> keys = new TreeMap<>();
+        for (AllocationRequest request : stored) {
+            for (int c = 0; c < request.count(); c++) {
+                keys.computeIfAbsent(request.priority(), k -> new LinkedHashMap<>())
+                    .computeIfAbsent(List.of(request.customerId(), request.agents()), k -> new ArrayList<>()).add(request);
+            }
+        }
+        Map<Integer, List<AllocationRequest>> tiers = new TreeMap<>();
+        for (Map.Entry<Integer, Map<List<Integer>, List<AllocationRequest>>> tier : keys.entrySet()) {
+            List<AllocationRequest> copies = new ArrayList<>();
+            tier.getValue().values().forEach(copies::addAll);
+            tiers.put(tier.getKey(), copies);
+        }
+        Map<String, Integer> allocations = new LinkedHashMap<>();
+        int remaining = capacity;
+        for (List<AllocationRequest> tier : tiers.values()) {
+            int tierDemand = tier.stream().mapToInt(AllocationRequest::agents).sum();
+            if (tierDemand <= remaining) {
+                for (AllocationRequest request : tier) {
+                    allocations.merge(customers.nameOf(request.customerId()), request.agents(), Integer::sum);
+                }
+                remaining -= tierDemand;
+                continue;
+            }
+            if (remaining > 0) {
+                double ratio = (double) remaining / tierDemand;
+                double[] losses = new double[tier.size()];
+                List<Integer> order = new ArrayList<>();
+                for (int i = 0; i < tier.size(); i++) {
+                    double exactShare = tier.get(i).agents() * ratio;
+                    int flooredShare = (int) Math.floor(exactShare);
+                    allocations.merge(customers.nameOf(tier.get(i).customerId()), flooredShare, Integer::sum);
+                    remaining -= flooredShare;
+                    losses[i] = exactShare - flooredShare;
+                    order.add(i);
+                }
+                order.sort((a, b) -> Double.compare(losses[b], losses[a]));
+                for (int i = 0; i < remaining; i++) {
+                    allocations.merge(customers.nameOf(tier.get(order.get(i % order.size())).customerId()), 1, Integer::sum);
+                }
+            }
+            break;
+        }
+        return allocations;
+    }
 }
@@ -0,0 +1,48 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class CapacitySweepTest {
+
+    @Test
+    void testParse_ValuesAndRangesSortedWithoutDuplicates() {
+        assertArrayEquals(new int[] {50, 100, 200, 300}, CapacitySweep.parse("300, 100-300:100,50,100"));
+        assertArrayEquals(new int[] {7, 8, 9}, CapacitySweep.parse("7-9"));
+    }
+
+    @Test
+    void testParse_RejectsInvalidCapacities() {
+        assertThrows(IllegalArgumentException.class, () -> CapacitySweep.parse("0"));
+        assertThrows(IllegalArgumentException.class, () -> CapacitySweep.parse("300-100"));
+        assertThrows(IllegalArgumentException.class, () -> CapacitySweep.parse("100-300:0"));
+        assertThrows(IllegalArgumentException.class, () -> CapacitySweep.parse("abc"));
+        assertThrows(IllegalArgumentException.class, () -> CapacitySweep.parse("1-" + (CapacitySweep.MAX_CAPACITIES + 1)));
+    }
+
+    @Test
+    void testMinimumCapacity_LargestDemandPerHourAndDay() {
+        // Two half-hour buckets in hour 10 and one in hour 11, each under capacities 5 and 20.
+        ScheduleBucket early5 = new ScheduleBucket(10, 5, Map.of("A", 5), Map.of("A", 8), Map.of("A", 1), 0);
+        ScheduleBucket early20 = new ScheduleBucket(10, 8, Map.of("A", 8), Map.of("A", 8), Map.of("A", 1), 0);
+        ScheduleBucket late5 = new ScheduleBucket(10, 5, Map.of("A", 3, "B", 2), Map.of("A", 3, "B", 9), Map.of("A", 1, "B", 2), 30);
+        ScheduleBucket late20 = new ScheduleBucket(10, 12, Map.of("A", 3, "B", 9), Map.of("A", 3, "B", 9), Map.of("A", 1, "B", 2), 30);
+        ScheduleBucket next5 = new ScheduleBucket(11, 4, Map.of("B", 4), Map.of("B", 4), Map.of("B", 2), 0);
+        ScheduleBucket next20 = new ScheduleBucket(11, 4, Map.of("B", 4), Map.of("B", 4), Map.of("B", 2), 0);
+
+        CapacitySweep sweep = CapacitySweep.ofBuckets(new int[] {5, 20},
+            List.of(List.of(early5, early20), List.of(late5, late20), List.of(next5, next20)));
+
+        assertEquals(List.of(early5, late5, next5), sweep.schedule(0));
+        assertEquals(List.of(early20, late20, next20), sweep.schedule(1));
+        assertEquals(2, sweep.throttledBuckets(0));
+        assertEquals(0, sweep.throttledBuckets(1));
+        assertEquals(Map.of(10, 12, 11, 4), sweep.minimumCapacityByHour());
+        assertEquals(12, sweep.minimumCapacity());
+    }
+}
@@ -1,6 +1,9 @@
 package com.example.demo;
 
+import com.example.demo.Constants.CombineMode;
+import com.example.demo.Constants.IngestMode;
 import com.example.demo.Constants.OutputFormat;
+import com.example.demo.Constants.ResumeMode;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -12,11 +15,19 @@ import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
 
 class ControlPlaneSchedulerEndToEndTest {
 
+    private final CustomerDictionary customers = new CustomerDictionary();
+
     @TempDir
     Path tempDir;
 
@@ -114,6 +125,81 @@ class ControlPlaneSchedulerEndToEndTest {
         assertEquals(normalize(Files.readString(goldenFile)), normalize(jsonOutput));
     }
 
+    @Test
+    void testEndToEnd_Scenario3_MappedIngest_FiniteCapacity() throws IOException {
+        // Same data as scenario 2, read through the memory-mapped parallel ingest path.
+        Path inputCsv = tempDir.resolve("input_scenario3.csv");
+        String csvContent = "CustomerName,NumberOfCalls,AverageCallDurationSeconds,Priority,StartTimePT,EndTimePT\n" +
+                            "CustomerA,100,300,1,10:00 AM,11:00 AM\n" +
+                            "CustomerB,200,300,2,10:00 AM,11:00 AM\n";
+        Files.writeString(inputCsv, csvContent);
+
+        String activeBucket = "  {\n" +
+                "    \"hour\": 10,\n" +
+                "    \"totalAgents\": 15,\n" +
+                "    \"allocations\": {\n" +
+                "      \"CustomerA\": 9,\n" +
+                "      \"CustomerB\": 6\n" +
+                "    },\n" +
+                "    \"demands\": {\n" +
+                "      \"CustomerA\": 9,\n" +
+                "      \"CustomerB\": 17\n" +
+                "    }\n" +
+                "  }";
+        String expectedJson = generateExpectedJson(10, activeBucket);
+
+        ControlPlaneScheduler scheduler = new ControlPlaneScheduler(inputCsv.toString(), 1.0f, OutputFormat.JSON, 15, new InMemoryStorage(), false, false);
+        scheduler.setIngestMode(IngestMode.MAPPED);
+        scheduler.run();
+
+        assertEquals(normalize(expectedJson), normalize(extractJson(outContent.toString())));
+    }
+
+    @Test
+    void testEndToEnd_Scenario4_RerunServedFromScheduleCache() throws IOException {
+        Path inputCsv = tempDir.resolve("input_scenario4.csv");
+        Files.writeString(inputCsv, "CustomerName,NumberOfCalls,AverageCallDurationSeconds,Priority,StartTimePT,EndTimePT\n" +
+                                    "CustomerA,100,300,1,10:00 AM,11:00 AM\n");
+        ScheduleCache cache = new ScheduleCache(tempDir.resolve("cache"), 1024 * 1024);
+
+        ControlPlaneScheduler first = new ControlPlaneScheduler(inputCsv.toString(), 1.0f, OutputFormat.JSON, 15, new InMemoryStorage(), false, false);
+        first.setScheduleCache(cache);
+        first.run();
+        String firstJson = extractJson(outContent.toString());
+        outContent.reset();
+
+        // A new process over the same data finds the schedule without touching its storage.
+        Storage untouched = mock(Storage.class);
+        ControlPlaneScheduler second = new ControlPlaneScheduler(inputCsv.toString(), 1.0f, OutputFormat.JSON, 15, untouched, false, false);
+        second.setScheduleCache(new ScheduleCache(tempDir.resolve("cache"), 1024 * 1024));
+        second.run();
+
+        assertEquals(normalize(firstJson), normalize(extractJson(outContent.toString())));
+        verifyNoInteractions(untouched);
+    }
+
+    @Test
+    void testEndToEnd_Scenario5_CapacitySweep() throws IOException {
+        // Same data as scenario 2: 9 agents for CustomerA at priority 1 and 17 for CustomerB.
+        Path inputCsv = tempDir.resolve("input_scenario5.csv");
+        Files.writeString(inputCsv, "CustomerName,NumberOfCalls,AverageCallDurationSeconds,Priority,StartTimePT,EndTimePT\n" +
+                                    "CustomerA,100,300,1,10:00 AM,11:00 AM\n" +
+                                    "CustomerB,200,300,2,10:00 AM,11:00 AM\n");
+
+        ControlPlaneScheduler scheduler = new ControlPlaneScheduler(inputCsv.toString(), 1.0f, OutputFormat.TEXT, 0, new InMemoryStorage(), false, false);
+        scheduler.setCapacitySweep(new int[] {15, 26});
+        scheduler.run();
+
+        String output = outContent.toString();
+        assertTrue(output.contains("capacity=15 : throttled=1 of 24 buckets" + System.lineSeparator()
+            + "00:00 : total=0; none"));
+        assertTrue(output.contains("10:00 : total=15; CustomerA=9, CustomerB=6"));
+        assertTrue(output.contains("capacity=26 : throttled=0 of 24 buckets"));
+        assertTrue(output.contains("10:00 : total=26; CustomerA=9, CustomerB=17"));
+        assertTrue(output.contains("09:00 : 0" + System.lineSeparator() + "10:00 : 26" + System.lineSeparator() + "11:00 : 0"));
+        assertTrue(output.endsWith("23:00 : 0" + System.lineSeparator() + "day : 26" + System.lineSeparator()));
+    }
+
     private String extractJson(String output) {
         int start = output.indexOf("[");
         int end = output.lastIndexOf("]");
@@ -149,4 +235,165 @@ class ControlPlaneSchedulerEndToEndTest {
         sb.append("]");
         return sb.toString();
     }
-}
\ No newline at end of file
+
+    @Test
+    void testEndToEnd_Scenario6_UtilizationScenarios() throws IOException {
+        // Same data as scenario 2: at full utilization 9 agents for CustomerA at priority 1 and 17 for CustomerB.
+        Path inputCsv = tempDir.resolve("input_scenario6.csv");
+        Files.writeString(inputCsv, "CustomerName,NumberOfCalls,AverageCallDurationSeconds,Priority,StartTimePT,EndTimePT\n" +
+                                    "CustomerA,100,300,1,10:00 AM,11:00 AM\n" +
+                                    "CustomerB,200,300,2,10:00 AM,11:00 AM\n");
+
+        ControlPlaneScheduler scheduler = new ControlPlaneScheduler(inputCsv.toString(), 1.0f, OutputFormat.TEXT, 0, new InMemoryStorage(), false, false);
+        scheduler.setScenarios(List.of(new Scenarios.Scenario(1.0f, 15), new Scenarios.Scenario(0.5f, 15), new Scenarios.Scenario(0.5f, 0)));
+        scheduler.run();
+
+        String output = outContent.toString();
+        assertTrue(output.contains("utilization=1.0 capacity=15 : throttled=1 of 24 buckets"));
+        assertTrue(output.contains("10:00 : total=15; CustomerA=9, CustomerB=6"));
+        // At half utilization CustomerA needs ceil(4.17) = 5 and CustomerB ceil(8.33) = 9.
+        assertTrue(output.contains("utilization=0.5 capacity=15 : throttled=0 of 24 buckets"));
+        assertTrue(output.contains("utilization=0.5 capacity=0 : throttled=0 of 24 buckets"));
+        assertTrue(output.contains("10:00 : total=14; CustomerA=5, CustomerB=9"));
+    }
+
+    @Test
+    void testEndToEnd_Scenario7_ReduceOnlyAfterOtherCustomersWereInterned() throws IOException {
+        Path inputCsv = tempDir.resolve("input_scenario7.csv");
+        Files.writeString(inputCsv, "CustomerName,NumberOfCalls,AverageCallDurationSeconds,Priority,StartTimePT,EndTimePT\n" +
+                                    "CustomerA,100,300,1,10:00 AM,11:00 AM\n");
+        PersistentStorage crashed = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        crashed.setCustomers(customers);
+        crashed.setWriteQueueBytes(0);
+        crashed.beginIngest(inputCsv);
+        crashed.storeIntermediateData(10, List.of(new AllocationRequest(customers.idOf("CustomerA"), 9, 1)));
+        crashed.commitInput(0, Files.size(inputCsv));
+        // The crashed run's dictionary has handed out CustomerA's id to someone else since.
+        customers.idOf("SomeoneElse");
+
+        ControlPlaneScheduler scheduler = new ControlPlaneScheduler(inputCsv.toString(), 1.0f, OutputFormat.TEXT, 0,
+            new PersistentStorage(LocalDate.now(), tempDir.toString()), false, false);
+        scheduler.setResumeMode(ResumeMode.REDUCE_ONLY);
+        scheduler.run();
+
+        assertTrue(outContent.toString().contains("10:00 : total=9; CustomerA=9"), outContent.toString());
+        assertFalse(outContent.toString().contains("SomeoneElse"));
+    }
+
+    @Test
+    void testEndToEnd_Scenario8_ResumeAndReduceOnlyMatchASingleRun() throws IOException {
+        Path inputCsv = tempDir.resolve("input_scenario8.csv");
+        writeBusyDay(inputCsv, 8);
+
+        String single = runScenario8(inputCsv, tempDir.resolve("single"), ResumeMode.OFF);
+
+        // A run that stored the first half of the input before it stopped, and one that stored all of it.
+        Path half = tempDir.resolve("half");
+        crashAfter(inputCsv, half, 3);
+        Path all = tempDir.resolve("all");
+        crashAfter(inputCsv, all, Integer.MAX_VALUE);
+
+        assertEquals(single, runScenario8(inputCsv, half, ResumeMode.RESUME));
+        assertEquals(single, runScenario8(inputCsv, all, ResumeMode.REDUCE_ONLY));
+    }
+
+    private String runScenario8(Path inputCsv, Path outputDir, ResumeMode resumeMode) throws IOException {
+        Files.createDirectories(outputDir);
+        outContent.reset();
+        ControlPlaneScheduler scheduler = new ControlPlaneScheduler(inputCsv.toString(), 1.0f, OutputFormat.JSON, 400,
+            new PersistentStorage(LocalDate.now(), outputDir.toString()), false, false);
+        scheduler.setResumeMode(resumeMode);
+        scheduler.run();
+        String json = normalize(extractJson(outContent.toString()));
+        assertTrue(json.contains("\"Customer"), json);
+        return json;
+    }
+
+    /** Stores the first {@code batches} batches of the input as a run would before it stopped. */
+    private void crashAfter(Path inputCsv, Path outputDir, int batches) throws IOException {
+        Files.createDirectories(outputDir);
+        CustomerDictionary crashedCustomers = new CustomerDictionary();
+        PersistentStorage crashed = new PersistentStorage(LocalDate.now(), outputDir.toString());
+        crashed.setCustomers(crashedCustomers);
+        crashed.setWriteQueueBytes(0);
+        crashed.setTimeBuckets(TimeBuckets.HOURLY);
+        crashed.beginIngest(inputCsv);
+        RequestProcessor processor = new RequestProcessor(new PartitionedStorage(crashed, TimeBuckets.HOURLY), 1.0f,
+            CombineMode.NONE, null);
+        RequestBatch batch = new RequestBatch(1000);
+        try (CsvBatchReader reader = new CsvBatchReader(inputCsv, crashedCustomers)) {
+            for (int i = 0; i < batches && reader.read(batch); i++) {
+                processor.processBatch(batch);
+                crashed.commitInput(batch.startOffset(), batch.endOffset());
+            }
+        }
+        crashed.flushIntermediateData();
+    }
+
+    @Test
+    void testEndToEnd_Scenario9_SingleScenarioMatchesAPlainRun() throws IOException {
+        Path inputCsv = tempDir.resolve("input_scenario9.csv");
+        writeBusyDay(inputCsv, 9);
+
+        ControlPlaneScheduler plain = new ControlPlaneScheduler(inputCsv.toString(), 1.0f, OutputFormat.JSON, 500, new InMemoryStorage(), false, false);
+        plain.run();
+        String plainJson = extractJson(outContent.toString());
+        outContent.reset();
+        ControlPlaneScheduler scenarios = new ControlPlaneScheduler(inputCsv.toString(), 1.0f, OutputFormat.JSON, 0, new InMemoryStorage(), false, false);
+        scenarios.setScenarios(List.of(new Scenarios.Scenario(1.0f, 500)));
+        scenarios.run();
+        String output = outContent.toString();
+
+        // The scenario's schedule is the plain one, nested six spaces deeper.
+        int start = output.indexOf("\"schedule\": [") + "\"schedule\": ".length();
+        int end = output.indexOf("\n      ]\n", start) + "\n      ]".length();
+        String scheduleJson = output.substring(start, end).replace("\n      ", "\n");
+        assertTrue(plainJson.contains("\"Customer"), plainJson);
+        assertEquals(plainJson, scheduleJson);
+    }
+
+    @Test
+    void testEndToEnd_Scenario10_EveryCombineModeMatchesTheUncombinedRun() throws IOException {
+        Path inputCsv = tempDir.resolve("input_scenario10.csv");
+        writeBusyDay(inputCsv, 10);
+
+        String uncombined = runCombined(inputCsv, CombineMode.NONE);
+
+        for (CombineMode mode : List.of(CombineMode.BATCH, CombineMode.GLOBAL, CombineMode.WORKER)) {
+            assertEquals(uncombined, runCombined(inputCsv, mode), mode.toString());
+        }
+    }
+
+    private String runCombined(Path inputCsv, CombineMode mode) {
+        outContent.reset();
+        ControlPlaneScheduler scheduler = new ControlPlaneScheduler(inputCsv.toString(), 1.0f, OutputFormat.JSON, 300, new InMemoryStorage(), false, false);
+        scheduler.setBucketMinutes(15);
+        scheduler.setCombineMode(mode);
+        scheduler.setBatchSizeBounds(new IngestController.Bounds(1000, 1000));
+        scheduler.run();
+        return extractJson(outContent.toString());
+    }
+
+    /**
+     * Writes a day of requests from many customers that cross hours and change priority, busy
+     * enough that a capacity of a few hundred agents cuts into a tier most hours, so that arrival
+     * order decides the output.
+     */
+    private static void writeBusyDay(Path inputCsv, long seed) throws IOException {
+        Random random = new Random(seed);
+        StringBuilder csv = new StringBuilder("CustomerName,NumberOfCalls,AverageCallDurationSeconds,Priority,StartTimePT,EndTimePT\n");
+        for (int row = 0; row < 6000; row++) {
+            int start = random.nextInt(22 * 4) * 15;
+            int end = start + 15 * (1 + random.nextInt(8));
+            csv.append("Customer").append(random.nextInt(60)).append(',').append(1 + random.nextInt(40)).append(',')
+                .append(60 + random.nextInt(600)).append(',').append(1 + random.nextInt(4)).append(',')
+                .append(clock(start)).append(',').append(clock(end)).append('\n');
+        }
+        Files.writeString(inputCsv, csv);
+    }
+
+    private static String clock(int minute) {
+        int hour = minute / 60 % 24;
+        return (hour % 12 == 0 ? 12 : hour % 12) + ":" + String.format("%02d", minute % 60) + (hour < 12 ? " AM" : " PM");
+    }
+}
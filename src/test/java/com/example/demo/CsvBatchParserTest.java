@@ -0,0 +1,152 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CsvBatchParserTest {
+
+    private final CustomerDictionary customers = new CustomerDictionary();
+
+    private static final String HEADER =
+        "CustomerName,NumberOfCalls,AverageCallDurationSeconds,Priority,StartTimePT,EndTimePT";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testParse_ResolvesColumnsFromHeader() {
+        // Column order of the bundled sample file, with padded values.
+        CsvBatchParser parser = CsvBatchParser.forHeader(
+            "CustomerName,AverageCallDurationSeconds,StartTimePT,EndTimePT,NumberOfCalls,Priority", customers);
+        RequestBatch batch = parse(parser, "Stanford Hospital, 300, 9AM, 7PM, 20000, 1\n");
+
+        assertEquals(1, batch.size());
+        assertEquals("Stanford Hospital", customers.nameOf(batch.customerId(0)));
+        assertEquals(20000, batch.calls(0));
+        assertEquals(300, batch.duration(0));
+        assertEquals(1, batch.priority(0));
+        assertEquals(9 * 60, batch.startMinute(0));
+        assertEquals(19 * 60, batch.endMinute(0));
+    }
+
+    @Test
+    void testParse_TimeFormats() {
+        CsvBatchParser parser = CsvBatchParser.forHeader(HEADER, customers);
+        RequestBatch batch = parse(parser,
+            "A,1,1,1,12:00 AM,12:30 PM\n"
+            + "B,1,1,1,10:05 am,11:45 pm\n"
+            + "C,1,1,1,07:00,13:00\n");
+
+        assertEquals(3, batch.size());
+        assertEquals(0, batch.startMinute(0));
+        assertEquals(12 * 60 + 30, batch.endMinute(0));
+        assertEquals(10 * 60 + 5, batch.startMinute(1));
+        assertEquals(23 * 60 + 45, batch.endMinute(1));
+        assertEquals(7 * 60, batch.startMinute(2));
+        assertEquals(13 * 60, batch.endMinute(2));
+    }
+
+    @Test
+    void testParse_QuotedFieldsAndCrLf() {
+        CsvBatchParser parser = CsvBatchParser.forHeader(HEADER, customers);
+        RequestBatch batch = parse(parser, "\"Acme, \"\"Inc\"\"\",\"10\",360,1,10 AM,11 AM\r\n");
+
+        assertEquals(1, batch.size());
+        assertEquals("Acme, \"Inc\"", customers.nameOf(batch.customerId(0)));
+        assertEquals(10, batch.calls(0));
+        assertEquals(11 * 60, batch.endMinute(0));
+    }
+
+    @Test
+    void testParse_SkipsInvalidAndBlankLines() {
+        CsvBatchParser parser = CsvBatchParser.forHeader(HEADER, customers);
+        RequestBatch batch = parse(parser,
+            "A,10,360,1,10 AM,11 AM\n"
+            + "\n"
+            + "B,invalid,360,1,10 AM,11 AM\n"
+            + "C,10,360\n"
+            + "D,10,360,1,noon,11 AM\n"
+            + "F,10,360,1,10:75 AM,11 AM\n"
+            + "G,10,360,1,10 AM,25:00\n"
+            + "E,10,360,1,10 AM,11 AM");
+
+        assertEquals(2, batch.size());
+        assertEquals("A", customers.nameOf(batch.customerId(0)));
+        assertEquals("E", customers.nameOf(batch.customerId(1)));
+    }
+
+    @Test
+    void testParse_ReusesCustomerNames() {
+        CsvBatchParser parser = CsvBatchParser.forHeader(HEADER, customers);
+        RequestBatch batch = parse(parser, "A,1,1,1,1 AM,2 AM\nA,2,1,1,1 AM,2 AM\n");
+
+        assertSame(customers.nameOf(batch.customerId(0)), customers.nameOf(batch.customerId(1)));
+    }
+
+    @Test
+    void testParse_StopsAtPartialLineUnlessEndOfInput() {
+        CsvBatchParser parser = CsvBatchParser.forHeader(HEADER, customers);
+        ByteBuffer buffer = ByteBuffer.wrap("A,1,1,1,1 AM,2 AM\nB,1,1".getBytes(StandardCharsets.UTF_8));
+        RequestBatch batch = new RequestBatch(10);
+
+        int position = parser.parse(buffer, 0, buffer.limit(), false, batch);
+
+        assertEquals(1, batch.size());
+        assertEquals(18, position);
+    }
+
+    @Test
+    void testParse_StopsWhenBatchIsFull() {
+        CsvBatchParser parser = CsvBatchParser.forHeader(HEADER, customers);
+        ByteBuffer buffer = ByteBuffer.wrap("A,1,1,1,1 AM,2 AM\nB,1,1,1,1 AM,2 AM\n".getBytes(StandardCharsets.UTF_8));
+        RequestBatch batch = new RequestBatch(1);
+
+        int position = parser.parse(buffer, 0, buffer.limit(), true, batch);
+
+        assertTrue(batch.isFull());
+        assertEquals(18, position);
+    }
+
+    @Test
+    void testForHeader_MissingColumn() {
+        assertThrows(IllegalArgumentException.class, () -> CsvBatchParser.forHeader("CustomerName,NumberOfCalls", customers));
+    }
+
+    @Test
+    void testBatchReader_ReadsAllRowsAcrossBatches() throws IOException {
+        StringBuilder csv = new StringBuilder(HEADER).append('\n');
+        for (int i = 0; i < 25; i++) {
+            csv.append("Customer").append(i).append(",10,360,1,10 AM,11 AM\n");
+        }
+        Path input = tempDir.resolve("input.csv");
+        Files.writeString(input, csv.toString());
+
+        int rows = 0;
+        try (CsvBatchReader reader = new CsvBatchReader(input, customers)) {
+            RequestBatch batch = new RequestBatch(10);
+            while (reader.read(batch)) {
+                rows += batch.size();
+            }
+            assertFalse(reader.read(batch));
+        }
+        assertEquals(25, rows);
+    }
+
+    private RequestBatch parse(CsvBatchParser parser, String lines) {
+        ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+        RequestBatch batch = new RequestBatch(100);
+        parser.parse(buffer, 0, buffer.limit(), true, batch);
+        return batch;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CsvBatchReaderTest {
+
+    private final CustomerDictionary customers = new CustomerDictionary();
+
+    private static final String HEADER =
+        "CustomerName,NumberOfCalls,AverageCallDurationSeconds,Priority,StartTimePT,EndTimePT\n";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRead_BatchOffsetsTileTheInput() throws IOException {
+        Path input = writeCsv(1000);
+        RequestBatch batch = new RequestBatch(64);
+        long expectedStart = HEADER.length();
+        int rows = 0;
+
+        try (CsvBatchReader reader = new CsvBatchReader(input, customers)) {
+            while (reader.read(batch)) {
+                assertEquals(expectedStart, batch.startOffset());
+                expectedStart = batch.endOffset();
+                rows += batch.size();
+            }
+        }
+
+        assertEquals(1000, rows);
+        assertEquals(Files.size(input), expectedStart);
+    }
+
+    @Test
+    void testRead_SkipsRanges() throws IOException {
+        Path input = writeCsv(1000);
+        long rowBytes = (Files.size(input) - HEADER.length()) / 1000;
+        InputRanges skipped = new InputRanges();
+        skipped.add(HEADER.length(), HEADER.length() + 10 * rowBytes);
+        skipped.add(HEADER.length() + 500 * rowBytes, HEADER.length() + 990 * rowBytes);
+        List<String> names = new ArrayList<>();
+        RequestBatch batch = new RequestBatch(64);
+
+        try (CsvBatchReader reader = new CsvBatchReader(input, customers)) {
+            reader.skip(skipped);
+            while (reader.read(batch)) {
+                for (int row = 0; row < batch.size(); row++) {
+                    names.add(customers.nameOf(batch.customerId(row)));
+                }
+            }
+        }
+
+        assertEquals(500, names.size());
+        assertEquals("Customer1010", names.get(0));
+        assertTrue(names.contains("Customer1499"));
+        assertFalse(names.contains("Customer1500"));
+        assertEquals("Customer1999", names.get(names.size() - 1));
+    }
+
+    private Path writeCsv(int rows) throws IOException {
+        StringBuilder sb = new StringBuilder(HEADER);
+        for (int i = 0; i < rows; i++) {
+            sb.append("Customer").append(1000 + i).append(",10,360,1,10:00 AM,11:00 AM\n");
+        }
+        Path input = tempDir.resolve("input.csv");
+        Files.writeString(input, sb.toString());
+        return input;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+class CustomerDictionaryTest {
+
+    private final CustomerDictionary customers = new CustomerDictionary();
+
+    @Test
+    void testIdOf_StableAndResolvable() {
+        int first = customers.idOf("DictionaryCustomerA");
+        int second = customers.idOf("DictionaryCustomerB");
+
+        assertEquals(first, customers.idOf("DictionaryCustomerA"));
+        assertNotEquals(first, second);
+        assertEquals("DictionaryCustomerA", customers.nameOf(first));
+        assertEquals("DictionaryCustomerB", customers.nameOf(second));
+        assertEquals(2, customers.size());
+    }
+
+    @Test
+    void testIdOf_DictionariesAreIndependent() {
+        customers.idOf("OtherRunCustomerA");
+        customers.idOf("OtherRunCustomerB");
+
+        CustomerDictionary next = new CustomerDictionary();
+
+        assertEquals(0, next.size());
+        assertEquals(0, next.idOf("OtherRunCustomerB"));
+        assertEquals(1, next.idOf("OtherRunCustomerA"));
+        assertEquals("OtherRunCustomerB", next.nameOf(0));
+        assertEquals("OtherRunCustomerA", customers.nameOf(0));
+    }
+
+    @Test
+    void testIdOf_ConcurrentCallersAgree() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(executor.submit(() -> {
+                    int[] ids = new int[2000];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = customers.idOf("ConcurrentCustomer" + i);
+                    }
+                    return ids;
+                }));
+            }
+            int[] expected = results.get(0).get();
+            for (Future<int[]> result : results) {
+                int[] ids = result.get();
+                for (int i = 0; i < ids.length; i++) {
+                    assertEquals(expected[i], ids[i]);
+                    assertEquals("ConcurrentCustomer" + i, customers.nameOf(ids[i]));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DemandCombinerTest {
+
+    private static final CustomerDictionary CUSTOMERS = new CustomerDictionary();
+    private static final int A = CUSTOMERS.idOf("A");
+    private static final int B = CUSTOMERS.idOf("B");
+
+    private InMemoryStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        storage = new InMemoryStorage();
+    }
+
+    @Test
+    void testFlush_FoldsIdenticalRequestsIntoRuns() {
+        DemandCombiner combiner = new DemandCombiner();
+        combiner.add(A, 1, 2, 10, 12);
+        combiner.add(A, 1, 2, 11, 13);
+        combiner.add(B, 1, 2, 10, 11);
+
+        combiner.flush(storage);
+
+        // Each run is stored once, under the hour it starts in.
+        assertEquals(List.of(new AllocationRequest(A, 2, 1, 1), new AllocationRequest(B, 2, 1, 1)),
+            storage.fetchInterMediateData(10));
+        assertEquals(List.of(new AllocationRequest(A, 2, 1, 2)), storage.fetchInterMediateData(11));
+        assertEquals(List.of(new AllocationRequest(A, 2, 1, 1)), storage.fetchInterMediateData(12));
+        assertTrue(storage.fetchInterMediateData(13).isEmpty());
+        assertEquals(0, combiner.size());
+    }
+
+    @Test
+    void testFlush_StoresRunsOfEqualCountsOnce() {
+        TimeBuckets quarters = new TimeBuckets(15);
+        DemandCombiner combiner = new DemandCombiner(quarters);
+        // 10:15-11:30 and 10:30-10:45.
+        combiner.add(A, 1, 2, 41, 46);
+        combiner.add(A, 1, 2, 42, 43);
+
+        combiner.flush(storage);
+
+        // The last run reaches from 10:45 into the next hour.
+        assertEquals(List.of(new AllocationRequest(A, 2, 1, 1, quarters.span(1, 2)), new AllocationRequest(A, 2, 1, 2, quarters.span(2, 3)),
+            new AllocationRequest(A, 2, 1, 1, quarters.span(3, 6))), storage.fetchInterMediateData(40));
+        assertTrue(storage.fetchInterMediateData(44).isEmpty());
+    }
+
+    @Test
+    void testFlush_KeepsDifferentAgentsAndPrioritiesApart() {
+        DemandCombiner combiner = new DemandCombiner();
+        combiner.add(A, 1, 2, 10, 11);
+        combiner.add(A, 1, 3, 10, 11);
+        combiner.add(A, 2, 2, 10, 11);
+
+        combiner.flush(storage);
+
+        assertEquals(3, storage.fetchInterMediateData(10).size());
+    }
+
+    @Test
+    void testAddAll_MergesCounts() {
+        DemandCombiner global = new DemandCombiner();
+        DemandCombiner batch1 = new DemandCombiner();
+        batch1.add(A, 1, 2, 10, 11);
+        DemandCombiner batch2 = new DemandCombiner();
+        batch2.add(A, 1, 2, 10, 11);
+        batch2.add(B, 2, 5, 10, 11);
+
+        global.addAll(batch1);
+        global.addAll(batch2);
+        global.flush(storage);
+
+        assertEquals(List.of(new AllocationRequest(A, 2, 1, 2), new AllocationRequest(B, 5, 2, 1)),
+            storage.fetchInterMediateData(10));
+    }
+
+    @Test
+    void testFlush_CombinerIsReusable() {
+        DemandCombiner combiner = new DemandCombiner();
+        combiner.add(A, 1, 2, 10, 12);
+        combiner.flush(storage);
+        combiner.add(B, 1, 3, 11, 12);
+        combiner.clear();
+
+        combiner.add(B, 1, 2, 0, 1);
+        combiner.flush(storage);
+
+        assertEquals(List.of(new AllocationRequest(B, 2, 1, 1)), storage.fetchInterMediateData(0));
+        assertEquals(List.of(new AllocationRequest(A, 2, 1, 1, TimeBuckets.HOURLY.span(0, 2))), storage.fetchInterMediateData(10));
+        assertTrue(storage.fetchInterMediateData(11).isEmpty());
+    }
+
+    @Test
+    void testFlush_CutsRunsWhereTheArrivalsChange() {
+        DemandCombiner combiner = new DemandCombiner();
+        // Arriving at 100 over hours 10-12 and at 40 over hour 11.
+        combiner.add(A, 1, 2, 10, 13, 100);
+        combiner.add(A, 1, 2, 11, 12, 40);
+
+        combiner.flush(storage);
+
+        assertEquals(List.of(new AllocationRequest(A, 2, 1, 1, TimeBuckets.WHOLE_HOUR, 100, 100)), storage.fetchInterMediateData(10));
+        assertEquals(List.of(new AllocationRequest(A, 2, 1, 2, TimeBuckets.WHOLE_HOUR, 40, 100)), storage.fetchInterMediateData(11));
+        assertEquals(List.of(new AllocationRequest(A, 2, 1, 1, TimeBuckets.WHOLE_HOUR, 100, 100)), storage.fetchInterMediateData(12));
+    }
+
+    @Test
+    void testFlush_EachBucketSeesTheCountAndArrivalsOfItsRows() {
+        Random random = new Random(3);
+        TimeBuckets fives = new TimeBuckets(5);
+        for (int trial = 0; trial < 50; trial++) {
+            DemandCombiner global = new DemandCombiner(fives);
+            int[] counts = new int[fives.count()];
+            long[] firsts = new long[fives.count()];
+            long[] lasts = new long[fives.count()];
+            Arrays.fill(firsts, Long.MAX_VALUE);
+            Arrays.fill(lasts, Long.MIN_VALUE);
+            // Enough rows that a key is swept into runs while rows still come in, added in batches out of order.
+            for (int batch = 0; batch < 1 + random.nextInt(10); batch++) {
+                DemandCombiner rows = new DemandCombiner(fives);
+                for (int i = 0; i < random.nextInt(200); i++) {
+                    int start = random.nextInt(fives.count() - 1);
+                    int end = start + 1 + random.nextInt(Math.min(40, fives.count() - start));
+                    long arrival = random.nextInt(1_000_000);
+                    rows.add(A, 1, 2, start, end, arrival);
+                    for (int bucket = start; bucket < end; bucket++) {
+                        counts[bucket]++;
+                        firsts[bucket] = Math.min(firsts[bucket], arrival);
+                        lasts[bucket] = Math.max(lasts[bucket], arrival);
+                    }
+                }
+                global.addAll(rows);
+            }
+            InMemoryStorage stored = new InMemoryStorage();
+
+            global.flush(stored);
+
+            for (int hour = 0; hour < 24; hour++) {
+                for (AllocationRequest run : stored.fetchInterMediateData(fives.firstOf(hour))) {
+                    int first = fives.firstOf(hour);
+                    for (int bucket = first + fives.startOf(run.span()); bucket < first + fives.endOf(run.span()); bucket++) {
+                        assertEquals(counts[bucket], run.count(), "trial " + trial + ", bucket " + bucket);
+                        assertEquals(firsts[bucket], run.firstArrival());
+                        assertEquals(lasts[bucket], run.lastArrival());
+                        counts[bucket] = 0;
+                    }
+                }
+            }
+            assertTrue(Arrays.stream(counts).allMatch(count -> count == 0), "trial " + trial);
+        }
+    }
+}
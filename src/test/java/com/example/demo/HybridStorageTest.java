@@ -0,0 +1,123 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HybridStorageTest {
+
+    private final CustomerDictionary customers = new CustomerDictionary();
+
+    @TempDir
+    Path tempDir;
+
+    private HybridStorage storage;
+
+    @AfterEach
+    void tearDown() {
+        if (storage != null) {
+            storage.cleanupIntermediateFiles();
+        }
+    }
+
+    @Test
+    void testStore_UnderBudgetStaysInMemory() throws Exception {
+        storage = new HybridStorage(LocalDate.now(), tempDir.toString(), 1024 * 1024);
+        storage.storeIntermediateData(5, requests("A", 100));
+
+        assertEquals(0, storage.spills());
+        assertEquals(100, storage.fetchInterMediateData(5).size());
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    void testStore_OverBudgetSpillsLargestHour() throws Exception {
+        // Room for 150 records.
+        storage = new HybridStorage(LocalDate.now(), tempDir.toString(), 150 * HybridStorage.RECORD_BYTES);
+        storage.storeIntermediateData(3, requests("A", 40));
+        storage.storeIntermediateData(7, requests("B", 100));
+        storage.storeIntermediateData(3, requests("C", 20));
+
+        assertEquals(1, storage.spills());
+        assertTrue(storage.isSpilled(7));
+        assertFalse(storage.isSpilled(3));
+        assertEquals(1, fileCount());
+
+        // Later stores for a spilled hour go to disk; reads see both tiers.
+        storage.storeIntermediateData(7, requests("D", 5));
+        assertEquals(105, storage.fetchInterMediateData(7).size());
+        assertEquals(60, storage.fetchInterMediateData(3).size());
+        assertTrue(storage.statistics().contains("spilled 1 hours [7]"), storage.statistics());
+    }
+
+    @Test
+    void testStore_QuarterHourBucketsSpillTogether() {
+        storage = new HybridStorage(LocalDate.now(), tempDir.toString(), 10 * HybridStorage.RECORD_BYTES);
+        storage.setTimeBuckets(new TimeBuckets(15));
+        storage.storeIntermediateData(40, requests("A", 4));
+        storage.storeIntermediateData(41, requests("B", 4));
+        storage.storeIntermediateData(8, requests("C", 3));
+
+        assertTrue(storage.isSpilled(10));
+        assertEquals(4, storage.fetchInterMediateData(40).size());
+        assertEquals(4, storage.fetchInterMediateData(41).size());
+        assertEquals(3, storage.fetchInterMediateData(8).size());
+    }
+
+    @Test
+    void testStore_ConcurrentStoresWhileSpilling() throws Exception {
+        storage = new HybridStorage(LocalDate.now(), tempDir.toString(), 500 * HybridStorage.RECORD_BYTES);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int batch = 0; batch < 100; batch++) {
+                        storage.storeIntermediateData(batch % 24, requests("A", 10));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        storage.flushIntermediateData();
+
+        int total = 0;
+        for (int hour = 0; hour < 24; hour++) {
+            total += storage.fetchInterMediateData(hour).size();
+        }
+        assertEquals(4 * 100 * 10, total);
+        assertTrue(storage.spills() > 0);
+    }
+
+    private List<AllocationRequest> requests(String customer, int count) {
+        List<AllocationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new AllocationRequest(customers.idOf(customer), 1 + i % 4, 1 + i % 3));
+        }
+        return requests;
+    }
+
+    private long fileCount() throws Exception {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.count();
+        }
+    }
+}
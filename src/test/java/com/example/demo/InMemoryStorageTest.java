@@ -12,6 +12,8 @@ import static org.junit.jupiter.api.Assertions.*;
 
 class InMemoryStorageTest {
 
+    private final CustomerDictionary customers = new CustomerDictionary();
+
     private InMemoryStorage storage;
 
     @BeforeEach
@@ -23,8 +25,8 @@ class InMemoryStorageTest {
     void testStoreAndFetchIntermediateData() {
         int index = 1;
         List<AllocationRequest> requests = List.of(
-            new AllocationRequest("CustomerA", 5, 1),
-            new AllocationRequest("CustomerB", 10, 2)
+            new AllocationRequest(customers.idOf("CustomerA"), 5, 1),
+            new AllocationRequest(customers.idOf("CustomerB"), 10, 2)
         );
 
         storage.storeIntermediateData(index, requests);
@@ -39,8 +41,8 @@ class InMemoryStorageTest {
     @Test
     void testStoreAndFetchIntermediateDataMultipleBatches() {
         int index = 2;
-        List<AllocationRequest> batch1 = List.of(new AllocationRequest("A", 1, 1));
-        List<AllocationRequest> batch2 = List.of(new AllocationRequest("B", 2, 1));
+        List<AllocationRequest> batch1 = List.of(new AllocationRequest(customers.idOf("A"), 1, 1));
+        List<AllocationRequest> batch2 = List.of(new AllocationRequest(customers.idOf("B"), 2, 1));
 
         // Store multiple batches for the same index
         storage.storeIntermediateData(index, batch1);
@@ -82,7 +84,7 @@ class InMemoryStorageTest {
     @Test
     void testCleanupIntermediateFiles() {
         int index = 1;
-        List<AllocationRequest> requests = List.of(new AllocationRequest("A", 1, 1));
+        List<AllocationRequest> requests = List.of(new AllocationRequest(customers.idOf("A"), 1, 1));
         storage.storeIntermediateData(index, requests);
 
         assertFalse(storage.fetchInterMediateData(index).isEmpty());
@@ -91,4 +93,43 @@ class InMemoryStorageTest {
 
         assertTrue(storage.fetchInterMediateData(index).isEmpty());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testPartitions_ReadOnePriorityWithoutTheRest() {
+        storage.storeIntermediateData(4, List.of(new AllocationRequest(customers.idOf("A"), 1, 2)));
+        storage.storeIntermediateData(4, 3, List.of(new AllocationRequest(customers.idOf("B"), 2, 3)));
+        storage.storeIntermediateData(4, 1, List.of(new AllocationRequest(customers.idOf("C"), 3, 1)));
+        storage.storeIntermediateData(4, 3, List.of(new AllocationRequest(customers.idOf("D"), 4, 3)));
+
+        List<AllocationRequest> visited = new ArrayList<>();
+        storage.forEachIntermediateData(4, 3, (customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+            visited.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+
+        assertEquals(List.of(new AllocationRequest(customers.idOf("B"), 2, 3), new AllocationRequest(customers.idOf("D"), 4, 3)), visited);
+        // The whole bucket: unpartitioned requests first, then partitions by priority.
+        assertEquals(List.of(
+            new AllocationRequest(customers.idOf("A"), 1, 2),
+            new AllocationRequest(customers.idOf("C"), 3, 1),
+            new AllocationRequest(customers.idOf("B"), 2, 3),
+            new AllocationRequest(customers.idOf("D"), 4, 3)
+        ), storage.fetchInterMediateData(4));
+    }
+
+    @Test
+    void testSlices_ConcatenateToTheWholeBucket() {
+        storage.storeIntermediateData(4, List.of(new AllocationRequest(customers.idOf("A"), 1, 2), new AllocationRequest(customers.idOf("B"), 2, 2)));
+        storage.storeIntermediateData(4, 3, List.of(new AllocationRequest(customers.idOf("C"), 3, 3)));
+        storage.storeIntermediateData(4, 1, List.of(new AllocationRequest(customers.idOf("D"), 4, 1), new AllocationRequest(customers.idOf("E"), 5, 1)));
+
+        for (int slices = 1; slices <= 7; slices++) {
+            List<AllocationRequest> visited = new ArrayList<>();
+            for (int slice = 0; slice < slices; slice++) {
+                storage.forEachIntermediateSlice(4, slice, slices, (customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+                    visited.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+            }
+            assertEquals(storage.fetchInterMediateData(4), visited, slices + " slices");
+        }
+        assertEquals(5, storage.intermediateRecords(4));
+        assertEquals(0, storage.intermediateRecords(5));
+    }
+}
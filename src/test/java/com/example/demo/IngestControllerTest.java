@@ -0,0 +1,92 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.example.demo.IngestController.Bounds;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class IngestControllerTest {
+
+    @Test
+    void testBounds_Parse() {
+        assertEquals(new Bounds(1000, 5000), Bounds.parse("1000-5000"));
+        assertEquals(new Bounds(8, 8), Bounds.parse(" 8 "));
+        assertEquals(5000, Bounds.parse("1000-5000").clamp(9000));
+        assertThrows(IllegalArgumentException.class, () -> Bounds.parse("5-1"));
+        assertThrows(IllegalArgumentException.class, () -> Bounds.parse("0"));
+        assertThrows(IllegalArgumentException.class, () -> Bounds.parse("a-b"));
+    }
+
+    @Test
+    void testOnPublish_FastBatchesGrowBatchSize() {
+        IngestController controller = new IngestController(new Bounds(100, 1000), 300, new Bounds(2, 2), 2);
+        BatchRing ring = mock(BatchRing.class);
+
+        boolean changed = publishSample(controller, ring, TimeUnit.MICROSECONDS.toNanos(100));
+
+        assertTrue(changed);
+        assertEquals(600, controller.batchSize());
+        publishSample(controller, ring, TimeUnit.MICROSECONDS.toNanos(100));
+        assertEquals(1000, controller.batchSize());
+    }
+
+    @Test
+    void testOnPublish_SlowBatchesShrinkBatchSize() {
+        IngestController controller = new IngestController(new Bounds(100, 1000), 800, new Bounds(2, 2), 2);
+        BatchRing ring = mock(BatchRing.class);
+
+        publishSample(controller, ring, TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals(400, controller.batchSize());
+    }
+
+    @Test
+    void testOnPublish_ReaderStallsAddWorker() {
+        IngestController controller = new IngestController(new Bounds(500, 500), 500, new Bounds(1, 4), 2);
+        BatchRing ring = mock(BatchRing.class);
+        when(ring.producerStallNanos()).thenReturn(TimeUnit.HOURS.toNanos(1));
+
+        assertTrue(publishSample(controller, ring, TimeUnit.MILLISECONDS.toNanos(50)));
+
+        assertEquals(3, controller.workers());
+    }
+
+    @Test
+    void testOnPublish_IdleWorkersRetire() {
+        IngestController controller = new IngestController(new Bounds(500, 500), 500, new Bounds(1, 4), 3);
+        BatchRing ring = mock(BatchRing.class);
+        when(ring.consumerStallNanos()).thenReturn(TimeUnit.HOURS.toNanos(1));
+
+        assertTrue(publishSample(controller, ring, TimeUnit.MILLISECONDS.toNanos(50)));
+
+        assertEquals(2, controller.workers());
+    }
+
+    @Test
+    void testOnPublish_FixedBoundsNeverChange() {
+        IngestController controller = new IngestController(new Bounds(500, 500), 500, new Bounds(2, 2), 2);
+        BatchRing ring = mock(BatchRing.class);
+        when(ring.producerStallNanos()).thenReturn(TimeUnit.HOURS.toNanos(1));
+
+        assertFalse(publishSample(controller, ring, 1));
+
+        assertEquals(500, controller.batchSize());
+        assertEquals(2, controller.workers());
+    }
+
+    /** Records and publishes one sample window of batches that each took {@code nanos}. */
+    private boolean publishSample(IngestController controller, BatchRing ring, long nanos) {
+        boolean changed = false;
+        for (int i = 0; i < IngestController.SAMPLE_BATCHES; i++) {
+            controller.recordBatch(nanos);
+            changed |= controller.onPublish(ring);
+        }
+        return changed;
+    }
+}
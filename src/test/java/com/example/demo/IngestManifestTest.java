@@ -0,0 +1,76 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.example.demo.Constants.Compression;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IngestManifestTest {
+
+    private static final IngestManifest.Header HEADER =
+        new IngestManifest.Header("/data/in\tput.csv", 100, 42, 60, Compression.NONE, "intermediate_x");
+
+    private final CustomerDictionary customers = new CustomerDictionary();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testLoad_IgnoresTornCommit() throws IOException {
+        Path path = tempDir.resolve("manifest");
+        try (IngestManifest manifest = IngestManifest.create(path, HEADER, customers)) {
+            customers.idOf("A");
+            manifest.commit(List.of(new IngestManifest.Block(3, 0), new IngestManifest.Block(4, 0)), 10, 20);
+            customers.idOf("B");
+            manifest.commit(List.of(new IngestManifest.Block(3, 77)), 20, 30);
+        }
+        // A third commit cut off after its first block line.
+        Files.writeString(path, "block\t5\t0\nbatch\t30", StandardOpenOption.APPEND);
+
+        IngestManifest.Contents contents = IngestManifest.load(path);
+
+        assertEquals(HEADER, contents.header());
+        assertEquals(3, contents.blockCount());
+        assertEquals(Map.of(10L, 30L), contents.ingested().ranges());
+        assertEquals(List.of("A", "B"), contents.customers);
+    }
+
+    @Test
+    void testAppend_ContinuesAfterTornLine() throws IOException {
+        Path path = tempDir.resolve("manifest");
+        try (IngestManifest manifest = IngestManifest.create(path, HEADER, customers)) {
+            manifest.commit(List.of(new IngestManifest.Block(1, 0)), 0, 10);
+        }
+        Files.writeString(path, "blo", StandardOpenOption.APPEND);
+
+        try (IngestManifest manifest = IngestManifest.append(path, IngestManifest.load(path), customers)) {
+            manifest.commit(List.of(new IngestManifest.Block(1, 50)), 10, 20);
+            manifest.recordSchedule("/out/schedule");
+        }
+
+        IngestManifest.Contents contents = IngestManifest.load(path);
+        assertEquals(2, contents.blockCount());
+        assertEquals(Map.of(0L, 20L), contents.ingested().ranges());
+        assertEquals("/out/schedule", contents.schedulePath());
+    }
+
+    @Test
+    void testLoad_MissingOrForeignFile() throws IOException {
+        assertNull(IngestManifest.load(tempDir.resolve("missing")));
+        assertNull(IngestManifest.load(Files.writeString(tempDir.resolve("other"), "not a manifest\n")));
+    }
+
+    @Test
+    void testEscapeRoundTrip() {
+        String name = "a\tb\\c\nd\re";
+        assertEquals(name, IngestManifest.unescape(IngestManifest.escape(name)));
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class InputRangesTest {
+
+    @Test
+    void testAdd_MergesOverlappingAndTouchingRanges() {
+        InputRanges ranges = new InputRanges();
+        ranges.add(10, 20);
+        ranges.add(30, 40);
+        ranges.add(20, 25);
+        ranges.add(50, 50);
+
+        assertEquals(Map.of(10L, 25L, 30L, 40L), ranges.ranges());
+
+        ranges.add(5, 35);
+        assertEquals(Map.of(5L, 40L), ranges.ranges());
+        assertEquals(35, ranges.bytes());
+    }
+
+    @Test
+    void testSkipFromAndNextStart() {
+        InputRanges ranges = new InputRanges();
+        ranges.add(10, 20);
+        ranges.add(30, 40);
+
+        assertEquals(-1, ranges.skipFrom(9));
+        assertEquals(20, ranges.skipFrom(10));
+        assertEquals(20, ranges.skipFrom(19));
+        assertEquals(-1, ranges.skipFrom(20));
+        assertEquals(30, ranges.nextStart(20));
+        assertEquals(Long.MAX_VALUE, ranges.nextStart(30));
+    }
+}
@@ -147,4 +147,79 @@ class JsonOutputFormatterTest {
 
         assertEquals(expected, outContent.toString());
     }
+
+    @Test
+    void testPrintSweep() {
+        ScheduleBucket throttled = new ScheduleBucket(10, 5, Map.of("A", 5), Map.of("A", 8), Map.of("A", 1));
+        ScheduleBucket healthy = new ScheduleBucket(10, 8, Map.of("A", 8), Map.of("A", 8), Map.of("A", 1));
+
+        formatter.printSweep(new CapacitySweep(new int[] {5, 10}, List.of(List.of(throttled), List.of(healthy))));
+
+        String expected = "{\n" +
+                "  \"minimumCapacity\": 8,\n" +
+                "  \"minimumCapacityByHour\": {\n" +
+                "    \"10\": 8\n" +
+                "  },\n" +
+                "  \"sweep\": [\n" +
+                "    {\n" +
+                "      \"capacity\": 5,\n" +
+                "      \"throttledBuckets\": 1,\n" +
+                "      \"schedule\": [\n" +
+                "        {\n" +
+                "          \"hour\": 10,\n" +
+                "          \"totalAgents\": 5,\n" +
+                "          \"allocations\": {\n" +
+                "            \"A\": 5\n" +
+                "          },\n" +
+                "          \"demands\": {\n" +
+                "            \"A\": 8\n" +
+                "          }\n" +
+                "        }\n" +
+                "      ]\n" +
+                "    },\n" +
+                "    {\n" +
+                "      \"capacity\": 10,\n" +
+                "      \"throttledBuckets\": 0,\n" +
+                "      \"schedule\": [\n" +
+                "        {\n" +
+                "          \"hour\": 10,\n" +
+                "          \"totalAgents\": 8,\n" +
+                "          \"allocations\": {\n" +
+                "            \"A\": 8\n" +
+                "          }\n" +
+                "        }\n" +
+                "      ]\n" +
+                "    }\n" +
+                "  ]\n" +
+                "}" + System.lineSeparator();
+
+        assertEquals(expected, outContent.toString());
+    }
+
+    @Test
+    void testPrintScenarios() {
+        ScheduleBucket healthy = new ScheduleBucket(10, 6, Map.of("A", 6), Map.of("A", 6), Map.of("A", 1));
+
+        formatter.printScenarios(new Scenarios(List.of(new Scenarios.Scenario(0.7f, 0)), List.of(List.of(healthy))));
+
+        String expected = "{\n" +
+                "  \"scenarios\": [\n" +
+                "    {\n" +
+                "      \"utilization\": 0.7,\n" +
+                "      \"capacity\": 0,\n" +
+                "      \"throttledBuckets\": 0,\n" +
+                "      \"schedule\": [\n" +
+                "        {\n" +
+                "          \"hour\": 10,\n" +
+                "          \"totalAgents\": 6,\n" +
+                "          \"allocations\": {\n" +
+                "            \"A\": 6\n" +
+                "          }\n" +
+                "        }\n" +
+                "      ]\n" +
+                "    }\n" +
+                "  ]\n" +
+                "}";
+        assertEquals(expected, outContent.toString().trim().replace("\r\n", "\n"));
+    }
 }
@@ -0,0 +1,110 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class LargestRemainderTest {
+
+    @Test
+    void testAllocate_LargestLossesGetTheLeftovers() {
+        // 10 of 15 agents: shares 3.33, 3.33 and 3.33 floor to 3 each, leaving one for the first.
+        int[] granted = LargestRemainder.allocate(new int[] {5, 5, 5}, new int[] {1, 1, 1}, 3, 10, 15);
+
+        assertArrayEquals(new int[] {4, 3, 3}, granted);
+    }
+
+    @Test
+    void testAllocate_TiedLossesGoToEarlierRequests() {
+        // One copy of a request and four of another, all losing the same: the first copies win.
+        int[] granted = LargestRemainder.allocate(new int[] {1, 1}, new int[] {1, 4}, 2, 2, 5);
+
+        assertArrayEquals(new int[] {1, 1}, granted);
+    }
+
+    @Test
+    void testAllocate_TieBreakChoosesAmongTiedRequests() {
+        // A tie break that favours the last tied request, as a later arrival order might.
+        LargestRemainder.TieBreak lastFirst = (tied, counts, units, granted) -> {
+            for (int i = tied.length - 1; i >= 0 && units > 0; i--) {
+                if (tied[i]) {
+                    int given = Math.min(counts[i], units);
+                    granted[i] += given;
+                    units -= given;
+                }
+            }
+        };
+
+        int[] granted = LargestRemainder.allocate(new int[] {1, 1}, new int[] {1, 4}, 2, 2, 5, lastFirst);
+
+        assertArrayEquals(new int[] {0, 2}, granted);
+    }
+
+    @Test
+    void testAllocate_MatchesSortingByLoss() {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 2000; trial++) {
+            int size = 1 + random.nextInt(40);
+            int[] agents = new int[size];
+            int[] counts = new int[size];
+            int demand = 0;
+            for (int i = 0; i < size; i++) {
+                // Few distinct values, so losses and remainders tie often.
+                agents[i] = 1 + random.nextInt(trial % 2 == 0 ? 4 : 50);
+                counts[i] = 1 + random.nextInt(trial % 3 == 0 ? 1 : 6);
+                demand += agents[i] * counts[i];
+            }
+            int capacity = 1 + random.nextInt(demand - 1 > 0 ? demand - 1 : 1);
+
+            int[] granted = LargestRemainder.allocate(agents, counts, size, capacity, demand);
+
+            assertArrayEquals(sortingByLoss(agents, counts, capacity, demand), granted, "trial " + trial);
+            assertEquals(capacity, Arrays.stream(granted).sum(), "trial " + trial);
+        }
+    }
+
+    @Test
+    void testThreshold_FindsTheKeyWhereTheWeightRunsOut() {
+        long[] keys = {5, 1, 9, 5, 3};
+        long[] weights = {2, 1, 1, 3, 4};
+
+        assertEquals(9, LargestRemainder.threshold(keys, weights, 5, 1));
+        assertEquals(5, LargestRemainder.threshold(keys, weights, 5, 2));
+        assertEquals(5, LargestRemainder.threshold(keys, weights, 5, 6));
+        assertEquals(3, LargestRemainder.threshold(keys, weights, 5, 7));
+        assertEquals(1, LargestRemainder.threshold(keys, weights, 5, 11));
+    }
+
+    /**
+     * The split as found by listing every copy as a request of its own, stably sorting them by
+     * rounding loss and handing the leftovers out one at a time, wrapping around.
+     */
+    private static int[] sortingByLoss(int[] agents, int[] counts, int capacity, int demand) {
+        int size = agents.length;
+        double ratio = (double) capacity / demand;
+        int[] granted = new int[size];
+        List<Integer> copies = new ArrayList<>();
+        double[] losses = new double[size];
+        int leftovers = capacity;
+        for (int i = 0; i < size; i++) {
+            double exactShare = agents[i] * ratio;
+            int flooredShare = (int) Math.floor(exactShare);
+            granted[i] = flooredShare * counts[i];
+            leftovers -= flooredShare * counts[i];
+            losses[i] = exactShare - flooredShare;
+            for (int c = 0; c < counts[i]; c++) {
+                copies.add(i);
+            }
+        }
+        copies.sort((a, b) -> Double.compare(losses[b], losses[a]));
+        for (int i = 0; i < leftovers; i++) {
+            granted[copies.get(i % copies.size())]++;
+        }
+        return granted;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+class LoadDictionaryTest {
+
+    @Test
+    void testIdOf_InternsLoadsExactly() {
+        LoadDictionary loads = new LoadDictionary();
+        double third = 1.0 / 3;
+        int first = loads.idOf(third);
+
+        assertEquals(first, loads.idOf(1.0 / 3));
+        // One ulp apart is another load.
+        assertNotEquals(first, loads.idOf(Math.nextUp(third)));
+        assertEquals(third, loads.loadOf(first));
+        assertEquals(2, loads.size());
+    }
+
+    @Test
+    void testAgents_AsRequestProcessorAppliesUtilization() {
+        LoadDictionary loads = new LoadDictionary();
+        // 1650 calls * 300s / 3600 = 137.5 agents before utilization.
+        double load = (1650.0 * 300) / 3600;
+        int id = loads.idOf(load);
+
+        for (float utilization : new float[] {0.1f, 0.3f, 0.7f, 0.8f, 0.9f, 1.0f}) {
+            assertEquals((int) Math.ceil((1650.0 * 300) / 3600 * utilization), loads.agents(id, utilization));
+        }
+    }
+
+    @Test
+    void testIdOf_ConcurrentCallersAgree() throws Exception {
+        LoadDictionary loads = new LoadDictionary();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(executor.submit(() -> {
+                    int[] ids = new int[2000];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = loads.idOf(i / 7.0);
+                    }
+                    return ids;
+                }));
+            }
+            int[] expected = results.get(0).get();
+            for (Future<int[]> result : results) {
+                int[] ids = result.get();
+                for (int i = 0; i < ids.length; i++) {
+                    assertEquals(expected[i], ids[i]);
+                    assertEquals(i / 7.0, loads.loadOf(ids[i]));
+                }
+            }
+            assertEquals(2000, loads.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
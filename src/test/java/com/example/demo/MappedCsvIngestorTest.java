@@ -0,0 +1,137 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedCsvIngestorTest {
+
+    private final CustomerDictionary customers = new CustomerDictionary();
+
+    private static final String HEADER =
+        "CustomerName,NumberOfCalls,AverageCallDurationSeconds,Priority,StartTimePT,EndTimePT\n";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSplit_RangesAlignToLineBoundaries() throws IOException {
+        Path input = writeCsv(100);
+        MappedCsvIngestor ingestor = new MappedCsvIngestor(input, 7, 10, customers);
+
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            List<MappedCsvIngestor.ByteRange> ranges = ingestor.split(channel, HEADER.length());
+
+            assertEquals(HEADER.length(), ranges.get(0).start());
+            assertEquals(channel.size(), ranges.get(ranges.size() - 1).end());
+            for (int i = 0; i < ranges.size(); i++) {
+                MappedCsvIngestor.ByteRange range = ranges.get(i);
+                assertTrue(range.length() > 0);
+                if (i > 0) {
+                    assertEquals(ranges.get(i - 1).end(), range.start());
+                }
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, range.end() - 1);
+                assertEquals('\n', last.get(0));
+            }
+        }
+    }
+
+    @Test
+    void testIngest_EveryRecordDeliveredOnce() throws IOException {
+        Path input = writeCsv(1000);
+        MappedCsvIngestor ingestor = new MappedCsvIngestor(input, 4, 64, customers);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        AtomicInteger records = new AtomicInteger();
+
+        try {
+            ingestor.ingest(executor, batch -> {
+                assertTrue(batch.size() <= 64);
+                for (int row = 0; row < batch.size(); row++) {
+                    names.add(customers.nameOf(batch.customerId(row)));
+                    records.incrementAndGet();
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1000, records.get());
+        assertEquals(1000, names.size());
+    }
+
+    @Test
+    void testIngest_HeaderOnly() throws IOException {
+        Path input = tempDir.resolve("empty.csv");
+        Files.writeString(input, HEADER);
+        MappedCsvIngestor ingestor = new MappedCsvIngestor(input, 4, 64, customers);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicInteger records = new AtomicInteger();
+
+        try {
+            ingestor.ingest(executor, batch -> records.addAndGet(batch.size()));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(0, records.get());
+    }
+
+    @Test
+    void testIngest_SkipsRangesAndRecordsOffsets() throws IOException {
+        Path input = writeCsv(1000);
+        // Skip rows 100 to 599; every row has the same length.
+        long rowBytes = (Files.size(input) - HEADER.length()) / 1000;
+        InputRanges skipped = new InputRanges();
+        skipped.add(HEADER.length() + 100 * rowBytes, HEADER.length() + 600 * rowBytes);
+        MappedCsvIngestor ingestor = new MappedCsvIngestor(input, 4, 64, customers);
+        ingestor.skip(skipped);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        InputRanges covered = new InputRanges();
+
+        try {
+            ingestor.ingest(executor, batch -> {
+                for (int row = 0; row < batch.size(); row++) {
+                    names.add(customers.nameOf(batch.customerId(row)));
+                }
+                synchronized (covered) {
+                    covered.add(batch.startOffset(), batch.endOffset());
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(500, names.size());
+        assertTrue(names.contains("Customer1099") && !names.contains("Customer1100"));
+        covered.add(HEADER.length() + 100 * rowBytes, HEADER.length() + 600 * rowBytes);
+        assertEquals(Files.size(input) - HEADER.length(), covered.bytes());
+    }
+
+    private Path writeCsv(int rows) throws IOException {
+        StringBuilder sb = new StringBuilder(HEADER);
+        for (int i = 0; i < rows; i++) {
+            // Four-digit numbers keep every row the same length.
+            sb.append("Customer").append(1000 + i).append(",10,360,1,10:00 AM,11:00 AM\n");
+        }
+        Path input = tempDir.resolve("input.csv");
+        Files.writeString(input, sb.toString());
+        return input;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.jupiter.api.Test;
+
+class OffHeapArenaTest {
+
+    @Test
+    void testAllocate_DirectNativeOrderZeroed() {
+        OffHeapArena arena = new OffHeapArena();
+        ByteBuffer buffer = arena.allocate(64);
+
+        assertTrue(buffer.isDirect());
+        assertEquals(ByteOrder.nativeOrder(), buffer.order());
+        assertEquals(64, buffer.capacity());
+        for (int i = 0; i < 64; i++) {
+            assertEquals(0, buffer.get(i));
+        }
+    }
+
+    @Test
+    void testReleaseAll_TracksBytes() {
+        OffHeapArena arena = new OffHeapArena();
+        arena.allocate(100);
+        arena.allocate(200);
+
+        assertEquals(300, arena.allocatedBytes());
+        assertEquals(300, arena.peakBytes());
+
+        arena.releaseAll();
+        arena.allocate(50);
+
+        assertEquals(50, arena.allocatedBytes());
+        assertEquals(300, arena.peakBytes());
+        assertEquals(300, arena.releasedBytes());
+    }
+}
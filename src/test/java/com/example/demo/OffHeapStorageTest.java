@@ -0,0 +1,107 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class OffHeapStorageTest {
+
+    private final OffHeapStorage storage = new OffHeapStorage(64L * 1024 * 1024);
+
+    @AfterEach
+    void tearDown() {
+        storage.cleanupIntermediateFiles();
+    }
+
+    @Test
+    void testChunkLayout() {
+        assertEquals(0, OffHeapStorage.chunkOf(0));
+        assertEquals(0, OffHeapStorage.chunkOf(1023));
+        assertEquals(1, OffHeapStorage.chunkOf(1024));
+        assertEquals(2, OffHeapStorage.chunkOf(3 * 1024));
+        assertEquals(6, OffHeapStorage.chunkOf(127 * 1024 - 1));
+        assertEquals(7, OffHeapStorage.chunkOf(127 * 1024));
+        assertEquals(8, OffHeapStorage.chunkOf(127 * 1024 + 64 * 1024));
+        for (int chunk = 0; chunk < 10; chunk++) {
+            assertEquals(OffHeapStorage.chunkStart(chunk) + OffHeapStorage.chunkRecords(chunk), OffHeapStorage.chunkStart(chunk + 1));
+            assertEquals(chunk, OffHeapStorage.chunkOf(OffHeapStorage.chunkStart(chunk)));
+        }
+    }
+
+    @Test
+    void testStoreAndFetch_SpansGrowingChunks() {
+        List<AllocationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 200000; i++) {
+            requests.add(new AllocationRequest(i % 100, i, i % 3, 1 + i % 2, i % 4 << 8 | 4, 1000L * i, 1000L * i + i % 7));
+        }
+        storage.storeIntermediateData(4, requests.subList(0, 500));
+        storage.storeIntermediateData(4, requests.subList(500, requests.size()));
+
+        assertEquals(requests, storage.fetchInterMediateData(4));
+        assertTrue(storage.fetchInterMediateData(5).isEmpty());
+    }
+
+    @Test
+    void testStore_ConcurrentAppends() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int writer = t;
+                futures.add(executor.submit(() -> {
+                    for (int batch = 0; batch < 200; batch++) {
+                        List<AllocationRequest> requests = new ArrayList<>();
+                        for (int i = 0; i < 100; i++) {
+                            requests.add(new AllocationRequest(writer, batch, 1));
+                        }
+                        storage.storeIntermediateData(9, requests);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        int[] perWriter = new int[4];
+        storage.forEachIntermediateData(9, (customerId, agents, priority, count, span, firstArrival, lastArrival) -> perWriter[customerId] += count);
+        for (int count : perWriter) {
+            assertEquals(200 * 100, count);
+        }
+    }
+
+    @Test
+    void testStore_OverLimitFails() {
+        storage.setLimitBytes(10 * OffHeapStorage.RECORD_BYTES);
+        storage.storeIntermediateData(1, List.of(new AllocationRequest(1, 1, 1)));
+
+        List<AllocationRequest> tooMany = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tooMany.add(new AllocationRequest(2, 1, 1));
+        }
+        assertThrows(IllegalStateException.class, () -> storage.storeIntermediateData(1, tooMany));
+        assertEquals(1, storage.fetchInterMediateData(1).size());
+    }
+
+    @Test
+    void testCleanup_ReleasesMemory() {
+        storage.storeIntermediateData(1, List.of(new AllocationRequest(1, 1, 1)));
+        assertEquals(OffHeapStorage.MIN_CHUNK_RECORDS * OffHeapStorage.RECORD_BYTES, storage.allocatedBytes());
+
+        storage.cleanupIntermediateFiles();
+
+        assertEquals(0, storage.allocatedBytes());
+        assertTrue(storage.fetchInterMediateData(1).isEmpty());
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class PartitionedStorageTest {
+
+    private final CustomerDictionary customers = new CustomerDictionary();
+
+    @Test
+    void testStore_GroupsEachPriorityInArrivalOrder() {
+        Storage storage = mock(Storage.class);
+        PartitionedStorage partitioned = new PartitionedStorage(storage, TimeBuckets.HOURLY);
+
+        partitioned.storeIntermediateData(5, List.of(
+            new AllocationRequest(customers.idOf("A"), 1, 3),
+            new AllocationRequest(customers.idOf("B"), 2, 1),
+            new AllocationRequest(customers.idOf("C"), 3, 3),
+            new AllocationRequest(customers.idOf("D"), 4, 1)
+        ));
+
+        verify(storage).storeIntermediateData(5, 1, List.of(new AllocationRequest(customers.idOf("B"), 2, 1), new AllocationRequest(customers.idOf("D"), 4, 1)));
+        verify(storage).storeIntermediateData(5, 3, List.of(new AllocationRequest(customers.idOf("A"), 1, 3), new AllocationRequest(customers.idOf("C"), 3, 3)));
+        verify(storage, never()).storeIntermediateData(eq(5), eq(2), anyList());
+        verify(storage, never()).storeIntermediateData(anyInt(), anyList());
+    }
+
+    @Test
+    void testStore_WidePriorityRange() {
+        Storage storage = mock(Storage.class);
+        PartitionedStorage partitioned = new PartitionedStorage(storage, TimeBuckets.HOURLY);
+
+        partitioned.storeIntermediateData(5, List.of(
+            new AllocationRequest(customers.idOf("A"), 1, 100000),
+            new AllocationRequest(customers.idOf("B"), 2, -5)
+        ));
+
+        verify(storage).storeIntermediateData(5, -5, List.of(new AllocationRequest(customers.idOf("B"), 2, -5)));
+        verify(storage).storeIntermediateData(5, 100000, List.of(new AllocationRequest(customers.idOf("A"), 1, 100000)));
+    }
+
+    @Test
+    void testDemandTotals_FollowTheStoredRequests() {
+        PartitionedStorage partitioned = new PartitionedStorage(new InMemoryStorage(), TimeBuckets.HOURLY);
+        partitioned.storeIntermediateData(2, List.of(
+            new AllocationRequest(customers.idOf("B"), 5, 2),
+            new AllocationRequest(customers.idOf("A"), 3, 1, 2)
+        ));
+        partitioned.storeIntermediateData(2, List.of(new AllocationRequest(customers.idOf("B"), 1, 1)));
+
+        DemandTotals totals = partitioned.demandTotals(2);
+
+        assertEquals(Map.of("B", 6, "A", 6), totals.demands().toMap(customers));
+        assertEquals(List.of("B", "A"), new ArrayList<>(totals.demands().toMap(customers).keySet()));
+        // B's latest request was at priority 1.
+        assertEquals(1, totals.priorities().toMap(customers).get("B"));
+        List<DemandTotals.Tier> tiers = new ArrayList<>(totals.tiers());
+        assertEquals(1, tiers.get(0).priority());
+        assertEquals(7, tiers.get(0).demand());
+        assertEquals(List.of("A", "B"), new ArrayList<>(tiers.get(0).customers().toMap(customers).keySet()));
+        assertEquals(5, tiers.get(1).demand());
+        assertTrue(partitioned.demandTotals(3).isEmpty());
+    }
+
+    @Test
+    void testDemandTotals_FollowArrivalsUnderConcurrentStores() throws Exception {
+        PartitionedStorage partitioned = new PartitionedStorage(new InMemoryStorage(), TimeBuckets.HOURLY);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int worker = 0; worker < 4; worker++) {
+                final int w = worker;
+                futures.add(executor.submit(() -> {
+                    // Workers' rows interleave in the input: row i of worker w arrives at 4i + w.
+                    for (int i = 0; i < 500; i++) {
+                        int customerId = customers.idOf("W" + w + "-" + i);
+                        long arrival = 4L * i + w;
+                        partitioned.storeIntermediateData(0, List.of(
+                            new AllocationRequest(customerId, 1, 2, 1, TimeBuckets.WHOLE_HOUR, arrival, arrival),
+                            new AllocationRequest(customerId, 1, 1, 1, TimeBuckets.WHOLE_HOUR, arrival, arrival)));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<String> inArrivalOrder = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            for (int w = 0; w < 4; w++) {
+                inArrivalOrder.add("W" + w + "-" + i);
+            }
+        }
+        for (DemandTotals.Tier tier : partitioned.demandTotals(0).tiers()) {
+            assertEquals(inArrivalOrder, new ArrayList<>(tier.customers().toMap(customers).keySet()));
+        }
+        assertEquals(inArrivalOrder, new ArrayList<>(partitioned.demandTotals(0).demands().toMap(customers).keySet()));
+    }
+
+    @Test
+    void testStore_WritesOutsideTheTotalsLock() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Storage storage = mock(Storage.class);
+        doAnswer(invocation -> {
+            writing.countDown();
+            release.await();
+            return null;
+        }).when(storage).storeIntermediateData(eq(3), eq(1), anyList());
+        PartitionedStorage partitioned = new PartitionedStorage(storage, TimeBuckets.HOURLY);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> slow = executor.submit(() -> partitioned.storeIntermediateData(3, List.of(new AllocationRequest(customers.idOf("A"), 1, 1))));
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+            // The same hour takes another block while the first one is still being written.
+            partitioned.storeIntermediateData(3, List.of(new AllocationRequest(customers.idOf("B"), 2, 2)));
+
+            assertEquals(Map.of("A", 1, "B", 2), partitioned.demandTotals(3).demands().toMap(customers));
+            release.countDown();
+            slow.get();
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testIntermediateRecords_CountedWhenTheStorageCannotTell() {
+        Storage storage = mock(Storage.class);
+        when(storage.intermediateRecords(anyInt())).thenReturn(-1L);
+        PartitionedStorage partitioned = new PartitionedStorage(storage, TimeBuckets.HOURLY);
+        partitioned.storeIntermediateData(2, List.of(new AllocationRequest(customers.idOf("A"), 1, 1), new AllocationRequest(customers.idOf("B"), 1, 2)));
+        partitioned.storeIntermediateData(2, List.of(new AllocationRequest(customers.idOf("C"), 1, 1)));
+
+        assertEquals(3, partitioned.intermediateRecords(2));
+        assertEquals(0, partitioned.intermediateRecords(3));
+
+        when(storage.intermediateRecords(2)).thenReturn(7L);
+        assertEquals(7, partitioned.intermediateRecords(2));
+    }
+
+    @Test
+    void testDemandTotals_OffWhenIncomplete() {
+        PartitionedStorage partitioned = new PartitionedStorage(new InMemoryStorage(), TimeBuckets.HOURLY);
+        partitioned.storeIntermediateData(2, List.of(new AllocationRequest(customers.idOf("A"), 1, 1)));
+
+        partitioned.setTotalsComplete(false);
+
+        assertNull(partitioned.demandTotals(2));
+    }
+
+    @Test
+    void testReads_AreCountedPerPartitionAndBucket() {
+        PartitionedStorage partitioned = new PartitionedStorage(new InMemoryStorage(), TimeBuckets.HOURLY);
+        partitioned.storeIntermediateData(2, List.of(new AllocationRequest(customers.idOf("A"), 1, 1), new AllocationRequest(customers.idOf("B"), 1, 2)));
+
+        List<AllocationRequest> visited = new ArrayList<>();
+        partitioned.forEachIntermediateData(2, 2, (customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+            visited.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+        partitioned.forEachIntermediateData(2, (customerId, agents, priority, count, span, firstArrival, lastArrival) -> { });
+
+        assertEquals(List.of(new AllocationRequest(customers.idOf("B"), 1, 2)), visited);
+        assertEquals("2 partition writes, Step 2 read 1 partitions and 1 whole buckets", partitioned.summary());
+    }
+}
@@ -3,21 +3,28 @@ package com.example.demo;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class PersistentStorageTest {
 
+    private final CustomerDictionary customers = new CustomerDictionary();
+
     private PersistentStorage storage;
 
     @BeforeEach
@@ -45,8 +52,8 @@ class PersistentStorageTest {
     void testStoreAndFetchIntermediateData() {
         int index = 1;
         List<AllocationRequest> requests = List.of(
-            new AllocationRequest("CustomerA", 5, 1),
-            new AllocationRequest("CustomerB", 10, 2)
+            new AllocationRequest(customers.idOf("CustomerA"), 5, 1),
+            new AllocationRequest(customers.idOf("CustomerB"), 10, 2)
         );
 
         storage.storeIntermediateData(index, requests);
@@ -61,8 +68,8 @@ class PersistentStorageTest {
     @Test
     void testStoreAndFetchIntermediateDataMultipleBatches() {
         int index = 2;
-        List<AllocationRequest> batch1 = List.of(new AllocationRequest("A", 1, 1));
-        List<AllocationRequest> batch2 = List.of(new AllocationRequest("B", 2, 1));
+        List<AllocationRequest> batch1 = List.of(new AllocationRequest(customers.idOf("A"), 1, 1));
+        List<AllocationRequest> batch2 = List.of(new AllocationRequest(customers.idOf("B"), 2, 1));
 
         // Store multiple batches for the same index (simulating multiple files)
         storage.storeIntermediateData(index, batch1);
@@ -129,23 +136,209 @@ class PersistentStorageTest {
     }
 
     @Test
-    void testFetchIntermediateDataWithMissingFile() throws Exception {
-        // 1. Inject a non-existent file path into the map using reflection
-        Field mapField = PersistentStorage.class.getDeclaredField("intermediateFileMap");
-        mapField.setAccessible(true);
-        @SuppressWarnings("unchecked")
-        Map<Integer, List<String>> map = (Map<Integer, List<String>>) mapField.get(storage);
-
-        int index = 99;
-        List<String> files = new ArrayList<>();
-        files.add("non_existent_file.dat");
-        map.put(index, files);
-
-        // 2. Fetch - should handle exception internally (NoSuchFileException) and return empty list
-        List<AllocationRequest> result = storage.fetchInterMediateData(index);
+    void testFetchIntermediateDataWithTruncatedSegment(@TempDir Path tempDir) throws Exception {
+        PersistentStorage tempStorage = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        int index = 9;
+        tempStorage.storeIntermediateData(index, List.of(new AllocationRequest(customers.idOf("A"), 1, 1)));
+        // Let the background writer finish before tampering with the file.
+        tempStorage.flushIntermediateData();
+
+        // Cut the segment short so the block can no longer be read
+        try (Stream<Path> files = Files.list(tempDir)) {
+            for (Path file : files.toList()) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(4);
+                }
+            }
+        }
+
+        // Fetch - should handle the exception internally and return an empty list
+        List<AllocationRequest> result = tempStorage.fetchInterMediateData(index);
 
         assertNotNull(result);
         assertTrue(result.isEmpty());
+        tempStorage.cleanupIntermediateFiles();
+    }
+
+    @Test
+    void testIntermediateDataUsesOneFilePerHour(@TempDir Path tempDir) throws Exception {
+        PersistentStorage tempStorage = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        for (int batch = 0; batch < 50; batch++) {
+            for (int hour = 0; hour < 3; hour++) {
+                tempStorage.storeIntermediateData(hour, List.of(new AllocationRequest(customers.idOf("A"), batch, 1)));
+            }
+        }
+        tempStorage.flushIntermediateData();
+
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(3, files.count());
+        }
+        assertEquals(50, tempStorage.fetchInterMediateData(2).size());
+
+        tempStorage.cleanupIntermediateFiles();
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testCompressedIntermediateDataAndSchedule(@TempDir Path tempDir) {
+        PersistentStorage tempStorage = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        tempStorage.setCompression(Constants.Compression.DEFLATE);
+        List<AllocationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            requests.add(new AllocationRequest(customers.idOf("Customer" + (i % 7)), 1 + i % 3, 1 + i % 2));
+        }
+        tempStorage.storeIntermediateData(4, requests);
+        assertEquals(requests, tempStorage.fetchInterMediateData(4));
+
+        Map<String, Integer> allocations = new HashMap<>();
+        allocations.put("CustomerA", 5);
+        Map<String, Integer> priorityMap = new HashMap<>();
+        priorityMap.put("CustomerA", 1);
+        ScheduleBucket bucket = new ScheduleBucket(4, 5, allocations, allocations, priorityMap);
+        tempStorage.storeSchedule(List.of(bucket));
+        assertEquals(List.of(bucket), tempStorage.fetchSchedule());
+
+        assertTrue(tempStorage.statistics().startsWith("blocks deflate-1:"), tempStorage.statistics());
+        tempStorage.cleanupIntermediateFiles();
+    }
+
+    @Test
+    void testResumeRestoresCommittedBatchesOnly(@TempDir Path tempDir) throws Exception {
+        Path input = Files.writeString(tempDir.resolve("input.csv"), "header\nrows\n");
+        PersistentStorage crashed = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        // Blocks are written and committed before commitInput returns, so the crash point is exact.
+        crashed.setWriteQueueBytes(0);
+        crashed.beginIngest(input);
+        crashed.storeIntermediateData(3, List.of(new AllocationRequest(customers.idOf("ResumeA"), 1, 1)));
+        crashed.commitInput(7, 12);
+        // Stored but never committed, as if the JVM died mid-batch.
+        crashed.storeIntermediateData(3, List.of(new AllocationRequest(customers.idOf("ResumeB"), 2, 1)));
+
+        PersistentStorage resumed = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        IngestManifest.Contents contents = resumed.resume(input);
+
+        assertNotNull(contents);
+        assertEquals(1, contents.blockCount());
+        assertEquals(Map.of(7L, 12L), contents.ingested().ranges());
+        assertEquals(List.of(new AllocationRequest(customers.idOf("ResumeA"), 1, 1)), resumed.fetchInterMediateData(3));
+
+        // New batches extend the same manifest.
+        resumed.storeIntermediateData(3, List.of(new AllocationRequest(customers.idOf("ResumeC"), 3, 1)));
+        resumed.commitInput(12, 20);
+        resumed.flushIntermediateData();
+        assertEquals(Map.of(7L, 20L), IngestManifest.load(resumed.manifestPath()).ingested().ranges());
+        resumed.cleanupIntermediateFiles();
+    }
+
+    @Test
+    void testResumeAfterCompactionAndSchedule(@TempDir Path tempDir) throws Exception {
+        Path input = Files.writeString(tempDir.resolve("input.csv"), "header\nrows\n");
+        PersistentStorage first = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        first.beginIngest(input);
+        for (int batch = 0; batch < 50; batch++) {
+            first.storeIntermediateData(5, List.of(new AllocationRequest(customers.idOf("A"), batch, 1)));
+            first.commitInput(batch, batch + 1);
+        }
+        first.flushIntermediateData();
+        // The compacted segment replaced the original file.
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(1, files.filter(file -> file.toString().endsWith(".seg")).count());
+        }
+
+        PersistentStorage second = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        second.resume(input);
+        assertEquals(50, second.fetchInterMediateData(5).size());
+
+        Map<String, Integer> allocations = Map.of("A", 5);
+        ScheduleBucket bucket = new ScheduleBucket(5, 5, allocations, allocations, Map.of("A", 1));
+        second.storeSchedule(List.of(bucket));
+        second.cleanupIntermediateFiles();
+
+        PersistentStorage third = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        third.resume(input);
+        assertEquals(List.of(bucket), third.fetchSchedule());
+    }
+
+    @Test
+    void testResumeRejectsChangedInputOrSettings(@TempDir Path tempDir) throws Exception {
+        Path input = Files.writeString(tempDir.resolve("input.csv"), "header\nrows\n");
+        PersistentStorage first = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        first.beginIngest(input);
+        first.commitInput(0, 5);
+
+        PersistentStorage otherBuckets = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        otherBuckets.setTimeBuckets(new TimeBuckets(15));
+        assertThrows(IOException.class, () -> otherBuckets.resume(input));
+
+        Files.writeString(input, "header\nrows\nmore rows\n");
+        PersistentStorage changedInput = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        assertThrows(IOException.class, () -> changedInput.resume(input));
+        // Reduce-only does not look at the input.
+        assertNotNull(changedInput.resume(null));
+
+        assertNull(new PersistentStorage(LocalDate.now(), tempDir.resolve("empty").toString()).resume(input));
+    }
+
+    @Test
+    void testSpillDirectoriesSurviveResume(@TempDir Path tempDir) throws Exception {
+        Path input = Files.writeString(tempDir.resolve("input.csv"), "header\nrows\n");
+        List<Path> disks = List.of(Files.createDirectory(tempDir.resolve("disk0")), Files.createDirectory(tempDir.resolve("disk1")));
+        PersistentStorage first = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        first.setSpillDirectories(disks);
+        first.beginIngest(input);
+        for (int hour = 0; hour < 4; hour++) {
+            first.storeIntermediateData(hour, List.of(new AllocationRequest(customers.idOf("A"), hour, 1)));
+        }
+        first.commitInput(7, 12);
+        first.flushIntermediateData();
+        assertEquals(2, first.devices());
+        assertEquals(1, first.deviceOf(3));
+
+        PersistentStorage second = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        second.setSpillDirectories(disks);
+        second.resume(input);
+
+        for (int hour = 0; hour < 4; hour++) {
+            assertEquals(List.of(new AllocationRequest(customers.idOf("A"), hour, 1)), second.fetchInterMediateData(hour));
+        }
+        try (Stream<Path> files = Files.list(disks.get(1))) {
+            assertEquals(2, files.count());
+        }
+        second.cleanupIntermediateFiles();
+    }
+
+    @Test
+    void testQueuedWritesAreCommittedOnceWritten(@TempDir Path tempDir) throws Exception {
+        Path input = Files.writeString(tempDir.resolve("input.csv"), "header\nrows\n");
+        PersistentStorage queued = new PersistentStorage(LocalDate.now(), tempDir.toString());
+        queued.setWriteQueueBytes(16 * 1024);
+        queued.beginIngest(input);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int batch = 0; batch < 25; batch++) {
+                    queued.storeIntermediateData(thread, List.of(new AllocationRequest(customers.idOf("Queued"), batch, 1)));
+                    long start = (thread * 25L + batch) * 10;
+                    queued.commitInput(start, start + 10);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        queued.flushIntermediateData();
+
+        assertEquals(Map.of(0L, 1000L), IngestManifest.load(queued.manifestPath()).ingested().ranges());
+        for (int t = 0; t < threads.length; t++) {
+            assertEquals(25, queued.fetchInterMediateData(t).size());
+        }
+        assertTrue(queued.statistics().contains(", 100 blocks in "), queued.statistics());
+        queued.cleanupIntermediateFiles();
     }
 
     @Test
@@ -0,0 +1,121 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+class RequestColumnsTest {
+
+    private final CustomerDictionary customers = new CustomerDictionary();
+
+    @Test
+    void testAppendAll_SpansChunks() {
+        RequestColumns columns = new RequestColumns();
+        List<AllocationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            requests.add(new AllocationRequest(customers.idOf("A"), i, i % 3, 1 + i % 2, i % 4 << 8 | 4, 10L * i, 10L * i + i % 5));
+        }
+
+        columns.appendAll(requests);
+        RequestColumns.View view = columns.view();
+
+        assertEquals(2500, view.size());
+        assertEquals(requests, view);
+        assertEquals(2499, view.agents(2499));
+        assertEquals(2, view.count(1025));
+        assertEquals(1 << 8 | 4, view.span(1025));
+        assertEquals(customers.idOf("A"), view.customerId(1024));
+        assertEquals(10250, view.firstArrival(1025));
+        assertEquals(10250, view.lastArrival(1025));
+        assertEquals(10261, view.lastArrival(1026));
+    }
+
+    @Test
+    void testForEach_StreamsEveryRecordInOrder() {
+        RequestColumns columns = new RequestColumns();
+        List<AllocationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 2100; i++) {
+            requests.add(new AllocationRequest(customers.idOf("A"), i, i % 3, 1 + i % 2));
+        }
+        columns.appendAll(requests);
+
+        List<AllocationRequest> visited = new ArrayList<>();
+        columns.forEach((customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+            visited.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+
+        assertEquals(requests, visited);
+    }
+
+    @Test
+    void testForEachRange_StreamsThePositionsAcrossChunks() {
+        RequestColumns columns = new RequestColumns();
+        List<AllocationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 2100; i++) {
+            requests.add(new AllocationRequest(customers.idOf("A"), i, i % 3, 1 + i % 2));
+        }
+        columns.appendAll(requests);
+
+        List<AllocationRequest> visited = new ArrayList<>();
+        columns.forEach(1000, 2050, (customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+            visited.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+        columns.forEach(5, 5, (customerId, agents, priority, count, span, firstArrival, lastArrival) -> visited.add(null));
+
+        assertEquals(requests.subList(1000, 2050), visited);
+    }
+
+    @Test
+    void testView_IsReadOnlySnapshotOfSize() {
+        RequestColumns columns = new RequestColumns();
+        columns.appendAll(List.of(new AllocationRequest(customers.idOf("A"), 1, 1)));
+        RequestColumns.View view = columns.view();
+
+        columns.appendAll(List.of(new AllocationRequest(customers.idOf("B"), 2, 1)));
+
+        assertEquals(1, view.size());
+        assertEquals(2, columns.size());
+        assertThrows(UnsupportedOperationException.class, () -> view.add(new AllocationRequest(customers.idOf("C"), 1, 1)));
+        assertThrows(IndexOutOfBoundsException.class, () -> view.get(1));
+    }
+
+    @Test
+    void testAppendAll_ConcurrentWritersKeepEveryRecord() throws Exception {
+        RequestColumns columns = new RequestColumns();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int writer = t;
+                futures.add(executor.submit(() -> {
+                    for (int batch = 0; batch < 100; batch++) {
+                        List<AllocationRequest> requests = new ArrayList<>();
+                        for (int i = 0; i < 37; i++) {
+                            requests.add(new AllocationRequest(customers.idOf("A"), 1, writer));
+                        }
+                        columns.appendAll(requests);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        RequestColumns.View view = columns.view();
+        int[] perWriter = new int[4];
+        for (int i = 0; i < view.size(); i++) {
+            perWriter[view.priority(i)]++;
+        }
+        assertEquals(4 * 100 * 37, view.size());
+        for (int count : perWriter) {
+            assertEquals(100 * 37, count);
+        }
+    }
+}
@@ -8,10 +8,9 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
-import de.siegmar.fastcsv.reader.CsvReader;
-import de.siegmar.fastcsv.reader.NamedCsvRecord;
-import java.io.StringReader;
-import java.util.Collections;
+import com.example.demo.Constants.CombineMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -19,6 +18,8 @@ import org.mockito.ArgumentCaptor;
 
 class RequestProcessorTest {
 
+    private final CustomerDictionary customers = new CustomerDictionary();
+
     private Storage storage;
     private RequestProcessor processor;
 
@@ -29,11 +30,11 @@ class RequestProcessorTest {
     }
 
     @Test
-    void testProcessRequest_SingleHour() {
+    void testProcessBatch_SingleHour() {
         // 10 calls, 1 hour (10-11), 360s duration -> 10 * 360 / 3600 = 1 agent
-        NamedCsvRecord record = createRecord("CustomerA", "10", "360", "1", "10 AM", "11 AM");
+        String record = row("CustomerA", "10", "360", "1", "10 AM", "11 AM");
 
-        processor.processRequest(Collections.singletonList(record));
+        processor.processBatch(parse(record));
 
         @SuppressWarnings("unchecked")
         ArgumentCaptor<List<AllocationRequest>> captor = ArgumentCaptor.forClass(List.class);
@@ -41,78 +42,84 @@ class RequestProcessorTest {
 
         List<AllocationRequest> requests = captor.getValue();
         assertEquals(1, requests.size());
-        assertEquals("CustomerA", requests.get(0).customer());
+        assertEquals("CustomerA", customers.nameOf(requests.get(0).customerId()));
         assertEquals(1, requests.get(0).agents());
         assertEquals(1, requests.get(0).priority());
     }
 
     @Test
-    void testProcessRequest_MultipleHours() {
+    void testProcessBatch_MultipleHours() {
         // 20 calls, 2 hours (10-12), 360s duration -> 10 calls/hr -> 1 agent
-        NamedCsvRecord record = createRecord("CustomerB", "20", "360", "2", "10 AM", "12 PM");
+        String record = row("CustomerB", "20", "360", "2", "10 AM", "12 PM");
 
-        processor.processRequest(Collections.singletonList(record));
+        processor.processBatch(parse(record));
 
-        // Should be called for 10 and 11 (exclusive of 12)
-        verify(storage).storeIntermediateData(eq(10), anyList());
-        verify(storage).storeIntermediateData(eq(11), anyList());
-        verify(storage, times(2)).storeIntermediateData(anyInt(), anyList());
+        // One interval request for hours 10 and 11 (exclusive of 12), stored under the hour it starts in
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AllocationRequest>> captor = ArgumentCaptor.forClass(List.class);
+        verify(storage).storeIntermediateData(eq(10), captor.capture());
+        verify(storage, times(1)).storeIntermediateData(anyInt(), anyList());
+        assertEquals(List.of(new AllocationRequest(customers.idOf("CustomerB"), 1, 2, 1, TimeBuckets.HOURLY.span(0, 2))),
+            captor.getValue());
     }
 
     @Test
-    void testProcessRequest_TimeParsingEdgeCases() {
+    void testProcessBatch_TimeParsingEdgeCases() {
         // 13 calls, 13 hours (0-13), 3600s duration -> 1 call/hr -> 1 agent
-        NamedCsvRecord record = createRecord("CustomerC", "13", "3600", "1", "12 AM", "1 PM");
+        String record = row("CustomerC", "13", "3600", "1", "12 AM", "1 PM");
 
-        processor.processRequest(Collections.singletonList(record));
+        processor.processBatch(parse(record));
 
         // Should cover 0 (12 AM) to 12 (1 PM exclusive)
-        verify(storage).storeIntermediateData(eq(0), anyList());
-        verify(storage).storeIntermediateData(eq(12), anyList());
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AllocationRequest>> captor = ArgumentCaptor.forClass(List.class);
+        verify(storage).storeIntermediateData(eq(0), captor.capture());
+        verify(storage, times(1)).storeIntermediateData(anyInt(), anyList());
+        assertEquals(0, TimeBuckets.HOURLY.startOf(captor.getValue().get(0).span()));
+        assertEquals(13, TimeBuckets.HOURLY.endOf(captor.getValue().get(0).span()));
     }
 
     @Test
-    void testProcessRequest_MultipleRecords_MixedTimes() {
+    void testProcessBatch_MultipleRecords_MixedTimes() {
         // Rec1: 10 calls, 1 hr, 360s -> 1 agent
-        NamedCsvRecord record1 = createRecord("CustomerA", "10", "360", "1", "10 AM", "11 AM");
+        String record1 = row("CustomerA", "10", "360", "1", "10 AM", "11 AM");
         // Rec2: 20 calls, 1 hr, 360s -> 2 agents
-        NamedCsvRecord record2 = createRecord("CustomerB", "20", "360", "2", "11 AM", "12 PM");
+        String record2 = row("CustomerB", "20", "360", "2", "11 AM", "12 PM");
         // Rec3: 30 calls, 2 hrs, 360s -> 15 calls/hr -> ceil(1.5) = 2 agents
-        NamedCsvRecord record3 = createRecord("CustomerC", "30", "360", "3", "10 AM", "12 PM");
+        String record3 = row("CustomerC", "30", "360", "3", "10 AM", "12 PM");
 
-        processor.processRequest(List.of(record1, record2, record3));
+        processor.processBatch(parse(record1, record2, record3));
 
-        // Hour 10: CustomerA (10-11), CustomerC (10-12)
+        // Starting in hour 10: CustomerA (10-11), CustomerC (10-12)
         @SuppressWarnings("unchecked")
         ArgumentCaptor<List<AllocationRequest>> captor10 = ArgumentCaptor.forClass(List.class);
         verify(storage).storeIntermediateData(eq(10), captor10.capture());
         List<AllocationRequest> requests10 = captor10.getValue();
         assertEquals(2, requests10.size());
-        assertEquals("CustomerA", requests10.get(0).customer());
+        assertEquals("CustomerA", customers.nameOf(requests10.get(0).customerId()));
         assertEquals(1, requests10.get(0).agents());
-        assertEquals("CustomerC", requests10.get(1).customer());
+        assertEquals("CustomerC", customers.nameOf(requests10.get(1).customerId()));
         assertEquals(2, requests10.get(1).agents());
+        assertEquals(TimeBuckets.HOURLY.span(0, 2), requests10.get(1).span());
 
-        // Hour 11: CustomerB (11-12), CustomerC (10-12)
+        // Starting in hour 11: CustomerB (11-12)
         @SuppressWarnings("unchecked")
         ArgumentCaptor<List<AllocationRequest>> captor11 = ArgumentCaptor.forClass(List.class);
         verify(storage).storeIntermediateData(eq(11), captor11.capture());
         List<AllocationRequest> requests11 = captor11.getValue();
-        assertEquals(2, requests11.size());
-        assertEquals("CustomerB", requests11.get(0).customer());
+        assertEquals(1, requests11.size());
+        assertEquals("CustomerB", customers.nameOf(requests11.get(0).customerId()));
         assertEquals(2, requests11.get(0).agents());
-        assertEquals("CustomerC", requests11.get(1).customer());
-        assertEquals(2, requests11.get(1).agents());
     }
 
     @Test
-    void testProcessRequest_InvalidRecord() {
+    void testProcessBatch_InvalidRecord() {
         // Valid record
-        NamedCsvRecord validRecord = createRecord("CustomerA", "10", "360", "1", "10 AM", "11 AM");
-        // Invalid record (NumberFormatException for calls)
-        NamedCsvRecord invalidRecord = createRecord("CustomerB", "invalid", "360", "1", "10 AM", "11 AM");
+        String validRecord = row("CustomerA", "10", "360", "1", "10 AM", "11 AM");
+        // Invalid record (calls is not a number), which the parser leaves out
+        String invalidRecord = row("CustomerB", "invalid", "360", "1", "10 AM", "11 AM");
 
-        processor.processRequest(List.of(validRecord, invalidRecord));
+        processor.processBatch(parse(validRecord, invalidRecord));
 
         // Should process the valid one
         @SuppressWarnings("unchecked")
@@ -121,18 +128,141 @@ class RequestProcessorTest {
 
         List<AllocationRequest> requests = captor.getValue();
         assertEquals(1, requests.size());
-        assertEquals("CustomerA", requests.get(0).customer());
+        assertEquals("CustomerA", customers.nameOf(requests.get(0).customerId()));
     }
 
-    private NamedCsvRecord createRecord(String customer, String numCalls, String avgDuration, String priority, String startTime, String endTime) {
-        String headers = String.join(",", Constants.CUSTOMER_COLUMN, Constants.NUM_CALLS, Constants.AVG_CALL_DURATION_SEC, Constants.PRIORITY, Constants.START_TIME, Constants.END_TIME);
-        String values = String.join(",", customer, numCalls, avgDuration, priority, startTime, endTime);
-        
-        try (CsvReader<NamedCsvRecord> reader = CsvReader.builder().ofNamedCsvRecord(new StringReader(headers + "\n" + values))) {
-            return reader.stream().findFirst().orElseThrow();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    @Test
+    void testProcessBatch_CombinesIdenticalRequests() {
+        String record1 = row("CustomerA", "10", "360", "1", "10 AM", "11 AM");
+        String record2 = row("CustomerA", "10", "360", "1", "10 AM", "11 AM");
+
+        RequestBatch batch = parse(record1, record2);
+        processor.processBatch(batch);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AllocationRequest>> captor = ArgumentCaptor.forClass(List.class);
+        verify(storage).storeIntermediateData(eq(10), captor.capture());
+        // The run keeps the first and last row's arrival.
+        assertEquals(List.of(new AllocationRequest(customers.idOf("CustomerA"), 1, 1, 2, TimeBuckets.WHOLE_HOUR, 0, batch.offset(1))),
+            captor.getValue());
     }
 
+    @Test
+    void testProcessBatch_NoCombining() {
+        processor = new RequestProcessor(storage, 1.0f, CombineMode.NONE, null);
+        String record1 = row("CustomerA", "10", "360", "1", "10 AM", "11 AM");
+        String record2 = row("CustomerA", "10", "360", "1", "10 AM", "11 AM");
+
+        processor.processBatch(parse(record1, record2));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AllocationRequest>> captor = ArgumentCaptor.forClass(List.class);
+        verify(storage).storeIntermediateData(eq(10), captor.capture());
+        assertEquals(2, captor.getValue().size());
+    }
+
+    @Test
+    void testProcessBatch_GlobalCombiningDefersStorage() {
+        DemandCombiner globalCombiner = new DemandCombiner();
+        processor = new RequestProcessor(storage, 1.0f, CombineMode.GLOBAL, globalCombiner);
+
+        processor.processBatch(parse(row("CustomerA", "10", "360", "1", "10 AM", "11 AM")));
+        processor.processBatch(parse(row("CustomerA", "10", "360", "1", "10 AM", "11 AM")));
+        verify(storage, times(0)).storeIntermediateData(anyInt(), anyList());
+
+        globalCombiner.flush(storage);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AllocationRequest>> captor = ArgumentCaptor.forClass(List.class);
+        verify(storage).storeIntermediateData(eq(10), captor.capture());
+        assertEquals(List.of(new AllocationRequest(customers.idOf("CustomerA"), 1, 1, 2)), captor.getValue());
+        assertEquals(0, globalCombiner.size());
+    }
+
+    @Test
+    void testProcessBatch_WorkerCombiningAddsToOwnCombiner() {
+        DemandCombiner workerCombiner = new DemandCombiner();
+        processor = new RequestProcessor(storage, 1.0f, CombineMode.WORKER, workerCombiner);
+
+        processor.processBatch(parse(row("CustomerA", "10", "360", "1", "10 AM", "12 PM")));
+
+        verify(storage, times(0)).storeIntermediateData(anyInt(), anyList());
+        assertEquals(1, workerCombiner.size());
+    }
+
+    @Test
+    void testProcessBatch_QuarterHourBuckets() {
+        TimeBuckets quarters = new TimeBuckets(15);
+        processor = new RequestProcessor(storage, 1.0f, CombineMode.BATCH, null, quarters);
+        // 10 calls over 10:15-10:45 (2 buckets), 180s -> 5 calls * 180 / 900 = 1 agent
+        String record = row("CustomerA", "10", "180", "1", "10:15 AM", "10:45 AM");
+
+        processor.processBatch(parse(record));
+
+        // One interval request for the hour, stored under its first bucket.
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AllocationRequest>> captor = ArgumentCaptor.forClass(List.class);
+        verify(storage).storeIntermediateData(eq(40), captor.capture());
+        verify(storage, times(1)).storeIntermediateData(anyInt(), anyList());
+        assertEquals(List.of(new AllocationRequest(customers.idOf("CustomerA"), 1, 1, 1, quarters.span(1, 3))), captor.getValue());
+    }
+
+    @Test
+    void testProcessBatch_UncombinedRowIsStoredOnce() {
+        TimeBuckets minutes = new TimeBuckets(1);
+        processor = new RequestProcessor(storage, 1.0f, CombineMode.NONE, null, minutes);
+        // 10:15-11:30 covers 75 one-minute buckets in two hours.
+        String record = row("CustomerA", "75", "60", "1", "10:15 AM", "11:30 AM");
+
+        processor.processBatch(parse(record));
+
+        // One interval request, stored under the hour it starts in and reaching into the next.
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AllocationRequest>> captor = ArgumentCaptor.forClass(List.class);
+        verify(storage).storeIntermediateData(eq(600), captor.capture());
+        verify(storage, times(1)).storeIntermediateData(anyInt(), anyList());
+        int customerId = customers.idOf("CustomerA");
+        assertEquals(List.of(new AllocationRequest(customerId, 1, 1, 1, minutes.span(15, 90))), captor.getValue());
+    }
+
+    @Test
+    void testProcessBatch_DeferredUtilizationStoresLoadIds() {
+        LoadDictionary loads = new LoadDictionary();
+        processor = new RequestProcessor(storage, 0.5f, CombineMode.BATCH, null, TimeBuckets.HOURLY, loads);
+        // 50 calls over 2 hours at 360s -> 25 * 360 / 3600 = 2.5 agents before utilization.
+        String record1 = row("CustomerA", "50", "360", "1", "10 AM", "12 PM");
+        String record2 = row("CustomerB", "25", "360", "2", "11 AM", "12 PM");
+
+        RequestBatch batch = parse(record1, record2);
+        processor.processBatch(batch);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AllocationRequest>> first = ArgumentCaptor.forClass(List.class);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AllocationRequest>> second = ArgumentCaptor.forClass(List.class);
+        verify(storage).storeIntermediateData(eq(10), first.capture());
+        verify(storage).storeIntermediateData(eq(11), second.capture());
+        int loadId = first.getValue().get(0).agents();
+        assertEquals(List.of(new AllocationRequest(customers.idOf("CustomerA"), loadId, 1, 1, TimeBuckets.HOURLY.span(0, 2))),
+            first.getValue());
+        assertEquals(List.of(new AllocationRequest(customers.idOf("CustomerB"), loadId, 2, 1, TimeBuckets.WHOLE_HOUR, batch.offset(1),
+            batch.offset(1))), second.getValue());
+        assertEquals(2.5, loads.loadOf(loadId));
+        assertEquals(1, loads.size());
+        assertEquals(2, loads.agents(loadId, 0.7f));
+        assertEquals(3, loads.agents(loadId, 1.0f));
+    }
+
+    private static String row(String customer, String numCalls, String avgDuration, String priority, String startTime, String endTime) {
+        return String.join(",", customer, numCalls, avgDuration, priority, startTime, endTime);
+    }
+
+    /** Parses the rows into a batch as the ingest paths do, so rows arrive at their byte offsets. */
+    private RequestBatch parse(String... rows) {
+        String header = String.join(",", Constants.CUSTOMER_COLUMN, Constants.NUM_CALLS, Constants.AVG_CALL_DURATION_SEC,
+            Constants.PRIORITY, Constants.START_TIME, Constants.END_TIME);
+        byte[] bytes = (String.join("\n", rows) + "\n").getBytes(StandardCharsets.UTF_8);
+        RequestBatch batch = new RequestBatch(rows.length);
+        CsvBatchParser.forHeader(header, customers).parse(ByteBuffer.wrap(bytes), 0, bytes.length, true, batch);
+        return batch;
+    }
 }
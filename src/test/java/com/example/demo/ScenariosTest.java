@@ -0,0 +1,44 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class ScenariosTest {
+
+    @Test
+    void testParse_PairsInOrderWithoutDuplicates() {
+        assertEquals(List.of(new Scenarios.Scenario(0.9f, 500), new Scenarios.Scenario(0.7f, 0), new Scenarios.Scenario(1.0f, 500)),
+            Scenarios.parse("0.9:500, 0.7:0,1:500,0.9:500"));
+    }
+
+    @Test
+    void testParse_RejectsInvalidScenarios() {
+        assertThrows(IllegalArgumentException.class, () -> Scenarios.parse("0:500"));
+        assertThrows(IllegalArgumentException.class, () -> Scenarios.parse("1.1:500"));
+        assertThrows(IllegalArgumentException.class, () -> Scenarios.parse("0.8:-1"));
+        assertThrows(IllegalArgumentException.class, () -> Scenarios.parse("0.8"));
+        assertThrows(IllegalArgumentException.class, () -> Scenarios.parse("0.8:abc"));
+    }
+
+    @Test
+    void testOfBuckets_OneSchedulePerScenario() {
+        ScheduleBucket early7 = new ScheduleBucket(10, 5, Map.of("A", 5), Map.of("A", 6), Map.of("A", 1), 0);
+        ScheduleBucket early9 = new ScheduleBucket(10, 8, Map.of("A", 8), Map.of("A", 8), Map.of("A", 1), 0);
+        ScheduleBucket late7 = new ScheduleBucket(11, 4, Map.of("B", 4), Map.of("B", 4), Map.of("B", 2), 0);
+        ScheduleBucket late9 = new ScheduleBucket(11, 5, Map.of("B", 5), Map.of("B", 5), Map.of("B", 2), 0);
+
+        Scenarios scenarios = Scenarios.ofBuckets(List.of(new Scenarios.Scenario(0.7f, 5), new Scenarios.Scenario(0.9f, 0)),
+            List.of(List.of(early7, early9), List.of(late7, late9)));
+
+        assertEquals(2, scenarios.size());
+        assertEquals(new Scenarios.Scenario(0.9f, 0), scenarios.scenario(1));
+        assertEquals(List.of(early7, late7), scenarios.schedule(0));
+        assertEquals(List.of(early9, late9), scenarios.schedule(1));
+        assertEquals(1, scenarios.throttledBuckets(0));
+        assertEquals(0, scenarios.throttledBuckets(1));
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.demo.Constants.CombineMode;
+import com.example.demo.Constants.IngestMode;
+import com.example.demo.IngestController.Bounds;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ScheduleCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testKey_DependsOnContentsAndSettings() throws IOException {
+        ScheduleCache cache = new ScheduleCache(tempDir.resolve("cache"), 1 << 20);
+        Path input = Files.writeString(tempDir.resolve("a.csv"), "header\nrow\n");
+        Path copy = Files.writeString(tempDir.resolve("b.csv"), "header\nrow\n");
+        ScheduleCache.Key key = cache.key(input, settings(1.0f, 10, TimeBuckets.HOURLY));
+
+        assertEquals(key, cache.key(copy, settings(1.0f, 10, TimeBuckets.HOURLY)));
+        assertNotEquals(key, cache.key(input, settings(0.8f, 10, TimeBuckets.HOURLY)));
+        assertNotEquals(key, cache.key(input, settings(1.0f, 11, TimeBuckets.HOURLY)));
+        assertNotEquals(key, cache.key(input, settings(1.0f, 10, new TimeBuckets(15))));
+        Bounds batchSizes = ControlPlaneScheduler.DEFAULT_BATCH_SIZE_BOUNDS;
+        assertNotEquals(key, cache.key(input, new ScheduleCache.Settings(1.0f, 10, TimeBuckets.HOURLY, CombineMode.NONE, IngestMode.STREAM, batchSizes)));
+        assertNotEquals(key, cache.key(input, new ScheduleCache.Settings(1.0f, 10, TimeBuckets.HOURLY, CombineMode.BATCH, IngestMode.MAPPED, batchSizes)));
+        assertNotEquals(key, cache.key(input, new ScheduleCache.Settings(1.0f, 10, TimeBuckets.HOURLY, CombineMode.BATCH, IngestMode.STREAM, new Bounds(5000, 5000))));
+
+        Files.writeString(input, "header\nother row\n");
+        assertNotEquals(key, cache.key(input, settings(1.0f, 10, TimeBuckets.HOURLY)));
+    }
+
+    @Test
+    void testGet_ReturnsScheduleStoredByEarlierInstance() throws IOException {
+        Path input = Files.writeString(tempDir.resolve("a.csv"), "header\nrow\n");
+        ScheduleCache cache = new ScheduleCache(tempDir.resolve("cache"), 1 << 20);
+        ScheduleCache.Key key = cache.key(input, settings(1.0f, 10, TimeBuckets.HOURLY));
+        assertNull(cache.get(key));
+        cache.put(key, List.of(bucket(3)));
+
+        ScheduleCache reopened = new ScheduleCache(tempDir.resolve("cache"), 1 << 20);
+
+        assertEquals(List.of(bucket(3)), reopened.get(reopened.key(input, settings(1.0f, 10, TimeBuckets.HOURLY))));
+        assertEquals(1, reopened.size());
+    }
+
+    @Test
+    void testPut_EvictsLeastRecentlyUsed() throws IOException {
+        Path input = Files.writeString(tempDir.resolve("a.csv"), "header\nrow\n");
+        ScheduleCache sizing = new ScheduleCache(tempDir.resolve("sizing"), 1 << 20);
+        sizing.put(sizing.key(input, settings(1.0f, 0, TimeBuckets.HOURLY)), List.of(bucket(0)));
+        // Room for two schedules of this size.
+        ScheduleCache cache = new ScheduleCache(tempDir.resolve("cache"), 2 * sizing.bytes());
+        ScheduleCache.Key first = cache.key(input, settings(1.0f, 1, TimeBuckets.HOURLY));
+        ScheduleCache.Key second = cache.key(input, settings(1.0f, 2, TimeBuckets.HOURLY));
+        ScheduleCache.Key third = cache.key(input, settings(1.0f, 3, TimeBuckets.HOURLY));
+        cache.put(first, List.of(bucket(1)));
+        cache.put(second, List.of(bucket(2)));
+        // Using the first schedule makes the second the least recently used.
+        assertEquals(List.of(bucket(1)), cache.get(first));
+
+        cache.put(third, List.of(bucket(3)));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get(second));
+        assertFalse(Files.exists(cache.schedulePath(second.id())));
+        ScheduleCache reopened = new ScheduleCache(tempDir.resolve("cache"), 2 * sizing.bytes());
+        assertEquals(List.of(bucket(1)), reopened.get(first));
+        assertEquals(List.of(bucket(3)), reopened.get(third));
+    }
+
+    @Test
+    void testGet_DropsUnreadableSchedule() throws IOException {
+        Path input = Files.writeString(tempDir.resolve("a.csv"), "header\nrow\n");
+        ScheduleCache cache = new ScheduleCache(tempDir.resolve("cache"), 1 << 20);
+        ScheduleCache.Key key = cache.key(input, settings(1.0f, 10, TimeBuckets.HOURLY));
+        cache.put(key, List.of(bucket(3)));
+        Files.write(cache.schedulePath(key.id()), new byte[] {0, 0, 0, 5});
+
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+        assertTrue(cache.summary().contains("0 hits"), cache.summary());
+    }
+
+    private static ScheduleBucket bucket(int hour) {
+        Map<String, Integer> allocations = Map.of("CustomerA", 5);
+        return new ScheduleBucket(hour, 5, allocations, allocations, Map.of("CustomerA", 1));
+    }
+
+    private static ScheduleCache.Settings settings(float utilization, int capacity, TimeBuckets buckets) {
+        return new ScheduleCache.Settings(utilization, capacity, buckets, CombineMode.BATCH, IngestMode.STREAM,
+            ControlPlaneScheduler.DEFAULT_BATCH_SIZE_BOUNDS);
+    }
+}
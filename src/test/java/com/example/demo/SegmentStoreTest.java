@@ -0,0 +1,268 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SegmentStoreTest {
+
+    private final CustomerDictionary customers = new CustomerDictionary();
+
+    @TempDir
+    Path tempDir;
+
+    private SegmentStore store;
+
+    @AfterEach
+    void tearDown() {
+        if (store != null) {
+            store.delete();
+        }
+    }
+
+    @Test
+    void testAppend_SubHourBucketsShareTheirHourSegment() throws Exception {
+        store = new SegmentStore(tempDir, "test", new TimeBuckets(15));
+        store.append(40, List.of(new AllocationRequest(customers.idOf("A"), 1, 1)));
+        store.append(41, List.of(new AllocationRequest(customers.idOf("B"), 2, 1, 3)));
+        store.append(44, List.of(new AllocationRequest(customers.idOf("C"), 3, 2)));
+
+        assertEquals(List.of(new AllocationRequest(customers.idOf("A"), 1, 1)), store.read(40));
+        assertEquals(List.of(new AllocationRequest(customers.idOf("B"), 2, 1, 3)), store.read(41));
+        assertTrue(store.read(42).isEmpty());
+        List<AllocationRequest> visited = new ArrayList<>();
+        store.forEach(41, (customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+            visited.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+        assertEquals(List.of(new AllocationRequest(customers.idOf("B"), 2, 1, 3)), visited);
+        assertEquals(2, store.openFiles());
+        assertTrue(Files.exists(store.segmentPath(10)));
+        assertTrue(Files.exists(store.segmentPath(11)));
+    }
+
+    @Test
+    void testAppend_ConcurrentWritersReserveSeparateRegions() throws Exception {
+        store = new SegmentStore(tempDir, "test", TimeBuckets.HOURLY);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int writer = t;
+                futures.add(executor.submit(() -> {
+                    for (int batch = 0; batch < 50; batch++) {
+                        List<AllocationRequest> requests = new ArrayList<>();
+                        for (int i = 0; i < 20; i++) {
+                            requests.add(new AllocationRequest(customers.idOf("A"), batch, writer));
+                        }
+                        store.append(7, requests);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<AllocationRequest> requests = store.read(7);
+        assertEquals(4 * 50 * 20, requests.size());
+        int[] perWriter = new int[4];
+        for (AllocationRequest request : requests) {
+            perWriter[request.priority()]++;
+        }
+        for (int count : perWriter) {
+            assertEquals(50 * 20, count);
+        }
+        assertEquals(200, store.blockCount(7));
+    }
+
+    @Test
+    void testCompact_MergesSmallBlocks() throws Exception {
+        store = new SegmentStore(tempDir, "test", TimeBuckets.HOURLY);
+        List<AllocationRequest> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            AllocationRequest request = new AllocationRequest(customers.idOf("A"), i, 1);
+            store.append(3, List.of(request));
+            expected.add(request);
+        }
+        store.append(4, List.of(new AllocationRequest(customers.idOf("B"), 1, 1)));
+
+        assertEquals(1, store.compact());
+
+        assertEquals(1, store.blockCount(3));
+        assertEquals(expected, store.read(3));
+        assertEquals(List.of(new AllocationRequest(customers.idOf("B"), 1, 1)), store.read(4));
+        // One header and one dictionary entry instead of a hundred of each.
+        long compactedBytes = Files.size(store.segmentPath(3));
+        assertTrue(compactedBytes < SegmentStore.HEADER_BYTES + 100 * 8, "compacted to " + compactedBytes);
+        // A segment that is already one block per bucket is left alone.
+        assertEquals(0, store.compact());
+    }
+
+    @Test
+    void testPartitions_ReadOnePriorityBeforeAndAfterCompaction() throws Exception {
+        store = new SegmentStore(tempDir, "test", TimeBuckets.HOURLY);
+        List<AllocationRequest> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            store.appendAsync(3, 1, List.of(new AllocationRequest(customers.idOf("A"), i, 1)));
+            AllocationRequest request = new AllocationRequest(customers.idOf("B"), i, 2);
+            store.appendAsync(3, 2, List.of(request));
+            expected.add(request);
+        }
+
+        assertEquals(expected, visit(3, 2));
+        assertEquals(1, store.compact());
+
+        // Compaction keeps the partitions apart: one block each.
+        assertEquals(2, store.blockCount(3));
+        assertEquals(expected, visit(3, 2));
+        assertEquals(50, visit(3, 1).size());
+        assertEquals(100, store.read(3).size());
+        assertEquals(0, store.compact());
+    }
+
+    @Test
+    void testPartitions_BucketWithUnpartitionedBlocksIsFiltered() throws Exception {
+        store = new SegmentStore(tempDir, "test", TimeBuckets.HOURLY);
+        store.appendAsync(3, 2, List.of(new AllocationRequest(customers.idOf("A"), 1, 2)));
+        store.append(3, List.of(new AllocationRequest(customers.idOf("B"), 2, 2), new AllocationRequest(customers.idOf("C"), 3, 1)));
+
+        assertEquals(List.of(new AllocationRequest(customers.idOf("A"), 1, 2), new AllocationRequest(customers.idOf("B"), 2, 2)), visit(3, 2));
+        assertTrue(visit(3, 5).isEmpty());
+    }
+
+    @Test
+    void testSlices_SplitTheBlocksInFileOrder() throws Exception {
+        store = new SegmentStore(tempDir, "test", TimeBuckets.HOURLY);
+        List<AllocationRequest> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            List<AllocationRequest> block = List.of(new AllocationRequest(customers.idOf("A"), i, 1), new AllocationRequest(customers.idOf("B"), i, 2));
+            store.append(3, block);
+            store.append(4, List.of(new AllocationRequest(customers.idOf("C"), i, 1)));
+            expected.addAll(block);
+        }
+
+        List<AllocationRequest> visited = new ArrayList<>();
+        for (int slice = 0; slice < 4; slice++) {
+            int before = visited.size();
+            store.forEachSlice(3, slice, 4, (customerId, agents, priority, count, span, firstArrival, lastArrival) ->
+                visited.add(new AllocationRequest(customerId, agents, priority, count, span, firstArrival, lastArrival)));
+            // Slices hold whole blocks: two or three of the ten.
+            assertTrue(visited.size() - before == 4 || visited.size() - before == 6);
+        }
+
+        assertEquals(expected, visited);
+        // Estimated from the bytes each bucket's blocks span.
+        assertTrue(store.estimatedRecords(3) > store.estimatedRecords(4));
+        assertTrue(store.estimatedRecords(4) > 0);
+        assertEquals(0, store.estimatedRecords(5));
+    }
+
+    @Test
+    void testWriteQueue_CoalescesAdjacentBlocksAndReadsWaitForThem() throws Exception {
+        store = new SegmentStore(tempDir, "test", TimeBuckets.HOURLY);
+        store.setWriteQueueBytes(1024 * 1024);
+        List<AllocationRequest> expected = new ArrayList<>();
+        List<SegmentStore.Append> appends = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            AllocationRequest request = new AllocationRequest(customers.idOf("A" + (i % 7)), i, i % 3);
+            appends.add(store.appendAsync(5, List.of(request)));
+            expected.add(request);
+        }
+
+        // Reads wait for the queue, so nothing appended is missed.
+        assertEquals(expected, store.read(5));
+        for (SegmentStore.Append append : appends) {
+            assertTrue(append.written().isDone());
+        }
+        WriteQueue queue = store.writeQueue();
+        assertEquals(500, queue.blocksWritten());
+        assertTrue(queue.gatheredWrites() < 500, "gathered writes " + queue.gatheredWrites());
+    }
+
+    @Test
+    void testWriteQueue_SmallBudgetStillWritesEverything() throws Exception {
+        store = new SegmentStore(tempDir, "test", TimeBuckets.HOURLY);
+        // Room for a single buffer, so appending threads keep waiting for the writer.
+        store.setWriteQueueBytes(4 * 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int writer = t;
+                futures.add(executor.submit(() -> {
+                    for (int batch = 0; batch < 50; batch++) {
+                        store.append(writer * 6, List.of(new AllocationRequest(customers.idOf("A"), batch, writer)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        store.flush();
+
+        for (int t = 0; t < 4; t++) {
+            assertEquals(50, store.read(t * 6).size());
+        }
+        assertTrue(store.writeQueue().peakQueuedBytes() <= 4 * 1024);
+    }
+
+    @Test
+    void testStriping_HoursAlternateAcrossDirectories() throws Exception {
+        List<Path> directories = List.of(Files.createDirectory(tempDir.resolve("disk0")), Files.createDirectory(tempDir.resolve("disk1")));
+        store = new SegmentStore(directories, "test", TimeBuckets.HOURLY, new BlockCompressor(BlockCodec.NONE));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int hour = 0; hour < 4; hour++) {
+                final int index = hour;
+                futures.add(executor.submit(() -> {
+                    for (int batch = 0; batch < 20; batch++) {
+                        store.append(index, List.of(new AllocationRequest(customers.idOf("A"), batch, index)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        store.compact();
+
+        for (int hour = 0; hour < 4; hour++) {
+            assertEquals(hour % 2, store.deviceOf(hour));
+            assertEquals(directories.get(hour % 2), store.segmentPath(hour).getParent());
+            assertEquals(20, store.read(hour).size());
+        }
+        try (var files = Files.list(directories.get(1))) {
+            assertEquals(2, files.count());
+        }
+        String summary = store.deviceSummary();
+        assertTrue(summary.startsWith(directories.get(0) + " written "), summary);
+        assertTrue(summary.contains("; " + directories.get(1) + " written "), summary);
+    }
+
+    private List<AllocationRequest> visit(int index, int priority) throws Exception {
+        List<AllocationRequest> visited = new ArrayList<>();
+        store.forEach(index, priority, (customerId, agents, requestPriority, count, span, firstArrival, lastArrival) ->
+            visited.add(new AllocationRequest(customerId, agents, requestPriority, count, span)));
+        return visited;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class SpillEncodingTest {
+
+    private final SpillEncoding encoding = new SpillEncoding();
+
+    @Test
+    void testRoundTrip() throws IOException {
+        List<AllocationRequest> requests = List.of(
+            new AllocationRequest(5000000, 3, 1, 2),
+            new AllocationRequest(7, 0, 2, 1),
+            new AllocationRequest(5000000, -4, -1, Integer.MAX_VALUE),
+            new AllocationRequest(0, Integer.MIN_VALUE, Integer.MAX_VALUE, 1),
+            new AllocationRequest(7, 1, 2, 3, new TimeBuckets(15).span(1, 3)),
+            // Arrivals need not rise from one record to the next.
+            new AllocationRequest(7, 1, 2, 3, TimeBuckets.WHOLE_HOUR, 1L << 40, (1L << 40) + 77),
+            new AllocationRequest(8, 1, 2, 1, TimeBuckets.WHOLE_HOUR, 12, 12));
+
+        assertEquals(requests, roundTrip(17, requests));
+        // Scratch state is reset between blocks.
+        assertEquals(requests.subList(1, 2), roundTrip(3, requests.subList(1, 2)));
+    }
+
+    @Test
+    void testEncode_RepeatedCustomersAreCompact() {
+        List<AllocationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            requests.add(new AllocationRequest(100000 + i % 10, 1 + i % 50, 1 + i % 5, 1));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(SpillEncoding.maxEncodedSize(requests.size()));
+
+        int bytes = encoding.encode(0, requests, buffer);
+
+        // Seven single-byte varints per record plus a small dictionary.
+        assertTrue(bytes < SpillEncoding.HEADER_BYTES + 10 * 3 + 1000 * 8, "encoded to " + bytes);
+    }
+
+    @Test
+    void testReadHeader_RejectsImpossibleCounts() {
+        assertThrows(IOException.class, () -> SpillEncoding.readHeader(header(0, -1, 0, 0), 100));
+        assertThrows(IOException.class, () -> SpillEncoding.readHeader(header(0, 10, 1, 20), 100));
+        assertThrows(IOException.class, () -> SpillEncoding.readHeader(header(0, 1, 2, 20), 100));
+        assertThrows(IOException.class, () -> SpillEncoding.readHeader(header(0, 1, 1, 200), 100));
+    }
+
+    @Test
+    void testDecode_RejectsCorruptPayloads() {
+        // Truncated: the header promises more payload than there is.
+        ByteBuffer truncated = encode(List.of(new AllocationRequest(1, 2, 3)));
+        SpillEncoding.Header header = new SpillEncoding.Header(0, 1, 1, truncated.remaining());
+        truncated.limit(truncated.limit() - 1);
+        assertThrows(IOException.class, () -> encoding.decode(header, truncated, new ArrayList<>()));
+
+        // Record refers to a dictionary entry that does not exist.
+        ByteBuffer badReference = ByteBuffer.wrap(new byte[] {1, 1, 2, 2, 1, 0});
+        assertThrows(IOException.class, () -> encoding.decode(new SpillEncoding.Header(0, 1, 1, 6), badReference, new ArrayList<>()));
+
+        // Varint that never terminates.
+        ByteBuffer overlong = ByteBuffer.wrap(new byte[] {(byte) 0x81, (byte) 0x81, (byte) 0x81, (byte) 0x81, (byte) 0x81, 1});
+        assertThrows(IOException.class, () -> encoding.decode(new SpillEncoding.Header(0, 1, 1, 6), overlong, new ArrayList<>()));
+
+        // Bytes left over after the counted records.
+        ByteBuffer trailing = ByteBuffer.wrap(new byte[] {1, 0, 2, 2, 1, 0, 0, 0, 0});
+        assertThrows(IOException.class, () -> encoding.decode(new SpillEncoding.Header(0, 1, 1, 9), trailing, new ArrayList<>()));
+    }
+
+    private List<AllocationRequest> roundTrip(int bucket, List<AllocationRequest> requests) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SpillEncoding.maxEncodedSize(requests.size()));
+        int bytes = encoding.encode(bucket, requests, buffer);
+        buffer.flip();
+        assertEquals(bytes, buffer.remaining());
+
+        SpillEncoding.Header header = SpillEncoding.readHeader(buffer, buffer.remaining());
+        assertEquals(bucket, header.bucket());
+        assertEquals(requests.size(), header.records());
+        List<AllocationRequest> decoded = new ArrayList<>();
+        new SpillEncoding().decode(header, buffer, decoded);
+        return decoded;
+    }
+
+    /** The payload of an encoded block. */
+    private ByteBuffer encode(List<AllocationRequest> requests) {
+        ByteBuffer buffer = ByteBuffer.allocate(SpillEncoding.maxEncodedSize(requests.size()));
+        encoding.encode(0, requests, buffer);
+        return buffer.flip().position(SpillEncoding.HEADER_BYTES).slice();
+    }
+
+    private static ByteBuffer header(int bucket, int records, int dictionarySize, int payloadBytes) {
+        return ByteBuffer.allocate(SpillEncoding.HEADER_BYTES).putInt(bucket).putInt(records)
+            .putInt(dictionarySize).putInt(payloadBytes).flip();
+    }
+}
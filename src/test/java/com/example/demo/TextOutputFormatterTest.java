@@ -78,4 +78,38 @@ class TextOutputFormatterTest {
         
         assertEquals(expected, outContent.toString());
     }
+
+    @Test
+    void testPrintSweep() {
+        ScheduleBucket throttled = new ScheduleBucket(10, 5, Map.of("A", 5), Map.of("A", 8), Map.of("A", 1));
+        ScheduleBucket healthy = new ScheduleBucket(10, 8, Map.of("A", 8), Map.of("A", 8), Map.of("A", 1));
+
+        formatter.printSweep(new CapacitySweep(new int[] {5, 10}, List.of(List.of(throttled), List.of(healthy))));
+
+        String expected = "capacity=5 : throttled=1 of 1 buckets" + System.lineSeparator() +
+                          "10:00 : total=5; A=5" + System.lineSeparator() +
+                          "capacity=10 : throttled=0 of 1 buckets" + System.lineSeparator() +
+                          "10:00 : total=8; A=8" + System.lineSeparator() +
+                          "Minimum capacity without throttling:" + System.lineSeparator() +
+                          "10:00 : 8" + System.lineSeparator() +
+                          "day : 8" + System.lineSeparator();
+
+        assertEquals(expected, outContent.toString());
+    }
+
+    @Test
+    void testPrintScenarios() {
+        ScheduleBucket throttled = new ScheduleBucket(10, 5, Map.of("A", 5), Map.of("A", 8), Map.of("A", 1));
+        ScheduleBucket healthy = new ScheduleBucket(10, 6, Map.of("A", 6), Map.of("A", 6), Map.of("A", 1));
+
+        formatter.printScenarios(new Scenarios(List.of(new Scenarios.Scenario(1.0f, 5), new Scenarios.Scenario(0.7f, 0)),
+            List.of(List.of(throttled), List.of(healthy))));
+
+        String expected = "utilization=1.0 capacity=5 : throttled=1 of 1 buckets" + System.lineSeparator() +
+                          "10:00 : total=5; A=5" + System.lineSeparator() +
+                          "utilization=0.7 capacity=0 : throttled=0 of 1 buckets" + System.lineSeparator() +
+                          "10:00 : total=6; A=6" + System.lineSeparator();
+
+        assertEquals(expected, outContent.toString());
+    }
 }
@@ -90,4 +90,45 @@ class UiOutputFormatterTest {
                "td { padding: 12px 0; border-bottom: 1px solid #F8FAFC; font-size: 14px; }.unmet { color: #EF4444; font-weight: bold; }</style></head><body><div class='container'>" +
                "<h1>Agent Allocation Dashboard</h1><p>Capacity Constraint: <strong>" + capacity + " Agents</strong></p>";
     }
+
+    @Test
+    void testGenerateSweepHtml() {
+        ScheduleBucket throttled = new ScheduleBucket(10, 5, Map.of("A", 5), Map.of("A", 8), Map.of("A", 1));
+        ScheduleBucket healthy = new ScheduleBucket(10, 8, Map.of("A", 8), Map.of("A", 8), Map.of("A", 1));
+
+        String html = formatter.generateSweepHtml(new CapacitySweep(new int[] {5, 10}, List.of(List.of(throttled), List.of(healthy))));
+
+        String expected = expectedHtmlHeader(0).replace(
+                "<h1>Agent Allocation Dashboard</h1><p>Capacity Constraint: <strong>0 Agents</strong></p>",
+                "<h1>Capacity Sweep</h1><p>Minimum capacity without throttling: <strong>8 Agents</strong></p>") +
+            "<div class='card'><div class='table-container'><table>" +
+            "<tr><th>Time</th><th>Required</th><th>5 (1 throttled)</th><th>10 (0 throttled)</th></tr>" +
+            "<tr><td>10:00 PT</td><td>8</td><td class='unmet'>5</td><td class=''>8</td></tr>" +
+            "</table></div></div>" +
+            "<div class='card'><div class='table-container'><table>" +
+            "<tr><th>Hour</th><th>Minimum Capacity</th></tr>" +
+            "<tr><td>10:00 PT</td><td>8</td></tr>" +
+            "</table></div></div>" +
+            "</div></body></html>";
+        assertEquals(expected, html);
+    }
+
+    @Test
+    void testGenerateScenariosHtml() {
+        ScheduleBucket throttled = new ScheduleBucket(10, 5, Map.of("A", 5), Map.of("A", 8), Map.of("A", 1));
+        ScheduleBucket healthy = new ScheduleBucket(10, 6, Map.of("A", 6), Map.of("A", 6), Map.of("A", 1));
+
+        String html = formatter.generateScenariosHtml(new Scenarios(
+            List.of(new Scenarios.Scenario(1.0f, 5), new Scenarios.Scenario(0.7f, 0)), List.of(List.of(throttled), List.of(healthy))));
+
+        String expected = expectedHtmlHeader(0).replace(
+                "<h1>Agent Allocation Dashboard</h1><p>Capacity Constraint: <strong>0 Agents</strong></p>",
+                "<h1>Scenarios</h1>") +
+            "<div class='card'><div class='table-container'><table>" +
+            "<tr><th>Time</th><th>100% / 5 (1 throttled)</th><th>70% / unlimited (0 throttled)</th></tr>" +
+            "<tr><td>10:00 PT</td><td class='unmet'>5 / 8</td><td class=''>6 / 6</td></tr>" +
+            "</table></div></div>" +
+            "</div></body></html>";
+        assertEquals(expected, html);
+    }
 }
@@ -0,0 +1,57 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+
+class WorkerCombinersTest {
+
+    private static final CustomerDictionary CUSTOMERS = new CustomerDictionary();
+    private static final int A = CUSTOMERS.idOf("A");
+
+    @Test
+    void testLocal_OneCombinerPerThread() throws Exception {
+        WorkerCombiners combiners = new WorkerCombiners(TimeBuckets.HOURLY);
+        DemandCombiner mine = combiners.local();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            DemandCombiner other = executor.submit(combiners::local).get();
+            assertNotSame(mine, other);
+        } finally {
+            executor.shutdown();
+        }
+        assertSame(mine, combiners.local());
+        assertEquals(2, combiners.workers());
+    }
+
+    @Test
+    void testMerge_FoldsAllWorkers() throws Exception {
+        WorkerCombiners combiners = new WorkerCombiners(TimeBuckets.HOURLY);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int t = 0; t < 3; t++) {
+                executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        combiners.local().add(A, 1, 2, 10, 12);
+                    }
+                }).get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        InMemoryStorage storage = new InMemoryStorage();
+
+        DemandCombiner merged = combiners.merge();
+        merged.flush(storage);
+
+        assertEquals(List.of(new AllocationRequest(A, 2, 1, 300, TimeBuckets.HOURLY.span(0, 2))), storage.fetchInterMediateData(10));
+        assertTrue(storage.fetchInterMediateData(11).isEmpty());
+    }
+}
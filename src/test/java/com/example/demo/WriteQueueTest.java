@@ -0,0 +1,68 @@
+package com.example.demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+
+class WriteQueueTest {
+
+    @Test
+    void testAcquire_ReturnsPooledDirectBuffersLimitedToTheSize() throws Exception {
+        WriteQueue queue = new WriteQueue(1024 * 1024);
+        ByteBuffer buffer = queue.acquire(5000);
+        assertTrue(buffer.isDirect());
+        assertEquals(5000, buffer.limit());
+        assertEquals(8192, buffer.capacity());
+        queue.release(buffer, null);
+
+        // The next buffer of the same size class is the one just released.
+        assertSame(buffer, queue.acquire(6000));
+    }
+
+    @Test
+    void testAcquire_WaitsWhileTheBudgetIsUsedUp() throws Exception {
+        WriteQueue queue = new WriteQueue(8 * 1024);
+        ByteBuffer first = queue.acquire(8 * 1024);
+        CompletableFuture<ByteBuffer> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.acquire(100);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> second.get(100, TimeUnit.MILLISECONDS));
+
+        queue.release(first, null);
+
+        assertEquals(100, second.get(5, TimeUnit.SECONDS).limit());
+    }
+
+    @Test
+    void testAwait_WaitsForReleaseAndRethrowsFailure() throws Exception {
+        WriteQueue queue = new WriteQueue(1024 * 1024);
+        ByteBuffer buffer = queue.acquire(100);
+        CompletableFuture<Void> awaited = CompletableFuture.runAsync(() -> {
+            try {
+                queue.awaitIdle();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertFalse(awaited.isDone());
+
+        queue.release(buffer, new IOException("disk full"));
+
+        awaited.get(5, TimeUnit.SECONDS);
+        IOException e = assertThrows(IOException.class, queue::await);
+        assertEquals("disk full", e.getCause().getMessage());
+    }
+}